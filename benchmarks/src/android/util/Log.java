@@ -0,0 +1,124 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package android.util;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replaces the Android log, whose methods are native and not available on the JVM. Messages are
+ * discarded. Takes precedence over the class in android-all, as the benchmark classes come first
+ * on the classpath.
+ */
+public final class Log {
+
+	public static final int VERBOSE = 2;
+	public static final int DEBUG = 3;
+	public static final int INFO = 4;
+	public static final int WARN = 5;
+	public static final int ERROR = 6;
+	public static final int ASSERT = 7;
+
+	/**
+	 * If set, the thread calling {@link #println(int, String, String)} blocks until it is cleared
+	 * again. Allows benchmarks to stall the writer thread of the MAXS log.
+	 */
+	public static volatile boolean sStalled;
+
+	private static volatile long sWritten;
+
+	private Log() {}
+
+	public static int v(String tag, String msg) {
+		return println(VERBOSE, tag, msg);
+	}
+
+	public static int v(String tag, String msg, Throwable tr) {
+		return println(VERBOSE, tag, msg + '\n' + getStackTraceString(tr));
+	}
+
+	public static int d(String tag, String msg) {
+		return println(DEBUG, tag, msg);
+	}
+
+	public static int d(String tag, String msg, Throwable tr) {
+		return println(DEBUG, tag, msg + '\n' + getStackTraceString(tr));
+	}
+
+	public static int i(String tag, String msg) {
+		return println(INFO, tag, msg);
+	}
+
+	public static int i(String tag, String msg, Throwable tr) {
+		return println(INFO, tag, msg + '\n' + getStackTraceString(tr));
+	}
+
+	public static int w(String tag, String msg) {
+		return println(WARN, tag, msg);
+	}
+
+	public static int w(String tag, String msg, Throwable tr) {
+		return println(WARN, tag, msg + '\n' + getStackTraceString(tr));
+	}
+
+	public static int w(String tag, Throwable tr) {
+		return println(WARN, tag, getStackTraceString(tr));
+	}
+
+	public static int e(String tag, String msg) {
+		return println(ERROR, tag, msg);
+	}
+
+	public static int e(String tag, String msg, Throwable tr) {
+		return println(ERROR, tag, msg + '\n' + getStackTraceString(tr));
+	}
+
+	public static int wtf(String tag, String msg) {
+		return println(ASSERT, tag, msg);
+	}
+
+	public static int wtf(String tag, Throwable tr) {
+		return println(ASSERT, tag, getStackTraceString(tr));
+	}
+
+	public static int wtf(String tag, String msg, Throwable tr) {
+		return println(ASSERT, tag, msg + '\n' + getStackTraceString(tr));
+	}
+
+	public static boolean isLoggable(String tag, int level) {
+		return level >= INFO;
+	}
+
+	public static String getStackTraceString(Throwable tr) {
+		if (tr == null) return "";
+		StringWriter sw = new StringWriter();
+		PrintWriter pw = new PrintWriter(sw);
+		tr.printStackTrace(pw);
+		pw.flush();
+		return sw.toString();
+	}
+
+	public static int println(int priority, String tag, String msg) {
+		while (sStalled)
+			LockSupport.parkNanos(1000 * 1000);
+		// Written, so that the message is not optimized away
+		sWritten += msg.length();
+		return msg.length();
+	}
+}
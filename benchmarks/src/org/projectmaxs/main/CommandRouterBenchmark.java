@@ -0,0 +1,122 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.projectmaxs.main.CommandInformation.CommandClashException;
+import org.projectmaxs.shared.mainmodule.ModuleInformation.Command;
+
+/**
+ * Compares routing a command string with {@link CommandRouter} against splitting it and looking up
+ * the pieces in hash maps under a lock, as MAXSService did before. Run with "-prof gc" to see the
+ * allocation rate of each path. Note that the split path does not resolve prefixes like "batt".
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandRouterBenchmark {
+
+	@Param({ "sms send alice Hello, how are you?", "c lookup Bob", "batt", "wifi" })
+	public String mFullCommand;
+
+	private final Map<String, CommandInformation> mCommands =
+			new HashMap<String, CommandInformation>();
+	private final Map<String, String> mShortCommands = new HashMap<String, String>();
+
+	private CommandRouter mCommandRouter;
+	private CommandRouter.Route mRoute;
+
+	@Setup
+	public void setUp() throws CommandClashException {
+		add(new Command("sms", "s", "send", "send", "send", "read"), "module.smssend");
+		add(new Command("contact", "c", "lookup", "lookup", "lookup", "name", "number", "email",
+				"nick"), "module.contactsread");
+		add(new Command("battery", "bat", "status", null, "status"), "module.misc");
+		add(new Command("bluetooth", "bt", "status", null, "status", "enable", "disable"),
+				"module.bluetooth");
+		add(new Command("wifi", "w", "status", null, "status", "enable", "disable", "scan"),
+				"module.wifiaccess");
+		add(new Command("ringer", "r", "show", "set", "show", "set", "silent", "vibrate",
+				"normal"), "module.ringermode");
+		add(new Command("clipboard", "clip", "show", "set", "show", "set"),
+				"module.clipboard");
+		add(new Command("notification", "n", null, null, "list", "dismiss"),
+				"module.notification");
+
+		mCommandRouter = CommandRouter.compile(mCommands.values(), mShortCommands);
+		mRoute = new CommandRouter.Route();
+	}
+
+	@Benchmark
+	public void route(Blackhole blackhole) {
+		CommandRouter.Route route = mCommandRouter.route(mFullCommand, mRoute);
+		blackhole.consume(route.getCommandInformation());
+		blackhole.consume(route.getSubCommand());
+	}
+
+	@Benchmark
+	public void routeAndArgs(Blackhole blackhole) {
+		CommandRouter.Route route = mCommandRouter.route(mFullCommand, mRoute);
+		blackhole.consume(route.getCommandInformation());
+		blackhole.consume(route.getSubCommand());
+		blackhole.consume(route.getArgs());
+	}
+
+	@Benchmark
+	public void split(Blackhole blackhole) {
+		String[] splitedFullCommand = mFullCommand.split(" ", 3);
+		String command = splitedFullCommand[0].toLowerCase(Locale.US);
+		String subCmd = null;
+		if (splitedFullCommand.length > 1) subCmd = splitedFullCommand[1].toLowerCase(Locale.US);
+		String args = null;
+		if (splitedFullCommand.length > 2) args = splitedFullCommand[2];
+
+		CommandInformation ci = get(command);
+		blackhole.consume(ci);
+		if (ci != null && subCmd != null) blackhole.consume(ci.isKnownSubCommand(subCmd));
+		blackhole.consume(args);
+	}
+
+	/**
+	 * The former ModuleRegistry.get().
+	 */
+	private synchronized CommandInformation get(String command) {
+		command = mShortCommands.containsKey(command) ? mShortCommands.get(command) : command;
+		return mCommands.get(command);
+	}
+
+	private void add(Command command, String modulePackage) throws CommandClashException {
+		CommandInformation ci = new CommandInformation(command.getCommand());
+		ci.addSubAndDefCommands(command, modulePackage);
+		mCommands.put(command.getCommand(), ci);
+		mShortCommands.put(command.getShortCommand(), command.getCommand());
+	}
+}
@@ -0,0 +1,130 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.projectmaxs.shared.global.jul.JULHandler;
+
+/**
+ * Measures the cost of a log call for the calling thread: a debug message with debug logging
+ * disabled, the same message with debug logging enabled, a message logged with java.util.logging
+ * as Smack does, and a message that is dropped because the ring buffer of {@link AsyncLogWriter}
+ * is full. The log settings are static, so every benchmark configures them with a state of its
+ * own. JMH runs each benchmark in its own fork.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LogBenchmark {
+
+	private static final String MESSAGE = "processCommand: command='battery' subCmd='status'";
+
+	/**
+	 * More than the capacity of the ring buffer.
+	 */
+	private static final int SATURATING_MESSAGES = 4096;
+
+	private static final Log LOG = Log.getLog();
+
+	private static final Log.DebugLogSettings DEBUG_LOG_DISABLED = new Log.DebugLogSettings() {
+		@Override
+		public boolean isDebugLogEnabled() {
+			return false;
+		}
+	};
+
+	private static final Log.DebugLogSettings DEBUG_LOG_ENABLED = new Log.DebugLogSettings() {
+		@Override
+		public boolean isDebugLogEnabled() {
+			return true;
+		}
+	};
+
+	@State(Scope.Benchmark)
+	public static class DebugDisabled {
+		@Setup
+		public void setUp() {
+			LOG.initialize(DEBUG_LOG_DISABLED);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class DebugEnabled {
+		@Setup
+		public void setUp() {
+			LOG.initialize(DEBUG_LOG_ENABLED);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class JavaUtilLogging {
+		final Logger mLogger = Logger.getLogger(LogBenchmark.class.getName());
+
+		@Setup
+		public void setUp() {
+			// Initializing JULHandler installs it as handler of the root logger
+			JULHandler.init(DEBUG_LOG_ENABLED);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Saturated {
+		@Setup
+		public void setUp() {
+			LOG.initialize(DEBUG_LOG_ENABLED);
+			// The writer thread blocks on the first message, the others fill the buffer
+			android.util.Log.sStalled = true;
+			for (int i = 0; i < SATURATING_MESSAGES; i++)
+				LOG.i(MESSAGE);
+		}
+
+		@TearDown
+		public void tearDown() {
+			android.util.Log.sStalled = false;
+		}
+	}
+
+	@Benchmark
+	public void debugDisabled(DebugDisabled state) {
+		LOG.d(MESSAGE);
+	}
+
+	@Benchmark
+	public void enabled(DebugEnabled state) {
+		LOG.d(MESSAGE);
+	}
+
+	@Benchmark
+	public void javaUtilLogging(JavaUtilLogging state) {
+		state.mLogger.fine(MESSAGE);
+	}
+
+	@Benchmark
+	public void saturated(Saturated state) {
+		LOG.d(MESSAGE);
+	}
+}
@@ -0,0 +1,129 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.transport.transform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.messagecontent.AbstractElement;
+import org.projectmaxs.shared.global.messagecontent.CommandHelp;
+import org.projectmaxs.shared.global.messagecontent.CommandHelp.ArgType;
+import org.projectmaxs.shared.global.messagecontent.Contact;
+import org.projectmaxs.shared.global.messagecontent.Element;
+import org.projectmaxs.shared.global.messagecontent.Text;
+
+/**
+ * Renders messages whose element trees consist of 10 to 10,000 nodes, as the replies of the help,
+ * contact and SMS commands do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageRendererBenchmark {
+
+	/**
+	 * The number of elements, including the child elements.
+	 */
+	@Param({ "10", "100", "1000", "10000" })
+	public int mNodes;
+
+	private List<AbstractElement> mElements;
+	private Message mCachedMessage;
+
+	@Setup
+	public void setUp() {
+		mElements = newElements(mNodes);
+		mCachedMessage = new Message(mElements);
+		MessageRenderer.render(mCachedMessage);
+	}
+
+	/**
+	 * Render a message that was not rendered before, like every message sent to a single
+	 * recipient.
+	 */
+	@Benchmark
+	public MessageRenderer.Rendered render() {
+		return MessageRenderer.render(new Message(mElements));
+	}
+
+	/**
+	 * Render an already rendered message, like a message sent to further recipients.
+	 */
+	@Benchmark
+	public MessageRenderer.Rendered renderCached() {
+		return MessageRenderer.render(mCachedMessage);
+	}
+
+	/**
+	 * Serialize the message to XML, for comparison with another traversal of the same tree.
+	 */
+	@Benchmark
+	public String toXML() {
+		return TransformMessageContent.toXML(mCachedMessage);
+	}
+
+	private static List<AbstractElement> newElements(int nodes) {
+		List<AbstractElement> elements = new ArrayList<AbstractElement>();
+		Element group = null;
+		int count = 0;
+		for (int i = 0; count < nodes; i++) {
+			// Groups of up to ten elements, each group being an element itself
+			if (group == null || i % 10 == 0) {
+				group = new Element("group", "Group " + i);
+				elements.add(group);
+				count++;
+				continue;
+			}
+			switch (i % 4) {
+			case 0:
+				group.addChildElement(new Text("Battery: " + i + "% (charging)", true));
+				count++;
+				break;
+			case 1:
+				if (nodes - count < 2) {
+					group.addChildElement(new Text("Contact " + i));
+					count++;
+					break;
+				}
+				group.addChildElement(new Contact("Contact " + i).addNumber("+49 123 " + i));
+				count += 2;
+				break;
+			case 2:
+				group.addChildElement(new CommandHelp("sms", "send", ArgType.CONTACT_INFO,
+						"Send a SMS to the given contact"));
+				count++;
+				break;
+			default:
+				group.addChildElement(new Element("status", Integer.toString(i), "Status " + i));
+				count++;
+				break;
+			}
+		}
+		return elements;
+	}
+}
@@ -0,0 +1,93 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.messagecontent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.projectmaxs.shared.global.Message;
+
+import android.content.Intent;
+import android.os.IBinder;
+import android.os.Parcel;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ServiceTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+/**
+ * Sends messages of several megabytes to {@link RemoteCodecService}, which runs in another process.
+ * Those exceed the binder transaction buffer of 1 MiB if written inline.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageContentCodecPipeTest {
+
+	private static final int ELEMENTS = 4000;
+	private static final int TEXT_LENGTH = 1000;
+
+	@Rule
+	public final ServiceTestRule mServiceRule = new ServiceTestRule();
+
+	@Test
+	public void largeMessageIsPipedAcrossProcesses() throws Exception {
+		IBinder binder = mServiceRule.bindService(new Intent(InstrumentationRegistry.getContext(),
+				RemoteCodecService.class));
+
+		Parcel data = Parcel.obtain();
+		Parcel reply = Parcel.obtain();
+		try {
+			newLargeMessage().setPipeAllowed(true).writeToParcel(data, 0);
+			assertTrue(data.hasFileDescriptors());
+
+			assertTrue(binder.transact(RemoteCodecService.TRANSACTION_SUMMARIZE, data, reply, 0));
+			assertEquals(ELEMENTS, reply.readInt());
+			assertEquals((long) ELEMENTS * TEXT_LENGTH, reply.readLong());
+		} finally {
+			data.recycle();
+			reply.recycle();
+		}
+	}
+
+	@Test
+	public void largeMessageIsInlineWithoutPipeFlag() {
+		Parcel data = Parcel.obtain();
+		try {
+			newLargeMessage().writeToParcel(data, 0);
+			assertFalse(data.hasFileDescriptors());
+			assertTrue(data.dataSize() > (long) ELEMENTS * TEXT_LENGTH);
+		} finally {
+			data.recycle();
+		}
+	}
+
+	private static Message newLargeMessage() {
+		char[] chars = new char[TEXT_LENGTH];
+		Arrays.fill(chars, 'x');
+		final String text = new String(chars);
+
+		Message message = new Message();
+		for (int i = 0; i < ELEMENTS; i++)
+			message.add(new Element("line", text, "Line " + i));
+		return message;
+	}
+}
@@ -0,0 +1,64 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.messagecontent;
+
+import java.util.Iterator;
+
+import org.projectmaxs.shared.global.Message;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.IBinder;
+import android.os.Parcel;
+import android.os.RemoteException;
+
+/**
+ * Runs in its own process. Unparcels the {@link Message} of every transaction and replies with the
+ * number of elements and the total length of their text.
+ */
+public class RemoteCodecService extends Service {
+
+	static final int TRANSACTION_SUMMARIZE = IBinder.FIRST_CALL_TRANSACTION;
+
+	private final Binder mBinder = new Binder() {
+		@Override
+		protected boolean onTransact(int code, Parcel data, Parcel reply, int flags)
+				throws RemoteException {
+			if (code != TRANSACTION_SUMMARIZE) return super.onTransact(code, data, reply, flags);
+
+			Message message = Message.CREATOR.createFromParcel(data);
+			int count = 0;
+			long textLength = 0;
+			Iterator<AbstractElement> it = message.getElementsIt();
+			while (it.hasNext()) {
+				Element element = (Element) it.next();
+				count++;
+				textLength += element.getText().length();
+			}
+			reply.writeInt(count);
+			reply.writeLong(textLength);
+			return true;
+		}
+	};
+
+	@Override
+	public IBinder onBind(Intent intent) {
+		return mBinder;
+	}
+}
@@ -0,0 +1,138 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+/**
+ * Seeds a table shaped like CommandTable with a million rows and times the chunked purge. Runs on
+ * a device, as the time a chunk holds the database lock depends on the device's storage.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SQLiteUtilPurgeBenchmark {
+
+	private static final int ROWS = 1000 * 1000;
+	private static final long NOW = 1000L * 1000 * 1000 * 1000;
+
+	private static final String TABLE = "command";
+	private static final String COLUMN_ID = "id";
+	private static final String COLUMN_TIMESTAMP = "timestamp";
+
+	private File mDatabaseFile;
+	private SQLiteDatabase mDatabase;
+
+	@Before
+	public void setUp() {
+		mDatabaseFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+				"purge-benchmark.db");
+		SQLiteDatabase.deleteDatabase(mDatabaseFile);
+		mDatabase = SQLiteDatabase.openOrCreateDatabase(mDatabaseFile, null);
+		mDatabase.execSQL("CREATE TABLE " + TABLE + " (" + COLUMN_ID + " INTEGER PRIMARY KEY,"
+				+ COLUMN_TIMESTAMP + " INTEGER NOT NULL, command TEXT, args TEXT)");
+		mDatabase.execSQL("CREATE INDEX " + TABLE + "_" + COLUMN_TIMESTAMP + "_idx ON " + TABLE
+				+ " (" + COLUMN_TIMESTAMP + ")");
+
+		// One row per second, so that the older half of the rows is expired
+		SQLiteStatement insert = mDatabase.compileStatement("INSERT INTO " + TABLE
+				+ " VALUES (?, ?, 'sms', 'send 0123456789 Hello World')");
+		mDatabase.beginTransaction();
+		try {
+			for (int i = 0; i < ROWS; i++) {
+				insert.bindLong(1, i);
+				insert.bindLong(2, NOW - (ROWS - i) * 1000L);
+				insert.executeInsert();
+			}
+			mDatabase.setTransactionSuccessful();
+		} finally {
+			mDatabase.endTransaction();
+			insert.close();
+		}
+	}
+
+	@After
+	public void tearDown() {
+		mDatabase.close();
+		SQLiteDatabase.deleteDatabase(mDatabaseFile);
+	}
+
+	@Test
+	public void purgeOlderThan() {
+		final long[] longestChunk = new long[1];
+		final long[] chunkStart = new long[] { SystemClock.elapsedRealtime() };
+		final long start = chunkStart[0];
+		int purged = SQLiteUtil.deleteOlderThan(mDatabase, TABLE, COLUMN_ID, COLUMN_TIMESTAMP,
+				NOW - ROWS / 2 * 1000L, new SQLiteUtil.PurgeListener() {
+					@Override
+					public void purged(int[] ids) {
+						final long now = SystemClock.elapsedRealtime();
+						longestChunk[0] = Math.max(longestChunk[0], now - chunkStart[0]);
+						chunkStart[0] = now;
+					}
+				});
+		final long duration = SystemClock.elapsedRealtime() - start;
+
+		System.out.println("deleteOlderThan: purged " + purged + " of " + ROWS + " rows in "
+				+ duration + " ms, longest chunk took " + longestChunk[0] + " ms");
+		assertEquals(ROWS / 2, purged);
+		assertEquals(ROWS / 2, DatabaseUtils.queryNumEntries(mDatabase, TABLE));
+	}
+
+	@Test
+	public void purgeByIds() {
+		int[] ids = new int[ROWS / 2];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = i * 2;
+		}
+
+		final long start = SystemClock.elapsedRealtime();
+		int purged = SQLiteUtil.deleteByIds(mDatabase, TABLE, COLUMN_ID, ids);
+		final long duration = SystemClock.elapsedRealtime() - start;
+
+		System.out.println("deleteByIds: purged " + purged + " of " + ROWS + " rows in "
+				+ duration + " ms");
+		assertEquals(ROWS / 2, purged);
+		assertEquals(ROWS / 2, DatabaseUtils.queryNumEntries(mDatabase, TABLE));
+	}
+
+	@Test
+	public void purgeOlderThanSingleStatement() {
+		// The unchunked delete, for comparison. Holds the database lock for the whole purge.
+		final long start = SystemClock.elapsedRealtime();
+		int purged = mDatabase.delete(TABLE, COLUMN_TIMESTAMP + "<?",
+				new String[] { Long.toString(NOW - ROWS / 2 * 1000L) });
+		final long duration = SystemClock.elapsedRealtime() - start;
+
+		System.out.println("delete: purged " + purged + " of " + ROWS + " rows in " + duration
+				+ " ms within a single statement");
+		assertEquals(ROWS / 2, purged);
+	}
+}
@@ -0,0 +1,73 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main;
+
+import org.projectmaxs.main.database.CommandTable;
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.messagecontent.CommandHelp;
+import org.projectmaxs.shared.global.messagecontent.CommandHelp.ArgType;
+import org.projectmaxs.shared.global.util.SharedStringUtil;
+
+/**
+ * Handles the 'cancel id' command. The module that performs the command with the given ID is asked
+ * to cancel it, which is a no-op if the command already finished.
+ */
+public class CancelCommand {
+
+	public static final String COMMAND = "cancel";
+
+	static final CommandHelp[] HELP = { new CommandHelp(COMMAND, "", ArgType.NUMBER,
+			"Cancel the command with the given ID, if it is still queued or running") };
+
+	/**
+	 * Forward the cancellation of a command to the module performing it.
+	 * 
+	 * @param idToken
+	 *            the ID of the command to cancel as given by the user
+	 * @param commandTable
+	 * @param commandRouter
+	 * @param moduleCommandChannels
+	 * @return the reply to the 'cancel' command
+	 */
+	static Message cancel(String idToken, CommandTable commandTable, CommandRouter commandRouter,
+			ModuleCommandChannels moduleCommandChannels) {
+		if (idToken == null) return new Message("No command ID given", false);
+		if (!SharedStringUtil.isPositiveInteger(idToken))
+			return new Message("Invalid command ID: " + idToken, false);
+
+		int id;
+		try {
+			id = Integer.parseInt(idToken);
+		} catch (NumberFormatException e) {
+			return new Message("Invalid command ID: " + idToken, false);
+		}
+
+		CommandTable.FullEntry entry = (CommandTable.FullEntry) commandTable.getFullEntry(id);
+		if (entry == null) return new Message("No command with ID " + id, false);
+
+		CommandInformation ci = commandRouter.route(entry.mCommand).getCommandInformation();
+		String modulePackage = ci == null ? null : ci.getPackageForSubCommand(entry.mSubCmd);
+		// Commands handled by main itself, or rejected ones, are already done
+		if (modulePackage == null)
+			return new Message("Command " + id + " is not cancelable", false);
+
+		if (!moduleCommandChannels.cancelCommand(modulePackage, id))
+			return new Message("Could not reach the module of command " + id, false);
+		return new Message("Cancelling command " + id);
+	}
+}
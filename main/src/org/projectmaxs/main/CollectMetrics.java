@@ -0,0 +1,185 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.projectmaxs.shared.global.GlobalConstants;
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.MetricsSnapshot;
+import org.projectmaxs.shared.global.TraceContext;
+import org.projectmaxs.shared.global.aidl.IMAXSMetricsReceiver;
+import org.projectmaxs.shared.global.messagecontent.CommandHelp;
+import org.projectmaxs.shared.global.messagecontent.CommandHelp.ArgType;
+import org.projectmaxs.shared.global.messagecontent.Text;
+import org.projectmaxs.shared.global.util.LatencyHistogram;
+import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.shared.global.util.Metrics;
+
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Handles the 'stats' command. The {@link Metrics} of MAXS Main and of all bound modules and
+ * transports are collected and aggregated into one reply. Components that do not answer within
+ * {@link #TIMEOUT_MILLIS} are left out.
+ */
+public class CollectMetrics {
+
+	private static final Log LOG = Log.getLog();
+
+	public static final String COMMAND = "stats";
+
+	static final CommandHelp[] HELP = { new CommandHelp(COMMAND, "", ArgType.NONE,
+			"Show the metrics of main, the modules and the transports") };
+
+	private static final long TIMEOUT_MILLIS = 3000;
+
+	private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * Start collecting the metrics. The reply is send once all components answered or the timeout
+	 * elapsed.
+	 * 
+	 * @param id
+	 *            the ID of the command
+	 * @param trace
+	 *            the trace of the command
+	 * @param service
+	 * @param moduleCommandChannels
+	 * @param transportChannels
+	 */
+	static void collect(int id, TraceContext trace, MAXSService service,
+			ModuleCommandChannels moduleCommandChannels, TransportChannels transportChannels) {
+		Collector collector = new Collector(id, trace, service, Metrics.snapshot(service
+				.getPackageName()));
+		int requested = moduleCommandChannels.requestMetrics(collector);
+		requested += transportChannels.requestMetrics(collector);
+		collector.expect(requested);
+	}
+
+	private static final class Collector extends IMAXSMetricsReceiver.Stub implements Runnable {
+		private final int mId;
+		private final TraceContext mTrace;
+		private final MAXSService mService;
+		private final List<MetricsSnapshot> mSnapshots = new ArrayList<MetricsSnapshot>();
+
+		private int mRequested = -1;
+		private int mReceived;
+		private boolean mDone;
+
+		Collector(int id, TraceContext trace, MAXSService service, MetricsSnapshot mainSnapshot) {
+			mId = id;
+			mTrace = trace;
+			mService = service;
+			mSnapshots.add(mainSnapshot);
+		}
+
+		@Override
+		public void metrics(MetricsSnapshot snapshot) {
+			if (!isCallerAllowed()) return;
+			synchronized (this) {
+				if (mDone) return;
+				mSnapshots.add(snapshot);
+				mReceived++;
+				// Snapshots may arrive before all requests are send
+				if (mRequested < 0 || mReceived < mRequested) return;
+			}
+			finish();
+		}
+
+		/**
+		 * Set the number of components asked for their metrics.
+		 * 
+		 * @param requested
+		 */
+		void expect(int requested) {
+			synchronized (this) {
+				mRequested = requested;
+				if (mReceived < requested) {
+					sHandler.postDelayed(this, TIMEOUT_MILLIS);
+					return;
+				}
+			}
+			finish();
+		}
+
+		@Override
+		public void run() {
+			LOG.d("run: metrics of " + (mRequested - mReceived) + " components not received");
+			finish();
+		}
+
+		private void finish() {
+			final List<MetricsSnapshot> snapshots;
+			synchronized (this) {
+				if (mDone) return;
+				mDone = true;
+				snapshots = new ArrayList<MetricsSnapshot>(mSnapshots);
+			}
+			sHandler.removeCallbacks(this);
+
+			Message message = new Message(compose(snapshots));
+			message.setId(mId);
+			message.setTrace(mTrace);
+			mService.send(message);
+		}
+
+		private boolean isCallerAllowed() {
+			final String[] permissions = new String[] {
+					GlobalConstants.PERMISSION_USE_MAIN_AS_MODULE,
+					GlobalConstants.PERMISSION_USE_MAIN_AS_TRANSPORT };
+			for (String permission : permissions) {
+				final int result = mService.checkCallingPermission(permission);
+				if (result == PackageManager.PERMISSION_GRANTED) return true;
+			}
+			LOG.w("metrics: caller is neither module nor transport");
+			return false;
+		}
+	}
+
+	private static Text compose(List<MetricsSnapshot> snapshots) {
+		Text text = new Text();
+		MetricsSnapshot total = new MetricsSnapshot("total");
+		for (MetricsSnapshot snapshot : snapshots) {
+			total.addAll(snapshot);
+			if (snapshot.isEmpty()) continue;
+			text.addBoldNL(snapshot.getSource());
+			addValues(text, snapshot);
+		}
+		if (snapshots.size() > 1) {
+			text.addBoldNL("Total of " + snapshots.size() + " components");
+			addValues(text, total);
+		}
+		return text;
+	}
+
+	private static void addValues(Text text, MetricsSnapshot snapshot) {
+		for (Map.Entry<String, Long> entry : snapshot.getCounters().entrySet())
+			text.addItalic(entry.getKey() + ": ").addNL(entry.getValue().toString());
+		for (Map.Entry<String, Long> entry : snapshot.getGauges().entrySet())
+			text.addItalic(entry.getKey() + ": ").addNL(entry.getValue().toString());
+		for (Map.Entry<String, LatencyHistogram> entry : snapshot.getHistograms().entrySet()) {
+			if (entry.getValue().getCount() == 0) continue;
+			text.addItalic(entry.getKey() + ": ").addNL(entry.getValue().toString());
+		}
+	}
+}
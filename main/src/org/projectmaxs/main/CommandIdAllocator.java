@@ -0,0 +1,103 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.Context;
+
+/**
+ * Hands out unique command IDs for all transports. IDs are reserved in blocks, which are persisted
+ * before any ID of the block is used, so that no ID is handed out twice, even if MAXS is killed.
+ * Within a block, IDs are handed out lock-free. IDs of a block that are not used before MAXS is
+ * stopped are skipped.
+ * <p>
+ * Once all positive IDs have been reserved, the reservation wraps around to 0, see
+ * {@link Settings#reserveCommandIds(int)}. An ID is only reused after more than 2^31 other
+ * commands, long after its command was purged from the {@link org.projectmaxs.main.database.CommandTable}.
+ * </p>
+ */
+public class CommandIdAllocator {
+
+	private static final int BLOCK_SIZE = 128;
+
+	private static CommandIdAllocator sCommandIdAllocator;
+
+	public static synchronized CommandIdAllocator getInstance(Context context) {
+		if (sCommandIdAllocator == null) {
+			final Settings settings = Settings.getInstance(context);
+			sCommandIdAllocator = new CommandIdAllocator(new ReservationSource() {
+				@Override
+				public int reserve(int count) {
+					return settings.reserveCommandIds(count);
+				}
+			});
+		}
+		return sCommandIdAllocator;
+	}
+
+	private final ReservationSource mReservationSource;
+
+	/**
+	 * The current block, the upper 32 bits hold the next ID, the lower 32 bits hold the end of the
+	 * block (exclusive). Kept in a single value, so that the ID and its block can be updated
+	 * atomically.
+	 */
+	private final AtomicLong mBlock = new AtomicLong(pack(0, 0));
+
+	CommandIdAllocator(ReservationSource reservationSource) {
+		mReservationSource = reservationSource;
+	}
+
+	public int nextId() {
+		while (true) {
+			final long block = mBlock.get();
+			final int next = (int) (block >>> 32);
+			final int end = (int) block;
+			if (next < end) {
+				if (mBlock.compareAndSet(block, pack(next + 1, end))) return next;
+				continue;
+			}
+			// The block is exhausted, only one thread reserves the next block
+			synchronized (this) {
+				if (mBlock.get() != block) continue;
+				final int start = mReservationSource.reserve(BLOCK_SIZE);
+				mBlock.set(pack(start + 1, start + BLOCK_SIZE));
+				return start;
+			}
+		}
+	}
+
+	private static long pack(int next, int end) {
+		return ((long) next << 32) | (end & 0xffffffffL);
+	}
+
+	/**
+	 * Durably reserves blocks of command IDs.
+	 */
+	interface ReservationSource {
+		/**
+		 * Reserve a block of IDs. The block must be persisted before this method returns.
+		 * 
+		 * @param count
+		 *            the number of IDs to reserve
+		 * @return the first ID of the block
+		 */
+		int reserve(int count);
+	}
+}
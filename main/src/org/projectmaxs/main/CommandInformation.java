@@ -18,6 +18,7 @@
 package org.projectmaxs.main;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -39,6 +40,18 @@ public class CommandInformation {
 		this.mCommand = command;
 	}
 
+	/**
+	 * Create a copy of the given command information.
+	 *
+	 * @param other
+	 */
+	CommandInformation(CommandInformation other) {
+		this.mCommand = other.mCommand;
+		this.mDefaultSubCommand = other.mDefaultSubCommand;
+		this.mDefaultSubCommandWithArgs = other.mDefaultSubCommandWithArgs;
+		this.mSubCommands.putAll(other.mSubCommands);
+	}
+
 	public String getCommand() {
 		return mCommand;
 	}
@@ -59,6 +72,10 @@ public class CommandInformation {
 		return mSubCommands.containsKey(subCommand);
 	}
 
+	public Set<String> getSubCommands() {
+		return new HashSet<String>(mSubCommands.keySet());
+	}
+
 	public void addSubAndDefCommands(Command command, String modulePackage)
 			throws CommandClashException {
 		String defSubCmd = command.getDefaultSubCommand();
@@ -0,0 +1,304 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * An immutable routing table for commands, compiled from the registered commands whenever the
+ * {@link ModuleRegistry} changes. Commands are resolved by their long name, their short name or an
+ * unambiguous prefix of either, sub commands by their exact name. Resolution walks the command
+ * string once, ignoring case, without splitting, lower-casing or allocating.
+ */
+public final class CommandRouter {
+
+	public static final CommandRouter EMPTY = new CommandRouter(new Node<CommandRoute>());
+
+	private final Node<CommandRoute> mRoot;
+
+	private CommandRouter(Node<CommandRoute> root) {
+		mRoot = root;
+	}
+
+	/**
+	 * Compile a new routing table.
+	 *
+	 * @param commands
+	 *            the registered commands by their long name
+	 * @param shortCommands
+	 *            maps short commands to long commands
+	 * @return the routing table
+	 */
+	static CommandRouter compile(Collection<CommandInformation> commands,
+			Map<String, String> shortCommands) {
+		Node<CommandRoute> root = new Node<CommandRoute>();
+		for (CommandInformation ci : commands) {
+			CommandRoute route = new CommandRoute(ci);
+			root.insert(ci.getCommand(), route);
+			for (Map.Entry<String, String> entry : shortCommands.entrySet()) {
+				if (entry.getValue().equals(ci.getCommand())) root.insert(entry.getKey(), route);
+			}
+		}
+		return new CommandRouter(root);
+	}
+
+	/**
+	 * Route the given command string. The string consists of the command, optionally followed by a
+	 * space and a sub command, optionally followed by a space and the arguments.
+	 *
+	 * @param fullCommand
+	 * @return a new route
+	 */
+	public Route route(String fullCommand) {
+		return route(fullCommand, new Route());
+	}
+
+	/**
+	 * Route the given command string into the given route, replacing its previous result. Does not
+	 * allocate, callers on the hot path reuse their route.
+	 *
+	 * @param fullCommand
+	 * @param route
+	 *            the route to reuse
+	 * @return the given route
+	 */
+	public Route route(String fullCommand, Route route) {
+		final int length = fullCommand.length();
+		int commandEnd = fullCommand.indexOf(' ');
+		if (commandEnd < 0) commandEnd = length;
+
+		final CommandRoute commandRoute = mRoot.find(fullCommand, 0, commandEnd, true);
+		if (commandEnd == length) {
+			route.set(fullCommand, commandEnd, -1, -1, commandRoute, null);
+			return route;
+		}
+
+		final int subCommandStart = commandEnd + 1;
+		int subCommandEnd = fullCommand.indexOf(' ', subCommandStart);
+		if (subCommandEnd < 0) subCommandEnd = length;
+
+		String subCommand = null;
+		if (commandRoute != null) {
+			subCommand = commandRoute.mSubCommands.find(fullCommand, subCommandStart,
+					subCommandEnd, false);
+		}
+		route.set(fullCommand, commandEnd, subCommandStart, subCommandEnd, commandRoute,
+				subCommand);
+		return route;
+	}
+
+	private static final class CommandRoute {
+		final CommandInformation mInformation;
+		final Node<String> mSubCommands = new Node<String>();
+
+		CommandRoute(CommandInformation information) {
+			mInformation = information;
+			for (String subCommand : information.getSubCommands()) {
+				mSubCommands.insert(subCommand, subCommand);
+			}
+		}
+	}
+
+	/**
+	 * The result of routing a command string. Only holds offsets into the command string, the
+	 * tokens are created on request.
+	 */
+	public static final class Route {
+		private String mFullCommand;
+		private int mCommandEnd;
+		private int mSubCommandStart;
+		private int mSubCommandEnd;
+		private CommandRoute mCommandRoute;
+		private String mSubCommand;
+
+		private void set(String fullCommand, int commandEnd, int subCommandStart, int subCommandEnd,
+				CommandRoute commandRoute, String subCommand) {
+			mFullCommand = fullCommand;
+			mCommandEnd = commandEnd;
+			mSubCommandStart = subCommandStart;
+			mSubCommandEnd = subCommandEnd;
+			mCommandRoute = commandRoute;
+			mSubCommand = subCommand;
+		}
+
+		/**
+		 * Get the command information of the resolved command.
+		 *
+		 * @return the command information or null if the command is unknown
+		 */
+		public CommandInformation getCommandInformation() {
+			return mCommandRoute != null ? mCommandRoute.mInformation : null;
+		}
+
+		/**
+		 * Get the command as given by the user, in lower case.
+		 *
+		 * @return the command token
+		 */
+		public String getCommandToken() {
+			return mFullCommand.substring(0, mCommandEnd).toLowerCase(Locale.US);
+		}
+
+		public boolean isCommand(String command) {
+			return mCommandEnd == command.length()
+					&& mFullCommand.regionMatches(true, 0, command, 0, mCommandEnd);
+		}
+
+		public boolean hasSubCommandToken() {
+			return mSubCommandStart >= 0;
+		}
+
+		/**
+		 * Get the sub command as given by the user, in lower case.
+		 *
+		 * @return the sub command token or null
+		 */
+		public String getSubCommandToken() {
+			if (mSubCommandStart < 0) return null;
+			return mFullCommand.substring(mSubCommandStart, mSubCommandEnd).toLowerCase(Locale.US);
+		}
+
+		/**
+		 * Get the resolved sub command.
+		 *
+		 * @return the sub command or null if none was given or if it is unknown
+		 */
+		public String getSubCommand() {
+			return mSubCommand;
+		}
+
+		/**
+		 * Get the arguments following the sub command.
+		 *
+		 * @return the arguments or null
+		 */
+		public String getArgs() {
+			if (mSubCommandEnd < 0 || mSubCommandEnd == mFullCommand.length()) return null;
+			return mFullCommand.substring(mSubCommandEnd + 1);
+		}
+
+		/**
+		 * Get everything following the command, for commands where the sub command token is
+		 * treated as part of the arguments.
+		 *
+		 * @return the arguments including the sub command token or null
+		 */
+		public String getArgsIncludingSubCommandToken() {
+			if (mSubCommandStart < 0) return null;
+			return mFullCommand.substring(mSubCommandStart);
+		}
+	}
+
+	/**
+	 * A node of a case-insensitive trie. The children are kept in a sorted array, which is searched
+	 * with binary search.
+	 */
+	private static final class Node<V> {
+		private char[] mKeys = new char[0];
+		@SuppressWarnings("unchecked")
+		private Node<V>[] mChildren = new Node[0];
+
+		/**
+		 * The value of the word ending at this node.
+		 */
+		private V mValue;
+
+		/**
+		 * The value all words starting with the prefix of this node share, or null if the prefix
+		 * is ambiguous.
+		 */
+		private V mUniqueValue;
+		private boolean mAmbiguous;
+
+		void insert(String word, V value) {
+			Node<V> node = this;
+			node.addUnique(value);
+			for (int i = 0; i < word.length(); i++) {
+				node = node.getOrAddChild(Character.toLowerCase(word.charAt(i)));
+				node.addUnique(value);
+			}
+			node.mValue = value;
+		}
+
+		V find(String string, int start, int end, boolean allowPrefix) {
+			if (start == end) return null;
+			Node<V> node = this;
+			for (int i = start; i < end && node != null; i++) {
+				node = node.getChild(Character.toLowerCase(string.charAt(i)));
+			}
+			if (node == null) return null;
+			if (node.mValue != null) return node.mValue;
+			return allowPrefix ? node.mUniqueValue : null;
+		}
+
+		private void addUnique(V value) {
+			if (mAmbiguous) return;
+			if (mUniqueValue == null) {
+				mUniqueValue = value;
+			} else if (mUniqueValue != value) {
+				mUniqueValue = null;
+				mAmbiguous = true;
+			}
+		}
+
+		private Node<V> getChild(char c) {
+			int i = indexOf(c);
+			return i >= 0 ? mChildren[i] : null;
+		}
+
+		@SuppressWarnings("unchecked")
+		private Node<V> getOrAddChild(char c) {
+			int i = indexOf(c);
+			if (i >= 0) return mChildren[i];
+
+			final int insertAt = -(i + 1);
+			char[] keys = new char[mKeys.length + 1];
+			Node<V>[] children = new Node[mChildren.length + 1];
+			System.arraycopy(mKeys, 0, keys, 0, insertAt);
+			System.arraycopy(mChildren, 0, children, 0, insertAt);
+			System.arraycopy(mKeys, insertAt, keys, insertAt + 1, mKeys.length - insertAt);
+			System.arraycopy(mChildren, insertAt, children, insertAt + 1, mChildren.length
+					- insertAt);
+			Node<V> child = new Node<V>();
+			keys[insertAt] = c;
+			children[insertAt] = child;
+			mKeys = keys;
+			mChildren = children;
+			return child;
+		}
+
+		private int indexOf(char c) {
+			int low = 0;
+			int high = mKeys.length - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				char midKey = mKeys[mid];
+				if (midKey < c) {
+					low = mid + 1;
+				} else if (midKey > c) {
+					high = mid - 1;
+				} else {
+					return mid;
+				}
+			}
+			return -(low + 1);
+		}
+	}
+}
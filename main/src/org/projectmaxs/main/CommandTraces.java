@@ -0,0 +1,161 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.TraceContext;
+import org.projectmaxs.shared.global.messagecontent.CommandHelp;
+import org.projectmaxs.shared.global.messagecontent.CommandHelp.ArgType;
+import org.projectmaxs.shared.global.messagecontent.Text;
+import org.projectmaxs.shared.global.util.SharedStringUtil;
+
+/**
+ * Keeps the traces of the last {@link #MAX_TRACES} commands, as they were when the reply passed
+ * main, and handles the 'trace [id]' command which queries them. The last stage of a trace, the
+ * transport sending the reply, happens after that and is reported back by the transport.
+ */
+public class CommandTraces {
+
+	public static final String COMMAND = "trace";
+
+	static final CommandHelp[] HELP = { new CommandHelp(COMMAND, "", ArgType.NUMBER,
+			"Show where the command with the given ID spent its time, or list the last commands "
+					+ "if no ID is given") };
+
+	private static final int MAX_TRACES = 100;
+
+	/**
+	 * The number of traces listed if no command ID is given.
+	 */
+	private static final int LIST_TRACES = 10;
+
+	private final Map<Integer, Entry> mTraces = new LinkedHashMap<Integer, Entry>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+			return size() > MAX_TRACES;
+		}
+	};
+
+	/**
+	 * Start keeping the trace of the given command.
+	 * 
+	 * @param id
+	 * @param command
+	 *            the command and sub command, as shown in the reply
+	 */
+	synchronized void begin(int id, String command) {
+		mTraces.put(id, new Entry(id, command));
+	}
+
+	/**
+	 * Update the trace of the given command with the trace of a reply. A later reply to the same
+	 * command replaces the trace of the previous one.
+	 * 
+	 * @param id
+	 * @param trace
+	 */
+	synchronized void update(int id, TraceContext trace) {
+		Entry entry = mTraces.get(id);
+		if (entry == null) return;
+		entry.mBreakdown = trace.toString();
+		entry.mTotalMillis = trace.getTotalMillis();
+		final int stages = trace.getStageCount();
+		if (stages > 0) {
+			entry.mStartTime = trace.getTime(0);
+			entry.mLastTime = trace.getTime(stages - 1);
+		}
+	}
+
+	/**
+	 * Add the time the transport sent the reply to the trace of the given command.
+	 * 
+	 * @param id
+	 * @param sentAt
+	 *            in the {@link android.os.SystemClock#elapsedRealtime()} time base
+	 */
+	synchronized void sent(int id, long sentAt) {
+		Entry entry = mTraces.get(id);
+		if (entry == null || entry.mBreakdown == null) return;
+		entry.mBreakdown += " transport.sent +" + (sentAt - entry.mLastTime) + "ms";
+		entry.mTotalMillis = sentAt - entry.mStartTime;
+		entry.mLastTime = sentAt;
+	}
+
+	/**
+	 * Compose the reply to the 'trace' command.
+	 * 
+	 * @param idToken
+	 *            the ID of the command whose trace should be shown, or null to list the last
+	 *            traces
+	 * @return the reply
+	 */
+	synchronized Message getReply(String idToken) {
+		if (idToken != null) {
+			Entry entry = null;
+			if (SharedStringUtil.isPositiveInteger(idToken)) {
+				try {
+					entry = mTraces.get(Integer.parseInt(idToken));
+				} catch (NumberFormatException e) {
+					return new Message("Invalid command ID: " + idToken, false);
+				}
+			}
+			if (entry == null) return new Message("No trace of command " + idToken, false);
+			Text text = new Text();
+			text.addBoldNL("Command " + entry.mId + ": " + entry.mCommand);
+			if (entry.mBreakdown == null) {
+				text.addNL("No reply yet");
+			} else {
+				text.addItalic("Total: ").addNL(entry.mTotalMillis + "ms");
+				text.addNL(entry.mBreakdown);
+			}
+			return new Message(text);
+		}
+
+		if (mTraces.isEmpty()) return new Message("No traces recorded yet");
+		List<Entry> entries = new ArrayList<Entry>(mTraces.values());
+		Text text = new Text();
+		text.addBoldNL("Last commands");
+		for (int i = Math.max(0, entries.size() - LIST_TRACES); i < entries.size(); i++) {
+			Entry entry = entries.get(i);
+			text.addItalic(entry.mId + " " + entry.mCommand + ": ").addNL(
+					entry.mBreakdown == null ? "no reply yet" : entry.mTotalMillis + "ms");
+		}
+		return new Message(text);
+	}
+
+	private static final class Entry {
+		final int mId;
+		final String mCommand;
+		String mBreakdown;
+		long mTotalMillis;
+		long mStartTime;
+		long mLastTime;
+
+		Entry(int id, String command) {
+			mId = id;
+			mCommand = command;
+		}
+	}
+}
@@ -0,0 +1,223 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.projectmaxs.shared.global.messagecontent.CommandHelp;
+import org.projectmaxs.shared.global.util.SharedStringUtil;
+import org.projectmaxs.shared.mainmodule.ModuleInformation;
+
+/**
+ * An immutable index of the help of all registered commands, compiled together with the
+ * {@link CommandRouter} whenever the {@link ModuleRegistry} changes. Besides looking up help, it
+ * suggests the known commands and sub commands closest to a mistyped one. The commands handled by
+ * main itself are always part of the index.
+ */
+public final class HelpIndex {
+
+	private static final int MAX_SUGGESTIONS = 3;
+
+	private static final CommandHelp[] HELP = { new CommandHelp("help", "", "command",
+			"Show the help of all commands, or of the given command and sub command") };
+
+	/**
+	 * The help of the commands handled by main, which are not provided by any module. The sub
+	 * command of the help is empty for commands without sub commands.
+	 */
+	private static final CommandHelp[][] BUILT_IN_HELP = { HELP, SendLogJournal.HELP,
+			CollectMetrics.HELP, CommandTraces.HELP, Subscriptions.HELP, CancelCommand.HELP };
+
+	/**
+	 * The index of the built-in commands only.
+	 */
+	public static final HelpIndex EMPTY = compile(Collections.<ModuleInformation> emptyList(),
+			Collections.<CommandInformation> emptyList());
+
+	/**
+	 * Maps commands to their help by sub command, both sorted.
+	 */
+	private final SortedMap<String, SortedMap<String, CommandHelp>> mHelp;
+
+	/**
+	 * Maps all registered commands, including those without help, to their sub commands.
+	 */
+	private final Map<String, Collection<String>> mSubCommands;
+
+	private HelpIndex(SortedMap<String, SortedMap<String, CommandHelp>> help,
+			Map<String, Collection<String>> subCommands) {
+		mHelp = help;
+		mSubCommands = subCommands;
+	}
+
+	/**
+	 * Compile a new help index.
+	 * 
+	 * @param modules
+	 *            the registered modules, providing the help
+	 * @param commands
+	 *            the registered commands
+	 * @return the help index
+	 */
+	static HelpIndex compile(Collection<ModuleInformation> modules,
+			Collection<CommandInformation> commands) {
+		SortedMap<String, SortedMap<String, CommandHelp>> help =
+				new TreeMap<String, SortedMap<String, CommandHelp>>();
+		for (ModuleInformation module : modules) {
+			for (CommandHelp commandHelp : module.getHelp())
+				addHelp(help, commandHelp);
+		}
+
+		Map<String, Collection<String>> subCommands = new HashMap<String, Collection<String>>();
+		for (CommandInformation ci : commands)
+			subCommands.put(ci.getCommand(), ci.getSubCommands());
+
+		for (CommandHelp[] builtInHelp : BUILT_IN_HELP) {
+			Collection<String> builtInSubCommands = new ArrayList<String>(builtInHelp.length);
+			for (CommandHelp commandHelp : builtInHelp) {
+				addHelp(help, commandHelp);
+				if (commandHelp.mSubCommand.length() > 0) {
+					builtInSubCommands.add(commandHelp.mSubCommand);
+				}
+			}
+			subCommands.put(builtInHelp[0].mCommand, builtInSubCommands);
+		}
+
+		return new HelpIndex(help, subCommands);
+	}
+
+	private static void addHelp(SortedMap<String, SortedMap<String, CommandHelp>> help,
+			CommandHelp commandHelp) {
+		SortedMap<String, CommandHelp> subCommandHelp = help.get(commandHelp.mCommand);
+		if (subCommandHelp == null) {
+			subCommandHelp = new TreeMap<String, CommandHelp>();
+			help.put(commandHelp.mCommand, subCommandHelp);
+		}
+		subCommandHelp.put(commandHelp.mSubCommand, commandHelp);
+	}
+
+	/**
+	 * Get the help of all commands.
+	 * 
+	 * @return the help, sorted by command and sub command, or null if there is none
+	 */
+	public List<CommandHelp> getHelp() {
+		if (mHelp.isEmpty()) return null;
+		List<CommandHelp> res = new ArrayList<CommandHelp>();
+		for (SortedMap<String, CommandHelp> subCommandHelp : mHelp.values())
+			res.addAll(subCommandHelp.values());
+		return res;
+	}
+
+	/**
+	 * Get the help of all sub commands of the given command.
+	 * 
+	 * @param command
+	 * @return the help, sorted by sub command, or null if there is none
+	 */
+	public List<CommandHelp> getHelp(String command) {
+		SortedMap<String, CommandHelp> subCommandHelp = mHelp.get(command);
+		if (subCommandHelp == null) return null;
+		return new ArrayList<CommandHelp>(subCommandHelp.values());
+	}
+
+	/**
+	 * Get the help of the given sub command.
+	 * 
+	 * @param command
+	 * @param subCommand
+	 * @return the help or null if there is none
+	 */
+	public CommandHelp getHelp(String command, String subCommand) {
+		SortedMap<String, CommandHelp> subCommandHelp = mHelp.get(command);
+		if (subCommandHelp == null) return null;
+		return subCommandHelp.get(subCommand);
+	}
+
+	/**
+	 * Suggest known commands for a mistyped one.
+	 * 
+	 * @param command
+	 * @return up to three commands, the closest first
+	 */
+	public List<String> suggestCommands(String command) {
+		return suggest(command, mSubCommands.keySet());
+	}
+
+	/**
+	 * Suggest known sub commands of a command for a mistyped one.
+	 * 
+	 * @param command
+	 * @param subCommand
+	 * @return up to three sub commands, the closest first
+	 */
+	public List<String> suggestSubCommands(String command, String subCommand) {
+		Collection<String> subCommands = mSubCommands.get(command);
+		if (subCommands == null) return Collections.emptyList();
+		return suggest(subCommand, subCommands);
+	}
+
+	/**
+	 * Find the candidates within an edit distance of about a third of the length of the token.
+	 * Candidates starting with the token, e.g. when it is an ambiguous prefix, are considered to
+	 * have a distance of zero.
+	 */
+	private static List<String> suggest(String token, Collection<String> candidates) {
+		final int maxDistance = Math.max(1, token.length() / 3);
+		List<Suggestion> suggestions = new ArrayList<Suggestion>();
+		for (String candidate : candidates) {
+			final int distance;
+			if (candidate.startsWith(token)) {
+				distance = 0;
+			} else {
+				distance = SharedStringUtil.editDistance(token, candidate, maxDistance);
+			}
+			if (distance <= maxDistance) suggestions.add(new Suggestion(candidate, distance));
+		}
+		Collections.sort(suggestions);
+
+		final int size = Math.min(MAX_SUGGESTIONS, suggestions.size());
+		List<String> res = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++)
+			res.add(suggestions.get(i).mCandidate);
+		return res;
+	}
+
+	private static final class Suggestion implements Comparable<Suggestion> {
+		final String mCandidate;
+		final int mDistance;
+
+		Suggestion(String candidate, int distance) {
+			mCandidate = candidate;
+			mDistance = distance;
+		}
+
+		@Override
+		public int compareTo(Suggestion another) {
+			if (mDistance != another.mDistance) return mDistance < another.mDistance ? -1 : 1;
+			return mCandidate.compareTo(another.mCandidate);
+		}
+	}
+}
@@ -25,7 +25,6 @@ import org.projectmaxs.shared.global.StatusInformation;
 import org.projectmaxs.shared.global.messagecontent.Contact;
 import org.projectmaxs.shared.global.util.Log;
 import org.projectmaxs.shared.mainmodule.ModuleInformation;
-import org.projectmaxs.shared.maintransport.CurrentStatus;
 
 import android.content.Intent;
 
@@ -33,6 +32,8 @@ public class MAXSModuleIntentService extends MAXSIntentServiceWithMAXSService {
 
 	private static final Log LOG = Log.getLog();
 
+	private static final String UNKNOWN_SOURCE = "unknown";
+
 	private ModuleRegistry mModuleRegistry;
 
 	public MAXSModuleIntentService() {
@@ -62,7 +63,8 @@ public class MAXSModuleIntentService extends MAXSIntentServiceWithMAXSService {
 			break;
 		case GlobalConstants.ACTION_SEND_MESSAGE:
 			Message msg = intent.getParcelableExtra(GlobalConstants.EXTRA_MESSAGE);
-			maxsService.send(msg);
+			String source = intent.getStringExtra(GlobalConstants.EXTRA_PACKAGE);
+			maxsService.send(msg, source != null ? source : UNKNOWN_SOURCE);
 			break;
 		case GlobalConstants.ACTION_SET_RECENT_CONTACT:
 			String usedContactInfo = intent.getStringExtra(GlobalConstants.EXTRA_CONTENT);
@@ -72,9 +74,7 @@ public class MAXSModuleIntentService extends MAXSIntentServiceWithMAXSService {
 		case GlobalConstants.ACTION_UPDATE_STATUS:
 			List<StatusInformation> infoList = intent
 					.getParcelableArrayListExtra(GlobalConstants.EXTRA_CONTENT);
-			CurrentStatus status = StatusRegistry.getInstanceAndInit(this).add(infoList);
-			// only set the status if something has changed
-			if (status != null) maxsService.setStatus(status);
+			StatusRegistry.getInstanceAndInit(this).add(infoList, maxsService);
 			break;
 		default:
 			throw new IllegalStateException("MAXSModuleIntentService unknown action: " + action);
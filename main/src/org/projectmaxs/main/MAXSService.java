@@ -19,7 +19,6 @@ package org.projectmaxs.main;
 
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Locale;
 
 import org.projectmaxs.main.database.CommandTable;
 import org.projectmaxs.main.misc.ComposeHelp;
@@ -29,9 +28,13 @@ import org.projectmaxs.main.misc.StartStopIntentBroadcast;
 import org.projectmaxs.main.util.Constants;
 import org.projectmaxs.shared.global.GlobalConstants;
 import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.StatusInformation;
+import org.projectmaxs.shared.global.TraceContext;
 import org.projectmaxs.shared.global.messagecontent.Contact;
 import org.projectmaxs.shared.global.messagecontent.Element;
 import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.shared.global.util.LogJournal;
+import org.projectmaxs.shared.global.util.Metrics;
 import org.projectmaxs.shared.mainmodule.Command;
 import org.projectmaxs.shared.mainmodule.RecentContact;
 import org.projectmaxs.shared.maintransport.CommandOrigin;
@@ -70,12 +73,34 @@ public class MAXSService extends Service {
 		return sRecentContact;
 	}
 
+	private static final Metrics.Counter COMMANDS_RECEIVED = Metrics
+			.counter("main.commands_received");
+	private static final Metrics.Counter COMMANDS_REJECTED = Metrics
+			.counter("main.commands_rejected");
+	private static final Metrics.Counter MESSAGES_SENT = Metrics.counter("main.messages_sent");
+
+	/**
+	 * The route of every thread performing commands, reused so that routing does not allocate.
+	 */
+	private static final ThreadLocal<CommandRouter.Route> sRoutes =
+			new ThreadLocal<CommandRouter.Route>() {
+				@Override
+				protected CommandRouter.Route initialValue() {
+					return new CommandRouter.Route();
+				}
+			};
+
 	private final Handler mHandler = new Handler();
 
 	private Runnable mRecentContactRunnable;
 	private CommandTable mCommandTable;
+	private final CommandTraces mCommandTraces = new CommandTraces();
 	private ModuleRegistry mModuleRegistry;
 	private TransportRegistry mTransportRegistry;
+	private ModuleCommandChannels mModuleCommandChannels;
+	private TransportChannels mTransportChannels;
+	private OutboundScheduler mOutboundScheduler;
+	private Subscriptions mSubscriptions;
 
 	private final IBinder mBinder = new LocalBinder();
 
@@ -83,9 +108,14 @@ public class MAXSService extends Service {
 	public void onCreate() {
 		super.onCreate();
 		LOG.initialize(Settings.getInstance(this));
+		LogJournal.install(this);
 		mCommandTable = CommandTable.getInstance(this);
 		mModuleRegistry = ModuleRegistry.getInstance(this);
 		mTransportRegistry = TransportRegistry.getInstance(this);
+		mModuleCommandChannels = new ModuleCommandChannels(this);
+		mTransportChannels = new TransportChannels(this);
+		mOutboundScheduler = new OutboundScheduler(this);
+		mSubscriptions = new Subscriptions(this);
 
 		StartStopIntentBroadcast.init();
 		MAXSBatteryManager.init(this);
@@ -102,6 +132,15 @@ public class MAXSService extends Service {
 		sRecentContact = settings.getRecentContact();
 	}
 
+	@Override
+	public void onDestroy() {
+		mSubscriptions.close();
+		mOutboundScheduler.close();
+		mModuleCommandChannels.close();
+		mTransportChannels.close();
+		super.onDestroy();
+	}
+
 	@Override
 	public int onStartCommand(Intent intent, int flags, int startId) {
 		if (intent == null) {
@@ -124,6 +163,8 @@ public class MAXSService extends Service {
 			} else {
 				sIsRunning = true;
 				sendActionToAllTransportServices(TransportConstants.ACTION_START_SERVICE);
+				for (String transportPackage : mTransportRegistry.getAllTransportPackages())
+					mTransportChannels.connect(transportPackage);
 				Settings.getInstance(this).setServiceState(true);
 				for (StartStopListener listener : sStartStopListeners)
 					listener.onServiceStart(this);
@@ -134,6 +175,8 @@ public class MAXSService extends Service {
 			if (!sIsRunning) {
 				LOG.d("onStartCommand: service already stopped, nothing to do here");
 			} else {
+				// Unbind first, so that the transports can stop
+				mTransportChannels.disconnect();
 				sendActionToAllTransportServices(TransportConstants.ACTION_STOP_SERVICE);
 				Settings.getInstance(this).setServiceState(false);
 				for (StartStopListener listener : sStartStopListeners)
@@ -142,6 +185,10 @@ public class MAXSService extends Service {
 				sIsRunning = false;
 			}
 			break;
+		case Constants.ACTION_SUBSCRIPTIONS_ALARM:
+			sticky = sIsRunning;
+			mSubscriptions.onAlarm();
+			break;
 		default:
 			throw new IllegalStateException("MAXSService unknown action " + action);
 		}
@@ -165,69 +212,121 @@ public class MAXSService extends Service {
 	 * @param fullCommand
 	 * @param origin
 	 *            the transport the command arrived with
+	 * @param trace
+	 *            the trace started by the transport, may be null
+	 * @return the ID of the command
 	 */
-	public void performCommand(String fullCommand, CommandOrigin origin) {
+	public int performCommand(String fullCommand, CommandOrigin origin, TraceContext trace) {
+		if (trace == null) {
+			trace = TraceContext.start("main.received");
+		} else {
+			trace.mark("main.received");
+		}
 		Message errorMsg = null;
-		Message helpMsg = null;
+		Message replyMsg = null;
+		boolean sendLogJournal = false;
+		boolean collectMetrics = false;
 		CommandInformation ci = null;
-		int id = Settings.getInstance(this).getNextCommandId();
-		String[] splitedFullCommand = fullCommand.split(" ", 3);
+		int id = CommandIdAllocator.getInstance(this).nextId();
+		CommandRouter.Route route = mModuleRegistry.getCommandRouter().route(fullCommand,
+				sRoutes.get());
+		HelpIndex helpIndex = mModuleRegistry.getHelpIndex();
 
-		String command = splitedFullCommand[0].toLowerCase(Locale.US);
+		String command;
+		// The sub command token is only created for the commands that don't resolve it
 		String subCmd = null;
-		if (splitedFullCommand.length > 1) subCmd = splitedFullCommand[1].toLowerCase(Locale.US);
-		String args = null;
-		if (splitedFullCommand.length > 2) args = splitedFullCommand[2];
-
-		if ("help".equals(command)) {
-			helpMsg = ComposeHelp.getHelp(subCmd, args, this);
+		String args = route.getArgs();
+
+		if (route.isCommand("help")) {
+			command = "help";
+			subCmd = route.getSubCommandToken();
+			replyMsg = ComposeHelp.getHelp(subCmd, args, helpIndex);
+		} else if (route.isCommand(SendLogJournal.COMMAND)) {
+			command = SendLogJournal.COMMAND;
+			subCmd = route.getSubCommandToken();
+			sendLogJournal = true;
+		} else if (route.isCommand(CollectMetrics.COMMAND)) {
+			command = CollectMetrics.COMMAND;
+			subCmd = route.getSubCommandToken();
+			collectMetrics = true;
+		} else if (route.isCommand(CommandTraces.COMMAND)) {
+			command = CommandTraces.COMMAND;
+			subCmd = route.getSubCommandToken();
+			replyMsg = mCommandTraces.getReply(subCmd);
+		} else if (route.isCommand(Subscriptions.COMMAND)) {
+			command = Subscriptions.COMMAND;
+			subCmd = route.getSubCommandToken();
+			replyMsg = mSubscriptions.getReply(route, origin);
+		} else if (route.isCommand(CancelCommand.COMMAND)) {
+			command = CancelCommand.COMMAND;
+			subCmd = route.getSubCommandToken();
+			replyMsg = CancelCommand.cancel(subCmd, mCommandTable,
+					mModuleRegistry.getCommandRouter(), mModuleCommandChannels);
 		} else {
-			ci = mModuleRegistry.get(command);
+			ci = route.getCommandInformation();
 			if (ci == null) {
-				errorMsg = new Message("Unknown command: " + command);
+				command = route.getCommandToken();
+				subCmd = route.getSubCommandToken();
+				errorMsg = ComposeHelp.getUnknownCommand(command, helpIndex);
 			} else {
-				// Map a possible short command to the long version, so that the modules only have
-				// to care about the long versions
+				// Map a possible short command or prefix to the long version, so that the modules
+				// only have to care about the long versions
 				command = ci.getCommand();
 
-				if (subCmd == null) {
+				if (!route.hasSubCommandToken()) {
 					// User sent just a command without a subcommand, find the default one
 					subCmd = ci.getDefaultSubCommand();
 					if (subCmd == null) errorMsg = new Message("No default sub command");
-				} else if (!ci.isKnownSubCommand(subCmd)) {
+				} else if (route.getSubCommand() != null) {
+					subCmd = route.getSubCommand();
+				} else {
 					// User sent a String that is not know as subcommand, try to get the default
 					// subcommand with arguments
 					subCmd = ci.getDefaultSubcommandWithArgs();
 					if (subCmd == null) {
-						errorMsg = new Message("No default sub command with args");
+						errorMsg = ComposeHelp.getUnknownSubCommand(
+								"No default sub command with args", command,
+								route.getSubCommandToken(), helpIndex);
 					} else {
-						if (splitedFullCommand.length > 2) {
-							args = splitedFullCommand[1] + ' ' + splitedFullCommand[2];
-						} else {
-							args = splitedFullCommand[1];
-						}
+						args = route.getArgsIncludingSubCommandToken();
 					}
 				}
 			}
 		}
 
-		// No matter what happened (normal command, help command or error message), always add the
+		// No matter what happened (normal command, main command or error message), always add the
 		// received command to the command table
 		mCommandTable.addCommand(id, command, subCmd, args, origin);
+		mCommandTraces.begin(id, subCmd == null ? command : command + ' ' + subCmd);
+		trace.mark("main.routed");
+
+		// Replies are routed by the command table, hence start sending the journal and collecting
+		// the metrics only now
+		if (sendLogJournal) {
+			replyMsg = SendLogJournal.send(route, origin, id, this, mModuleCommandChannels,
+					mTransportChannels);
+		}
+		if (collectMetrics) {
+			CollectMetrics.collect(id, trace, this, mModuleCommandChannels, mTransportChannels);
+		}
 
+		COMMANDS_RECEIVED.inc();
 		if (errorMsg != null) {
+			COMMANDS_REJECTED.inc();
 			errorMsg.setId(id);
+			errorMsg.setTrace(trace);
 			send(errorMsg);
-		} else if (helpMsg != null) {
-			helpMsg.setId(id);
-			send(helpMsg);
+		} else if (replyMsg != null) {
+			replyMsg.setId(id);
+			replyMsg.setTrace(trace);
+			send(replyMsg);
 		} else if (ci != null) {
 			String modulePackage = ci.getPackageForSubCommand(subCmd);
-			Intent intent = new Intent(GlobalConstants.ACTION_PERFORM_COMMAND);
-			intent.putExtra(GlobalConstants.EXTRA_COMMAND, new Command(command, subCmd, args, id));
-			intent.setClassName(modulePackage, modulePackage + ".ModuleService");
-			startService(intent);
+			Command moduleCommand = new Command(command, subCmd, args, id);
+			moduleCommand.setTrace(trace);
+			mModuleCommandChannels.performCommand(modulePackage, moduleCommand);
 		}
+		return id;
 	}
 
 	protected synchronized void setRecentContact(final String recentContactInfo,
@@ -264,10 +363,51 @@ public class MAXSService extends Service {
 	}
 
 	protected void send(Message message) {
+		send(message, GlobalConstants.MAIN_PACKAGE);
+	}
+
+	/**
+	 * Send the message to the transports. The message is handed to the {@link OutboundScheduler},
+	 * which decides when, and if, it is delivered.
+	 *
+	 * @param message
+	 * @param source
+	 *            the package of the component that send the message
+	 */
+	protected void send(Message message, String source) {
 		if (!sIsRunning) {
 			LOG.d("send: MAXS main service not running, discarding messsage=" + message);
 			return;
 		}
+		if (mSubscriptions.isUnchangedReply(message)) {
+			LOG.d("send: discarding unchanged reply to subscribed command, message=" + message);
+			return;
+		}
+		MESSAGES_SENT.inc();
+
+		final TraceContext trace = message.getTrace();
+		if (trace != null && message.getId() != Message.NO_ID) {
+			mCommandTraces.update(message.getId(), trace.mark("main.reply"));
+		}
+		mOutboundScheduler.submit(message, source);
+	}
+
+	/**
+	 * Add the time the transport sent the reply as last stage to the trace of the command.
+	 *
+	 * @param id
+	 * @param sentAt
+	 */
+	void replySent(int id, long sentAt) {
+		mCommandTraces.sent(id, sentAt);
+	}
+
+	/**
+	 * Deliver the message to the transports. Invoked by the {@link OutboundScheduler}.
+	 *
+	 * @param message
+	 */
+	void deliver(Message message) {
 		final int id = message.getId();
 
 		CommandOrigin origin = null;
@@ -276,17 +416,18 @@ public class MAXSService extends Service {
 			origin = entry.mOrigin;
 		}
 
-		LOG.d("send() origin='" + origin + "' message=" + message);
+		LOG.d("deliver() origin='" + origin + "' message=" + message);
+
+		final TraceContext trace = message.getTrace();
+		if (trace != null && id != Message.NO_ID) {
+			mCommandTraces.update(id, trace.mark("main.scheduled"));
+		}
 
 		if (origin != null) {
 			Intent intent = origin.getIntentFor();
 			intent.putExtra(GlobalConstants.EXTRA_MESSAGE, message);
 			intent.putExtra(TransportConstants.EXTRA_COMMAND_ORIGIN, origin);
-			ComponentName usedTransport = startService(intent);
-			if (usedTransport == null) {
-				LOG.w("send: transport not found transportPackage=" + origin.getPackage()
-						+ " serviceClass=" + origin.getServiceClass());
-			}
+			mTransportChannels.send(origin.getPackage(), intent);
 		} else {
 			// Broadcast this message
 			List<TransportInformation> transportList = mTransportRegistry.getAllTransports();
@@ -299,12 +440,7 @@ public class MAXSService extends Service {
 							+ TransportConstants.TRANSPORT_SERVICE);
 					intent.putExtra(GlobalConstants.EXTRA_MESSAGE, message);
 					// no originIssuerInfo or originId info available here
-					ComponentName usedTransport = startService(intent);
-					if (usedTransport == null) {
-						LOG.w("send: transport not found transportPackage=" + transportPackage
-								+ " serviceClass=" + transportPackage
-								+ TransportConstants.TRANSPORT_SERVICE);
-					}
+					mTransportChannels.send(transportPackage, intent);
 				}
 
 			}
@@ -321,14 +457,21 @@ public class MAXSService extends Service {
 		}
 	}
 
+	/**
+	 * Invoked by the {@link StatusRegistry} with the status values that changed.
+	 *
+	 * @param changed
+	 */
+	void statusChanged(List<StatusInformation> changed) {
+		mSubscriptions.statusChanged(changed);
+	}
+
 	void sendCurrentStatus(CurrentStatus status, String transportPackage) {
 		final String cls = transportPackage + TransportConstants.TRANSPORT_SERVICE;
 		final Intent intent = new Intent(TransportConstants.ACTION_SET_STATUS);
 		intent.setClassName(transportPackage, cls);
 		intent.putExtra(GlobalConstants.EXTRA_CONTENT, status);
-		ComponentName usedTransport = startService(intent);
-		if (usedTransport == null)
-			LOG.w("setStatus: transport not found package=" + transportPackage + " class=" + cls);
+		mTransportChannels.send(transportPackage, intent);
 	}
 
 	private void sendActionToAllTransportServices(String action) {
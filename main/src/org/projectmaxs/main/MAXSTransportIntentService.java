@@ -18,6 +18,7 @@
 package org.projectmaxs.main;
 
 import org.projectmaxs.shared.global.GlobalConstants;
+import org.projectmaxs.shared.global.TraceContext;
 import org.projectmaxs.shared.global.util.Log;
 import org.projectmaxs.shared.maintransport.CommandOrigin;
 import org.projectmaxs.shared.maintransport.CurrentStatus;
@@ -65,7 +66,8 @@ public class MAXSTransportIntentService extends MAXSIntentServiceWithMAXSService
 			String fullCommand = intent.getStringExtra(TransportConstants.EXTRA_COMMAND);
 			CommandOrigin origin = intent
 					.getParcelableExtra(TransportConstants.EXTRA_COMMAND_ORIGIN);
-			maxsService.performCommand(fullCommand, origin);
+			TraceContext trace = intent.getParcelableExtra(GlobalConstants.EXTRA_TRACE);
+			maxsService.performCommand(fullCommand, origin, trace);
 			break;
 		case TransportConstants.ACTION_UPDATE_TRANSPORT_STATUS:
 			String status = intent.getStringExtra(GlobalConstants.EXTRA_CONTENT);
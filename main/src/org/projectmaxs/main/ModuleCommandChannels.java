@@ -0,0 +1,287 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.projectmaxs.shared.global.GlobalConstants;
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.aidl.IMAXSMetricsReceiver;
+import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.shared.mainmodule.Command;
+import org.projectmaxs.shared.mainmodule.IMAXSMainReplyChannel;
+import org.projectmaxs.shared.mainmodule.IMAXSModuleCommandChannel;
+import org.projectmaxs.shared.mainmodule.ModuleInformation;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.pm.PackageManager;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+
+/**
+ * Bound connections to the modules. A module is bound when it registers or when a command is send
+ * to it, the binding is kept until the module was idle for {@link #IDLE_TIMEOUT_MILLIS}, it is
+ * unregistered or MAXSService is destroyed. Commands and replies are send as one-way calls over
+ * the binding, which avoids the cost of resolving and starting a service for every command.
+ * Whenever a binding is not (yet) available, the command is send with an intent instead.
+ */
+public class ModuleCommandChannels implements ModuleRegistry.ChangeListener {
+
+	private static final Log LOG = Log.getLog();
+
+	/**
+	 * Unbind from a module once it neither received a command nor send a reply for this long.
+	 * Longer than the default timeout of module commands, so that a running command does not lose
+	 * the binding which keeps its module alive.
+	 */
+	private static final long IDLE_TIMEOUT_MILLIS = 10 * 60 * 1000;
+
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	private final MAXSService mMaxsService;
+	private final ModuleRegistry mModuleRegistry;
+	private final Map<String, Channel> mChannels = new HashMap<String, Channel>();
+
+	private final IMAXSMainReplyChannel.Stub mReplyChannel = new IMAXSMainReplyChannel.Stub() {
+		@Override
+		public void send(Message message) {
+			if (mMaxsService.checkCallingPermission(GlobalConstants.PERMISSION_USE_MAIN_AS_MODULE)
+					!= PackageManager.PERMISSION_GRANTED) {
+				LOG.w("send: caller lacks permission "
+						+ GlobalConstants.PERMISSION_USE_MAIN_AS_MODULE);
+				return;
+			}
+			final String source = mMaxsService.getPackageManager().getNameForUid(
+					Binder.getCallingUid());
+			mMaxsService.send(message, source);
+			replyReceived(source);
+		}
+	};
+
+	ModuleCommandChannels(MAXSService maxsService) {
+		mMaxsService = maxsService;
+		mModuleRegistry = ModuleRegistry.getInstance(maxsService);
+		mModuleRegistry.addChangeListener(this);
+	}
+
+	/**
+	 * Send the command to the given module.
+	 *
+	 * @param modulePackage
+	 * @param command
+	 */
+	void performCommand(String modulePackage, Command command) {
+		final IMAXSModuleCommandChannel commandChannel = getChannel(modulePackage).mCommandChannel;
+		if (commandChannel != null) {
+			try {
+				commandChannel.performCommand(command, mReplyChannel);
+				return;
+			} catch (RemoteException e) {
+				LOG.w("performCommand: command channel of " + modulePackage
+						+ " unavailable, falling back to intent", e);
+			}
+		}
+
+		Intent intent = new Intent(GlobalConstants.ACTION_PERFORM_COMMAND);
+		intent.putExtra(GlobalConstants.EXTRA_COMMAND, command);
+		intent.setClassName(modulePackage, modulePackage + ".ModuleService");
+		ComponentName usedModule = mMaxsService.startService(intent);
+		if (usedModule == null) {
+			LOG.w("performCommand: module not found modulePackage=" + modulePackage);
+		}
+	}
+
+	/**
+	 * Ask the module to cancel the command with the given ID. The request is send as intent, so
+	 * that it reaches the module even if the command is still queued behind others.
+	 *
+	 * @param modulePackage
+	 * @param commandId
+	 * @return true if the module was found
+	 */
+	boolean cancelCommand(String modulePackage, int commandId) {
+		Intent intent = new Intent(GlobalConstants.ACTION_CANCEL_COMMAND);
+		intent.putExtra(GlobalConstants.EXTRA_COMMAND_ID, commandId);
+		intent.setClassName(modulePackage, modulePackage + ".ModuleService");
+		ComponentName usedModule = mMaxsService.startService(intent);
+		if (usedModule == null) {
+			LOG.w("cancelCommand: module not found modulePackage=" + modulePackage);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Ask all bound modules to send their metrics to the given receiver.
+	 *
+	 * @param receiver
+	 * @return the number of modules asked
+	 */
+	synchronized int requestMetrics(IMAXSMetricsReceiver receiver) {
+		int requested = 0;
+		for (Channel channel : mChannels.values()) {
+			final IMAXSModuleCommandChannel commandChannel = channel.mCommandChannel;
+			if (commandChannel == null) continue;
+			try {
+				commandChannel.requestMetrics(receiver);
+				requested++;
+			} catch (RemoteException e) {
+				LOG.w("requestMetrics: command channel of " + channel.mModulePackage
+						+ " unavailable", e);
+			}
+		}
+		return requested;
+	}
+
+	/**
+	 * Ask the given module to write its log journal to the given file descriptor.
+	 *
+	 * @param modulePackage
+	 * @param since
+	 * @param filter
+	 * @param out
+	 * @return true if the module was asked, false if it is not bound
+	 */
+	synchronized boolean exportJournal(String modulePackage, long since, String filter,
+			ParcelFileDescriptor out) {
+		final Channel channel = mChannels.get(modulePackage);
+		if (channel == null || channel.mCommandChannel == null) return false;
+		try {
+			channel.mCommandChannel.exportJournal(since, filter, out);
+			return true;
+		} catch (RemoteException e) {
+			LOG.w("exportJournal: command channel of " + modulePackage + " unavailable", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Unbind from all modules.
+	 */
+	void close() {
+		// Not synchronized, ModuleRegistry invokes the listener while holding its own lock
+		mModuleRegistry.removeChangeListener(this);
+		synchronized (this) {
+			for (Channel channel : mChannels.values())
+				channel.unbind();
+			mChannels.clear();
+		}
+	}
+
+	@Override
+	public void moduleRegistred(ModuleInformation module) {
+		if (module == null) return;
+		getChannel(module.getModulePackage());
+	}
+
+	@Override
+	public synchronized void moduleUnregistred(ModuleInformation module) {
+		if (module == null) return;
+		Channel channel = mChannels.remove(module.getModulePackage());
+		if (channel != null) channel.unbind();
+	}
+
+	private synchronized Channel getChannel(String modulePackage) {
+		Channel channel = mChannels.get(modulePackage);
+		if (channel == null) {
+			channel = new Channel(modulePackage);
+			// Try again with the next command if binding failed
+			if (!channel.bind()) return channel;
+			mChannels.put(modulePackage, channel);
+		}
+		channel.used();
+		return channel;
+	}
+
+	private synchronized void replyReceived(String modulePackage) {
+		if (modulePackage == null) return;
+		final Channel channel = mChannels.get(modulePackage);
+		if (channel != null) channel.used();
+	}
+
+	private final class Channel implements ServiceConnection {
+		private final String mModulePackage;
+		private volatile IMAXSModuleCommandChannel mCommandChannel;
+		private boolean mBound;
+
+		private final Runnable mUnbindIdle = new Runnable() {
+			@Override
+			public void run() {
+				synchronized (ModuleCommandChannels.this) {
+					if (mChannels.get(mModulePackage) != Channel.this) return;
+					LOG.d("unbindIdle: " + mModulePackage);
+					mChannels.remove(mModulePackage);
+					unbind();
+				}
+			}
+		};
+
+		Channel(String modulePackage) {
+			mModulePackage = modulePackage;
+		}
+
+		/**
+		 * Restart the idle timeout of the channel.
+		 */
+		void used() {
+			mHandler.removeCallbacks(mUnbindIdle);
+			mHandler.postDelayed(mUnbindIdle, IDLE_TIMEOUT_MILLIS);
+		}
+
+		boolean bind() {
+			Intent intent = new Intent(GlobalConstants.ACTION_BIND_COMMAND_CHANNEL);
+			intent.setClassName(mModulePackage, mModulePackage + ".ModuleService");
+			try {
+				mBound = mMaxsService.bindService(intent, this, Context.BIND_AUTO_CREATE);
+			} catch (SecurityException e) {
+				LOG.w("bind: not allowed to bind to " + mModulePackage, e);
+			}
+			if (!mBound) LOG.d("bind: could not bind to " + mModulePackage);
+			return mBound;
+		}
+
+		void unbind() {
+			mHandler.removeCallbacks(mUnbindIdle);
+			mCommandChannel = null;
+			if (!mBound) return;
+			mBound = false;
+			mMaxsService.unbindService(this);
+		}
+
+		@Override
+		public void onServiceConnected(ComponentName name, IBinder service) {
+			LOG.d("onServiceConnected: " + mModulePackage);
+			mCommandChannel = IMAXSModuleCommandChannel.Stub.asInterface(service);
+		}
+
+		@Override
+		public void onServiceDisconnected(ComponentName name) {
+			// The module's process died. Android will re-establish the connection once the
+			// module's service is restarted, until then commands are send with intents.
+			LOG.d("onServiceDisconnected: " + mModulePackage);
+			mCommandChannel = null;
+		}
+	}
+}
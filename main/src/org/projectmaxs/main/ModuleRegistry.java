@@ -65,8 +65,22 @@ public class ModuleRegistry {
 	 */
 	private final Map<String, Set<String>> mPackageShortCommands = new HashMap<String, Set<String>>();
 
+	/**
+	 * Guards the change listeners and the publication of a new snapshot together with the
+	 * notification of the listeners, but never a database write. New listeners thus see every
+	 * change exactly once, either in their copy or as notification.
+	 */
+	private final Object mPublishLock = new Object();
+
 	private final Set<ChangeListener> mChangeListeners = new HashSet<ChangeListener>();
 
+	/**
+	 * An immutable copy of the registry, replaced on every registry change. Reads on the command
+	 * dispatch path are served from the snapshot, so that they never wait for a module
+	 * registration, which also has to write to the database.
+	 */
+	private volatile Snapshot mSnapshot = Snapshot.EMPTY;
+
 	private ModuleRegistryTable mModuleRegistryTable;
 	private CommandHelpTable mCommandHelpTable;
 
@@ -86,19 +100,23 @@ public class ModuleRegistry {
 		Iterator<ModuleInformation> it = mModuleRegistryTable.getAll().iterator();
 		while (it.hasNext())
 			add(it.next());
+		publishSnapshot();
 	}
 
-	public synchronized void addChangeListener(ChangeListener listener) {
-		mChangeListeners.add(listener);
+	public void addChangeListener(ChangeListener listener) {
+		synchronized (mPublishLock) {
+			mChangeListeners.add(listener);
+		}
 	}
 
-	public synchronized boolean removeChangeListener(ChangeListener listener) {
-		return mChangeListeners.remove(listener);
+	public boolean removeChangeListener(ChangeListener listener) {
+		synchronized (mPublishLock) {
+			return mChangeListeners.remove(listener);
+		}
 	}
 
-	public synchronized List<ModuleInformation> getAllModules() {
-		return new ArrayList<ModuleInformation>(Collections.unmodifiableCollection(mPackageCommands
-				.values()));
+	public List<ModuleInformation> getAllModules() {
+		return new ArrayList<ModuleInformation>(mSnapshot.mModules);
 	}
 
 	public List<String> getAllModulePackages() {
@@ -108,30 +126,50 @@ public class ModuleRegistry {
 		return packages;
 	}
 
-	public synchronized List<ModuleInformation> getCopyAddListener(ChangeListener listener) {
-		addChangeListener(listener);
-		return new ArrayList<ModuleInformation>(mPackageCommands.values());
+	public List<ModuleInformation> getCopyAddListener(ChangeListener listener) {
+		synchronized (mPublishLock) {
+			mChangeListeners.add(listener);
+			return getAllModules();
+		}
+	}
+
+	/**
+	 * Get the routing table for the currently registered commands. Does not block.
+	 *
+	 * @return the command router
+	 */
+	protected CommandRouter getCommandRouter() {
+		return mSnapshot.mCommandRouter;
 	}
 
-	protected synchronized CommandInformation get(String command) {
-		command = mShortCommandMap.containsKey(command) ? mShortCommandMap.get(command) : command;
-		return mCommands.get(command);
+	/**
+	 * Get the help of the currently registered commands. Does not block.
+	 *
+	 * @return the help index
+	 */
+	public HelpIndex getHelpIndex() {
+		return mSnapshot.mHelpIndex;
 	}
 
 	public synchronized void unregisterModule(String modulePackage) {
 		if (!mModuleRegistryTable.containsModule(modulePackage)) return;
-		remove(modulePackage);
+		ModuleInformation removed = remove(modulePackage);
+		publish(removed, null);
+		mCommandHelpTable.deleteEntriesOf(modulePackage);
 		mModuleRegistryTable.deleteModuleInformation(modulePackage);
 	}
 
 	protected synchronized void registerModule(ModuleInformation moduleInformation) {
+		final String modulePackage = moduleInformation.getModulePackage();
 		// first remove all traces of the module
-		remove(moduleInformation.getModulePackage());
+		ModuleInformation removed = remove(modulePackage);
 		add(moduleInformation);
+		publish(removed, moduleInformation);
+		mCommandHelpTable.deleteEntriesOf(modulePackage);
 		mModuleRegistryTable.insertOrReplace(moduleInformation);
 		Set<CommandHelp> help = moduleInformation.getHelp();
 		if (help.size() > 0) {
-			mCommandHelpTable.addCommandHelp(moduleInformation.getModulePackage(), help);
+			mCommandHelpTable.addCommandHelp(modulePackage, help);
 		}
 	}
 
@@ -161,12 +199,15 @@ public class ModuleRegistry {
 		}
 		mPackageCommands.put(modulePackage, moduleInformation);
 		mPackageShortCommands.put(modulePackage, packageShortCommands);
-
-		for (ChangeListener l : mChangeListeners)
-			l.moduleRegistred(moduleInformation);
 	}
 
-	private void remove(String modulePackage) {
+	/**
+	 * Remove the module from the in-memory registry.
+	 * 
+	 * @param modulePackage
+	 * @return the removed module, or null if the module was not registered
+	 */
+	private ModuleInformation remove(String modulePackage) {
 		Iterator<CommandInformation> it = mCommands.values().iterator();
 		while (it.hasNext()) {
 			CommandInformation ci = it.next();
@@ -184,12 +225,56 @@ public class ModuleRegistry {
 			}
 			mPackageShortCommands.remove(modulePackage);
 		}
-		ModuleInformation module = mPackageCommands.get(modulePackage);
-		mPackageCommands.remove(modulePackage);
-		for (ChangeListener l : mChangeListeners)
-			l.moduleUnregistred(module);
+		return mPackageCommands.remove(modulePackage);
+	}
 
-		mCommandHelpTable.deleteEntriesOf(modulePackage);
+	/**
+	 * Publish a new snapshot and notify the listeners about the change.
+	 * 
+	 * @param removed
+	 *            the removed module, may be null
+	 * @param added
+	 *            the added module, may be null
+	 */
+	private void publish(ModuleInformation removed, ModuleInformation added) {
+		synchronized (mPublishLock) {
+			publishSnapshot();
+			if (removed != null) {
+				for (ChangeListener l : mChangeListeners)
+					l.moduleUnregistred(removed);
+			}
+			if (added != null) {
+				for (ChangeListener l : mChangeListeners)
+					l.moduleRegistred(added);
+			}
+		}
+	}
+
+	private void publishSnapshot() {
+		List<CommandInformation> commands = new ArrayList<CommandInformation>(mCommands.size());
+		for (CommandInformation ci : mCommands.values())
+			commands.add(new CommandInformation(ci));
+		List<ModuleInformation> modules = new ArrayList<ModuleInformation>(
+				mPackageCommands.values());
+		mSnapshot = new Snapshot(Collections.unmodifiableList(modules), CommandRouter.compile(
+				commands, new HashMap<String, String>(mShortCommandMap)), HelpIndex.compile(
+				modules, commands));
+	}
+
+	private static final class Snapshot {
+		static final Snapshot EMPTY = new Snapshot(Collections.<ModuleInformation> emptyList(),
+				CommandRouter.EMPTY, HelpIndex.EMPTY);
+
+		final List<ModuleInformation> mModules;
+		final CommandRouter mCommandRouter;
+		final HelpIndex mHelpIndex;
+
+		Snapshot(List<ModuleInformation> modules, CommandRouter commandRouter,
+				HelpIndex helpIndex) {
+			mModules = modules;
+			mCommandRouter = commandRouter;
+			mHelpIndex = helpIndex;
+		}
 	}
 
 	public interface ChangeListener {
@@ -0,0 +1,304 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.messagecontent.AbstractElement;
+import org.projectmaxs.shared.global.util.LatencyHistogram;
+import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.shared.global.util.Metrics;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+/**
+ * Schedules the messages main sends to the transports. Replies to commands are always delivered
+ * before notifications, e.g. about an incoming SMS, so that a burst of notifications does not
+ * delay the replies the master is waiting for. Messages are delivered one at a time by a single
+ * thread, which is blocked while the transports apply backpressure, so notifications pile up here
+ * when the transports don't keep up.
+ * <p>
+ * Notifications are rate limited per source with a token bucket. A notification exceeding the rate
+ * of its source, or arriving while {@link #MAX_QUEUED_NOTIFICATIONS} notifications are waiting, is
+ * handled according to the configured {@link OverflowPolicy}. Replies are never held back.
+ * </p>
+ */
+public class OutboundScheduler {
+
+	private static final Log LOG = Log.getLog();
+
+	private static final int MAX_QUEUED_NOTIFICATIONS = 64;
+
+	/**
+	 * The number of notifications a source may send in a burst.
+	 */
+	private static final int BUCKET_CAPACITY = 10;
+
+	/**
+	 * The number of held back notifications whose content is included in a digest, older ones are
+	 * only counted.
+	 */
+	private static final int DIGEST_MAX_MESSAGES = 5;
+
+	/**
+	 * How often it is checked if the digests can be send.
+	 */
+	private static final long DIGEST_INTERVAL_MILLIS = 10 * 1000;
+
+	private static final Metrics.Gauge REPLIES_QUEUED = Metrics
+			.gauge("main.outbound_replies_queued");
+	private static final Metrics.Gauge NOTIFICATIONS_QUEUED = Metrics
+			.gauge("main.outbound_notifications_queued");
+	private static final Metrics.Counter DROPPED = Metrics.counter("main.outbound_dropped");
+	private static final Metrics.Counter DIGESTED = Metrics.counter("main.outbound_digested");
+	private static final LatencyHistogram QUEUEING_LATENCY = Metrics
+			.histogram("main.outbound_queueing_latency");
+
+	public enum OverflowPolicy {
+		/**
+		 * Discard the notifications that exceed the rate.
+		 */
+		DROP,
+
+		/**
+		 * Combine the notifications that exceed the rate into one message per source, send once
+		 * the source is within its rate again.
+		 */
+		DIGEST,
+	}
+
+	private final MAXSService mMaxsService;
+	private final Settings mSettings;
+	private final HandlerThread mHandlerThread;
+	private final Handler mHandler;
+
+	private final Queue<Outbound> mReplies = new ArrayDeque<Outbound>();
+	private final Queue<Outbound> mNotifications = new ArrayDeque<Outbound>();
+	private final Map<String, TokenBucket> mBuckets = new HashMap<String, TokenBucket>();
+	private final Map<String, Digest> mDigests = new LinkedHashMap<String, Digest>();
+
+	private boolean mDrainScheduled;
+	private boolean mDigestsScheduled;
+
+	private final Runnable mDrain = new Runnable() {
+		@Override
+		public void run() {
+			Outbound outbound;
+			while ((outbound = poll()) != null) {
+				QUEUEING_LATENCY.record(SystemClock.elapsedRealtime() - outbound.mQueuedAt);
+				mMaxsService.deliver(outbound.mMessage);
+			}
+		}
+	};
+
+	private final Runnable mSendDigests = new Runnable() {
+		@Override
+		public void run() {
+			sendDigests();
+		}
+	};
+
+	OutboundScheduler(MAXSService maxsService) {
+		mMaxsService = maxsService;
+		mSettings = Settings.getInstance(maxsService);
+		mHandlerThread = new HandlerThread(OutboundScheduler.class.getSimpleName());
+		mHandlerThread.start();
+		mHandler = new Handler(mHandlerThread.getLooper());
+	}
+
+	/**
+	 * Schedule the message for delivery. Messages with an ID are replies to a command, all others
+	 * are notifications.
+	 *
+	 * @param message
+	 * @param source
+	 *            the package of the component that send the message
+	 */
+	synchronized void submit(Message message, String source) {
+		final long now = SystemClock.elapsedRealtime();
+		if (message.getId() != Message.NO_ID) {
+			mReplies.add(new Outbound(message, now));
+		} else {
+			TokenBucket bucket = mBuckets.get(source);
+			if (bucket == null) {
+				bucket = new TokenBucket(now);
+				mBuckets.put(source, bucket);
+			}
+			final int perMinute = mSettings.getOutboundNotificationsPerMinute();
+			if (mNotifications.size() >= MAX_QUEUED_NOTIFICATIONS
+					|| !bucket.tryAcquire(now, perMinute)) {
+				overflow(message, source);
+				return;
+			}
+			mNotifications.add(new Outbound(message, now));
+		}
+		updateGauges();
+		if (!mDrainScheduled) {
+			mDrainScheduled = true;
+			mHandler.post(mDrain);
+		}
+	}
+
+	/**
+	 * Stop delivering messages. Messages not yet delivered are discarded.
+	 */
+	synchronized void close() {
+		final int pending = mReplies.size() + mNotifications.size() + mDigests.size();
+		if (pending > 0) LOG.i("close: discarding " + pending + " undelivered messages");
+		mReplies.clear();
+		mNotifications.clear();
+		mDigests.clear();
+		updateGauges();
+		mHandlerThread.quit();
+	}
+
+	private synchronized Outbound poll() {
+		Outbound outbound = mReplies.poll();
+		if (outbound == null) outbound = mNotifications.poll();
+		if (outbound == null) {
+			mDrainScheduled = false;
+			return null;
+		}
+		updateGauges();
+		return outbound;
+	}
+
+	private void overflow(Message message, String source) {
+		switch (mSettings.getOutboundOverflowPolicy()) {
+		case DROP:
+			DROPPED.inc();
+			LOG.d("overflow: dropping notification from " + source);
+			break;
+		case DIGEST:
+			DIGESTED.inc();
+			Digest digest = mDigests.get(source);
+			if (digest == null) {
+				digest = new Digest(source);
+				mDigests.put(source, digest);
+			}
+			digest.add(message);
+			if (!mDigestsScheduled) {
+				mDigestsScheduled = true;
+				mHandler.postDelayed(mSendDigests, DIGEST_INTERVAL_MILLIS);
+			}
+			break;
+		default:
+			throw new IllegalStateException();
+		}
+	}
+
+	private synchronized void sendDigests() {
+		mDigestsScheduled = false;
+		final long now = SystemClock.elapsedRealtime();
+		final int perMinute = mSettings.getOutboundNotificationsPerMinute();
+		Iterator<Digest> it = mDigests.values().iterator();
+		while (it.hasNext() && mNotifications.size() < MAX_QUEUED_NOTIFICATIONS) {
+			Digest digest = it.next();
+			if (!mBuckets.get(digest.mSource).tryAcquire(now, perMinute)) continue;
+			it.remove();
+			mNotifications.add(new Outbound(digest.toMessage(), now));
+		}
+		updateGauges();
+		if (!mDrainScheduled && !mNotifications.isEmpty()) {
+			mDrainScheduled = true;
+			mHandler.post(mDrain);
+		}
+		if (!mDigests.isEmpty()) {
+			mDigestsScheduled = true;
+			mHandler.postDelayed(mSendDigests, DIGEST_INTERVAL_MILLIS);
+		}
+	}
+
+	private void updateGauges() {
+		REPLIES_QUEUED.set(mReplies.size());
+		NOTIFICATIONS_QUEUED.set(mNotifications.size());
+	}
+
+	private static final class Outbound {
+		final Message mMessage;
+		final long mQueuedAt;
+
+		Outbound(Message message, long queuedAt) {
+			mMessage = message;
+			mQueuedAt = queuedAt;
+		}
+	}
+
+	private static final class TokenBucket {
+		private double mTokens = BUCKET_CAPACITY;
+		private long mRefilledAt;
+
+		TokenBucket(long now) {
+			mRefilledAt = now;
+		}
+
+		/**
+		 * Take a token from the bucket, after refilling it with the tokens earned since the last
+		 * refill.
+		 *
+		 * @param now
+		 * @param perMinute
+		 *            the rate at which the bucket is refilled, 0 for no limit
+		 * @return true if a token was available
+		 */
+		boolean tryAcquire(long now, int perMinute) {
+			if (perMinute <= 0) return true;
+			mTokens = Math.min(BUCKET_CAPACITY, mTokens + (now - mRefilledAt) * perMinute
+					/ 60000d);
+			mRefilledAt = now;
+			if (mTokens < 1) return false;
+			mTokens--;
+			return true;
+		}
+	}
+
+	private static final class Digest {
+		final String mSource;
+		final Queue<Message> mMessages = new ArrayDeque<Message>(DIGEST_MAX_MESSAGES);
+		int mCount;
+
+		Digest(String source) {
+			mSource = source;
+		}
+
+		void add(Message message) {
+			if (mMessages.size() == DIGEST_MAX_MESSAGES) mMessages.poll();
+			mMessages.add(message);
+			mCount++;
+		}
+
+		Message toMessage() {
+			Message digest = new Message(mCount + " notifications from " + mSource
+					+ " were held back" + (mCount > mMessages.size() ? ", the most recent:" : ":"));
+			for (Message message : mMessages) {
+				Iterator<AbstractElement> it = message.getElementsIt();
+				while (it.hasNext())
+					digest.add(it.next());
+			}
+			return digest;
+		}
+	}
+}
@@ -20,6 +20,7 @@ package org.projectmaxs.main;
 import org.projectmaxs.main.database.CommandTable;
 import org.projectmaxs.shared.global.GlobalConstants;
 import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.shared.global.util.SQLiteUtil;
 
 import android.app.AlarmManager;
 import android.app.IntentService;
@@ -51,20 +52,22 @@ public class PurgeOldCommandsService extends IntentService {
 		LOG.d("onHandleIntent: Alarm intent received. Current entry count: "
 				+ commandTable.getEntryCount());
 
-		int[] oldCommandIds = commandTable.getOldEntries();
-		if (oldCommandIds == null) {
+		// Broadcast every purged chunk on its own, a single broadcast with all IDs could exceed the
+		// binder transaction limit
+		int deleted = commandTable.purgeOldEntries(new SQLiteUtil.PurgeListener() {
+			@Override
+			public void purged(int[] ids) {
+				Intent intent = new Intent(GlobalConstants.ACTION_PURGE_OLD_COMMANDS);
+				intent.putExtra(GlobalConstants.EXTRA_CONTENT, ids);
+				sendBroadcast(intent);
+			}
+		});
+		if (deleted == 0) {
 			LOG.d("onHandleIntent: No old command ids found");
 			return;
 		}
 
-		commandTable.purgeEntries(oldCommandIds);
-
-		LOG.d("onHandleIntent: Deleted " + oldCommandIds.length
-				+ " commands from table. New entry count: " + commandTable.getEntryCount()
-				+ ". Broadcasting purge old commands intent.");
-
-		Intent intent = new Intent(GlobalConstants.ACTION_PURGE_OLD_COMMANDS);
-		intent.putExtra(GlobalConstants.EXTRA_CONTENT, oldCommandIds);
-		sendBroadcast(intent);
+		LOG.d("onHandleIntent: Deleted " + deleted + " commands from table. New entry count: "
+				+ commandTable.getEntryCount() + ". Broadcasted purge old commands intents.");
 	}
 }
@@ -0,0 +1,272 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.aidl.IMAXSOutgoingFileTransferService;
+import org.projectmaxs.shared.global.messagecontent.CommandHelp;
+import org.projectmaxs.shared.global.util.AsyncServiceTask;
+import org.projectmaxs.shared.global.util.AsyncServiceTask.ExceptionHandler;
+import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.shared.global.util.LogJournal;
+import org.projectmaxs.shared.global.util.SharedStringUtil;
+import org.projectmaxs.shared.maintransport.CommandOrigin;
+
+import android.content.Intent;
+import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+
+/**
+ * Handles the 'journal [component] [minutes] [filter]' command, which sends the records of the
+ * last minutes of a {@link LogJournal} as file to the issuer of the command. The journal of MAXS
+ * Main is sent, unless a module or transport is given. Their journal is requested over the module
+ * command channel or the transport channel. The file is sent with the outgoing file transfer
+ * service of the transport the command arrived with.
+ * <p>
+ * The journal is written to a temporary file first, as the file transfer requires the size
+ * upfront. It is never held in memory as a whole.
+ * </p>
+ */
+public class SendLogJournal {
+
+	private static final Log LOG = Log.getLog();
+
+	public static final String COMMAND = "journal";
+
+	static final CommandHelp[] HELP = { new CommandHelp(COMMAND, "", "component minutes",
+			"Send the log journal of the last minutes, 60 if omitted, as file. The component is "
+					+ "main if omitted, or the package name of a module or transport, e.g. "
+					+ "'smsread' or 'xmpp'. Further arguments only send the records containing "
+					+ "them") };
+
+	private static final int DEFAULT_MINUTES = 60;
+
+	private static final String MAIN = "main";
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private enum Kind {
+		Main, Module, Transport,
+	}
+
+	/**
+	 * Start sending the journal.
+	 * 
+	 * @param route
+	 *            the route of the command
+	 * @param origin
+	 * @param id
+	 *            the ID of the command
+	 * @param service
+	 * @param moduleCommandChannels
+	 * @param transportChannels
+	 * @return a Message with the reply to the command
+	 */
+	final static Message send(CommandRouter.Route route, CommandOrigin origin, final int id,
+			final MAXSService service, final ModuleCommandChannels moduleCommandChannels,
+			final TransportChannels transportChannels) {
+		if (origin == null) return new Message("Unknown command origin");
+
+		String args = route.getArgsIncludingSubCommandToken();
+
+		Kind kind = Kind.Main;
+		String component = MAIN;
+		String token = firstToken(args);
+		if (token != null && !SharedStringUtil.isPositiveInteger(token)) {
+			String modulePackage = findPackage(token, ModuleRegistry.getInstance(service)
+					.getAllModulePackages());
+			String transportPackage = findPackage(token, TransportRegistry.getInstance(service)
+					.getAllTransportPackages());
+			if (modulePackage != null) {
+				kind = Kind.Module;
+				component = modulePackage;
+				args = rest(args);
+			} else if (transportPackage != null) {
+				kind = Kind.Transport;
+				component = transportPackage;
+				args = rest(args);
+			} else if (token.equals(MAIN)) {
+				args = rest(args);
+			}
+		}
+
+		final LogJournal journal = LogJournal.getInstance();
+		if (kind == Kind.Main && journal == null) return new Message("No log journal available");
+
+		int minutes = DEFAULT_MINUTES;
+		final String minutesToken = firstToken(args);
+		if (minutesToken != null && SharedStringUtil.isPositiveInteger(minutesToken)) {
+			try {
+				minutes = Integer.parseInt(minutesToken);
+			} catch (NumberFormatException e) {
+				return new Message("Invalid number of minutes: " + minutesToken);
+			}
+			args = rest(args);
+		}
+
+		final String pkg = origin.getPackage();
+		final String filetransferService = TransportRegistry.getInstance(service)
+				.getFiletransferService(pkg);
+		if (filetransferService == null) {
+			return new Message("The transport does not support sending files");
+		}
+		final String receiver = origin.getOriginIssuerInfo();
+		final long since = System.currentTimeMillis() - minutes * 60 * 1000L;
+		final String filter = args;
+		final Kind finalKind = kind;
+		final String finalComponent = component;
+		final String description = "MAXS log journal of " + component + " of the last " + minutes
+				+ " minutes" + (filter == null ? "" : " containing '" + filter + '\'');
+
+		Intent bindIntent = new Intent(pkg + ".OUTGOING_FILETRANSFER_SERVICE");
+		bindIntent.setClassName(pkg, filetransferService);
+		AsyncServiceTask<IMAXSOutgoingFileTransferService, IOException> ast = AsyncServiceTask
+				.builder(service, bindIntent,
+						new AsyncServiceTask.IBinderAsInterface<IMAXSOutgoingFileTransferService>() {
+							@Override
+							public IMAXSOutgoingFileTransferService asInterface(IBinder iBinder) {
+								return IMAXSOutgoingFileTransferService.Stub.asInterface(iBinder);
+							}
+						},
+						new AsyncServiceTask.PerformAsyncTask<IMAXSOutgoingFileTransferService, IOException>() {
+							@Override
+							public void performTask(IMAXSOutgoingFileTransferService iinterface)
+									throws RemoteException, IOException {
+								final File file = File.createTempFile("maxs-journal-", ".txt",
+										service.getCacheDir());
+								try {
+									OutputStream os = new FileOutputStream(file);
+									try {
+										if (finalKind == Kind.Main) {
+											journal.export(since, filter, os);
+										} else {
+											exportRemote(finalKind, finalComponent, since,
+													filter, os, moduleCommandChannels,
+													transportChannels);
+										}
+									} finally {
+										os.close();
+									}
+
+									ParcelFileDescriptor pfd = iinterface.outgoingFileTransfer(
+											"maxs-journal-" + id + ".txt", file.length(),
+											description, receiver);
+									if (pfd == null) throw new IOException("File transfer refused");
+									copy(new FileInputStream(file),
+											new ParcelFileDescriptor.AutoCloseOutputStream(pfd));
+								} finally {
+									if (!file.delete()) LOG.w("send: could not delete " + file);
+								}
+							}
+						}, IOException.class)
+				.withExceptionHandler(new ExceptionHandler<IOException>() {
+					@Override
+					public void onException(Exception e, IOException optionalSpecificException,
+							RemoteException optionalRemoteException) {
+						LOG.e("send: performTask exception", e);
+						Message message = new Message("Exception while sending log journal: "
+								+ e.getMessage(), false);
+						message.setId(id);
+						service.send(message);
+					}
+				}).build();
+		ast.go();
+
+		return new Message("Sending log journal of " + component + " of the last " + minutes
+				+ " minutes");
+	}
+
+	/**
+	 * Let the given module or transport write its journal into a pipe and copy it to the given
+	 * stream.
+	 */
+	private static void exportRemote(Kind kind, String component, long since, String filter,
+			OutputStream os, ModuleCommandChannels moduleCommandChannels,
+			TransportChannels transportChannels) throws IOException {
+		final ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+		final boolean requested;
+		try {
+			if (kind == Kind.Module) {
+				requested = moduleCommandChannels.exportJournal(component, since, filter, pipe[1]);
+			} else {
+				requested = transportChannels.exportJournal(component, since, filter, pipe[1]);
+			}
+		} finally {
+			// The component received its own duplicate of the write side
+			pipe[1].close();
+		}
+		InputStream is = new ParcelFileDescriptor.AutoCloseInputStream(pipe[0]);
+		if (!requested) {
+			is.close();
+			throw new IOException(component + " is not connected to main");
+		}
+		copy(is, os);
+	}
+
+	/**
+	 * Find the package that equals the given token, or whose last segment equals the token.
+	 */
+	private static String findPackage(String token, Iterable<String> packages) {
+		for (String pkg : packages) {
+			if (pkg.equals(token) || SharedStringUtil.substringAfterLastDot(pkg).equals(token)) {
+				return pkg;
+			}
+		}
+		return null;
+	}
+
+	private static String firstToken(String args) {
+		if (args == null) return null;
+		final int space = args.indexOf(' ');
+		return space < 0 ? args : args.substring(0, space);
+	}
+
+	private static String rest(String args) {
+		if (args == null) return null;
+		final int space = args.indexOf(' ');
+		if (space < 0) return null;
+		final String rest = args.substring(space + 1).trim();
+		return rest.isEmpty() ? null : rest;
+	}
+
+	/**
+	 * Copy the input stream to the output stream and close both.
+	 */
+	private static void copy(InputStream is, OutputStream os) throws IOException {
+		try {
+			byte[] buf = new byte[BUFFER_SIZE];
+			int len;
+			while ((len = is.read(buf)) > 0)
+				os.write(buf, 0, len);
+		} finally {
+			try {
+				is.close();
+			} finally {
+				os.close();
+			}
+		}
+	}
+}
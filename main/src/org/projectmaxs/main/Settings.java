@@ -17,8 +17,11 @@
 
 package org.projectmaxs.main;
 
+import org.projectmaxs.main.OutboundScheduler.OverflowPolicy;
 import org.projectmaxs.shared.global.messagecontent.Contact;
+import org.projectmaxs.shared.global.util.Log;
 import org.projectmaxs.shared.global.util.Log.DebugLogSettings;
+import org.projectmaxs.shared.global.util.PreferenceCache;
 import org.projectmaxs.shared.mainmodule.RecentContact;
 
 import android.content.Context;
@@ -28,6 +31,8 @@ import android.preference.PreferenceManager;
 
 public class Settings implements OnSharedPreferenceChangeListener, DebugLogSettings {
 
+	private static final Log LOG = Log.getLog();
+
 	private static final String CMD_ID = "CMD_ID";
 	private static final String SERVICE_ACTIVE = "SERVICE_ACTIVE";
 	private static final String RECENT_CONTACT_INFO = "RECENT_CONTACT_INFO";
@@ -39,6 +44,13 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 	private final String DEBUG_LOG;
 	private final String CONNECT_ON_MAIN_SCREEN;
 	private final String CONNECT_ON_BOOT_COMPLETED;
+	private final String STATUS_MIN_PUSH_INTERVAL;
+	private final String OUTBOUND_NOTIFICATIONS_PER_MINUTE;
+	private final String OUTBOUND_OVERFLOW_POLICY;
+
+	private static final String STATUS_MIN_PUSH_INTERVAL_DEFAULT = "10";
+	private static final String OUTBOUND_NOTIFICATIONS_PER_MINUTE_DEFAULT = "30";
+	private static final String OUTBOUND_OVERFLOW_POLICY_DEFAULT = "DIGEST";
 
 	private static Settings sSettings;
 
@@ -51,6 +63,12 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 
 	private SharedPreferences mSharedPreferences;
 
+	private final PreferenceCache mPreferenceCache;
+	private final PreferenceCache.Value<Boolean> mDebugLog;
+	private final PreferenceCache.Value<Long> mStatusMinPushIntervalMillis;
+	private final PreferenceCache.Value<Integer> mOutboundNotificationsPerMinute;
+	private final PreferenceCache.Value<OverflowPolicy> mOutboundOverflowPolicy;
+
 	private Settings(Context context) {
 		// this.mSharedPreferences =
 		// context.getSharedPreferences(Constants.MAIN_PACKAGE,
@@ -61,13 +79,83 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 		CONNECT_ON_MAIN_SCREEN = context.getString(R.string.pref_app_connect_on_main_screen_key);
 		CONNECT_ON_BOOT_COMPLETED = context
 				.getString(R.string.pref_app_connect_on_boot_completed_key);
+		STATUS_MIN_PUSH_INTERVAL = context
+				.getString(R.string.pref_app_status_min_push_interval_key);
+		OUTBOUND_NOTIFICATIONS_PER_MINUTE = context
+				.getString(R.string.pref_app_outbound_notifications_per_minute_key);
+		OUTBOUND_OVERFLOW_POLICY = context
+				.getString(R.string.pref_app_outbound_overflow_policy_key);
+
+		mPreferenceCache = new PreferenceCache(mSharedPreferences);
+		mDebugLog = mPreferenceCache.addBoolean(DEBUG_LOG, false);
+		mStatusMinPushIntervalMillis = mPreferenceCache.add(new PreferenceCache.Value<Long>(
+				STATUS_MIN_PUSH_INTERVAL) {
+			@Override
+			protected Long parse(SharedPreferences sharedPreferences) {
+				String seconds = sharedPreferences.getString(STATUS_MIN_PUSH_INTERVAL,
+						STATUS_MIN_PUSH_INTERVAL_DEFAULT);
+				try {
+					return Math.max(0, Long.parseLong(seconds)) * 1000;
+				} catch (NumberFormatException e) {
+					return Long.parseLong(STATUS_MIN_PUSH_INTERVAL_DEFAULT) * 1000;
+				}
+			}
+		});
+		mOutboundNotificationsPerMinute = mPreferenceCache.add(new PreferenceCache.Value<Integer>(
+				OUTBOUND_NOTIFICATIONS_PER_MINUTE) {
+			@Override
+			protected Integer parse(SharedPreferences sharedPreferences) {
+				String perMinute = sharedPreferences.getString(OUTBOUND_NOTIFICATIONS_PER_MINUTE,
+						OUTBOUND_NOTIFICATIONS_PER_MINUTE_DEFAULT);
+				try {
+					return Math.max(0, Integer.parseInt(perMinute));
+				} catch (NumberFormatException e) {
+					return Integer.parseInt(OUTBOUND_NOTIFICATIONS_PER_MINUTE_DEFAULT);
+				}
+			}
+		});
+		mOutboundOverflowPolicy = mPreferenceCache.add(new PreferenceCache.Value<OverflowPolicy>(
+				OUTBOUND_OVERFLOW_POLICY) {
+			@Override
+			protected OverflowPolicy parse(SharedPreferences sharedPreferences) {
+				String policy = sharedPreferences.getString(OUTBOUND_OVERFLOW_POLICY,
+						OUTBOUND_OVERFLOW_POLICY_DEFAULT);
+				try {
+					return OverflowPolicy.valueOf(policy);
+				} catch (IllegalArgumentException e) {
+					return OverflowPolicy.valueOf(OUTBOUND_OVERFLOW_POLICY_DEFAULT);
+				}
+			}
+		});
 
 		mSharedPreferences.registerOnSharedPreferenceChangeListener(this);
 	}
 
-	public int getNextCommandId() {
+	/**
+	 * Durably reserve a block of command IDs. Use {@link CommandIdAllocator} to get command IDs.
+	 * <p>
+	 * If the block would exceed {@link Integer#MAX_VALUE}, the reservation wraps around and the
+	 * block starts at 0 again, as command IDs must not be negative. The IDs of the new block were
+	 * used more than 2^31 commands ago, {@link org.projectmaxs.main.database.CommandTable#addCommand} replaces such stale
+	 * commands if they were not purged yet.
+	 * </p>
+	 *
+	 * @param count
+	 *            the number of IDs to reserve
+	 * @return the first ID of the reserved block
+	 */
+	synchronized int reserveCommandIds(int count) {
 		int id = mSharedPreferences.getInt(CMD_ID, 0);
-		mSharedPreferences.edit().putInt(CMD_ID, id + 1).apply();
+		int next = id + count;
+		if (next < 0) {
+			LOG.w("reserveCommandIds: all command IDs used, wrapping around to 0");
+			id = 0;
+			next = count;
+		}
+		// Use commit() so that the block is persisted before any of its IDs is handed out
+		if (!mSharedPreferences.edit().putInt(CMD_ID, next).commit()) {
+			throw new IllegalStateException("Could not persist command ID block");
+		}
 		return id;
 	}
 
@@ -88,7 +176,29 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 	}
 
 	public boolean isDebugLogEnabled() {
-		return mSharedPreferences.getBoolean(DEBUG_LOG, false);
+		return mDebugLog.get();
+	}
+
+	/**
+	 * Get the minimum interval between two status updates sent to the transports.
+	 * 
+	 * @return the interval in milliseconds
+	 */
+	public long getStatusMinPushIntervalMillis() {
+		return mStatusMinPushIntervalMillis.get();
+	}
+
+	/**
+	 * Get the number of notifications a single component may send per minute.
+	 *
+	 * @return the rate or 0 if the rate is not limited
+	 */
+	public int getOutboundNotificationsPerMinute() {
+		return mOutboundNotificationsPerMinute.get();
+	}
+
+	public OverflowPolicy getOutboundOverflowPolicy() {
+		return mOutboundOverflowPolicy.get();
 	}
 
 	public void setRecentContact(RecentContact recentContact) {
@@ -0,0 +1,387 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.projectmaxs.shared.global.GlobalConstants;
+import org.projectmaxs.shared.global.SettingsChannel;
+import org.projectmaxs.shared.global.aidl.IFileReadModuleService;
+import org.projectmaxs.shared.global.aidl.IMAXSSettingsChannel;
+import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.shared.global.util.ServiceTask.IBinderAsInterface;
+import org.projectmaxs.shared.global.util.SyncServiceTask;
+import org.projectmaxs.shared.global.util.SyncServiceTask.PerformSyncTask;
+import org.projectmaxs.shared.maintransport.TransportConstants;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+
+/**
+ * Exports the settings of main and of all registered modules and transports into a single ZIP
+ * archive, and imports them from such an archive. Every component is stored as an entry named
+ * after its package, holding the XML document of the component's settings. The archive is written
+ * and read in a single pass through a file descriptor, while the settings of every component are
+ * streamed through a pipe over the component's {@link IMAXSSettingsChannel}. Directories exported
+ * by previous versions of MAXS can still be imported.
+ */
+public class SettingsArchive {
+
+	private static final Log LOG = Log.getLog();
+
+	public static final String FILE_EXTENSION = ".zip";
+
+	private static final String ENTRY_SUFFIX = ".xml";
+
+	private static final IBinderAsInterface<IMAXSSettingsChannel> AS_SETTINGS_CHANNEL = new IBinderAsInterface<IMAXSSettingsChannel>() {
+		@Override
+		public IMAXSSettingsChannel asInterface(IBinder iBinder) {
+			return IMAXSSettingsChannel.Stub.asInterface(iBinder);
+		}
+	};
+
+	private final Context mContext;
+	private final StatusListener mStatusListener;
+
+	/**
+	 * Maps the package of every registered component to the class name of the service providing
+	 * its settings channel.
+	 */
+	private final Map<String, String> mComponentServices = new LinkedHashMap<String, String>();
+
+	public SettingsArchive(Context context, StatusListener statusListener) {
+		mContext = context.getApplicationContext();
+		mStatusListener = statusListener;
+		for (String modulePackage : ModuleRegistry.getInstance(context).getAllModulePackages())
+			mComponentServices.put(modulePackage, modulePackage + ".ModuleService");
+		for (String transportPackage : TransportRegistry.getInstance(context)
+				.getAllTransportPackages())
+			mComponentServices.put(transportPackage, transportPackage
+					+ TransportConstants.TRANSPORT_SERVICE);
+	}
+
+	/**
+	 * Export the settings of all components into the given file descriptor.
+	 *
+	 * @param target
+	 *            the archive, closed once the export is done
+	 * @return the number of exported components
+	 */
+	public int exportTo(ParcelFileDescriptor target) {
+		ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(
+				new ParcelFileDescriptor.AutoCloseOutputStream(target)));
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		int exported = 0;
+		try {
+			zip.putNextEntry(new ZipEntry(GlobalConstants.MAIN_PACKAGE + ENTRY_SUFFIX));
+			SettingsChannel.export(Settings.getInstance(mContext).getSharedPreferences(), zip,
+					null);
+			zip.closeEntry();
+			status(GlobalConstants.MAIN_PACKAGE, null);
+			exported++;
+
+			for (Map.Entry<String, String> component : mComponentServices.entrySet()) {
+				if (exportComponent(zip, executor, component.getKey(), component.getValue()))
+					exported++;
+			}
+			zip.finish();
+		} catch (IOException e) {
+			LOG.e("exportTo", e);
+			mStatusListener.status("Could not write the settings archive: " + e.getMessage());
+		} finally {
+			executor.shutdown();
+			close(zip);
+		}
+		return exported;
+	}
+
+	/**
+	 * Import the settings of all components from the given file descriptor. The settings of a
+	 * component are applied all at once, after its entry has been read completely. Entries of
+	 * components which are not installed are skipped.
+	 *
+	 * @param source
+	 *            the archive, closed once the import is done
+	 * @return the number of imported components
+	 */
+	public int importFrom(ParcelFileDescriptor source) {
+		ZipInputStream zip = new ZipInputStream(new BufferedInputStream(
+				new ParcelFileDescriptor.AutoCloseInputStream(source)));
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		int imported = 0;
+		try {
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				final String name = entry.getName();
+				if (entry.isDirectory() || !name.endsWith(ENTRY_SUFFIX)) {
+					LOG.w("importFrom: ignoring entry " + name);
+					continue;
+				}
+				final String pkg = name.substring(0, name.length() - ENTRY_SUFFIX.length());
+				if (!GlobalConstants.MAIN_PACKAGE.equals(pkg)
+						&& !mComponentServices.containsKey(pkg)) {
+					mStatusListener.status(pkg + ": Not installed, skipped");
+					continue;
+				}
+				if (importEntry(zip, executor, pkg)) imported++;
+			}
+		} catch (IOException e) {
+			LOG.e("importFrom", e);
+			mStatusListener.status("Could not read the settings archive: " + e.getMessage());
+		} finally {
+			executor.shutdown();
+			close(zip);
+		}
+		return imported;
+	}
+
+	/**
+	 * Import the settings of all components from a directory as exported by previous versions of
+	 * MAXS, which holds one XML file named after the package of every component.
+	 *
+	 * @param fileRead
+	 *            the fileread module, used to open the files
+	 * @param directory
+	 * @return the number of imported components
+	 * @throws RemoteException
+	 */
+	public int importFromDirectory(IFileReadModuleService fileRead, String directory)
+			throws RemoteException {
+		List<String> packages = new ArrayList<String>(mComponentServices.size() + 1);
+		packages.add(GlobalConstants.MAIN_PACKAGE);
+		packages.addAll(mComponentServices.keySet());
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		int imported = 0;
+		try {
+			for (String pkg : packages) {
+				final String file = directory + '/' + pkg + ENTRY_SUFFIX;
+				if (!fileRead.isFile(file)) {
+					mStatusListener.status(pkg + ": No settings found, skipped");
+					continue;
+				}
+				ParcelFileDescriptor pfd = fileRead.openFileForReading(file);
+				if (pfd == null) {
+					status(pkg, "Could not open " + file);
+					continue;
+				}
+				InputStream in = new BufferedInputStream(
+						new ParcelFileDescriptor.AutoCloseInputStream(pfd));
+				try {
+					if (importEntry(in, executor, pkg)) imported++;
+				} catch (IOException e) {
+					LOG.w("importFromDirectory: " + file, e);
+					status(pkg, getMessage(e));
+				} finally {
+					close(in);
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		return imported;
+	}
+
+	private boolean importEntry(InputStream in, ExecutorService executor, String pkg)
+			throws IOException {
+		if (!GlobalConstants.MAIN_PACKAGE.equals(pkg)) {
+			return importComponent(in, executor, pkg, mComponentServices.get(pkg));
+		}
+
+		String error = null;
+		try {
+			SettingsChannel.importFrom(Settings.getInstance(mContext).getSharedPreferences(), in);
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			LOG.e("importEntry", e);
+			error = getMessage(e);
+		}
+		status(pkg, error);
+		return error == null;
+	}
+
+	private boolean exportComponent(final ZipOutputStream zip, final ExecutorService executor,
+			final String pkg, String service) throws IOException {
+		String error;
+		try {
+			error = performWithSettingsChannel(pkg, service,
+					new PerformSyncTask<IMAXSSettingsChannel, IOException, String>() {
+						@Override
+						public String performTask(final IMAXSSettingsChannel channel)
+								throws IOException {
+							ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+							final ParcelFileDescriptor writeSide = pipe[1];
+							Future<String> result = executor.submit(new Callable<String>() {
+								@Override
+								public String call() throws Exception {
+									try {
+										return channel.exportSettings(writeSide);
+									} finally {
+										writeSide.close();
+									}
+								}
+							});
+
+							zip.putNextEntry(new ZipEntry(pkg + ENTRY_SUFFIX));
+							InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(
+									pipe[0]);
+							try {
+								copy(in, zip);
+							} finally {
+								close(in);
+							}
+							zip.closeEntry();
+							return getResult(result);
+						}
+					});
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			LOG.w("exportComponent: " + pkg, e);
+			error = getMessage(e);
+		}
+		status(pkg, error);
+		return error == null;
+	}
+
+	private boolean importComponent(final InputStream in, final ExecutorService executor,
+			final String pkg, String service) throws IOException {
+		String error;
+		try {
+			error = performWithSettingsChannel(pkg, service,
+					new PerformSyncTask<IMAXSSettingsChannel, IOException, String>() {
+						@Override
+						public String performTask(final IMAXSSettingsChannel channel)
+								throws IOException {
+							ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+							final ParcelFileDescriptor readSide = pipe[0];
+							Future<String> result = executor.submit(new Callable<String>() {
+								@Override
+								public String call() throws Exception {
+									try {
+										return channel.importSettings(readSide);
+									} finally {
+										readSide.close();
+									}
+								}
+							});
+
+							OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(
+									pipe[1]);
+							try {
+								byte[] buf = new byte[4096];
+								int len;
+								while ((len = in.read(buf)) != -1) {
+									try {
+										out.write(buf, 0, len);
+									} catch (IOException e) {
+										// The component stopped reading, its result tells why
+										LOG.w("importComponent: " + pkg, e);
+										break;
+									}
+								}
+							} finally {
+								close(out);
+							}
+							return getResult(result);
+						}
+					});
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			LOG.w("importComponent: " + pkg, e);
+			error = getMessage(e);
+		}
+		status(pkg, error);
+		return error == null;
+	}
+
+	private String performWithSettingsChannel(String pkg, String service,
+			PerformSyncTask<IMAXSSettingsChannel, IOException, String> task) throws Exception {
+		Intent intent = new Intent(GlobalConstants.ACTION_BIND_SETTINGS_CHANNEL);
+		intent.setClassName(pkg, service);
+		return SyncServiceTask.builder(mContext, intent, AS_SETTINGS_CHANNEL).build()
+				.performSyncTask(task);
+	}
+
+	private void status(String pkg, String error) {
+		if (error == null) {
+			mStatusListener.status(pkg + ": Done");
+		} else {
+			mStatusListener.status(pkg + ": Error. " + error);
+		}
+	}
+
+	private static String getResult(Future<String> result) {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return "Interrupted";
+		} catch (ExecutionException e) {
+			LOG.w("getResult", e.getCause());
+			return getMessage(e.getCause());
+		}
+	}
+
+	private static String getMessage(Throwable throwable) {
+		final String message = throwable.getMessage();
+		return message != null ? message : throwable.toString();
+	}
+
+	private static void copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buf = new byte[4096];
+		int len;
+		while ((len = in.read(buf)) != -1) {
+			out.write(buf, 0, len);
+		}
+	}
+
+	private static void close(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			LOG.w("close", e);
+		}
+	}
+
+	public interface StatusListener {
+		public void status(String status);
+	}
+}
@@ -18,20 +18,49 @@
 package org.projectmaxs.main;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 import org.projectmaxs.main.database.StatusTable;
 import org.projectmaxs.shared.global.StatusInformation;
 import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.shared.global.util.Metrics;
 import org.projectmaxs.shared.maintransport.CurrentStatus;
 
 import android.content.Context;
-
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+/**
+ * Aggregates the status information reported by the modules. Updates are not applied right away,
+ * instead they are collected for {@link #DEBOUNCE_MILLIS}, where a later update of a key replaces
+ * an earlier one. Then the updates that really changed a value are persisted within one
+ * transaction, and the new status is pushed to the transports, but not more often than configured
+ * by {@link Settings#getStatusMinPushIntervalMillis()}. A flapping battery or temperature reading
+ * thus results in at most one database transaction and one status update per interval. Pending
+ * updates are persisted right away once MAXS is stopped.
+ */
 public class StatusRegistry extends MAXSService.StartStopListener {
 
 	private static final Log LOG = Log.getLog();
 
+	private static final long DEBOUNCE_MILLIS = 2000;
+
+	private static final Metrics.Counter RECEIVED = Metrics.counter("main.status_updates_received");
+
+	/**
+	 * Updates that did not result in a status update of their own, because they were superseded by
+	 * a later update or did not change the value.
+	 */
+	private static final Metrics.Counter COLLAPSED = Metrics
+			.counter("main.status_updates_collapsed");
+
+	private static final Metrics.Counter PUSHES = Metrics.counter("main.status_pushes");
+
 	private static StatusRegistry sStatusRegistry;
 
 	public synchronized static StatusRegistry getInstanceAndInit(Context context) {
@@ -41,68 +70,97 @@ public class StatusRegistry extends MAXSService.StartStopListener {
 
 	private final Map<String, StatusInformation> mStatusInformationMap;
 
+	/**
+	 * The updates received since the last flush, by their key.
+	 */
+	private final Map<String, StatusInformation> mPendingUpdates =
+			new LinkedHashMap<String, StatusInformation>();
+
 	private final StatusTable mStatusTable;
+	private final Settings mSettings;
+	private final Handler mHandler;
+
+	private final Runnable mFlushRunnable = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	private MAXSService mService;
+	private boolean mFlushScheduled;
+	private long mLastPush;
 
 	private StatusRegistry(Context context) {
 		this.mStatusTable = StatusTable.getInstance(context);
 		this.mStatusInformationMap = mStatusTable.getAll();
+		this.mSettings = Settings.getInstance(context);
+
+		HandlerThread thread = new HandlerThread("MAXS Status Registry");
+		thread.start();
+		mHandler = new Handler(thread.getLooper());
 
 		MAXSService.addStartStopListener(this);
 	}
 
 	@Override
 	public void onServiceStart(MAXSService service) {
-		CurrentStatus status = getCurrentStatus();
+		final CurrentStatus status;
+		synchronized (this) {
+			mService = service;
+			status = getCurrentStatus();
+		}
 		if (status == null) return;
 		service.setStatus(status);
 	}
 
+	@Override
+	public void onServiceStop(MAXSService service) {
+		synchronized (this) {
+			// Persist the pending updates right away, but do not push them to the transports
+			mService = null;
+			if (!mFlushScheduled) return;
+		}
+		mHandler.removeCallbacks(mFlushRunnable);
+		mHandler.postAtFrontOfQueue(mFlushRunnable);
+	}
+
 	/**
-	 * Add the StatusInformation to the registry. If the value has changed or is
-	 * not null, return the new status String that should get broadcasted to the
-	 * transports.
+	 * Add the StatusInformation to the registry. The new status is broadcasted to the transports
+	 * once the pending updates are flushed, if a value has changed.
 	 * 
 	 * @param infoList
-	 * @return the new status
+	 * @param service
+	 *            the service used to broadcast the new status
 	 */
-	public CurrentStatus add(List<StatusInformation> infoList) {
-		boolean shouldUpdateStatus = false;
+	public synchronized void add(List<StatusInformation> infoList, MAXSService service) {
+		mService = service;
 		for (StatusInformation info : infoList) {
-			String statusKey = info.getKey();
-			String humanValue = info.getHumanValue();
-			LOG.d("add: statusKey=" + statusKey + " humanValue=" + humanValue);
-
-			StatusInformation savedStatusValue = mStatusInformationMap.get(statusKey);
-			if (savedStatusValue != null) {
-				String savedHumanValue = savedStatusValue.getHumanValue();
-				if (savedHumanValue != null) {
-					if (savedHumanValue.equals(info.getHumanValue())) {
-						LOG.d("add: humanValue of '" + statusKey
-								+ "' equals savedStatusValue's humaneValuue '" + savedHumanValue
-								+ "', not updating");
-						continue;
-					}
-				} else {
-					// We found a StatusInformation which has no human readable value, i.e., it's
-					// only meant to be exposed in machine readable form. Let us compare its value
-					// with the latest saved value.
-					if (savedStatusValue.getMachineValue().equals(info.getMachineValue())) {
-						LOG.d("add: machineValue of '" + statusKey
-								+ "' equals savedStatusValue's machineValuue '"
-								+ info.getMachineValue() + "', not updating");
-						continue;
-					}
-				}
-			}
-
-			shouldUpdateStatus = true;
-			mStatusInformationMap.put(statusKey, info);
-			mStatusTable.addStatus(info);
+			LOG.d("add: statusKey=" + info.getKey() + " humanValue=" + info.getHumanValue());
+			RECEIVED.inc();
+			if (mPendingUpdates.put(info.getKey(), info) != null) COLLAPSED.inc();
 		}
-		return shouldUpdateStatus ? getCurrentStatus() : null;
+		if (mFlushScheduled || mPendingUpdates.isEmpty()) return;
+
+		mFlushScheduled = true;
+		final long nextAllowedPush = mLastPush + mSettings.getStatusMinPushIntervalMillis();
+		final long delay = Math.max(DEBOUNCE_MILLIS,
+				nextAllowedPush - SystemClock.elapsedRealtime());
+		mHandler.postDelayed(mFlushRunnable, delay);
+	}
+
+	/**
+	 * Get the keys of all status values reported so far, including those not yet flushed.
+	 * 
+	 * @return the status keys, sorted
+	 */
+	synchronized SortedSet<String> getKeys() {
+		SortedSet<String> keys = new TreeSet<String>(mStatusInformationMap.keySet());
+		keys.addAll(mPendingUpdates.keySet());
+		return keys;
 	}
 
-	CurrentStatus getCurrentStatus() {
+	synchronized CurrentStatus getCurrentStatus() {
 		if (mStatusInformationMap.isEmpty()) return null;
 
 		List<StatusInformation> statusInformationList = new ArrayList<>(
@@ -125,4 +183,49 @@ public class StatusRegistry extends MAXSService.StartStopListener {
 		}
 		return new CurrentStatus(sb.toString(), statusInformationList);
 	}
+
+	private void flush() {
+		final List<StatusInformation> changed = new ArrayList<StatusInformation>();
+		final CurrentStatus status;
+		final MAXSService service;
+		synchronized (this) {
+			mFlushScheduled = false;
+			for (StatusInformation info : mPendingUpdates.values()) {
+				if (isUnchanged(mStatusInformationMap.get(info.getKey()), info)) {
+					COLLAPSED.inc();
+					continue;
+				}
+				mStatusInformationMap.put(info.getKey(), info);
+				changed.add(info);
+			}
+			mPendingUpdates.clear();
+			if (changed.isEmpty()) return;
+
+			status = getCurrentStatus();
+			service = mService;
+			mLastPush = SystemClock.elapsedRealtime();
+			PUSHES.inc();
+			LOG.d("flush: " + changed.size() + " changed values, " + COLLAPSED.get() + " of "
+					+ RECEIVED.get() + " updates collapsed into " + PUSHES.get()
+					+ " status updates");
+		}
+
+		mStatusTable.addStatus(changed);
+		if (service != null) {
+			service.setStatus(status);
+			service.statusChanged(changed);
+		}
+	}
+
+	private static boolean isUnchanged(StatusInformation saved, StatusInformation info) {
+		if (saved == null) return false;
+
+		String savedHumanValue = saved.getHumanValue();
+		if (savedHumanValue != null) return savedHumanValue.equals(info.getHumanValue());
+
+		// We found a StatusInformation which has no human readable value, i.e., it's only meant to
+		// be exposed in machine readable form. Let us compare its value with the latest saved
+		// value.
+		return saved.getMachineValue().equals(info.getMachineValue());
+	}
 }
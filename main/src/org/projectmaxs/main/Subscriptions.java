@@ -0,0 +1,493 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.projectmaxs.main.database.CommandTable;
+import org.projectmaxs.main.util.Constants;
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.StatusInformation;
+import org.projectmaxs.shared.global.messagecontent.AbstractElement;
+import org.projectmaxs.shared.global.messagecontent.CommandHelp;
+import org.projectmaxs.shared.global.messagecontent.CommandHelp.ArgType;
+import org.projectmaxs.shared.global.messagecontent.Contact;
+import org.projectmaxs.shared.global.messagecontent.ContactNumber;
+import org.projectmaxs.shared.global.messagecontent.Element;
+import org.projectmaxs.shared.global.messagecontent.ElementVisitor;
+import org.projectmaxs.shared.global.messagecontent.FormatedText;
+import org.projectmaxs.shared.global.messagecontent.Sms;
+import org.projectmaxs.shared.global.messagecontent.Text;
+import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.shared.global.util.Metrics;
+import org.projectmaxs.shared.global.util.SharedStringUtil;
+import org.projectmaxs.shared.maintransport.CommandOrigin;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+
+/**
+ * Handles the 'subscribe' command, which lets the master subscribe to status keys and read
+ * commands instead of polling them. MAXS then pushes the changes to the origin of the subscription
+ * by itself:
+ * <ul>
+ * <li>'subscribe status &lt;key&gt; [threshold]' pushes the new value of the status key whenever it
+ * changes, or, if a threshold is given, whenever its numeric value changed by at least the
+ * threshold since the last push.</li>
+ * <li>'subscribe every &lt;minutes&gt; &lt;command&gt;' performs the command periodically, replies
+ * equal to a reply of the previous run are not pushed again.</li>
+ * <li>'subscribe list' and 'subscribe cancel &lt;id|all&gt;' manage the subscriptions.</li>
+ * </ul>
+ * All periodic commands share a single alarm. When it goes off, every command that is due within
+ * {@link #COALESCE_WINDOW_MILLIS} is performed, so that subscriptions with similar intervals wake
+ * up the device and the modules together. Subscriptions are kept in memory, they do not survive a
+ * restart of MAXS.
+ */
+public class Subscriptions extends MAXSService.StartStopListener {
+
+	private static final Log LOG = Log.getLog();
+
+	public static final String COMMAND = "subscribe";
+
+	static final CommandHelp[] HELP = {
+			new CommandHelp(COMMAND, "status", "key [threshold]",
+					"Push the value of the status key whenever it changes, or whenever its "
+							+ "numeric value changed by at least the threshold"),
+			new CommandHelp(COMMAND, "every", "minutes command",
+					"Perform the command periodically and push its reply if it changed"),
+			new CommandHelp(COMMAND, "list", ArgType.NONE, "List the subscriptions"),
+			new CommandHelp(COMMAND, "cancel", "id|all", "Cancel a subscription or all of them") };
+
+	private static final String PUSH_SUB_COMMAND = "push";
+
+	private static final int MAX_SUBSCRIPTIONS = 32;
+	private static final long MIN_INTERVAL_MILLIS = 60 * 1000;
+	private static final long COALESCE_WINDOW_MILLIS = 60 * 1000;
+
+	private static final Metrics.Gauge SUBSCRIPTIONS = Metrics.gauge("main.subscriptions");
+	private static final Metrics.Counter PUSHES = Metrics.counter("main.subscription_pushes");
+	private static final Metrics.Counter SUPPRESSED = Metrics
+			.counter("main.subscription_pushes_suppressed");
+
+	private final MAXSService mService;
+	private final ModuleRegistry mModuleRegistry;
+	private final StatusRegistry mStatusRegistry;
+	private final CommandTable mCommandTable;
+	private final CommandIdAllocator mCommandIdAllocator;
+	private final AlarmManager mAlarmManager;
+	private final PendingIntent mAlarmOperation;
+
+	private final Map<Integer, Subscription> mSubscriptions = new LinkedHashMap<Integer, Subscription>();
+
+	/**
+	 * Maps the ID of the last run of a periodic command to its subscription.
+	 */
+	private final Map<Integer, CommandSubscription> mRuns = new HashMap<Integer, CommandSubscription>();
+
+	private int mNextId = 1;
+
+	Subscriptions(MAXSService service) {
+		mService = service;
+		mModuleRegistry = ModuleRegistry.getInstance(service);
+		mStatusRegistry = StatusRegistry.getInstanceAndInit(service);
+		mCommandTable = CommandTable.getInstance(service);
+		mCommandIdAllocator = CommandIdAllocator.getInstance(service);
+		mAlarmManager = (AlarmManager) service.getSystemService(Context.ALARM_SERVICE);
+		Intent intent = new Intent(Constants.ACTION_SUBSCRIPTIONS_ALARM);
+		intent.setClass(service, MAXSService.class);
+		mAlarmOperation = PendingIntent.getService(service, 0, intent,
+				PendingIntent.FLAG_UPDATE_CURRENT);
+		MAXSService.addStartStopListener(this);
+	}
+
+	void close() {
+		MAXSService.removeStartStopListener(this);
+		mAlarmManager.cancel(mAlarmOperation);
+	}
+
+	@Override
+	public synchronized void onServiceStart(MAXSService service) {
+		scheduleAlarm();
+	}
+
+	@Override
+	public void onServiceStop(MAXSService service) {
+		mAlarmManager.cancel(mAlarmOperation);
+	}
+
+	/**
+	 * Compose the reply to the 'subscribe' command.
+	 *
+	 * @param route
+	 * @param origin
+	 *            the origin pushes are send to
+	 * @return the reply
+	 */
+	synchronized Message getReply(CommandRouter.Route route, CommandOrigin origin) {
+		final String subCmd = route.getSubCommandToken();
+		final String args = route.getArgs();
+		if (subCmd == null || subCmd.equals("list")) return list();
+		if (subCmd.equals("cancel")) return cancel(args);
+
+		if (mSubscriptions.size() >= MAX_SUBSCRIPTIONS) {
+			return new Message("Too many subscriptions, cancel some first", false);
+		}
+		if (args == null) return usage();
+		final String[] argsArray = args.split(" ", 2);
+		if (subCmd.equals("status")) {
+			double threshold = 0;
+			if (argsArray.length > 1) {
+				try {
+					threshold = Double.parseDouble(argsArray[1]);
+				} catch (NumberFormatException e) {
+					return new Message("Invalid threshold: " + argsArray[1], false);
+				}
+			}
+			final Set<String> keys = mStatusRegistry.getKeys();
+			if (!keys.contains(argsArray[0])) {
+				return new Message("Unknown status key: " + argsArray[0] + ". Known keys: "
+						+ SharedStringUtil.listCollection(keys), false);
+			}
+			StatusSubscription subscription = new StatusSubscription(mNextId++, origin,
+					argsArray[0], threshold);
+			add(subscription);
+			return new Message("Subscribed to " + subscription.getDescription() + " as "
+					+ subscription.mId);
+		} else if (subCmd.equals("every")) {
+			if (argsArray.length < 2 || !SharedStringUtil.isPositiveInteger(argsArray[0])) {
+				return usage();
+			}
+			final long intervalMillis = Math.max(MIN_INTERVAL_MILLIS,
+					Long.parseLong(argsArray[0]) * 60 * 1000);
+			final String command = argsArray[1];
+			if (mModuleRegistry.getCommandRouter().route(command).getCommandInformation() == null) {
+				return new Message("Not a command provided by a module: " + command, false);
+			}
+			CommandSubscription subscription = new CommandSubscription(mNextId++, origin,
+					command, intervalMillis, SystemClock.elapsedRealtime());
+			add(subscription);
+			scheduleAlarm();
+			return new Message("Subscribed to " + subscription.getDescription() + " as "
+					+ subscription.mId);
+		}
+		return usage();
+	}
+
+	/**
+	 * Perform the periodic commands that are due, and those that are due shortly.
+	 */
+	synchronized void onAlarm() {
+		if (!MAXSService.isRunning()) return;
+		final long now = SystemClock.elapsedRealtime();
+		int performed = 0;
+		for (Subscription subscription : mSubscriptions.values()) {
+			if (!(subscription instanceof CommandSubscription)) continue;
+			CommandSubscription cs = (CommandSubscription) subscription;
+			if (cs.mNextRun > now + COALESCE_WINDOW_MILLIS) continue;
+
+			mRuns.remove(cs.mRunId);
+			cs.mPreviousReplies = cs.mReplies;
+			cs.mReplies = new HashSet<Integer>();
+			cs.mRunId = mService.performCommand(cs.mCommand, cs.mOrigin, null);
+			mRuns.put(cs.mRunId, cs);
+			performed++;
+
+			// Skip the runs that were missed, e.g. while the service was stopped
+			do {
+				cs.mNextRun += cs.mIntervalMillis;
+			} while (cs.mNextRun <= now);
+		}
+		LOG.d("onAlarm: performed " + performed + " subscribed commands");
+		scheduleAlarm();
+	}
+
+	/**
+	 * Push the changed status values to their subscribers.
+	 *
+	 * @param changed
+	 */
+	synchronized void statusChanged(List<StatusInformation> changed) {
+		for (StatusInformation info : changed) {
+			for (Subscription subscription : mSubscriptions.values()) {
+				if (!(subscription instanceof StatusSubscription)) continue;
+				StatusSubscription ss = (StatusSubscription) subscription;
+				if (!ss.mKey.equals(info.getKey())) continue;
+				if (!ss.exceedsThreshold(info.getMachineValue())) {
+					SUPPRESSED.inc();
+					continue;
+				}
+				ss.mLastPushedValue = info.getMachineValue();
+				final String value = info.getHumanValue() != null ? info.getHumanValue() : info
+						.getMachineValue();
+				push(ss, new Message(ss.mKey + ": " + value));
+			}
+		}
+	}
+
+	/**
+	 * Check if the message is a reply to a periodic command that was already pushed with the
+	 * previous run. Other messages are never considered unchanged.
+	 *
+	 * @param message
+	 * @return true if the message should not be send
+	 */
+	synchronized boolean isUnchangedReply(Message message) {
+		final CommandSubscription cs = mRuns.get(message.getId());
+		if (cs == null) return false;
+		final int hash = hashContent(message);
+		cs.mReplies.add(hash);
+		if (cs.mPreviousReplies.contains(hash)) {
+			SUPPRESSED.inc();
+			return true;
+		}
+		cs.mPushes++;
+		PUSHES.inc();
+		return false;
+	}
+
+	private void add(Subscription subscription) {
+		mSubscriptions.put(subscription.mId, subscription);
+		SUBSCRIPTIONS.set(mSubscriptions.size());
+	}
+
+	private void push(Subscription subscription, Message message) {
+		// Every push is a command of its own, so that the reply is routed to the origin of the
+		// subscription, even after the command table forgot about the 'subscribe' command
+		final int id = mCommandIdAllocator.nextId();
+		mCommandTable.addCommand(id, COMMAND, PUSH_SUB_COMMAND, Integer.toString(subscription.mId),
+				subscription.mOrigin);
+		message.setId(id);
+		subscription.mPushes++;
+		PUSHES.inc();
+		mService.send(message);
+	}
+
+	private Message cancel(String idToken) {
+		if (idToken == null) return usage();
+		if (idToken.equals("all")) {
+			final int count = mSubscriptions.size();
+			mSubscriptions.clear();
+			mRuns.clear();
+			SUBSCRIPTIONS.set(0);
+			scheduleAlarm();
+			return new Message("Cancelled " + count + " subscriptions");
+		}
+		Subscription subscription = null;
+		if (SharedStringUtil.isPositiveInteger(idToken)) {
+			try {
+				subscription = mSubscriptions.remove(Integer.parseInt(idToken));
+			} catch (NumberFormatException e) {
+				return new Message("Invalid subscription ID: " + idToken, false);
+			}
+		}
+		if (subscription == null) return new Message("No subscription " + idToken, false);
+		if (subscription instanceof CommandSubscription) {
+			mRuns.remove(((CommandSubscription) subscription).mRunId);
+		}
+		SUBSCRIPTIONS.set(mSubscriptions.size());
+		scheduleAlarm();
+		return new Message("Cancelled subscription to " + subscription.getDescription());
+	}
+
+	private Message list() {
+		if (mSubscriptions.isEmpty()) return new Message("No subscriptions");
+		Text text = new Text();
+		text.addBoldNL("Subscriptions");
+		for (Subscription subscription : mSubscriptions.values()) {
+			text.addItalic(subscription.mId + " " + subscription.getDescription() + ": ").addNL(
+					subscription.mPushes + " pushes");
+		}
+		return new Message(text);
+	}
+
+	private static Message usage() {
+		return new Message("Usage: " + COMMAND + " status <key> [threshold] | " + COMMAND
+				+ " every <minutes> <command> | " + COMMAND + " list | " + COMMAND
+				+ " cancel <id|all>", false);
+	}
+
+	private void scheduleAlarm() {
+		long nextRun = Long.MAX_VALUE;
+		for (Subscription subscription : mSubscriptions.values()) {
+			if (!(subscription instanceof CommandSubscription)) continue;
+			nextRun = Math.min(nextRun, ((CommandSubscription) subscription).mNextRun);
+		}
+		if (nextRun == Long.MAX_VALUE || !MAXSService.isRunning()) {
+			mAlarmManager.cancel(mAlarmOperation);
+			return;
+		}
+		// Replaces the previous alarm, as the operation is always the same
+		mAlarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, nextRun, mAlarmOperation);
+	}
+
+	private static int hashContent(Message message) {
+		ContentHash contentHash = new ContentHash();
+		contentHash.add(message.isSuccess());
+		Iterator<AbstractElement> it = message.getElementsIt();
+		while (it.hasNext())
+			contentHash.add(it.next());
+		return contentHash.mHash;
+	}
+
+	/**
+	 * Hashes the content of message elements, without the need to render or to marshal them.
+	 */
+	private static final class ContentHash implements ElementVisitor {
+		int mHash = 1;
+
+		void add(Object object) {
+			mHash = 31 * mHash + (object == null ? 0 : object.hashCode());
+		}
+
+		void add(AbstractElement element) {
+			if (element == null) {
+				add((Object) null);
+			} else {
+				element.accept(this);
+			}
+		}
+
+		@Override
+		public void visit(Contact contact) {
+			add(contact.getDisplayName());
+			add(contact.getLookupKey());
+			for (ContactNumber number : contact.getNumbers())
+				visit(number);
+		}
+
+		@Override
+		public void visit(ContactNumber contactNumber) {
+			add(contactNumber.getNumber());
+			add(contactNumber.getType());
+			add(contactNumber.getLabel());
+		}
+
+		@Override
+		public void visit(Element element) {
+			add(element.getXMLName());
+			add(element.getText());
+			add(element.getHumanReadableName());
+			Iterator<AbstractElement> it = element.getChildElementIterator();
+			while (it.hasNext())
+				add(it.next());
+		}
+
+		@Override
+		public void visit(Sms sms) {
+			add(sms.getContact());
+			add(sms.getBody());
+			add(sms.getType());
+			add(sms.getDate());
+		}
+
+		@Override
+		public void visit(Text text) {
+			for (FormatedText formatedText : text.getTexts()) {
+				add(formatedText.toString());
+				add(formatedText.isBold());
+				add(formatedText.isItalic());
+			}
+		}
+
+		@Override
+		public void visit(CommandHelp commandHelp) {
+			add(commandHelp.mCommand);
+			add(commandHelp.mSubCommand);
+			add(commandHelp.mArgType);
+			add(commandHelp.mArgString);
+			add(commandHelp.mHelp);
+		}
+	}
+
+	private static abstract class Subscription {
+		final int mId;
+		final CommandOrigin mOrigin;
+		long mPushes;
+
+		Subscription(int id, CommandOrigin origin) {
+			mId = id;
+			mOrigin = origin;
+		}
+
+		abstract String getDescription();
+	}
+
+	private static final class StatusSubscription extends Subscription {
+		final String mKey;
+		final double mThreshold;
+		String mLastPushedValue;
+
+		StatusSubscription(int id, CommandOrigin origin, String key, double threshold) {
+			super(id, origin);
+			mKey = key;
+			mThreshold = threshold;
+		}
+
+		boolean exceedsThreshold(String machineValue) {
+			if (mThreshold <= 0 || mLastPushedValue == null || machineValue == null) return true;
+			try {
+				return Math.abs(Double.parseDouble(machineValue)
+						- Double.parseDouble(mLastPushedValue)) >= mThreshold;
+			} catch (NumberFormatException e) {
+				return true;
+			}
+		}
+
+		@Override
+		String getDescription() {
+			if (mThreshold <= 0) return "status " + mKey;
+			return String.format(Locale.US, "status %s (threshold %s)", mKey, mThreshold);
+		}
+	}
+
+	private static final class CommandSubscription extends Subscription {
+		final String mCommand;
+		final long mIntervalMillis;
+		long mNextRun;
+		int mRunId = Message.NO_ID;
+
+		/**
+		 * The content hashes of the replies of the current and the previous run.
+		 */
+		Set<Integer> mReplies = new HashSet<Integer>();
+		Set<Integer> mPreviousReplies = new HashSet<Integer>();
+
+		CommandSubscription(int id, CommandOrigin origin, String command, long intervalMillis,
+				long nextRun) {
+			super(id, origin);
+			mCommand = command;
+			mIntervalMillis = intervalMillis;
+			mNextRun = nextRun;
+		}
+
+		@Override
+		String getDescription() {
+			return "'" + mCommand + "' every " + mIntervalMillis / 60 / 1000 + " minutes";
+		}
+	}
+}
@@ -0,0 +1,451 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import org.projectmaxs.shared.global.GlobalConstants;
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.TraceContext;
+import org.projectmaxs.shared.global.aidl.IMAXSMetricsReceiver;
+import org.projectmaxs.shared.global.util.LatencyHistogram;
+import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.shared.global.util.Metrics;
+import org.projectmaxs.shared.maintransport.CommandOrigin;
+import org.projectmaxs.shared.maintransport.IMAXSMainTransportChannel;
+import org.projectmaxs.shared.maintransport.IMAXSTransportChannel;
+import org.projectmaxs.shared.maintransport.TransportConstants;
+import org.projectmaxs.shared.maintransport.TransportInformation;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.pm.PackageManager;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.os.SystemClock;
+
+/**
+ * Persistent bound connections to the transports. Intents for a transport are queued and delivered
+ * in batches over the {@link IMAXSTransportChannel}, the transport acknowledges every batch. Only
+ * {@link #MAX_BATCHES_IN_FLIGHT} batches may be unacknowledged at a time, intents arriving in the
+ * meantime are collected into the next batch. So there is no additional delay while the transport
+ * keeps up, and batches grow when it doesn't.
+ * <p>
+ * If the queue is full, senders are blocked until the transport catches up, but never longer than
+ * {@link #BACKPRESSURE_TIMEOUT_MILLIS} and never on the main thread. Whenever an intent can not be
+ * queued, e.g. because the transport is not bound (yet), it is delivered with startService()
+ * instead, after the intents still waiting in the queue. The same channel is used by the
+ * transport to send commands to main.
+ * </p>
+ * <p>
+ * Large messages in the intents are streamed through a pipe when they are delivered over the
+ * channel. Intents delivered with startService() must not contain file descriptors, they carry
+ * the message inline and may still fail with a TransactionTooLargeException. Hence a message is
+ * only allowed to use a pipe for the duration of the binder transaction of its batch.
+ * </p>
+ */
+public class TransportChannels {
+
+	private static final Log LOG = Log.getLog();
+
+	private static final int MAX_BATCH_SIZE = 32;
+	private static final int MAX_BATCHES_IN_FLIGHT = 2;
+	private static final int MAX_QUEUED = 256;
+	private static final long BACKPRESSURE_TIMEOUT_MILLIS = 5000;
+
+	private static final LatencyHistogram QUEUEING_LATENCY = Metrics
+			.histogram("main.transport_queueing_latency");
+	private static final LatencyHistogram DELIVERY_LATENCY = Metrics
+			.histogram("main.transport_delivery_latency");
+	private static final LatencyHistogram HANDLING_LATENCY = Metrics
+			.histogram("main.transport_handling_latency");
+	private static final Metrics.Counter BATCHES = Metrics.counter("main.transport_batches");
+	private static final Metrics.Counter BATCHED_INTENTS = Metrics
+			.counter("main.transport_batched_intents");
+	private static final Metrics.Counter FALLBACKS = Metrics.counter("main.transport_fallbacks");
+
+	private final MAXSService mMaxsService;
+	private final TransportRegistry mTransportRegistry;
+	private final Map<String, Channel> mChannels = new HashMap<String, Channel>();
+
+	private final TransportRegistry.ChangeListener mChangeListener = new ChangeListener();
+
+	private final class ChangeListener extends TransportRegistry.ChangeListener {
+		@Override
+		public void transportUnregistered(TransportInformation transportInformation) {
+			if (transportInformation == null) return;
+			Channel channel;
+			synchronized (TransportChannels.this) {
+				channel = mChannels.remove(transportInformation.getTransportPackage());
+			}
+			if (channel != null) channel.close();
+		}
+	}
+
+	TransportChannels(MAXSService maxsService) {
+		mMaxsService = maxsService;
+		mTransportRegistry = TransportRegistry.getInstance(maxsService);
+		mTransportRegistry.addChangeListener(mChangeListener);
+	}
+
+	/**
+	 * Bind to the given transport, if not already bound.
+	 *
+	 * @param transportPackage
+	 */
+	void connect(String transportPackage) {
+		getChannel(transportPackage);
+	}
+
+	/**
+	 * Send the intent, which must be explicit, to the given transport.
+	 *
+	 * @param transportPackage
+	 * @param intent
+	 */
+	void send(String transportPackage, Intent intent) {
+		if (getChannel(transportPackage).enqueue(intent)) return;
+		startService(transportPackage, intent);
+	}
+
+	/**
+	 * Unbind from all transports. Undelivered intents are send with startService().
+	 */
+	void disconnect() {
+		List<Channel> channels;
+		synchronized (this) {
+			channels = new ArrayList<Channel>(mChannels.values());
+			mChannels.clear();
+		}
+		for (Channel channel : channels)
+			channel.close();
+	}
+
+	void close() {
+		mTransportRegistry.removeChangeListener(mChangeListener);
+		disconnect();
+	}
+
+	/**
+	 * Ask all bound transports to send their metrics to the given receiver.
+	 *
+	 * @param receiver
+	 * @return the number of transports asked
+	 */
+	synchronized int requestMetrics(IMAXSMetricsReceiver receiver) {
+		int requested = 0;
+		for (Channel channel : mChannels.values()) {
+			if (channel.requestMetrics(receiver)) requested++;
+		}
+		return requested;
+	}
+
+	/**
+	 * Ask the given transport to write its log journal to the given file descriptor.
+	 *
+	 * @param transportPackage
+	 * @param since
+	 * @param filter
+	 * @param out
+	 * @return true if the transport was asked, false if it is not bound
+	 */
+	synchronized boolean exportJournal(String transportPackage, long since, String filter,
+			ParcelFileDescriptor out) {
+		final Channel channel = mChannels.get(transportPackage);
+		if (channel == null) return false;
+		return channel.exportJournal(since, filter, out);
+	}
+
+	private synchronized Channel getChannel(String transportPackage) {
+		Channel channel = mChannels.get(transportPackage);
+		if (channel == null) {
+			channel = new Channel(transportPackage);
+			// Try again with the next intent if binding failed
+			if (channel.bind()) mChannels.put(transportPackage, channel);
+		}
+		return channel;
+	}
+
+	private void startService(String transportPackage, Intent intent) {
+		// Also covers the redelivery of intents that were already dispatched in a batch
+		setPipeAllowed(intent, false);
+		ComponentName usedTransport = mMaxsService.startService(intent);
+		if (usedTransport == null) {
+			LOG.w("startService: transport not found transportPackage=" + transportPackage
+					+ " action=" + intent.getAction());
+		}
+	}
+
+	private static void setPipeAllowed(Intent intent, boolean pipeAllowed) {
+		Message message = intent.getParcelableExtra(GlobalConstants.EXTRA_MESSAGE);
+		if (message != null) message.setPipeAllowed(pipeAllowed);
+	}
+
+	private final class Channel implements ServiceConnection {
+		private final String mTransportPackage;
+		private final MainChannel mMainChannel = new MainChannel();
+		private final Queue<Queued> mQueue = new ArrayDeque<Queued>();
+		private final Map<Integer, Batch> mBatchesInFlight = new LinkedHashMap<Integer, Batch>();
+
+		private IMAXSTransportChannel mTransportChannel;
+		private boolean mBound;
+		private int mNextBatchId;
+
+		Channel(String transportPackage) {
+			mTransportPackage = transportPackage;
+		}
+
+		boolean bind() {
+			Intent intent = new Intent(TransportConstants.ACTION_BIND_TRANSPORT_CHANNEL);
+			intent.setClassName(mTransportPackage, mTransportPackage
+					+ TransportConstants.TRANSPORT_SERVICE);
+			try {
+				mBound = mMaxsService.bindService(intent, this, Context.BIND_AUTO_CREATE);
+			} catch (SecurityException e) {
+				LOG.w("bind: not allowed to bind to " + mTransportPackage, e);
+			}
+			if (!mBound) LOG.d("bind: could not bind to " + mTransportPackage);
+			return mBound;
+		}
+
+		void close() {
+			synchronized (this) {
+				disconnected();
+				if (!mBound) return;
+				mBound = false;
+			}
+			mMaxsService.unbindService(this);
+		}
+
+		synchronized boolean enqueue(Intent intent) {
+			if (mTransportChannel == null) return false;
+			if (mQueue.size() >= MAX_QUEUED) {
+				if (Looper.myLooper() == Looper.getMainLooper()) {
+					fallback();
+					return false;
+				}
+				final long deadline = SystemClock.elapsedRealtime() + BACKPRESSURE_TIMEOUT_MILLIS;
+				while (mTransportChannel != null && mQueue.size() >= MAX_QUEUED) {
+					final long remaining = deadline - SystemClock.elapsedRealtime();
+					if (remaining <= 0) {
+						LOG.w("enqueue: " + mTransportPackage + " did not catch up within "
+								+ BACKPRESSURE_TIMEOUT_MILLIS + "ms, using startService()");
+						fallback();
+						return false;
+					}
+					try {
+						wait(remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						fallback();
+						return false;
+					}
+				}
+				if (mTransportChannel == null) return false;
+			}
+			mQueue.add(new Queued(intent, SystemClock.elapsedRealtime()));
+			if (mBatchesInFlight.size() < MAX_BATCHES_IN_FLIGHT) dispatchBatch();
+			return true;
+		}
+
+		synchronized boolean requestMetrics(IMAXSMetricsReceiver receiver) {
+			if (mTransportChannel == null) return false;
+			try {
+				mTransportChannel.requestMetrics(receiver);
+				return true;
+			} catch (RemoteException e) {
+				LOG.w("requestMetrics: transport channel of " + mTransportPackage
+						+ " unavailable", e);
+				return false;
+			}
+		}
+
+		synchronized boolean exportJournal(long since, String filter, ParcelFileDescriptor out) {
+			if (mTransportChannel == null) return false;
+			try {
+				mTransportChannel.exportJournal(since, filter, out);
+				return true;
+			} catch (RemoteException e) {
+				LOG.w("exportJournal: transport channel of " + mTransportPackage
+						+ " unavailable", e);
+				return false;
+			}
+		}
+
+		/**
+		 * Deliver the queued intents with startService(), in the order they were queued, before
+		 * the caller does the same with the intent that could not be queued. Otherwise that
+		 * intent would overtake them.
+		 */
+		private void fallback() {
+			drainQueue();
+			FALLBACKS.inc();
+		}
+
+		private void drainQueue() {
+			for (Queued queued : mQueue) {
+				FALLBACKS.inc();
+				startService(mTransportPackage, queued.mIntent);
+			}
+			mQueue.clear();
+			// Senders may be waiting for space in the queue
+			notifyAll();
+		}
+
+		private void dispatchBatch() {
+			final int size = Math.min(mQueue.size(), MAX_BATCH_SIZE);
+			if (size == 0) return;
+			final long now = SystemClock.elapsedRealtime();
+			final Batch batch = new Batch(mNextBatchId++, size, now);
+			for (int i = 0; i < size; i++) {
+				Queued queued = mQueue.poll();
+				batch.mIntents.add(queued.mIntent);
+				QUEUEING_LATENCY.record(now - queued.mQueuedAt);
+			}
+			mBatchesInFlight.put(batch.mId, batch);
+			// Senders may be waiting for space in the queue
+			notifyAll();
+			// The message of an intent may also be send to other transports, possibly with
+			// startService(), so it is only allowed to use a pipe during this transaction
+			for (Intent intent : batch.mIntents)
+				setPipeAllowed(intent, true);
+			try {
+				mTransportChannel.handleBatch(batch.mId, batch.mIntents);
+			} catch (RemoteException e) {
+				LOG.w("dispatchBatch: transport channel of " + mTransportPackage
+						+ " unavailable", e);
+				disconnected();
+			} finally {
+				for (Intent intent : batch.mIntents)
+					setPipeAllowed(intent, false);
+			}
+		}
+
+		private synchronized void batchHandled(int batchId, long receivedAt, long handledAt) {
+			final Batch batch = mBatchesInFlight.remove(batchId);
+			if (batch == null) return;
+
+			BATCHES.inc();
+			BATCHED_INTENTS.add(batch.mIntents.size());
+			DELIVERY_LATENCY.record(receivedAt - batch.mDispatchedAt);
+			HANDLING_LATENCY.record(handledAt - receivedAt);
+
+			while (mTransportChannel != null && mBatchesInFlight.size() < MAX_BATCHES_IN_FLIGHT
+					&& !mQueue.isEmpty()) {
+				dispatchBatch();
+			}
+		}
+
+		/**
+		 * Deliver everything not acknowledged by the transport with startService(), in the order
+		 * it was queued. This may deliver an intent twice, if the transport handled it but could
+		 * not acknowledge it anymore.
+		 */
+		private void disconnected() {
+			mTransportChannel = null;
+			for (Batch batch : mBatchesInFlight.values()) {
+				for (Intent intent : batch.mIntents) {
+					FALLBACKS.inc();
+					startService(mTransportPackage, intent);
+				}
+			}
+			mBatchesInFlight.clear();
+			drainQueue();
+		}
+
+		@Override
+		public synchronized void onServiceConnected(ComponentName name, IBinder service) {
+			LOG.d("onServiceConnected: " + mTransportPackage);
+			mTransportChannel = IMAXSTransportChannel.Stub.asInterface(service);
+			try {
+				mTransportChannel.setMainChannel(mMainChannel);
+			} catch (RemoteException e) {
+				LOG.w("onServiceConnected: could not set main channel of " + mTransportPackage, e);
+				disconnected();
+			}
+		}
+
+		@Override
+		public synchronized void onServiceDisconnected(ComponentName name) {
+			// The transport's process died. Android will re-establish the connection once the
+			// transport's service is restarted, until then intents are send with startService().
+			LOG.d("onServiceDisconnected: " + mTransportPackage);
+			disconnected();
+		}
+
+		private final class MainChannel extends IMAXSMainTransportChannel.Stub {
+			@Override
+			public void performCommand(String command, CommandOrigin origin, TraceContext trace) {
+				if (!isCallerTransport()) return;
+				mMaxsService.performCommand(command, origin, trace);
+			}
+
+			@Override
+			public void batchHandled(int batchId, long receivedAt, long handledAt) {
+				if (!isCallerTransport()) return;
+				Channel.this.batchHandled(batchId, receivedAt, handledAt);
+			}
+
+			@Override
+			public void replySent(int commandId, long sentAt) {
+				if (!isCallerTransport()) return;
+				mMaxsService.replySent(commandId, sentAt);
+			}
+
+			private boolean isCallerTransport() {
+				final String permission = GlobalConstants.PERMISSION_USE_MAIN_AS_TRANSPORT;
+				final int result = mMaxsService.checkCallingPermission(permission);
+				if (result == PackageManager.PERMISSION_GRANTED) return true;
+				LOG.w("MainChannel: caller lacks permission " + permission);
+				return false;
+			}
+		}
+	}
+
+	private static final class Queued {
+		final Intent mIntent;
+		final long mQueuedAt;
+
+		Queued(Intent intent, long queuedAt) {
+			mIntent = intent;
+			mQueuedAt = queuedAt;
+		}
+	}
+
+	private static final class Batch {
+		final int mId;
+		final List<Intent> mIntents;
+		final long mDispatchedAt;
+
+		Batch(int id, int size, long dispatchedAt) {
+			mId = id;
+			mIntents = new ArrayList<Intent>(size);
+			mDispatchedAt = dispatchedAt;
+		}
+	}
+}
@@ -17,24 +17,10 @@
 
 package org.projectmaxs.main.activities;
 
-import java.io.CharArrayWriter;
 import java.io.File;
-import java.io.IOException;
-import java.io.StringReader;
-import java.io.UnsupportedEncodingException;
-import java.io.Writer;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
-import org.projectmaxs.main.ModuleRegistry;
 import org.projectmaxs.main.R;
-import org.projectmaxs.main.Settings;
-import org.projectmaxs.main.TransportRegistry;
-import org.projectmaxs.main.util.Constants;
+import org.projectmaxs.main.SettingsArchive;
 import org.projectmaxs.main.util.FileManager;
 import org.projectmaxs.shared.global.GlobalConstants;
 import org.projectmaxs.shared.global.aidl.IFileReadModuleService;
@@ -45,24 +31,30 @@ import org.projectmaxs.shared.global.util.Log;
 import org.projectmaxs.shared.global.util.PackageManagerUtil;
 
 import android.app.Activity;
-import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 import android.view.View;
 import android.widget.TextView;
-import eu.geekplace.iesp.ImportExportSharedPreferences;
 
 public class ImportExportSettings extends Activity {
 
 	private static final Handler HANDLER = new Handler();
 	private static final Log LOG = Log.getLog();
-	private static final String PICK_DIRECTORY_INTENT = "org.openintents.action.PICK_DIRECTORY";
+	private static final String PICK_FILE_INTENT = "org.openintents.action.PICK_FILE";
 	private static final String OIFM_PACKAGE = "org.openintents.filemanager";
 	private static final int FILE_REQUEST_CODE = 1;
 
+	private static final SettingsArchive.StatusListener STATUS_LISTENER = new SettingsArchive.StatusListener() {
+		@Override
+		public void status(String status) {
+			appendStatus(status);
+		}
+	};
+
 	private static TextView sImportExportStatus;
 
 	private PackageManagerUtil mPackageManagerUtil;
@@ -100,32 +92,54 @@ public class ImportExportSettings extends Activity {
 			return;
 		}
 
-		File exportDir = FileManager.getTimestampedSettingsExportDir();
-		appendStatus("set export directory to " + exportDir.getAbsolutePath());
-		File mainOutFile = new File(exportDir, Constants.MAIN_PACKAGE + ".xml");
-		final String file = mainOutFile.getAbsolutePath();
-		Writer writer = new CharArrayWriter();
-		try {
-			ImportExportSharedPreferences.export(Settings.getInstance(this).getSharedPreferences(),
-					writer, null);
-			final byte[] bytes = writer.toString().getBytes();
-			tryToExport(file, bytes, this);
-		} catch (IOException e1) {
-			appendStatus("could not export main settings to " + file + " error: " + e1.getMessage());
-		}
-
-		final Intent intent = new Intent(GlobalConstants.ACTION_EXPORT_SETTINGS);
-		intent.putExtra(GlobalConstants.EXTRA_FILE, exportDir.getAbsolutePath());
-		sendBroadcast(intent);
+		final String file = FileManager.getTimestampedSettingsExportFile().getAbsolutePath();
+		appendStatus("set export file to " + file);
+		Intent intent = new Intent(GlobalConstants.ACTION_BIND_FILEWRITE);
+		intent.setClassName(GlobalConstants.FILEWRITE_MODULE_PACKAGE,
+				GlobalConstants.FILEWRITE_SERVICE);
+		AsyncServiceTask.builder(this, intent,
+				new AsyncServiceTask.IBinderAsInterface<IFileWriteModuleService>() {
+					@Override
+					public IFileWriteModuleService asInterface(IBinder iBinder) {
+						return IFileWriteModuleService.Stub.asInterface(iBinder);
+					}
+				},
+				new AsyncServiceTask.PerformAsyncTask<IFileWriteModuleService, RuntimeException>() {
+					@Override
+					public void performTask(IFileWriteModuleService iinterface)
+							throws RemoteException {
+						ParcelFileDescriptor pfd = iinterface.openFileForWriting(file);
+						if (pfd == null) {
+							appendStatus("could not export settings to " + file);
+							return;
+						}
+						int exported = new SettingsArchive(ImportExportSettings.this,
+								STATUS_LISTENER).exportTo(pfd);
+						appendStatus("exported the settings of " + exported + " components to "
+								+ file);
+					}
+				},
+				RuntimeException.class)
+		.withExceptionHandler(new AsyncServiceTask.ExceptionHandler<RuntimeException>() {
+					@Override
+					public void onException(Exception e, RuntimeException specificExcepiton,
+							RemoteException optionalRemoteException) {
+						LOG.e("performTask", e);
+						appendStatus("could not export settings to " + file + " error: "
+								+ e.getLocalizedMessage());
+					}
+		})
+		.build()
+		.go();
 	}
 
 	public void importAll(View view) {
 		sImportExportStatus.setText("");
-		final Intent intent = new Intent(PICK_DIRECTORY_INTENT);
+		final Intent intent = new Intent(PICK_FILE_INTENT);
 		if (!mPackageManagerUtil.isIntentAvailable(intent)) {
 			DialogUtil
 					.displayPackageInstallDialog(
-							"OI File Manager, which is required to select a directory to import settings from, is not installed.",
+							"OI File Manager, which is required to select a file to import settings from, is not installed.",
 							OIFM_PACKAGE, this);
 			return;
 		}
@@ -143,19 +157,25 @@ public class ImportExportSettings extends Activity {
 		switch (requestCode) {
 		case FILE_REQUEST_CODE:
 			if (intent == null || intent.getData() == null || intent.getData().toString().isEmpty()) {
-				appendStatus("No directory path name received");
+				appendStatus("No file path name received");
 				return;
 			}
-			String importDirectory = intent.getData().getPath();
-			tryToImport(importDirectory);
+			String importFile = intent.getData().getPath();
+			tryToImport(importFile);
 			break;
 		default:
 			throw new IllegalStateException();
 		}
 	}
 
-	private void tryToImport(final String directory) {
-		// Start with trying to import main's settings
+	/**
+	 * Import the settings from the given archive. Previous versions of MAXS exported a directory
+	 * with one XML file per component instead, if a file of such a directory or the directory
+	 * itself is given, the settings are imported from the directory.
+	 *
+	 * @param file
+	 */
+	private void tryToImport(final String file) {
 		Intent intent = new Intent(GlobalConstants.ACTION_BIND_FILEREAD);
 		intent.setClassName(GlobalConstants.FILEREAD_MODULE_PACKAGE,
 				GlobalConstants.FILEREAD_SERVICE);
@@ -166,122 +186,42 @@ public class ImportExportSettings extends Activity {
 						return IFileReadModuleService.Stub.asInterface(iBinder);
 					}
 				},
-				new AsyncServiceTask.PerformAsyncTask<IFileReadModuleService, Exception>() {
+				new AsyncServiceTask.PerformAsyncTask<IFileReadModuleService, RuntimeException>() {
 					@Override
 					public void performTask(IFileReadModuleService iinterface)
-							throws Exception {
-						final String importFile = directory + '/' + GlobalConstants.MAIN_PACKAGE + ".xml";
-						if (!iinterface.isFile(importFile)) {
-							appendStatus(GlobalConstants.MAIN_PACKAGE + ": Error. Not a file: "
-									+ importFile);
+							throws RemoteException {
+						if (!file.endsWith(SettingsArchive.FILE_EXTENSION)) {
+							final String directory = iinterface.isFile(file) ? new File(file)
+									.getParent() : file;
+							int imported = new SettingsArchive(ImportExportSettings.this,
+									STATUS_LISTENER).importFromDirectory(iinterface, directory);
+							appendStatus("imported the settings of " + imported
+									+ " components from " + directory);
 							return;
 						}
 
-						final byte[] bytes = iinterface.readFileBytes(importFile);
-						final String fileContents = new String(bytes, "UTF-8");
-						ImportExportSharedPreferences.importFromReader(
-								Settings.getInstance(ImportExportSettings.this).getSharedPreferences(),
-								new StringReader(fileContents));
-						appendStatus(GlobalConstants.MAIN_PACKAGE + ": Imported");
+						ParcelFileDescriptor pfd = iinterface.openFileForReading(file);
+						if (pfd == null) {
+							appendStatus("Error. Not a file: " + file);
+							return;
+						}
+						int imported = new SettingsArchive(ImportExportSettings.this,
+								STATUS_LISTENER).importFrom(pfd);
+						appendStatus("imported the settings of " + imported + " components from "
+								+ file);
 					}
 				},
-				Exception.class)
-		.withExceptionHandler(new AsyncServiceTask.ExceptionHandler<Exception>() {
+				RuntimeException.class)
+		.withExceptionHandler(new AsyncServiceTask.ExceptionHandler<RuntimeException>() {
 					@Override
-					public void onException(Exception e, Exception specificExcepiton,
+					public void onException(Exception e, RuntimeException specificExcepiton,
 							RemoteException optionalRemoteException) {
 						LOG.e("performTask", e);
-						appendStatus(GlobalConstants.MAIN_PACKAGE + ": " + e.getLocalizedMessage());
+						appendStatus("could not import settings from " + file + " error: "
+								+ e.getLocalizedMessage());
 					}
 		})
 		.build()
 		.go();
-
-		List<String> packages = new LinkedList<String>();
-		packages.addAll(ModuleRegistry.getInstance(this).getAllModulePackages());
-		packages.addAll(TransportRegistry.getInstance(this).getAllTransportPackages());
-
-		// TODO: Does this executor stop if it goes out of scope and no more threads are
-		// running/pending?
-		Executor singleThreadExecutor = new ThreadPoolExecutor(0, 1, 100L, TimeUnit.MILLISECONDS,
-				new LinkedBlockingQueue<Runnable>());
-
-		for (final String pkg : packages) {
-			AsyncServiceTask.builder(this, intent,
-					new AsyncServiceTask.IBinderAsInterface<IFileReadModuleService>() {
-						@Override
-						public IFileReadModuleService asInterface(IBinder iBinder) {
-							return IFileReadModuleService.Stub.asInterface(iBinder);
-						}
-					},
-					new AsyncServiceTask.PerformAsyncTask<IFileReadModuleService, UnsupportedEncodingException>() {
-						@Override
-						public void performTask(IFileReadModuleService iinterface)
-								throws RemoteException, UnsupportedEncodingException {
-							final String importFile = directory + '/' + pkg + ".xml";
-							if (!iinterface.isFile(importFile)) {
-								appendStatus(pkg + ": Error. Not a file: " + importFile);
-								return;
-							}
-
-							final byte[] bytes = iinterface.readFileBytes(importFile);
-							final String fileContents = new String(bytes, "UTF-8");
-
-							final Intent intent = new Intent(GlobalConstants.ACTION_IMPORT_SETTINGS);
-							intent.putExtra(GlobalConstants.EXTRA_CONTENT, fileContents);
-							for (String receiver : Constants.COMPONENT_RECEIVERS) {
-								intent.setClassName(pkg, pkg + '.' + receiver);
-								sendBroadcast(intent);
-							}
-						}
-					},
-					UnsupportedEncodingException.class)
-					.withExceptionHandler(new AsyncServiceTask.ExceptionHandler<UnsupportedEncodingException>() {
-						@Override
-						public void onException(Exception e,
-								UnsupportedEncodingException specificExcepiton,
-								RemoteException optionalRemoteException) {
-							LOG.e("performTask", e);
-							appendStatus(pkg + ": " + e.getLocalizedMessage());
-				}})
-			.withExecutor(singleThreadExecutor)
-			.build()
-			.go();
-		}
-	}
-
-	public static void tryToExport(final String file, final byte[] bytes, Context context) {
-		Intent intent = new Intent(GlobalConstants.ACTION_BIND_FILEWRITE);
-		intent.setClassName(GlobalConstants.FILEWRITE_MODULE_PACKAGE,
-				GlobalConstants.FILEWRITE_SERVICE);
-		AsyncServiceTask.builder(context, intent,
-				new AsyncServiceTask.IBinderAsInterface<IFileWriteModuleService>() {
-					@Override
-					public IFileWriteModuleService asInterface(IBinder iBinder) {
-						return IFileWriteModuleService.Stub.asInterface(iBinder);
-					}
-				},
-				new AsyncServiceTask.PerformAsyncTask<IFileWriteModuleService, RuntimeException>() {
-					@Override
-					public void performTask(IFileWriteModuleService iinterface)
-							throws RuntimeException {
-						String error = null;
-						try {
-							error = iinterface.writeFileBytes(file, bytes);
-						} catch (RemoteException e) {
-							error = e.getMessage();
-						}
-						String status;
-						if (error == null) {
-							status = "exported settings to " + file;
-						} else {
-							status = "could not export settings to " + file + " error: " + error;
-						}
-						appendStatus(status);
-					}
-				},
-				RuntimeException.class)
-		.build()
-		.go();
 	}
 }
@@ -19,7 +19,7 @@ package org.projectmaxs.main.database;
 
 import java.sql.Timestamp;
 
-import org.projectmaxs.shared.global.util.SharedStringUtil;
+import org.projectmaxs.shared.global.util.SQLiteUtil;
 import org.projectmaxs.shared.maintransport.CommandOrigin;
 
 import android.content.ContentValues;
@@ -27,7 +27,6 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
-import android.text.TextUtils;
 
 public class CommandTable {
 	private static final long OLD_ENTRIES_AGE = 1000 * 60 * 60 * 24 * 3;
@@ -48,7 +47,7 @@ public class CommandTable {
 		"CREATE TABLE " +  TABLE_NAME +
 		" (" +
 		 COLUMN_NAME_COMMAND_ID + MAXSDatabase.INTEGER_TYPE + " PRIMARY KEY" + ',' +
-		 COLUMN_NAME_TIMESTAMP + MAXSDatabase.TIMESTAMP_TYPE + MAXSDatabase.NOT_NULL + ',' +
+		 COLUMN_NAME_TIMESTAMP + MAXSDatabase.INTEGER_TYPE + MAXSDatabase.NOT_NULL + ',' +
 		 COLUMN_NAME_COMMAND + MAXSDatabase.TEXT_TYPE + MAXSDatabase.NOT_NULL + ',' +
 		 COLUMN_NAME_SUBCOMMAND + MAXSDatabase.TEXT_TYPE + ',' +
 		 COLUMN_NAME_ARGS + MAXSDatabase.TEXT_TYPE + ',' +
@@ -57,6 +56,32 @@ public class CommandTable {
 		 COLUMN_NAME_ORIGIN_ISSUER_INFO + MAXSDatabase.TEXT_TYPE + MAXSDatabase.NOT_NULL + ',' +
 		 COLUMN_NAME_ORIGIN_ID + MAXSDatabase.TEXT_TYPE +
 		" )";
+
+	public static final String CREATE_TIMESTAMP_INDEX =
+		"CREATE INDEX " + TABLE_NAME + "_" + COLUMN_NAME_TIMESTAMP + "_idx ON " + TABLE_NAME +
+		" (" + COLUMN_NAME_TIMESTAMP + ")";
+
+	/**
+	 * Migrates the version 2 table, which stored the timestamp as string created by
+	 * {@link Timestamp#toString()} in local time, to milliseconds since the epoch.
+	 */
+	public static final String[] MIGRATE_FROM_VERSION_2 = new String[] {
+		"ALTER TABLE " + TABLE_NAME + " RENAME TO " + TABLE_NAME + "_old",
+		CREATE_TABLE,
+		CREATE_TIMESTAMP_INDEX,
+		"INSERT INTO " + TABLE_NAME + " SELECT " +
+		 COLUMN_NAME_COMMAND_ID + ',' +
+		 "CAST(strftime('%s', substr(" + COLUMN_NAME_TIMESTAMP + ", 1, 19), 'utc') AS INTEGER) * 1000" + ',' +
+		 COLUMN_NAME_COMMAND + ',' +
+		 COLUMN_NAME_SUBCOMMAND + ',' +
+		 COLUMN_NAME_ARGS + ',' +
+		 COLUMN_NAME_ORIGIN_PACKAGE + ',' +
+		 COLUMN_NAME_ORIGIN_INTENT_ACTION + ',' +
+		 COLUMN_NAME_ORIGIN_ISSUER_INFO + ',' +
+		 COLUMN_NAME_ORIGIN_ID +
+		 " FROM " + TABLE_NAME + "_old",
+		MAXSDatabase.DROP_TABLE + TABLE_NAME + "_old",
+	};
 	// @formatter:on
 
 	public static final String DELETE_TABLE = MAXSDatabase.DROP_TABLE + TABLE_NAME;
@@ -75,10 +100,9 @@ public class CommandTable {
 	}
 
 	public void addCommand(int id, String command, String subCmd, String args, CommandOrigin origin) {
-		Timestamp timestamp = new Timestamp(System.currentTimeMillis());
 		ContentValues values = new ContentValues();
 		values.put(COLUMN_NAME_COMMAND_ID, id);
-		values.put(COLUMN_NAME_TIMESTAMP, timestamp.toString());
+		values.put(COLUMN_NAME_TIMESTAMP, System.currentTimeMillis());
 		values.put(COLUMN_NAME_COMMAND, command);
 		values.put(COLUMN_NAME_SUBCOMMAND, subCmd);
 		values.put(COLUMN_NAME_ARGS, args);
@@ -87,7 +111,10 @@ public class CommandTable {
 		values.put(COLUMN_NAME_ORIGIN_ISSUER_INFO, origin.getOriginIssuerInfo());
 		values.put(COLUMN_NAME_ORIGIN_ID, origin.getOriginId());
 
-		long res = mDatabase.insert(TABLE_NAME, null, values);
+		// Replaces a stale command with the same ID, which can only exist if the command IDs
+		// wrapped around
+		long res = mDatabase.insertWithOnConflict(TABLE_NAME, null, values,
+				SQLiteDatabase.CONFLICT_REPLACE);
 		if (res == -1) throw new IllegalStateException("Could not insert command in database");
 	}
 
@@ -142,7 +169,7 @@ public class CommandTable {
 			return null;
 		}
 
-		String timestampStr = c.getString(c.getColumnIndex(COLUMN_NAME_TIMESTAMP));
+		long timestampMillis = c.getLong(c.getColumnIndex(COLUMN_NAME_TIMESTAMP));
 		String command = c.getString(c.getColumnIndex(COLUMN_NAME_COMMAND));
 		String subCmd = c.getString(c.getColumnIndex(COLUMN_NAME_SUBCOMMAND));
 		String args = c.getString(c.getColumnIndex(COLUMN_NAME_ARGS));
@@ -151,37 +178,28 @@ public class CommandTable {
 		String originIssuerInfo = c.getString(c.getColumnIndex(COLUMN_NAME_ORIGIN_ISSUER_INFO));
 		String originId = c.getString(c.getColumnIndex(COLUMN_NAME_ORIGIN_ID));
 
-		Timestamp timestmap = Timestamp.valueOf(timestampStr);
+		Timestamp timestmap = new Timestamp(timestampMillis);
 
 		c.close();
 		return new FullEntry(id, timestmap, command, subCmd, args, new CommandOrigin(pkg, action,
 				originIssuerInfo, originId));
 	}
 
-	public int[] getOldEntries() {
-		final String oldTimestamp = (new Timestamp(System.currentTimeMillis() - OLD_ENTRIES_AGE))
-				.toString();
-		Cursor c = mDatabase.query(TABLE_NAME, new String[] { COLUMN_NAME_COMMAND_ID },
-				COLUMN_NAME_TIMESTAMP + "<?", new String[] { oldTimestamp }, null, null, null);
-		final int count = c.getCount();
-		if (count == 0) {
-			c.close();
-			return null;
-		}
-
-		int i = 0;
-		int[] res = new int[count];
-		while (c.moveToNext()) {
-			res[i++] = c.getInt(c.getColumnIndexOrThrow(COLUMN_NAME_COMMAND_ID));
-		}
-
-		return res;
+	/**
+	 * Delete all commands older than three days.
+	 *
+	 * @param listener
+	 *            notified with the IDs of the deleted commands, chunk by chunk
+	 * @return the number of deleted commands
+	 */
+	public int purgeOldEntries(SQLiteUtil.PurgeListener listener) {
+		final long oldTimestamp = System.currentTimeMillis() - OLD_ENTRIES_AGE;
+		return SQLiteUtil.deleteOlderThan(mDatabase, TABLE_NAME, COLUMN_NAME_COMMAND_ID,
+				COLUMN_NAME_TIMESTAMP, oldTimestamp, listener);
 	}
 
 	public void purgeEntries(int[] commandIds) {
-		String[] commandIdsStrings = SharedStringUtil.toStringArray(commandIds);
-		mDatabase.delete(TABLE_NAME, COLUMN_NAME_COMMAND_ID + " IN ( ? )",
-				new String[] { TextUtils.join(",", commandIdsStrings) });
+		SQLiteUtil.deleteByIds(mDatabase, TABLE_NAME, COLUMN_NAME_COMMAND_ID, commandIds);
 	}
 
 	public long getEntryCount() {
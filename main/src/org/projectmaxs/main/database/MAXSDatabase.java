@@ -26,7 +26,7 @@ import android.database.sqlite.SQLiteOpenHelper;
 
 public class MAXSDatabase extends SQLiteOpenHelper {
 
-	private static final int DATABASE_VERSION = 2;
+	private static final int DATABASE_VERSION = 3;
 	private static final String DATABASE_NAME = Constants.MAIN_PACKAGE + ".db";
 
 	private static final Log LOG = Log.getLog();
@@ -42,6 +42,7 @@ public class MAXSDatabase extends SQLiteOpenHelper {
 	// @formatter:off
 	private static final String[] SQL_CREATE_ENTRIES = new String[] {
 				CommandTable.CREATE_TABLE,
+				CommandTable.CREATE_TIMESTAMP_INDEX,
 				ModuleRegistryTable.CREATE_TABLE,
 				StatusTable.CREATE_TABLE,
 				TransportRegistryTable.CREATE_TABLE,
@@ -75,6 +76,14 @@ public class MAXSDatabase extends SQLiteOpenHelper {
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 		LOG.i("Upgrading MAXS database from version " + oldVersion + " to " + newVersion);
+		if (oldVersion == 2) {
+			// Keep the command history, it's required to route replies of pending commands. No need
+			// for an explicit transaction, onUpgrade() is already invoked within one.
+			for (String s : CommandTable.MIGRATE_FROM_VERSION_2) {
+				db.execSQL(s + SEMICOLON_SEP);
+			}
+			return;
+		}
 		recreateDatabase(db);
 	}
 
@@ -17,6 +17,7 @@
 
 package org.projectmaxs.main.database;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -68,6 +69,22 @@ public class StatusTable {
 		if (res == -1) throw new IllegalStateException("Could not insert status info in database");
 	}
 
+	/**
+	 * Add the given status information within a single transaction.
+	 * 
+	 * @param infos
+	 */
+	public void addStatus(Collection<StatusInformation> infos) {
+		mDatabase.beginTransaction();
+		try {
+			for (StatusInformation info : infos)
+				addStatus(info);
+			mDatabase.setTransactionSuccessful();
+		} finally {
+			mDatabase.endTransaction();
+		}
+	}
+
 	public Map<String, StatusInformation> getAll() {
 		Map<String, StatusInformation> res = new HashMap<>();
 		Cursor c = mDatabase.query(TABLE_NAME, null, null, null, null, null, null);
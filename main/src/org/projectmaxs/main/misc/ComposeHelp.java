@@ -19,11 +19,11 @@ package org.projectmaxs.main.misc;
 
 import java.util.List;
 
-import org.projectmaxs.main.database.CommandHelpTable;
+import org.projectmaxs.main.HelpIndex;
 import org.projectmaxs.shared.global.Message;
 import org.projectmaxs.shared.global.messagecontent.CommandHelp;
-
-import android.content.Context;
+import org.projectmaxs.shared.global.messagecontent.Text;
+import org.projectmaxs.shared.global.util.SharedStringUtil;
 
 public class ComposeHelp {
 
@@ -34,25 +34,57 @@ public class ComposeHelp {
 	 * 
 	 * @param command
 	 * @param subCommand
-	 * @param context
+	 * @param helpIndex
 	 * @return a Message with the help
 	 */
-	public final static Message getHelp(String command, String subCommand, Context context) {
+	public final static Message getHelp(String command, String subCommand, HelpIndex helpIndex) {
 		Message msg;
 		if (command == null && subCommand == null) {
-			msg = getFullHelp(context);
+			msg = getFullHelp(helpIndex);
 		} else if (command != null && subCommand == null) {
-			msg = getHelpFor(command, context);
+			msg = getHelpFor(command, helpIndex);
 		} else {
-			msg = getHelpFor(command, subCommand, context);
+			msg = getHelpFor(command, subCommand, helpIndex);
 		}
 		return msg;
 	}
 
-	private final static Message getFullHelp(Context context) {
+	/**
+	 * Composes the reply to an unknown command. Known commands close to the given one are
+	 * suggested, together with the help of the closest one, so that the user does not have to ask
+	 * for help in a second message.
+	 * 
+	 * @param command
+	 * @param helpIndex
+	 * @return a Message with the error and the suggestions
+	 */
+	public final static Message getUnknownCommand(String command, HelpIndex helpIndex) {
+		Message msg = new Message("Unknown command: " + command);
+		addCommandSuggestions(msg, command, helpIndex);
+		return msg;
+	}
+
+	/**
+	 * Composes the reply to an unknown sub command. Known sub commands of the command close to the
+	 * given one are suggested, together with the help of the closest one.
+	 * 
+	 * @param error
+	 *            the error message
+	 * @param command
+	 * @param subCommand
+	 * @param helpIndex
+	 * @return a Message with the error and the suggestions
+	 */
+	public final static Message getUnknownSubCommand(String error, String command,
+			String subCommand, HelpIndex helpIndex) {
+		Message msg = new Message(error);
+		addSubCommandSuggestions(msg, command, subCommand, helpIndex);
+		return msg;
+	}
+
+	private final static Message getFullHelp(HelpIndex helpIndex) {
 		Message msg;
-		CommandHelpTable commandHelpTable = CommandHelpTable.getInstance(context);
-		List<CommandHelp> help = commandHelpTable.getHelp();
+		List<CommandHelp> help = helpIndex.getHelp();
 		if (help == null) {
 			msg = new Message("No help available so far");
 		} else {
@@ -63,12 +95,12 @@ public class ComposeHelp {
 		return msg;
 	}
 
-	private final static Message getHelpFor(String command, Context context) {
+	private final static Message getHelpFor(String command, HelpIndex helpIndex) {
 		Message msg;
-		CommandHelpTable commandHelpTable = CommandHelpTable.getInstance(context);
-		List<CommandHelp> help = commandHelpTable.getHelp(command);
+		List<CommandHelp> help = helpIndex.getHelp(command);
 		if (help == null) {
 			msg = new Message("No help available for command: " + command);
+			addCommandSuggestions(msg, command, helpIndex);
 		} else {
 			msg = new Message();
 			for (CommandHelp ch : help)
@@ -77,16 +109,46 @@ public class ComposeHelp {
 		return msg;
 	}
 
-	private final static Message getHelpFor(String command, String subCommand, Context context) {
+	private final static Message getHelpFor(String command, String subCommand,
+			HelpIndex helpIndex) {
 		Message msg;
-		CommandHelpTable commandHelpTable = CommandHelpTable.getInstance(context);
-		CommandHelp help = commandHelpTable.getHelp(command, subCommand);
+		CommandHelp help = helpIndex.getHelp(command, subCommand);
 		if (help == null) {
 			msg = new Message("No help avail for command: " + command + ' ' + subCommand);
+			if (helpIndex.getHelp(command) == null) {
+				addCommandSuggestions(msg, command, helpIndex);
+			} else {
+				addSubCommandSuggestions(msg, command, subCommand, helpIndex);
+			}
 		} else {
 			msg = new Message();
 			msg.add(help);
 		}
 		return msg;
 	}
+
+	private final static void addCommandSuggestions(Message msg, String command,
+			HelpIndex helpIndex) {
+		List<String> suggestions = helpIndex.suggestCommands(command);
+		if (suggestions.isEmpty()) return;
+
+		addDidYouMean(msg, suggestions);
+		List<CommandHelp> help = helpIndex.getHelp(suggestions.get(0));
+		if (help != null) msg.addAll(help);
+	}
+
+	private final static void addSubCommandSuggestions(Message msg, String command,
+			String subCommand, HelpIndex helpIndex) {
+		List<String> suggestions = helpIndex.suggestSubCommands(command, subCommand);
+		if (suggestions.isEmpty()) return;
+
+		addDidYouMean(msg, suggestions);
+		CommandHelp help = helpIndex.getHelp(command, suggestions.get(0));
+		if (help != null) msg.add(help);
+	}
+
+	private final static void addDidYouMean(Message msg, List<String> suggestions) {
+		msg.add(new Text("Did you mean: " + SharedStringUtil.listCollection(suggestions) + '?',
+				true));
+	}
 }
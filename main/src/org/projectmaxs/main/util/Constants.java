@@ -36,4 +36,5 @@ public class Constants {
 	public static final String MAIN_PACKAGE = GlobalConstants.MAIN_PACKAGE;
 	public static final String ACTION_START_SERVICE = MAIN_PACKAGE + ".START_SERVICE";
 	public static final String ACTION_STOP_SERVICE = MAIN_PACKAGE + ".STOP_SERVICE";
+	public static final String ACTION_SUBSCRIPTIONS_ALARM = MAIN_PACKAGE + ".SUBSCRIPTIONS_ALARM";
 }
@@ -21,6 +21,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Date;
 
+import org.projectmaxs.main.SettingsArchive;
 import org.projectmaxs.shared.global.GlobalConstants;
 
 public class FileManager {
@@ -38,10 +39,11 @@ public class FileManager {
 		return res;
 	}
 
-	public static File getTimestampedSettingsExportDir() {
+	public static File getTimestampedSettingsExportFile() {
 		String dateString = Constants.ISO8601_DATE_FORMAT.format(new Date());
 		dateString = dateString.replace(':', '-');
-		File timestampedDir = new File(mMAXSSettingsDirectory, dateString);
-		return timestampedDir;
+		File timestampedFile = new File(mMAXSSettingsDirectory, dateString
+				+ SettingsArchive.FILE_EXTENSION);
+		return timestampedFile;
 	}
 }
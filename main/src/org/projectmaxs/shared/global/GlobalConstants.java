@@ -32,8 +32,6 @@ public class GlobalConstants {
 	public static final String TRANSPORT_PACKAGE = PACKAGE + ".transport";
 	public static final String SHARED_PACKAGE = PACKAGE + ".shared";
 
-	public static final String MAIN_INTENT_SERVICE = MAIN_PACKAGE + ".MAXSIntentService";
-
 	public static final String FILEWRITE_MODULE_PACKAGE = MODULE_PACKAGE + ".filewrite";
 	public static final String FILEWRITE_SERVICE = FILEWRITE_MODULE_PACKAGE + ".FileWriteService";
 	public static final String FILEWRITE_MODULE_IFT_SERVICE = FILEWRITE_MODULE_PACKAGE
@@ -47,11 +45,12 @@ public class GlobalConstants {
 	 * Used to send command from transport to main, and from main to module.
 	 */
 	public static final String ACTION_PERFORM_COMMAND = PACKAGE + ".PERFORM_COMMAND";
-	public static final String ACTION_EXPORT_SETTINGS = PACKAGE + ".EXPORT_SETTINGS";
-	public static final String ACTION_IMPORT_SETTINGS = PACKAGE + ".IMPORT_SETTINGS";
+	public static final String ACTION_CANCEL_COMMAND = PACKAGE + ".CANCEL_COMMAND";
 	public static final String ACTION_INCOMING_FILETRANSFER = PACKAGE + ".INCOMING_FILETRANSFER";
 	public static final String ACTION_BIND_FILEREAD = PACKAGE + ".ACTION_BIND_FILEREAD";
 	public static final String ACTION_BIND_FILEWRITE = PACKAGE + ".ACTION_BIND_FILEWRITE";
+	public static final String ACTION_BIND_COMMAND_CHANNEL = PACKAGE + ".ACTION_BIND_COMMAND_CHANNEL";
+	public static final String ACTION_BIND_SETTINGS_CHANNEL = PACKAGE + ".ACTION_BIND_SETTINGS_CHANNEL";
 	public static final String ACTION_PURGE_OLD_COMMANDS = PACKAGE + ".PURGE_OLD_COMMANDS";
 	public static final String ACTION_SERVICE_STARTED = PACKAGE + ".SERVICE_STARTED";
 	public static final String ACTION_SERVICE_STOPED = PACKAGE + ".SERVICE_STOPPED";
@@ -61,11 +60,11 @@ public class GlobalConstants {
 	public static final String ACTION_SET_RECENT_CONTACT = MAIN_PACKAGE + ".SET_RECENT_CONTACT";
 	public static final String ACTION_UPDATE_STATUS = MAIN_PACKAGE + ".UPDATE_STATUS";
 	public static final String ACTION_SEND_MESSAGE = MAIN_PACKAGE + ".SEND_MESSAGE";
-	public static final String ACTION_EXPORT_TO_FILE = MAIN_PACKAGE + ".EXPORT_TO_FILE";
-	public static final String ACTION_IMPORT_EXPORT_STATUS = MAIN_PACKAGE + ".IMPORT_EXPORT_STATUS";
 
 	public static final String EXTRA_MODULE_INFORMATION = PACKAGE + ".MODULE_INFORMATION";
 	public static final String EXTRA_COMMAND = PACKAGE + ".COMMAND";
+	public static final String EXTRA_COMMAND_ID = PACKAGE + ".COMMAND_ID";
+	public static final String EXTRA_TRACE = PACKAGE + ".TRACE";
 	public static final String EXTRA_MESSAGE = PACKAGE + ".MESSAGE";
 	public static final String EXTRA_FILE = PACKAGE + ".FILE";
 	public static final String EXTRA_CONTENT = PACKAGE + ".CONTENT";
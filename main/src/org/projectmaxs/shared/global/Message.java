@@ -23,6 +23,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 import org.projectmaxs.shared.global.messagecontent.AbstractElement;
+import org.projectmaxs.shared.global.messagecontent.MessageContentCodec;
 import org.projectmaxs.shared.global.messagecontent.Text;
 import org.projectmaxs.shared.global.util.ParcelUtil;
 
@@ -36,6 +37,29 @@ public class Message implements Parcelable {
 	private int mId = NO_ID;
 	private boolean mSuccess = true;
 
+	/**
+	 * The trace of the command this message replies to, if any.
+	 */
+	private TraceContext mTrace;
+
+	/**
+	 * Incremented whenever an element is added, so that a cached rendered form of the elements can
+	 * be told apart from the current one. Not parceled.
+	 */
+	private volatile int mModificationCount;
+
+	/**
+	 * Elements that are still in the pipe this message was received through. Read on first
+	 * access, so that they are not read on the binder thread that unparceled the message.
+	 */
+	private MessageContentCodec.PipedElements mPipedElements;
+
+	/**
+	 * True if the elements may be streamed through a pipe when this message is parceled, see
+	 * {@link MessageContentCodec#PARCELABLE_ALLOW_PIPE}. Not parceled.
+	 */
+	private volatile boolean mPipeAllowed;
+
 	public Message() {}
 
 	public Message(AbstractElement element) {
@@ -80,18 +104,46 @@ public class Message implements Parcelable {
 		return mSuccess;
 	}
 
+	public TraceContext getTrace() {
+		return mTrace;
+	}
+
+	public void setTrace(TraceContext trace) {
+		mTrace = trace;
+	}
+
+	/**
+	 * Allow the elements of this message to be streamed through a pipe. Only set this if the
+	 * message is send to another process using a binder transaction, and not by a startService()
+	 * intent or by marshalling it.
+	 *
+	 * @param pipeAllowed
+	 * @return this message
+	 */
+	public Message setPipeAllowed(boolean pipeAllowed) {
+		mPipeAllowed = pipeAllowed;
+		return this;
+	}
+
+	public boolean isPipeAllowed() {
+		return mPipeAllowed;
+	}
+
 	public Message add(AbstractElement element) {
-		mElements.add(element);
+		elements().add(element);
+		mModificationCount++;
 		return this;
 	}
 
 	public Message addAll(Collection<? extends AbstractElement> elements) {
-		mElements.addAll(elements);
+		elements().addAll(elements);
+		mModificationCount++;
 		return this;
 	}
 
 	public Message add(String string, boolean newLine) {
-		AbstractElement last = mElements.get(mElements.size() - 1);
+		final List<AbstractElement> elements = elements();
+		AbstractElement last = elements.get(elements.size() - 1);
 		if (last instanceof Text) {
 			Text lastText = (Text) last;
 			if (newLine) {
@@ -100,20 +152,34 @@ public class Message implements Parcelable {
 				lastText.add(string);
 			}
 		} else {
-			mElements.add(new Text(string, newLine));
+			elements.add(new Text(string, newLine));
 		}
+		mModificationCount++;
 
 		return this;
 	}
 
 	public Iterator<AbstractElement> getElementsIt() {
-		return mElements.iterator();
+		return elements().iterator();
+	}
+
+	public int getModificationCount() {
+		return mModificationCount;
 	}
 
 	private Message(Parcel in) {
 		mSuccess = ParcelUtil.readBool(in);
 		mId = in.readInt();
-		in.readList(mElements, getClass().getClassLoader());
+		mTrace = in.readParcelable(TraceContext.class.getClassLoader());
+		mPipedElements = MessageContentCodec.readElements(in, mElements);
+	}
+
+	private synchronized List<AbstractElement> elements() {
+		if (mPipedElements != null) {
+			mPipedElements.readTo(mElements);
+			mPipedElements = null;
+		}
+		return mElements;
 	}
 
 	@Override
@@ -125,7 +191,9 @@ public class Message implements Parcelable {
 	public void writeToParcel(Parcel dest, int flags) {
 		ParcelUtil.writeBool(dest, mSuccess);
 		dest.writeInt(mId);
-		dest.writeList(mElements);
+		dest.writeParcelable(mTrace, flags);
+		if (mPipeAllowed) flags |= MessageContentCodec.PARCELABLE_ALLOW_PIPE;
+		MessageContentCodec.writeElements(dest, elements(), flags);
 	}
 
 	public static final Creator<Message> CREATOR = new Creator<Message>() {
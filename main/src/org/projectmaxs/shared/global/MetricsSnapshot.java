@@ -0,0 +1,165 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.projectmaxs.shared.global.util.LatencyHistogram;
+import org.projectmaxs.shared.global.util.Metrics;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * The values of the {@link Metrics} of one process, or the aggregate of multiple processes, at a
+ * point in time.
+ */
+public class MetricsSnapshot implements Parcelable {
+
+	private final String mSource;
+	private final SortedMap<String, Long> mCounters = new TreeMap<String, Long>();
+	private final SortedMap<String, Long> mGauges = new TreeMap<String, Long>();
+	private final SortedMap<String, LatencyHistogram> mHistograms = new TreeMap<String, LatencyHistogram>();
+
+	public MetricsSnapshot(String source) {
+		mSource = source;
+	}
+
+	public String getSource() {
+		return mSource;
+	}
+
+	public void addCounter(String name, long value) {
+		Long existing = mCounters.get(name);
+		mCounters.put(name, existing == null ? value : existing + value);
+	}
+
+	public void addGauge(String name, long value) {
+		mGauges.put(name, value);
+	}
+
+	/**
+	 * Add the values of the given histogram to the histogram with the same name.
+	 *
+	 * @param name
+	 * @param histogram
+	 */
+	public void addHistogram(String name, LatencyHistogram histogram) {
+		addHistogram(name, histogram.getBucketCounts(), histogram.getSum(), histogram.getMax());
+	}
+
+	/**
+	 * Aggregate the given snapshot into this one. Counters and histograms with the same name are
+	 * summed up, gauges are specific to their process and hence not aggregated.
+	 *
+	 * @param other
+	 */
+	public void addAll(MetricsSnapshot other) {
+		for (Map.Entry<String, Long> entry : other.mCounters.entrySet())
+			addCounter(entry.getKey(), entry.getValue());
+		for (Map.Entry<String, LatencyHistogram> entry : other.mHistograms.entrySet())
+			addHistogram(entry.getKey(), entry.getValue());
+	}
+
+	public Map<String, Long> getCounters() {
+		return Collections.unmodifiableMap(mCounters);
+	}
+
+	public Map<String, Long> getGauges() {
+		return Collections.unmodifiableMap(mGauges);
+	}
+
+	public Map<String, LatencyHistogram> getHistograms() {
+		return Collections.unmodifiableMap(mHistograms);
+	}
+
+	public boolean isEmpty() {
+		return mCounters.isEmpty() && mGauges.isEmpty() && mHistograms.isEmpty();
+	}
+
+	private void addHistogram(String name, long[] bucketCounts, long sum, long max) {
+		LatencyHistogram histogram = mHistograms.get(name);
+		if (histogram == null) {
+			histogram = new LatencyHistogram();
+			mHistograms.put(name, histogram);
+		}
+		histogram.add(bucketCounts, sum, max);
+	}
+
+	private MetricsSnapshot(Parcel in) {
+		mSource = in.readString();
+		int size = in.readInt();
+		for (int i = 0; i < size; i++)
+			mCounters.put(in.readString(), in.readLong());
+		size = in.readInt();
+		for (int i = 0; i < size; i++)
+			mGauges.put(in.readString(), in.readLong());
+		size = in.readInt();
+		for (int i = 0; i < size; i++) {
+			final String name = in.readString();
+			final long[] bucketCounts = new long[LatencyHistogram.BUCKETS];
+			in.readLongArray(bucketCounts);
+			addHistogram(name, bucketCounts, in.readLong(), in.readLong());
+		}
+	}
+
+	@Override
+	public int describeContents() {
+		return 0;
+	}
+
+	@Override
+	public void writeToParcel(Parcel dest, int flags) {
+		dest.writeString(mSource);
+		dest.writeInt(mCounters.size());
+		for (Map.Entry<String, Long> entry : mCounters.entrySet()) {
+			dest.writeString(entry.getKey());
+			dest.writeLong(entry.getValue());
+		}
+		dest.writeInt(mGauges.size());
+		for (Map.Entry<String, Long> entry : mGauges.entrySet()) {
+			dest.writeString(entry.getKey());
+			dest.writeLong(entry.getValue());
+		}
+		dest.writeInt(mHistograms.size());
+		for (Map.Entry<String, LatencyHistogram> entry : mHistograms.entrySet()) {
+			final LatencyHistogram histogram = entry.getValue();
+			dest.writeString(entry.getKey());
+			dest.writeLongArray(histogram.getBucketCounts());
+			dest.writeLong(histogram.getSum());
+			dest.writeLong(histogram.getMax());
+		}
+	}
+
+	public static final Creator<MetricsSnapshot> CREATOR = new Creator<MetricsSnapshot>() {
+
+		@Override
+		public MetricsSnapshot createFromParcel(Parcel source) {
+			return new MetricsSnapshot(source);
+		}
+
+		@Override
+		public MetricsSnapshot[] newArray(int size) {
+			return new MetricsSnapshot[size];
+		}
+
+	};
+}
@@ -0,0 +1,144 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.Set;
+
+import org.projectmaxs.shared.global.aidl.IMAXSSettingsChannel;
+import org.projectmaxs.shared.global.util.Log;
+
+import android.content.SharedPreferences;
+import android.os.ParcelFileDescriptor;
+import eu.geekplace.iesp.ImportExportSharedPreferences;
+
+/**
+ * Streams the settings of a component through a file descriptor. The format of a single
+ * component's settings is the XML document of {@link ImportExportSharedPreferences}.
+ */
+public class SettingsChannel extends IMAXSSettingsChannel.Stub {
+
+	private static final Log LOG = Log.getLog();
+
+	private static final String CHARSET = "UTF-8";
+
+	private final SharedPreferences mSharedPreferences;
+	private final Set<String> mDoNotExport;
+
+	public SettingsChannel(SharedPreferences sharedPreferences, Set<String> doNotExport) {
+		mSharedPreferences = sharedPreferences;
+		mDoNotExport = doNotExport;
+	}
+
+	@Override
+	public String exportSettings(ParcelFileDescriptor target) {
+		OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(target);
+		try {
+			export(mSharedPreferences, out, mDoNotExport);
+		} catch (IOException e) {
+			LOG.e("exportSettings", e);
+			return e.getMessage();
+		} finally {
+			try {
+				out.close();
+			} catch (IOException e) {
+				LOG.w("exportSettings", e);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String importSettings(ParcelFileDescriptor source) {
+		InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(source);
+		try {
+			importFrom(mSharedPreferences, in);
+		} catch (Exception e) {
+			LOG.e("importSettings", e);
+			return e.getMessage();
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				LOG.w("importSettings", e);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Write the settings to the given stream. The stream is flushed, but not closed, so that
+	 * multiple components can be written to the same stream, e.g. as entries of an archive.
+	 *
+	 * @param sharedPreferences
+	 * @param out
+	 * @param doNotExport
+	 *            the keys to exclude, may be null
+	 * @throws IOException
+	 */
+	public static void export(SharedPreferences sharedPreferences, OutputStream out,
+			Set<String> doNotExport) throws IOException {
+		Writer writer = new OutputStreamWriter(new NonClosingOutputStream(out), CHARSET);
+		ImportExportSharedPreferences.export(sharedPreferences, writer, doNotExport);
+		writer.flush();
+	}
+
+	/**
+	 * Import the settings from the given stream, which is read until its end. The settings are
+	 * only applied once the stream has been read completely, so that a transfer which is cut short
+	 * does not leave the settings half imported.
+	 *
+	 * @param sharedPreferences
+	 * @param in
+	 * @throws Exception
+	 */
+	public static void importFrom(SharedPreferences sharedPreferences, InputStream in)
+			throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int len;
+		while ((len = in.read(buf)) != -1) {
+			bytes.write(buf, 0, len);
+		}
+		ImportExportSharedPreferences.importFromReader(sharedPreferences, new StringReader(
+				bytes.toString(CHARSET)));
+	}
+
+	private static class NonClosingOutputStream extends FilterOutputStream {
+		NonClosingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int length) throws IOException {
+			out.write(buffer, offset, length);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global;
+
+import java.util.Arrays;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
+
+/**
+ * The stages a command and its reply passed on their way through the transport, main and the
+ * module, each with the time it was reached. The context travels with the {@link Message} and the
+ * {@link org.projectmaxs.shared.mainmodule.Command} across processes. The timestamps are in the
+ * {@link SystemClock#elapsedRealtime()} time base, which is shared by all processes, so that the
+ * time between two stages can be computed even if they were reached in different processes.
+ */
+public class TraceContext implements Parcelable {
+
+	/**
+	 * Further stages are ignored, so that a trace can not grow without bounds.
+	 */
+	private static final int MAX_STAGES = 24;
+
+	private String[] mStages;
+	private long[] mTimes;
+	private int mSize;
+
+	private TraceContext(int capacity) {
+		mStages = new String[capacity];
+		mTimes = new long[capacity];
+	}
+
+	/**
+	 * Start a new trace with the given stage.
+	 * 
+	 * @param stage
+	 * @return the new trace
+	 */
+	public static TraceContext start(String stage) {
+		return new TraceContext(8).mark(stage);
+	}
+
+	/**
+	 * Record that the given stage was reached now.
+	 * 
+	 * @param stage
+	 * @return this trace
+	 */
+	public synchronized TraceContext mark(String stage) {
+		if (mSize == MAX_STAGES) return this;
+		if (mSize == mStages.length) {
+			final int capacity = Math.min(MAX_STAGES, mSize * 2);
+			mStages = Arrays.copyOf(mStages, capacity);
+			mTimes = Arrays.copyOf(mTimes, capacity);
+		}
+		mStages[mSize] = stage;
+		mTimes[mSize] = SystemClock.elapsedRealtime();
+		mSize++;
+		return this;
+	}
+
+	public int getStageCount() {
+		return mSize;
+	}
+
+	public String getStage(int i) {
+		return mStages[i];
+	}
+
+	public long getTime(int i) {
+		return mTimes[i];
+	}
+
+	/**
+	 * Get the time between the first and the last stage.
+	 * 
+	 * @return the duration in milliseconds
+	 */
+	public synchronized long getTotalMillis() {
+		if (mSize == 0) return 0;
+		return mTimes[mSize - 1] - mTimes[0];
+	}
+
+	/**
+	 * Get the breakdown of the trace, every stage with the time passed since the previous stage.
+	 * 
+	 * @return the breakdown, e.g. 'transport.received main.received +3ms module.received +12ms'
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < mSize; i++) {
+			if (i > 0) sb.append(' ');
+			sb.append(mStages[i]);
+			if (i > 0) sb.append(" +").append(mTimes[i] - mTimes[i - 1]).append("ms");
+		}
+		return sb.toString();
+	}
+
+	private TraceContext(Parcel in, int size) {
+		this(Math.max(1, Math.min(size, MAX_STAGES)));
+		// Only a malformed parcel has a negative stage count, or more stages than a trace holds
+		size = Math.max(0, Math.min(size, MAX_STAGES));
+		for (int i = 0; i < size; i++) {
+			mStages[i] = in.readString();
+			mTimes[i] = in.readLong();
+		}
+		mSize = size;
+	}
+
+	@Override
+	public int describeContents() {
+		return 0;
+	}
+
+	@Override
+	public synchronized void writeToParcel(Parcel dest, int flags) {
+		dest.writeInt(mSize);
+		for (int i = 0; i < mSize; i++) {
+			dest.writeString(mStages[i]);
+			dest.writeLong(mTimes[i]);
+		}
+	}
+
+	public static final Creator<TraceContext> CREATOR = new Creator<TraceContext>() {
+
+		@Override
+		public TraceContext createFromParcel(Parcel source) {
+			return new TraceContext(source, source.readInt());
+		}
+
+		@Override
+		public TraceContext[] newArray(int size) {
+			return new TraceContext[size];
+		}
+
+	};
+}
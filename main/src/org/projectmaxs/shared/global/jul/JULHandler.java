@@ -21,8 +21,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringBufferInputStream;
 import java.lang.Thread.UncaughtExceptionHandler;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.logging.Formatter;
 import java.util.logging.Handler;
 import java.util.logging.Level;
@@ -31,6 +33,7 @@ import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
 import org.projectmaxs.shared.global.GlobalConstants;
+import org.projectmaxs.shared.global.util.AsyncLogWriter;
 import org.projectmaxs.shared.global.util.Log.DebugLogSettings;
 import org.projectmaxs.shared.global.util.SharedStringUtil;
 
@@ -63,7 +66,14 @@ public class JULHandler extends Handler {
 
 	private static final Logger LOGGER = Logger.getLogger(CLASS_NAME);
 
-	private static final Set<String> NO_LOG_PKGS = new HashSet<String>();
+	private static final Set<String> NO_LOG_PKGS = new CopyOnWriteArraySet<String>();
+
+	/**
+	 * Caches the tag, and whether its records are logged at all, per logger name. Cleared when
+	 * {@link #NO_LOG_PKGS} changes.
+	 */
+	private static final ConcurrentMap<String, LoggerInfo> LOGGER_INFOS =
+			new ConcurrentHashMap<String, LoggerInfo>();
 
 	/**
 	 * Whether or the stacktraces of throwables attached to INFO or FINE* log levels should also be
@@ -110,10 +120,12 @@ public class JULHandler extends Handler {
 
 	public static void addNoLogPkg(String pkg) {
 		NO_LOG_PKGS.add(pkg);
+		LOGGER_INFOS.clear();
 	}
 
 	public static void removeNoLogPkg(String pkg) {
 		NO_LOG_PKGS.remove(pkg);
+		LOGGER_INFOS.clear();
 	}
 
 	public JULHandler() {
@@ -128,22 +140,11 @@ public class JULHandler extends Handler {
 
 	@Override
 	public boolean isLoggable(LogRecord record) {
-		final String sourceClass = record.getSourceClassName();
-		if (sourceClass != null) {
-			for (String noLogPkg : NO_LOG_PKGS) {
-				if (sourceClass.startsWith(noLogPkg)) {
-					return false;
-				}
-			}
-		}
-
-		final boolean debugLog = sDebugLogSettings == null ? true : sDebugLogSettings
-				.isDebugLogEnabled();
-
-		if (record.getLevel().intValue() <= FINE_INT) {
-			return debugLog;
+		if (record.getLevel().intValue() <= FINE_INT && sDebugLogSettings != null
+				&& !sDebugLogSettings.isDebugLogEnabled()) {
+			return false;
 		}
-		return true;
+		return getLoggerInfo(record).mLoggable;
 	}
 
 	@Override
@@ -151,11 +152,23 @@ public class JULHandler extends Handler {
 		if (!isLoggable(record)) return;
 
 		final int priority = getAndroidPriority(record.getLevel());
-		final String tag = GlobalConstants.MAXS + '/'
-				+ SharedStringUtil.substringAfterLastDot(record.getSourceClassName());
-		final String msg = getFormatter().format(record);
+		// The record is formatted on the log writer thread
+		AsyncLogWriter.println(priority, getLoggerInfo(record).mTag, record, getFormatter());
+	}
 
-		Log.println(priority, tag, msg);
+	private static LoggerInfo getLoggerInfo(LogRecord record) {
+		// Prefer the logger name, which is usually the class name, over the source class name,
+		// whose inference requires to walk the stack.
+		String name = record.getLoggerName();
+		if (name == null) name = record.getSourceClassName();
+		if (name == null) name = "";
+
+		LoggerInfo info = LOGGER_INFOS.get(name);
+		if (info == null) {
+			info = new LoggerInfo(name);
+			LOGGER_INFOS.put(name, info);
+		}
+		return info;
 	}
 
 	private static int getAndroidPriority(Level level) {
@@ -175,6 +188,8 @@ public class JULHandler extends Handler {
 		@Override
 		public void uncaughtException(Thread thread, Throwable ex) {
 			LOGGER.log(Level.SEVERE, "Uncaught exception in " + thread, ex);
+			// Make sure the exception is logged before the process dies
+			AsyncLogWriter.flush(1000);
 		}
 	};
 
@@ -185,4 +200,21 @@ public class JULHandler extends Handler {
 			Thread.setDefaultUncaughtExceptionHandler(UNCAUGHT_EXCEPTION_HANDLER);
 		}
 	}
+
+	private static final class LoggerInfo {
+		final String mTag;
+		final boolean mLoggable;
+
+		LoggerInfo(String name) {
+			mTag = GlobalConstants.MAXS + '/' + SharedStringUtil.substringAfterLastDot(name);
+			boolean loggable = true;
+			for (String noLogPkg : NO_LOG_PKGS) {
+				if (name.startsWith(noLogPkg)) {
+					loggable = false;
+					break;
+				}
+			}
+			mLoggable = loggable;
+		}
+	}
 }
@@ -31,4 +31,11 @@ public abstract class AbstractElement implements Parcelable {
 	@Override
 	public abstract void writeToParcel(Parcel dest, int flags);
 
+	/**
+	 * Invoke the method of the visitor matching the type of this element.
+	 * 
+	 * @param visitor
+	 */
+	public abstract void accept(ElementVisitor visitor);
+
 }
@@ -69,6 +69,11 @@ public class CommandHelp extends AbstractElement {
 		dest.writeString(mHelp);
 	}
 
+	@Override
+	public void accept(ElementVisitor visitor) {
+		visitor.visit(this);
+	}
+
 	public static final Creator<CommandHelp> CREATOR = new Creator<CommandHelp>() {
 
 		@Override
@@ -113,6 +113,11 @@ public class Contact extends AbstractElement {
 		dest.writeString(mNickname);
 	}
 
+	@Override
+	public void accept(ElementVisitor visitor) {
+		visitor.visit(this);
+	}
+
 	public static final Creator<Contact> CREATOR = new Creator<Contact>() {
 
 		@Override
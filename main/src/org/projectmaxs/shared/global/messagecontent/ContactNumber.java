@@ -79,6 +79,11 @@ public class ContactNumber extends AbstractElement {
 		dest.writeString(mLabel);
 	}
 
+	@Override
+	public void accept(ElementVisitor visitor) {
+		visitor.visit(this);
+	}
+
 	public static final Creator<ContactNumber> CREATOR = new Creator<ContactNumber>() {
 
 		@Override
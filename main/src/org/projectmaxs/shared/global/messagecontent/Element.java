@@ -88,6 +88,10 @@ public class Element extends AbstractElement {
 		return mText;
 	}
 
+	public String getXMLName() {
+		return mXMLName;
+	}
+
 	public boolean isHumanReadable() {
 		return mHumanReadableName != null;
 	}
@@ -96,13 +100,6 @@ public class Element extends AbstractElement {
 		return mHumanReadableName;
 	}
 
-	private Element(Parcel in) {
-		mXMLName = in.readString();
-		mHumanReadableName = in.readParcelable(getClass().getClassLoader());
-		mText = in.readString();
-		in.readList(mChildElements, AbstractElement.class.getClassLoader());
-	}
-
 	@Override
 	public int describeContents() {
 		return 0;
@@ -110,17 +107,19 @@ public class Element extends AbstractElement {
 
 	@Override
 	public void writeToParcel(Parcel dest, int flags) {
-		dest.writeString(mXMLName);
-		dest.writeParcelable(mHumanReadableName, flags);
-		dest.writeString(mText);
-		dest.writeList(mChildElements);
+		MessageContentCodec.writeElement(dest, this, flags);
+	}
+
+	@Override
+	public void accept(ElementVisitor visitor) {
+		visitor.visit(this);
 	}
 
 	public static final Creator<Element> CREATOR = new Creator<Element>() {
 
 		@Override
 		public Element createFromParcel(Parcel source) {
-			return new Element(source);
+			return MessageContentCodec.readElement(source);
 		}
 
 		@Override
@@ -0,0 +1,36 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.messagecontent;
+
+/**
+ * A visitor for the concrete types of {@link AbstractElement}. Allows to traverse a tree of message
+ * content without checking the type of every node.
+ */
+public interface ElementVisitor {
+	public void visit(Contact contact);
+
+	public void visit(ContactNumber contactNumber);
+
+	public void visit(Element element);
+
+	public void visit(Sms sms);
+
+	public void visit(Text text);
+
+	public void visit(CommandHelp commandHelp);
+}
@@ -43,6 +43,13 @@ public class FormatedText implements Parcelable {
 		this(charSequence.toString());
 	}
 
+	FormatedText(String text, String font, boolean isBold, boolean isItalic) {
+		mText = text;
+		mFont = font;
+		mIsBold = isBold;
+		mIsItalic = isItalic;
+	}
+
 	private FormatedText(Parcel in) {
 		mText = in.readString();
 		mFont = in.readString();
@@ -68,6 +75,10 @@ public class FormatedText implements Parcelable {
 		return mIsItalic;
 	}
 
+	String getFont() {
+		return mFont;
+	}
+
 	@Override
 	public int describeContents() {
 		return 0;
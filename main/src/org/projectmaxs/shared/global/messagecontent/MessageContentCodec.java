@@ -0,0 +1,630 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.messagecontent;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.projectmaxs.shared.global.util.Log;
+
+import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
+import android.os.Parcelable;
+
+/**
+ * Writes trees of message content to Parcels and reads them back. Parcel.writeList() records the
+ * class name of every node, which makes up most of the Parcel for large messages. This codec uses
+ * small integer tags for {@link Text}, {@link Element} and {@link FormatedText} instead, and writes
+ * every XML element name and font only once per Parcel, later occurrences refer to it by index.
+ * Other elements, like {@link Contact}, are rare and still written with writeParcelable().
+ * <p>
+ * Element lists whose estimated encoding exceeds {@link #PIPE_THRESHOLD} bytes would risk a
+ * TransactionTooLargeException. If the writer passes {@link #PARCELABLE_ALLOW_PIPE}, those are
+ * streamed through a pipe instead, whose read side is put into the Parcel. This must only be done
+ * for Parcels that are used for a binder transaction: a marshalled Parcel does not carry the file
+ * descriptor, and intents given to startService() must not contain file descriptors. Without the
+ * flag, the elements are always written inline, i.e. a large message send by such an intent may
+ * still fail with a TransactionTooLargeException.
+ * </p>
+ * <p>
+ * Piped elements are not read when the Parcel is read, as this happens on the binder thread of
+ * the receiver. {@link #readElements(Parcel, Collection)} returns a {@link PipedElements} instead,
+ * which is read once the elements are accessed. The stream is limited to {@link #MAX_PIPED_SIZE}
+ * bytes.
+ * </p>
+ */
+public final class MessageContentCodec {
+
+	private static final Log LOG = Log.getLog();
+
+	/**
+	 * Flag for {@link Parcelable#writeToParcel(Parcel, int)}, allows large element lists to be
+	 * streamed through a pipe. Only set this if the Parcel is used for a binder transaction.
+	 */
+	public static final int PARCELABLE_ALLOW_PIPE = 1 << 16;
+
+	private static final int PIPE_THRESHOLD = 128 * 1024;
+	private static final int PIPE_BUFFER_SIZE = 8 * 1024;
+	private static final int MAX_PIPED_SIZE = 16 * 1024 * 1024;
+
+	/**
+	 * The assumed size of elements not encoded by the codec, used when estimating the size of an
+	 * element list.
+	 */
+	private static final int PARCELABLE_SIZE_ESTIMATE = 512;
+
+	private static final int ENCODING_INLINE = 0;
+	private static final int ENCODING_PIPE = 1;
+
+	private static final int TAG_NULL = 0;
+	private static final int TAG_TEXT = 1;
+	private static final int TAG_ELEMENT = 2;
+	private static final int TAG_PARCELABLE = 3;
+
+	private static final int FORMAT_NEW_LINE = 1;
+	private static final int FORMAT_BOLD = 1 << 1;
+	private static final int FORMAT_ITALIC = 1 << 2;
+
+	private static final int STRING_NULL = -1;
+	private static final int STRING_NEW = -2;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Output mOut;
+	private final Input mIn;
+
+	/**
+	 * Maps the interned strings written so far to their index.
+	 */
+	private Map<String, Integer> mWrittenStrings;
+
+	/**
+	 * The interned strings read so far, by their index.
+	 */
+	private List<String> mReadStrings;
+
+	private MessageContentCodec(Output out) {
+		mOut = out;
+		mIn = null;
+	}
+
+	private MessageContentCodec(Input in) {
+		mOut = null;
+		mIn = in;
+	}
+
+	public static void writeElements(Parcel dest, Collection<? extends AbstractElement> elements,
+			int flags) {
+		final boolean allowPipe = (flags & PARCELABLE_ALLOW_PIPE) != 0;
+		flags &= ~PARCELABLE_ALLOW_PIPE;
+		if (allowPipe && estimateSize(elements) > PIPE_THRESHOLD && writeToPipe(dest, elements)) {
+			return;
+		}
+		dest.writeInt(ENCODING_INLINE);
+		writeInline(dest, elements, flags);
+	}
+
+	/**
+	 * Read the elements from the given Parcel.
+	 *
+	 * @param in
+	 * @param elements
+	 *            the collection the inline elements are added to
+	 * @return the piped elements, which are not yet read, or null if the elements were inline
+	 */
+	public static PipedElements readElements(Parcel in,
+			Collection<? super AbstractElement> elements) {
+		final int encoding = in.readInt();
+		switch (encoding) {
+		case ENCODING_INLINE:
+			try {
+				new MessageContentCodec(new ParcelInput(in)).readElementList(elements);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			return null;
+		case ENCODING_PIPE:
+			return new PipedElements(in.readFileDescriptor());
+		default:
+			throw new IllegalStateException("Unknown encoding " + encoding);
+		}
+	}
+
+	/**
+	 * Elements that are still in the pipe they were send through.
+	 */
+	public static final class PipedElements {
+		private final ParcelFileDescriptor mReadSide;
+
+		private PipedElements(ParcelFileDescriptor readSide) {
+			mReadSide = readSide;
+		}
+
+		/**
+		 * Read the elements from the pipe, blocks until the sender has written all of them. May
+		 * only be called once.
+		 *
+		 * @param elements
+		 */
+		public void readTo(Collection<? super AbstractElement> elements) {
+			readFromPipe(mReadSide, elements);
+		}
+	}
+
+	static void writeElement(Parcel dest, Element element, int flags) {
+		try {
+			new MessageContentCodec(new ParcelOutput(dest, flags)).writeElementContent(element);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static Element readElement(Parcel in) {
+		try {
+			return new MessageContentCodec(new ParcelInput(in)).readElementContent();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static void writeText(Parcel dest, Text text, int flags) {
+		try {
+			new MessageContentCodec(new ParcelOutput(dest, flags)).writeTextContent(text);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static Text readText(Parcel in) {
+		try {
+			return new MessageContentCodec(new ParcelInput(in)).readTextContent();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void writeInline(Parcel dest, Collection<? extends AbstractElement> elements,
+			int flags) {
+		try {
+			new MessageContentCodec(new ParcelOutput(dest, flags)).writeElementList(elements);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static boolean writeToPipe(Parcel dest,
+			Collection<? extends AbstractElement> elements) {
+		final ParcelFileDescriptor[] pipe;
+		try {
+			pipe = ParcelFileDescriptor.createPipe();
+		} catch (IOException e) {
+			LOG.w("writeToPipe: could not create pipe", e);
+			return false;
+		}
+
+		final int start = dest.dataPosition();
+		try {
+			dest.writeInt(ENCODING_PIPE);
+			// Writes a duplicate of the file descriptor
+			dest.writeFileDescriptor(pipe[0].getFileDescriptor());
+		} catch (RuntimeException e) {
+			// Thrown if the Parcel must not contain file descriptors
+			truncate(dest, start);
+			close(pipe[0]);
+			close(pipe[1]);
+			return false;
+		}
+		close(pipe[0]);
+
+		new PipeWriterThread(pipe[1], new ArrayList<AbstractElement>(elements)).start();
+		return true;
+	}
+
+	private static void readFromPipe(ParcelFileDescriptor readSide,
+			Collection<? super AbstractElement> elements) {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new ParcelFileDescriptor.AutoCloseInputStream(readSide), PIPE_BUFFER_SIZE));
+		try {
+			new MessageContentCodec(new StreamInput(in, MAX_PIPED_SIZE)).readElementList(elements);
+		} catch (IOException e) {
+			LOG.e("readFromPipe: could not read elements", e);
+			elements.add(new Text("Message incomplete: " + e.getMessage()));
+		} finally {
+			close(in);
+		}
+	}
+
+	private static int estimateSize(Collection<? extends AbstractElement> elements) {
+		int size = 4;
+		for (AbstractElement element : elements) {
+			size += estimateSize(element);
+			// No need to look further, the elements are piped anyway
+			if (size > PIPE_THRESHOLD) break;
+		}
+		return size;
+	}
+
+	/**
+	 * Estimate the inline encoding size of the given element, assuming that no string is interned.
+	 */
+	private static int estimateSize(AbstractElement element) {
+		if (element == null) {
+			return 4;
+		} else if (element.getClass() == Text.class) {
+			int size = 8;
+			for (FormatedText formatedText : ((Text) element).getTexts())
+				size += 4 + estimateSize(formatedText.toString()) + 4;
+			return size;
+		} else if (element.getClass() == Element.class) {
+			Element e = (Element) element;
+			int size = 4 + estimateSize(e.getXMLName()) + estimateSize(e.getHumanReadableName())
+					+ estimateSize(e.getText()) + 4;
+			for (AbstractElement child : e.mChildElements)
+				size += estimateSize(child);
+			return size;
+		} else {
+			return 4 + PARCELABLE_SIZE_ESTIMATE;
+		}
+	}
+
+	/**
+	 * Parcel.writeString() writes the length followed by the UTF-16 encoding and a terminating
+	 * null character.
+	 */
+	private static int estimateSize(String string) {
+		if (string == null) return 4;
+		return 4 + (string.length() + 1) * 2;
+	}
+
+	private static void truncate(Parcel parcel, int position) {
+		parcel.setDataPosition(position);
+		parcel.setDataSize(position);
+	}
+
+	private static void close(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			LOG.w("close", e);
+		}
+	}
+
+	private void writeElementList(Collection<? extends AbstractElement> elements)
+			throws IOException {
+		mOut.writeInt(elements.size());
+		for (AbstractElement element : elements)
+			writeElement(element);
+	}
+
+	private void readElementList(Collection<? super AbstractElement> elements) throws IOException {
+		final int size = mIn.readInt();
+		for (int i = 0; i < size; i++)
+			elements.add(readElement());
+	}
+
+	private void writeElement(AbstractElement element) throws IOException {
+		if (element == null) {
+			mOut.writeInt(TAG_NULL);
+		} else if (element.getClass() == Text.class) {
+			mOut.writeInt(TAG_TEXT);
+			writeTextContent((Text) element);
+		} else if (element.getClass() == Element.class) {
+			mOut.writeInt(TAG_ELEMENT);
+			writeElementContent((Element) element);
+		} else {
+			mOut.writeInt(TAG_PARCELABLE);
+			mOut.writeParcelable(element);
+		}
+	}
+
+	private AbstractElement readElement() throws IOException {
+		final int tag = mIn.readInt();
+		switch (tag) {
+		case TAG_NULL:
+			return null;
+		case TAG_TEXT:
+			return readTextContent();
+		case TAG_ELEMENT:
+			return readElementContent();
+		case TAG_PARCELABLE:
+			return mIn.readParcelable();
+		default:
+			throw new IllegalStateException("Unknown element tag " + tag);
+		}
+	}
+
+	private void writeElementContent(Element element) throws IOException {
+		writeInternedString(element.getXMLName());
+		writeElement(element.getHumanReadableName());
+		mOut.writeString(element.getText());
+		mOut.writeInt(element.mChildElements.size());
+		for (AbstractElement child : element.mChildElements)
+			writeElement(child);
+	}
+
+	private Element readElementContent() throws IOException {
+		final String xmlName = readInternedString();
+		final Text humanReadableName = (Text) readElement();
+		final String text = mIn.readString();
+		Element element = new Element(xmlName, text, humanReadableName);
+		final int size = mIn.readInt();
+		for (int i = 0; i < size; i++)
+			element.addChildElement(readElement());
+		return element;
+	}
+
+	private void writeTextContent(Text text) throws IOException {
+		final List<FormatedText> texts = text.getTexts();
+		mOut.writeInt(texts.size());
+		for (FormatedText formatedText : texts) {
+			if (FormatedText.isNewLine(formatedText)) {
+				mOut.writeInt(FORMAT_NEW_LINE);
+				continue;
+			}
+			int format = 0;
+			if (formatedText.isBold()) format |= FORMAT_BOLD;
+			if (formatedText.isItalic()) format |= FORMAT_ITALIC;
+			mOut.writeInt(format);
+			mOut.writeString(formatedText.toString());
+			writeInternedString(formatedText.getFont());
+		}
+	}
+
+	private Text readTextContent() throws IOException {
+		Text text = new Text();
+		final int size = mIn.readInt();
+		for (int i = 0; i < size; i++) {
+			final int format = mIn.readInt();
+			if ((format & FORMAT_NEW_LINE) != 0) {
+				text.add(NewLine.getInstance());
+				continue;
+			}
+			final String string = mIn.readString();
+			final String font = readInternedString();
+			text.add(new FormatedText(string, font, (format & FORMAT_BOLD) != 0,
+					(format & FORMAT_ITALIC) != 0));
+		}
+		return text;
+	}
+
+	private void writeInternedString(String string) throws IOException {
+		if (string == null) {
+			mOut.writeInt(STRING_NULL);
+			return;
+		}
+		if (mWrittenStrings == null) mWrittenStrings = new HashMap<String, Integer>();
+		Integer index = mWrittenStrings.get(string);
+		if (index != null) {
+			mOut.writeInt(index);
+			return;
+		}
+		mWrittenStrings.put(string, mWrittenStrings.size());
+		mOut.writeInt(STRING_NEW);
+		mOut.writeString(string);
+	}
+
+	private String readInternedString() throws IOException {
+		final int index = mIn.readInt();
+		switch (index) {
+		case STRING_NULL:
+			return null;
+		case STRING_NEW:
+			if (mReadStrings == null) mReadStrings = new ArrayList<String>();
+			String string = mIn.readString();
+			mReadStrings.add(string);
+			return string;
+		default:
+			return mReadStrings.get(index);
+		}
+	}
+
+	private interface Output {
+		void writeInt(int value) throws IOException;
+
+		void writeString(String string) throws IOException;
+
+		void writeParcelable(AbstractElement element) throws IOException;
+	}
+
+	private interface Input {
+		int readInt() throws IOException;
+
+		String readString() throws IOException;
+
+		AbstractElement readParcelable() throws IOException;
+	}
+
+	private static final class ParcelOutput implements Output {
+		private final Parcel mParcel;
+		private final int mFlags;
+
+		ParcelOutput(Parcel parcel, int flags) {
+			mParcel = parcel;
+			mFlags = flags;
+		}
+
+		@Override
+		public void writeInt(int value) {
+			mParcel.writeInt(value);
+		}
+
+		@Override
+		public void writeString(String string) {
+			mParcel.writeString(string);
+		}
+
+		@Override
+		public void writeParcelable(AbstractElement element) {
+			mParcel.writeParcelable(element, mFlags);
+		}
+	}
+
+	private static final class ParcelInput implements Input {
+		private final Parcel mParcel;
+
+		ParcelInput(Parcel parcel) {
+			mParcel = parcel;
+		}
+
+		@Override
+		public int readInt() {
+			return mParcel.readInt();
+		}
+
+		@Override
+		public String readString() {
+			return mParcel.readString();
+		}
+
+		@Override
+		public AbstractElement readParcelable() {
+			return mParcel.readParcelable(AbstractElement.class.getClassLoader());
+		}
+	}
+
+	/**
+	 * Strings are written as the length of their UTF-8 encoding followed by the encoding, -1 stands
+	 * for null. Elements that are not encoded by the codec are written as a marshalled Parcel of
+	 * their own.
+	 */
+	private static final class StreamOutput implements Output {
+		private final DataOutputStream mOut;
+
+		StreamOutput(DataOutputStream out) {
+			mOut = out;
+		}
+
+		@Override
+		public void writeInt(int value) throws IOException {
+			mOut.writeInt(value);
+		}
+
+		@Override
+		public void writeString(String string) throws IOException {
+			if (string == null) {
+				mOut.writeInt(-1);
+				return;
+			}
+			writeBytes(string.getBytes(UTF8));
+		}
+
+		@Override
+		public void writeParcelable(AbstractElement element) throws IOException {
+			Parcel parcel = Parcel.obtain();
+			try {
+				parcel.writeParcelable(element, 0);
+				writeBytes(parcel.marshall());
+			} finally {
+				parcel.recycle();
+			}
+		}
+
+		private void writeBytes(byte[] bytes) throws IOException {
+			mOut.writeInt(bytes.length);
+			mOut.write(bytes);
+		}
+	}
+
+	private static final class StreamInput implements Input {
+		private final DataInputStream mIn;
+
+		/**
+		 * The number of string and Parcel bytes that may still be read.
+		 */
+		private int mRemaining;
+
+		StreamInput(DataInputStream in, int maxSize) {
+			mIn = in;
+			mRemaining = maxSize;
+		}
+
+		@Override
+		public int readInt() throws IOException {
+			return mIn.readInt();
+		}
+
+		@Override
+		public String readString() throws IOException {
+			final byte[] bytes = readBytes();
+			if (bytes == null) return null;
+			return new String(bytes, UTF8);
+		}
+
+		@Override
+		public AbstractElement readParcelable() throws IOException {
+			final byte[] bytes = readBytes();
+			Parcel parcel = Parcel.obtain();
+			try {
+				parcel.unmarshall(bytes, 0, bytes.length);
+				parcel.setDataPosition(0);
+				return parcel.readParcelable(AbstractElement.class.getClassLoader());
+			} finally {
+				parcel.recycle();
+			}
+		}
+
+		private byte[] readBytes() throws IOException {
+			final int length = mIn.readInt();
+			if (length < 0) return null;
+			if (length > mRemaining) {
+				throw new IOException("Piped elements exceed " + MAX_PIPED_SIZE + " bytes");
+			}
+			mRemaining -= length;
+			byte[] bytes = new byte[length];
+			mIn.readFully(bytes);
+			return bytes;
+		}
+	}
+
+	private static final class PipeWriterThread extends Thread {
+		private final ParcelFileDescriptor mWriteSide;
+		private final List<AbstractElement> mElements;
+
+		PipeWriterThread(ParcelFileDescriptor writeSide, List<AbstractElement> elements) {
+			super("MAXS Message Pipe Writer");
+			mWriteSide = writeSide;
+			mElements = elements;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new ParcelFileDescriptor.AutoCloseOutputStream(mWriteSide), PIPE_BUFFER_SIZE));
+			try {
+				new MessageContentCodec(new StreamOutput(out)).writeElementList(mElements);
+				out.flush();
+			} catch (IOException e) {
+				// The receiver went away, e.g. because the Parcel was never delivered
+				LOG.w("PipeWriterThread: could not write elements", e);
+			} finally {
+				close(out);
+			}
+		}
+	}
+}
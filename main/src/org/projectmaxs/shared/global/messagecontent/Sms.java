@@ -61,6 +61,11 @@ public class Sms extends AbstractElement {
 		dest.writeLong(mDate);
 	}
 
+	@Override
+	public void accept(ElementVisitor visitor) {
+		visitor.visit(this);
+	}
+
 	public static final Creator<Sms> CREATOR = new Creator<Sms>() {
 
 		@Override
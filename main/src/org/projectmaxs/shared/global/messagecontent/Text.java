@@ -39,10 +39,6 @@ public class Text extends AbstractElement {
 			mTexts.add(NewLine.getInstance());
 	}
 
-	private Text(Parcel in) {
-		in.readList(mTexts, getClass().getClassLoader());
-	}
-
 	@Override
 	public int describeContents() {
 		return 0;
@@ -50,7 +46,12 @@ public class Text extends AbstractElement {
 
 	@Override
 	public void writeToParcel(Parcel dest, int flags) {
-		dest.writeList(mTexts);
+		MessageContentCodec.writeText(dest, this, flags);
+	}
+
+	@Override
+	public void accept(ElementVisitor visitor) {
+		visitor.visit(this);
 	}
 
 	public Text add(FormatedText formatedText) {
@@ -117,7 +118,7 @@ public class Text extends AbstractElement {
 
 		@Override
 		public Text createFromParcel(Parcel source) {
-			return new Text(source);
+			return MessageContentCodec.readText(source);
 		}
 
 		@Override
@@ -0,0 +1,256 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+
+import android.os.SystemClock;
+
+/**
+ * Writes log messages to the Android log on a background thread. Callers only put the message into
+ * a bounded ring buffer, appending the stack trace and the call to
+ * {@link android.util.Log#println} happen on the writer thread. Producers never take a lock: if the
+ * buffer is full, debug and info messages are dropped and counted, while warnings and errors wait
+ * for a free slot, so that they are not written before the messages logged earlier.
+ * <p>
+ * The ring buffer follows the design of Dmitry Vyukov's bounded MPMC queue, restricted to a single
+ * consumer. Every slot carries a sequence number telling whether it is free for the producer of a
+ * given position or ready for the consumer.
+ * </p>
+ */
+public final class AsyncLogWriter {
+
+	private static final int CAPACITY = 1024;
+	private static final int MASK = CAPACITY - 1;
+
+	/**
+	 * How long a warning or error waits for the writer thread to free a slot before trying again.
+	 */
+	private static final long AWAIT_SLOT_NANOS = 100 * 1000;
+
+	private static final Slot[] sSlots = new Slot[CAPACITY];
+
+	/**
+	 * The next position to be claimed by a producer.
+	 */
+	private static final AtomicLong sTail = new AtomicLong();
+
+	/**
+	 * The next position to be consumed. Only written by the writer thread.
+	 */
+	private static volatile long sHead;
+
+	private static final Metrics.Counter DROPPED = Metrics.counter("log.dropped");
+
+	private static volatile boolean sWriterWaiting;
+
+	private static volatile LogJournal sJournal;
+
+	private static final Thread sWriter;
+
+	static {
+		for (int i = 0; i < CAPACITY; i++)
+			sSlots[i] = new Slot(i);
+
+		sWriter = new Thread("MAXS Log Writer") {
+			@Override
+			public void run() {
+				drainForever();
+			}
+		};
+		sWriter.setDaemon(true);
+		sWriter.start();
+	}
+
+	private AsyncLogWriter() {}
+
+	/**
+	 * Set the journal every log message is appended to, in addition to the Android log.
+	 * 
+	 * @param journal
+	 */
+	static void setJournal(LogJournal journal) {
+		sJournal = journal;
+	}
+
+	public static void println(int priority, String tag, String msg, Throwable tr) {
+		println(System.currentTimeMillis(), priority, tag, msg, tr);
+	}
+
+	/**
+	 * Write a java.util.logging record. The record is formatted on the caller's thread, as its
+	 * parameters may be modified once the caller continues.
+	 * 
+	 * @param priority
+	 * @param tag
+	 * @param record
+	 * @param formatter
+	 */
+	public static void println(int priority, String tag, LogRecord record, Formatter formatter) {
+		println(record.getMillis(), priority, tag, formatter.format(record), null);
+	}
+
+	private static void println(long time, int priority, String tag, String msg, Throwable tr) {
+		Slot slot = claim();
+		if (slot == null) {
+			if (priority < android.util.Log.WARN) {
+				DROPPED.inc();
+				return;
+			}
+			if (Thread.currentThread() == sWriter) {
+				// The writer thread can not wait for itself to free a slot
+				write(time, priority, tag, msg, tr);
+				return;
+			}
+			slot = awaitSlot();
+		}
+		slot.mTime = time;
+		slot.mPriority = priority;
+		slot.mTag = tag;
+		slot.mMessage = msg;
+		slot.mThrowable = tr;
+		publish(slot);
+	}
+
+	/**
+	 * Wait until all messages written so far have been passed to the Android log. Useful before
+	 * the process is about to die, e.g. because of an uncaught exception.
+	 * 
+	 * @param timeoutMillis
+	 */
+	public static void flush(long timeoutMillis) {
+		if (Thread.currentThread() == sWriter) return;
+		final long tail = sTail.get();
+		final long deadline = SystemClock.elapsedRealtime() + timeoutMillis;
+		while (sHead < tail && SystemClock.elapsedRealtime() < deadline) {
+			LockSupport.unpark(sWriter);
+			SystemClock.sleep(1);
+		}
+	}
+
+	private static Slot claim() {
+		long position = sTail.get();
+		while (true) {
+			final Slot slot = sSlots[(int) position & MASK];
+			final long difference = slot.mSequence - position;
+			if (difference == 0) {
+				if (sTail.compareAndSet(position, position + 1)) {
+					slot.mPosition = position;
+					return slot;
+				}
+				position = sTail.get();
+			} else if (difference < 0) {
+				// The slot still holds the entry of the previous round, the buffer is full
+				return null;
+			} else {
+				// Another producer claimed this position already
+				position = sTail.get();
+			}
+		}
+	}
+
+	private static void publish(Slot slot) {
+		slot.mSequence = slot.mPosition + 1;
+		if (sWriterWaiting) LockSupport.unpark(sWriter);
+	}
+
+	private static Slot awaitSlot() {
+		while (true) {
+			LockSupport.unpark(sWriter);
+			LockSupport.parkNanos(AWAIT_SLOT_NANOS);
+			final Slot slot = claim();
+			if (slot != null) return slot;
+		}
+	}
+
+	private static void drainForever() {
+		long reportedDropped = 0;
+		while (true) {
+			long head = sHead;
+			final Slot slot = sSlots[(int) head & MASK];
+			if (slot.mSequence != head + 1) {
+				sWriterWaiting = true;
+				// Re-check after announcing that we are about to wait, a producer which published
+				// in between either sees the flag or its slot is seen here.
+				if (slot.mSequence != head + 1) LockSupport.park();
+				sWriterWaiting = false;
+				continue;
+			}
+
+			write(slot);
+			slot.clear();
+			slot.mSequence = head + CAPACITY;
+			sHead = head + 1;
+
+			final long dropped = DROPPED.get();
+			if (dropped != reportedDropped) {
+				android.util.Log.w("MAXS/AsyncLogWriter", "Log buffer overflow, dropped "
+						+ (dropped - reportedDropped) + " messages");
+				reportedDropped = dropped;
+			}
+		}
+	}
+
+	private static void write(Slot slot) {
+		write(slot.mTime, slot.mPriority, slot.mTag, slot.mMessage, slot.mThrowable);
+	}
+
+	private static void write(long time, int priority, String tag, String msg, Throwable tr) {
+		try {
+			final String fullMsg = withStackTrace(msg, tr);
+			android.util.Log.println(priority, tag, fullMsg);
+			final LogJournal journal = sJournal;
+			if (journal != null) journal.append(time, priority, tag, fullMsg);
+		} catch (RuntimeException e) {
+			android.util.Log.e("MAXS/AsyncLogWriter", "Could not write log message", e);
+		}
+	}
+
+	private static String withStackTrace(String msg, Throwable tr) {
+		if (tr == null) return msg;
+		return msg + '\n' + android.util.Log.getStackTraceString(tr);
+	}
+
+	private static final class Slot {
+		volatile long mSequence;
+
+		/**
+		 * The position the slot was claimed for, only accessed by the claiming producer.
+		 */
+		long mPosition;
+
+		long mTime;
+		int mPriority;
+		String mTag;
+		String mMessage;
+		Throwable mThrowable;
+
+		Slot(long sequence) {
+			mSequence = sequence;
+		}
+
+		void clear() {
+			mTag = null;
+			mMessage = null;
+			mThrowable = null;
+		}
+	}
+}
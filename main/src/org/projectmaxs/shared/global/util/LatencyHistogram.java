@@ -0,0 +1,121 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.util;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in milliseconds. Bucket 0 counts latencies below 1ms, bucket
+ * i > 0 counts latencies of at least 2^(i-1)ms and below 2^i ms. The last bucket also counts
+ * everything above.
+ */
+public class LatencyHistogram {
+
+	public static final int BUCKETS = 18;
+
+	private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong mCount = new AtomicLong();
+	private final AtomicLong mSum = new AtomicLong();
+	private final AtomicLong mMax = new AtomicLong();
+
+	public void record(long millis) {
+		if (millis < 0) millis = 0;
+		final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+		mCounts.incrementAndGet(bucket);
+		mCount.incrementAndGet();
+		mSum.addAndGet(millis);
+		long max;
+		do {
+			max = mMax.get();
+		} while (millis > max && !mMax.compareAndSet(max, millis));
+	}
+
+	/**
+	 * Add the recorded values of another histogram, e.g. one received from a different process.
+	 *
+	 * @param bucketCounts
+	 *            the counts of the {@link #BUCKETS} buckets
+	 * @param sum
+	 * @param max
+	 */
+	public void add(long[] bucketCounts, long sum, long max) {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			mCounts.addAndGet(i, bucketCounts[i]);
+			count += bucketCounts[i];
+		}
+		mCount.addAndGet(count);
+		mSum.addAndGet(sum);
+		long currentMax;
+		do {
+			currentMax = mMax.get();
+		} while (max > currentMax && !mMax.compareAndSet(currentMax, max));
+	}
+
+	public long[] getBucketCounts() {
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+			counts[i] = mCounts.get(i);
+		return counts;
+	}
+
+	public long getSum() {
+		return mSum.get();
+	}
+
+	public long getCount() {
+		return mCount.get();
+	}
+
+	public double getMean() {
+		final long count = mCount.get();
+		return count == 0 ? 0 : (double) mSum.get() / count;
+	}
+
+	public long getMax() {
+		return mMax.get();
+	}
+
+	/**
+	 * Get the upper bound of the bucket containing the given percentile.
+	 *
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return the exclusive upper bound in milliseconds
+	 */
+	public long getPercentileUpperBound(double percentile) {
+		final long count = mCount.get();
+		if (count == 0) return 0;
+		final long rank = (long) Math.ceil(count * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS - 1; i++) {
+			seen += mCounts.get(i);
+			if (seen >= rank) return 1L << i;
+		}
+		return Math.max(1L << (BUCKETS - 1), mMax.get() + 1);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.US, "count=%d mean=%.1fms p50<%dms p90<%dms p99<%dms max=%dms",
+				getCount(), getMean(), getPercentileUpperBound(50), getPercentileUpperBound(90),
+				getPercentileUpperBound(99), getMax());
+	}
+}
@@ -46,38 +46,38 @@ public class Log {
 	}
 
 	public void i(String msg) {
-		android.util.Log.i(mLogTag, msg);
+		AsyncLogWriter.println(android.util.Log.INFO, mLogTag, msg, null);
 	}
 
 	public void i(String msg, Throwable tr) {
-		android.util.Log.i(mLogTag, msg, tr);
+		AsyncLogWriter.println(android.util.Log.INFO, mLogTag, msg, tr);
 	}
 
 	public void w(String msg) {
-		android.util.Log.w(mLogTag, msg);
+		AsyncLogWriter.println(android.util.Log.WARN, mLogTag, msg, null);
 	}
 
 	public void w(String msg, Throwable tr) {
-		android.util.Log.w(mLogTag, msg, tr);
+		AsyncLogWriter.println(android.util.Log.WARN, mLogTag, msg, tr);
 	}
 
 	public void e(String msg) {
-		android.util.Log.e(mLogTag, msg);
+		AsyncLogWriter.println(android.util.Log.ERROR, mLogTag, msg, null);
 	}
 
 	public void e(String msg, Throwable tr) {
-		android.util.Log.e(mLogTag, msg, tr);
+		AsyncLogWriter.println(android.util.Log.ERROR, mLogTag, msg, tr);
 	}
 
 	public void d(CharSequence msg) {
 		if (isDebugLogEnabled()) {
-			android.util.Log.d(mLogTag, msg.toString());
+			AsyncLogWriter.println(android.util.Log.DEBUG, mLogTag, msg.toString(), null);
 		}
 	}
 
 	public void d(CharSequence msg, Throwable tr) {
 		if (isDebugLogEnabled()) {
-			android.util.Log.d(mLogTag, msg.toString(), tr);
+			AsyncLogWriter.println(android.util.Log.DEBUG, mLogTag, msg.toString(), tr);
 		}
 	}
 
@@ -0,0 +1,281 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import android.content.Context;
+import android.os.ParcelFileDescriptor;
+
+/**
+ * A fixed-size log journal, kept in a memory-mapped file within the private files directory of
+ * the app. Unlike the logcat buffer, which wraps within minutes on a busy device, the journal
+ * keeps the log of the last hours and survives restarts of the process.
+ * <p>
+ * The journal is divided into segments, which are used round-robin. Records are appended to the
+ * current segment. If it is full, the next segment is cleared and becomes the current one, which
+ * drops the oldest records. Appending a record is a copy into the mapped memory, the kernel writes
+ * the pages back to the file. Records are appended by the {@link AsyncLogWriter} thread, see
+ * {@link #install(Context)}.
+ * </p>
+ */
+public final class LogJournal {
+
+	private static final String FILE_NAME = "log-journal";
+
+	private static final int MAGIC = 0x4d4c4a31;
+
+	private static final int SEGMENT_COUNT = 8;
+	private static final int SEGMENT_SIZE = 128 * 1024;
+
+	/**
+	 * The file header consists of the magic and the index of the current segment.
+	 */
+	private static final int FILE_HEADER_SIZE = 8;
+
+	/**
+	 * The segment header consists of the number of bytes used by records.
+	 */
+	private static final int SEGMENT_HEADER_SIZE = 4;
+	private static final int SEGMENT_CAPACITY = SEGMENT_SIZE - SEGMENT_HEADER_SIZE;
+
+	private static final int FILE_SIZE = FILE_HEADER_SIZE + SEGMENT_COUNT * SEGMENT_SIZE;
+
+	/**
+	 * A record consists of its length, followed by the timestamp, the priority, the length of the
+	 * tag, the tag and the message.
+	 */
+	private static final int RECORD_HEADER_SIZE = 4 + 8 + 1 + 2;
+	private static final int MAX_MESSAGE_BYTES = 4096;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static LogJournal sLogJournal;
+
+	/**
+	 * Open the journal of this app and let the {@link AsyncLogWriter} append all log messages to
+	 * it.
+	 * 
+	 * @param context
+	 * @return the journal or null if it could not be opened
+	 */
+	public static synchronized LogJournal install(Context context) {
+		if (sLogJournal != null) return sLogJournal;
+		try {
+			sLogJournal = new LogJournal(new File(context.getFilesDir(), FILE_NAME));
+		} catch (IOException e) {
+			android.util.Log.e("MAXS/LogJournal", "Could not open log journal", e);
+			return null;
+		}
+		AsyncLogWriter.setJournal(sLogJournal);
+		return sLogJournal;
+	}
+
+	public static synchronized LogJournal getInstance() {
+		return sLogJournal;
+	}
+
+	/**
+	 * Export the journal of this process to the given file descriptor, which is closed afterwards.
+	 * The export runs in a new thread, so that the caller, usually a binder thread, is not blocked
+	 * while the reader drains the pipe. Nothing is written if there is no journal.
+	 *
+	 * @param since
+	 * @param filter
+	 * @param pfd
+	 */
+	public static void exportAsync(final long since, final String filter,
+			final ParcelFileDescriptor pfd) {
+		final LogJournal journal = getInstance();
+		new Thread("MAXS Log Journal Export") {
+			@Override
+			public void run() {
+				OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(pfd);
+				try {
+					if (journal != null) journal.export(since, filter, out);
+				} catch (IOException e) {
+					android.util.Log.w("MAXS/LogJournal", "Could not export log journal", e);
+				} finally {
+					try {
+						out.close();
+					} catch (IOException e) {
+						android.util.Log.w("MAXS/LogJournal", "Could not close export", e);
+					}
+				}
+			}
+		}.start();
+	}
+
+	private final MappedByteBuffer mBuffer;
+
+	private int mSegment;
+	private int mUsed;
+
+	private LogJournal(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(FILE_SIZE);
+			// The mapping stays valid after the channel has been closed
+			mBuffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+		} finally {
+			raf.close();
+		}
+
+		mSegment = mBuffer.getInt(4);
+		if (mBuffer.getInt(0) != MAGIC || mSegment < 0 || mSegment >= SEGMENT_COUNT) {
+			for (int i = 0; i < SEGMENT_COUNT; i++)
+				mBuffer.putInt(segmentStart(i), 0);
+			mBuffer.putInt(0, MAGIC);
+			mBuffer.putInt(4, 0);
+			mSegment = 0;
+		}
+		mUsed = mBuffer.getInt(segmentStart(mSegment));
+		if (mUsed < 0 || mUsed > SEGMENT_CAPACITY) mUsed = 0;
+	}
+
+	/**
+	 * Append a record to the journal.
+	 * 
+	 * @param time
+	 *            milliseconds since the epoch
+	 * @param priority
+	 *            the priority as defined by {@link android.util.Log}
+	 * @param tag
+	 * @param msg
+	 */
+	public synchronized void append(long time, int priority, String tag, String msg) {
+		final byte[] tagBytes = tag.getBytes(UTF8);
+		final byte[] msgBytes = msg.getBytes(UTF8);
+		final int tagLength = Math.min(tagBytes.length, Short.MAX_VALUE);
+		final int msgLength = Math.min(msgBytes.length, MAX_MESSAGE_BYTES);
+		final int recordSize = RECORD_HEADER_SIZE + tagLength + msgLength;
+
+		if (mUsed + recordSize > SEGMENT_CAPACITY) nextSegment();
+
+		final int position = segmentStart(mSegment) + SEGMENT_HEADER_SIZE + mUsed;
+		mBuffer.putInt(position, recordSize);
+		mBuffer.putLong(position + 4, time);
+		mBuffer.put(position + 12, (byte) priority);
+		mBuffer.putShort(position + 13, (short) tagLength);
+		mBuffer.position(position + RECORD_HEADER_SIZE);
+		mBuffer.put(tagBytes, 0, tagLength);
+		mBuffer.put(msgBytes, 0, msgLength);
+
+		mUsed += recordSize;
+		mBuffer.putInt(segmentStart(mSegment), mUsed);
+	}
+
+	/**
+	 * Export the records as UTF-8 encoded text, one line per record, oldest first. Only one segment
+	 * is held in memory at a time, the lines are written to the stream as they are formatted.
+	 * 
+	 * @param since
+	 *            only export records not older than this, in milliseconds since the epoch
+	 * @param filter
+	 *            only export records whose tag or message contains this string, ignoring case,
+	 *            may be null
+	 * @param out
+	 *            the stream to write to, not closed by this method
+	 * @return the number of bytes written
+	 * @throws IOException
+	 */
+	public long export(long since, String filter, OutputStream out) throws IOException {
+		final String lowerCaseFilter = filter == null ? null : filter.toLowerCase(Locale.US);
+		final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+		final StringBuilder sb = new StringBuilder();
+		long written = 0;
+
+		// Visit the segments from the oldest to the current one. Each segment is copied while
+		// holding the lock, and parsed afterwards.
+		int segment;
+		synchronized (this) {
+			segment = mSegment;
+		}
+		for (int i = 1; i <= SEGMENT_COUNT; i++) {
+			final ByteBuffer records = copySegment((segment + i) % SEGMENT_COUNT);
+			while (records.remaining() >= RECORD_HEADER_SIZE) {
+				final int start = records.position();
+				final int recordSize = records.getInt();
+				if (recordSize < RECORD_HEADER_SIZE || recordSize > records.remaining() + 4) break;
+				final long time = records.getLong();
+				final int priority = records.get();
+				final int tagLength = records.getShort();
+				final int msgLength = recordSize - RECORD_HEADER_SIZE - tagLength;
+				if (tagLength < 0 || msgLength < 0) break;
+				final String tag = new String(records.array(), start + RECORD_HEADER_SIZE,
+						tagLength, UTF8);
+				final String msg = new String(records.array(), start + RECORD_HEADER_SIZE
+						+ tagLength, msgLength, UTF8);
+				records.position(start + recordSize);
+
+				if (time < since) continue;
+				if (lowerCaseFilter != null && !tag.toLowerCase(Locale.US).contains(lowerCaseFilter)
+						&& !msg.toLowerCase(Locale.US).contains(lowerCaseFilter)) {
+					continue;
+				}
+
+				sb.setLength(0);
+				sb.append(dateFormat.format(new Date(time))).append(' ');
+				sb.append(priorityChar(priority)).append('/').append(tag).append(": ");
+				sb.append(msg).append('\n');
+				final byte[] line = sb.toString().getBytes(UTF8);
+				out.write(line, 0, line.length);
+				written += line.length;
+			}
+		}
+		return written;
+	}
+
+	private void nextSegment() {
+		mSegment = (mSegment + 1) % SEGMENT_COUNT;
+		mUsed = 0;
+		mBuffer.putInt(segmentStart(mSegment), 0);
+		mBuffer.putInt(4, mSegment);
+	}
+
+	private synchronized ByteBuffer copySegment(int segment) {
+		final int start = segmentStart(segment);
+		int used = mBuffer.getInt(start);
+		if (used < 0 || used > SEGMENT_CAPACITY) used = 0;
+		final byte[] bytes = new byte[used];
+		mBuffer.position(start + SEGMENT_HEADER_SIZE);
+		mBuffer.get(bytes);
+		return ByteBuffer.wrap(bytes);
+	}
+
+	private static int segmentStart(int segment) {
+		return FILE_HEADER_SIZE + segment * SEGMENT_SIZE;
+	}
+
+	private static char priorityChar(int priority) {
+		final String priorities = "??VDIWEA";
+		if (priority < 0 || priority >= priorities.length()) return '?';
+		return priorities.charAt(priority);
+	}
+}
@@ -0,0 +1,135 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.projectmaxs.shared.global.MetricsSnapshot;
+
+/**
+ * The process wide registry of counters, gauges and histograms. Components look up their metrics
+ * once, usually into a static final field, recording a value is then a single atomic operation.
+ * A {@link MetricsSnapshot} of all metrics is send to MAXS Main when it asks for it.
+ */
+public class Metrics {
+
+	private static final ConcurrentMap<String, Counter> sCounters = new ConcurrentHashMap<String, Counter>();
+	private static final ConcurrentMap<String, Gauge> sGauges = new ConcurrentHashMap<String, Gauge>();
+	private static final ConcurrentMap<String, LatencyHistogram> sHistograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+	/**
+	 * Get the counter with the given name, creating it if necessary.
+	 *
+	 * @param name
+	 * @return the counter
+	 */
+	public static Counter counter(String name) {
+		Counter counter = sCounters.get(name);
+		if (counter != null) return counter;
+		counter = new Counter();
+		Counter existing = sCounters.putIfAbsent(name, counter);
+		return existing != null ? existing : counter;
+	}
+
+	/**
+	 * Get the gauge with the given name, creating it if necessary.
+	 *
+	 * @param name
+	 * @return the gauge
+	 */
+	public static Gauge gauge(String name) {
+		Gauge gauge = sGauges.get(name);
+		if (gauge != null) return gauge;
+		gauge = new Gauge();
+		Gauge existing = sGauges.putIfAbsent(name, gauge);
+		return existing != null ? existing : gauge;
+	}
+
+	/**
+	 * Get the latency histogram with the given name, creating it if necessary.
+	 *
+	 * @param name
+	 * @return the histogram
+	 */
+	public static LatencyHistogram histogram(String name) {
+		LatencyHistogram histogram = sHistograms.get(name);
+		if (histogram != null) return histogram;
+		histogram = new LatencyHistogram();
+		LatencyHistogram existing = sHistograms.putIfAbsent(name, histogram);
+		return existing != null ? existing : histogram;
+	}
+
+	/**
+	 * Take a snapshot of all metrics of this process.
+	 *
+	 * @param source
+	 *            the name of the snapshot's source, usually the package name
+	 * @return the snapshot
+	 */
+	public static MetricsSnapshot snapshot(String source) {
+		MetricsSnapshot snapshot = new MetricsSnapshot(source);
+		for (Map.Entry<String, Counter> entry : sCounters.entrySet())
+			snapshot.addCounter(entry.getKey(), entry.getValue().get());
+		for (Map.Entry<String, Gauge> entry : sGauges.entrySet())
+			snapshot.addGauge(entry.getKey(), entry.getValue().get());
+		for (Map.Entry<String, LatencyHistogram> entry : sHistograms.entrySet())
+			snapshot.addHistogram(entry.getKey(), entry.getValue());
+		return snapshot;
+	}
+
+	/**
+	 * A monotonically increasing count.
+	 */
+	public static final class Counter {
+		private final AtomicLong mValue = new AtomicLong();
+
+		private Counter() {}
+
+		public void inc() {
+			mValue.incrementAndGet();
+		}
+
+		public void add(long delta) {
+			mValue.addAndGet(delta);
+		}
+
+		public long get() {
+			return mValue.get();
+		}
+	}
+
+	/**
+	 * A value that may go up and down, like the size of a queue.
+	 */
+	public static final class Gauge {
+		private volatile long mValue;
+
+		private Gauge() {}
+
+		public void set(long value) {
+			mValue = value;
+		}
+
+		public long get() {
+			return mValue;
+		}
+	}
+}
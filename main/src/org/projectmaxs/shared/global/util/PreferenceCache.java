@@ -0,0 +1,183 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+
+/**
+ * Typed values parsed from SharedPreferences, which are only parsed again after one of the
+ * preferences they depend on changed. Reading a parsed value neither locks nor allocates, which
+ * makes them suitable for hot paths, e.g. {@link Log.DebugLogSettings#isDebugLogEnabled()}.
+ * <p>
+ * The values are invalidated by an {@link OnSharedPreferenceChangeListener}. Since
+ * SharedPreferences only keeps weak references to its listeners, the cache must be strongly
+ * referenced by its owner, usually the Settings singleton. Changes made with apply() are visible
+ * right away, but the listener is invoked later on the main thread. Hence code that reads a value
+ * right after changing it should call {@link Value#invalidate()} itself.
+ * </p>
+ */
+public class PreferenceCache implements OnSharedPreferenceChangeListener {
+
+	private static final Object NULL = new Object();
+
+	private final SharedPreferences mSharedPreferences;
+	private final Map<String, List<Value<?>>> mValuesByKey = new HashMap<String, List<Value<?>>>();
+
+	public PreferenceCache(SharedPreferences sharedPreferences) {
+		mSharedPreferences = sharedPreferences;
+		mSharedPreferences.registerOnSharedPreferenceChangeListener(this);
+	}
+
+	/**
+	 * Add a value to the cache.
+	 * 
+	 * @param value
+	 * @return the added value
+	 */
+	public synchronized <T> Value<T> add(Value<T> value) {
+		value.mSharedPreferences = mSharedPreferences;
+		for (String key : value.mKeys) {
+			List<Value<?>> values = mValuesByKey.get(key);
+			if (values == null) {
+				values = new ArrayList<Value<?>>(1);
+				mValuesByKey.put(key, values);
+			}
+			values.add(value);
+		}
+		return value;
+	}
+
+	public Value<Boolean> addBoolean(String key, final boolean defValue) {
+		return add(new Value<Boolean>(key) {
+			@Override
+			protected Boolean parse(SharedPreferences sharedPreferences) {
+				return sharedPreferences.getBoolean(mKeys[0], defValue);
+			}
+		});
+	}
+
+	public Value<String> addString(String key, final String defValue) {
+		return add(new Value<String>(key) {
+			@Override
+			protected String parse(SharedPreferences sharedPreferences) {
+				return sharedPreferences.getString(mKeys[0], defValue);
+			}
+		});
+	}
+
+	/**
+	 * Add a set of strings, saved with {@link SharedStringUtil#setToString(Set)}.
+	 * 
+	 * @param key
+	 * @return the value, which is an unmodifiable set
+	 */
+	public Value<Set<String>> addStringSet(String key) {
+		return add(new Value<Set<String>>(key) {
+			@Override
+			protected Set<String> parse(SharedPreferences sharedPreferences) {
+				final String string = sharedPreferences.getString(mKeys[0], "");
+				return Collections.unmodifiableSet(SharedStringUtil.stringToSet(string));
+			}
+		});
+	}
+
+	@Override
+	public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+		List<Value<?>> invalidate;
+		synchronized (this) {
+			if (key == null) {
+				// All preferences have been cleared
+				invalidate = new ArrayList<Value<?>>();
+				for (List<Value<?>> values : mValuesByKey.values())
+					invalidate.addAll(values);
+			} else {
+				invalidate = mValuesByKey.get(key);
+				if (invalidate == null) return;
+			}
+		}
+		for (Value<?> value : invalidate)
+			value.invalidate();
+	}
+
+	/**
+	 * A value parsed from one or more preferences.
+	 * 
+	 * @param <T>
+	 *            the type of the value, instances of it should be immutable
+	 */
+	public abstract static class Value<T> {
+		protected final String[] mKeys;
+
+		private SharedPreferences mSharedPreferences;
+
+		/**
+		 * The parsed value, {@link PreferenceCache#NULL} if it is null, or null if it has to be
+		 * parsed (again).
+		 */
+		private volatile Object mValue;
+
+		/**
+		 * @param keys
+		 *            the keys of the preferences the value is parsed from
+		 */
+		public Value(String... keys) {
+			mKeys = keys;
+		}
+
+		@SuppressWarnings("unchecked")
+		public final T get() {
+			Object value = mValue;
+			if (value == null) value = load();
+			return value == NULL ? null : (T) value;
+		}
+
+		/**
+		 * Parse the value again on the next read.
+		 */
+		public final synchronized void invalidate() {
+			mValue = null;
+		}
+
+		/**
+		 * Parse the value from the given preferences.
+		 * 
+		 * @param sharedPreferences
+		 * @return the value, may be null
+		 */
+		protected abstract T parse(SharedPreferences sharedPreferences);
+
+		// Synchronized with invalidate(), so that a value parsed before a change is never stored
+		// after the invalidation caused by the change
+		private synchronized Object load() {
+			Object value = mValue;
+			if (value != null) return value;
+			value = parse(mSharedPreferences);
+			if (value == null) value = NULL;
+			mValue = value;
+			return value;
+		}
+	}
+}
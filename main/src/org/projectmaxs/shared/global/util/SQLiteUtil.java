@@ -0,0 +1,125 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.util;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+public class SQLiteUtil {
+
+	/**
+	 * The number of rows deleted per transaction. Also bounds the number of bound arguments, which
+	 * SQLite limits to 999.
+	 */
+	public static final int PURGE_CHUNK_SIZE = 500;
+
+	/**
+	 * Delete the rows with the given IDs. The rows are deleted in chunks, each chunk within its own
+	 * transaction, so that the database is never locked for a long time.
+	 *
+	 * @param db
+	 * @param table
+	 * @param idColumn
+	 * @param ids
+	 * @return the number of deleted rows
+	 */
+	public static int deleteByIds(SQLiteDatabase db, String table, String idColumn, int[] ids) {
+		int deleted = 0;
+		for (int offset = 0; offset < ids.length; offset += PURGE_CHUNK_SIZE) {
+			final int count = Math.min(PURGE_CHUNK_SIZE, ids.length - offset);
+			final String[] args = new String[count];
+			for (int i = 0; i < count; i++) {
+				args[i] = Integer.toString(ids[offset + i]);
+			}
+			db.beginTransaction();
+			try {
+				deleted += db.delete(table, idColumn + " IN (" + placeholders(count) + ')', args);
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * Delete all rows whose timestamp column, holding milliseconds since the epoch, is older than
+	 * the given timestamp. The rows are deleted in chunks, each chunk within its own transaction.
+	 *
+	 * @param db
+	 * @param table
+	 * @param idColumn
+	 *            an integer column uniquely identifying the row
+	 * @param timestampColumn
+	 *            an indexed integer column
+	 * @param olderThanMillis
+	 * @param listener
+	 *            notified with the IDs of every deleted chunk, may be null
+	 * @return the number of deleted rows
+	 */
+	public static int deleteOlderThan(SQLiteDatabase db, String table, String idColumn,
+			String timestampColumn, long olderThanMillis, PurgeListener listener) {
+		final String[] columns = new String[] { idColumn };
+		final String selection = timestampColumn + "<?";
+		final String[] selectionArgs = new String[] { Long.toString(olderThanMillis) };
+		final String limit = Integer.toString(PURGE_CHUNK_SIZE);
+
+		int deleted = 0;
+		int[] chunk;
+		do {
+			db.beginTransaction();
+			try {
+				Cursor c = db.query(table, columns, selection, selectionArgs, null, null,
+						timestampColumn, limit);
+				try {
+					chunk = new int[c.getCount()];
+					int i = 0;
+					while (c.moveToNext()) {
+						chunk[i++] = c.getInt(0);
+					}
+				} finally {
+					c.close();
+				}
+				if (chunk.length > 0) {
+					final String[] args = SharedStringUtil.toStringArray(chunk);
+					db.delete(table, idColumn + " IN (" + placeholders(args.length) + ')', args);
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+
+			deleted += chunk.length;
+			if (listener != null && chunk.length > 0) listener.purged(chunk);
+		} while (chunk.length == PURGE_CHUNK_SIZE);
+		return deleted;
+	}
+
+	public interface PurgeListener {
+		public void purged(int[] ids);
+	}
+
+	private static String placeholders(int count) {
+		StringBuilder sb = new StringBuilder(count * 2);
+		for (int i = 0; i < count; i++) {
+			if (i > 0) sb.append(',');
+			sb.append('?');
+		}
+		return sb.toString();
+	}
+}
@@ -137,6 +137,41 @@ public class SharedStringUtil {
 		return cs == null || cs.length() == 0;
 	}
 
+	/**
+	 * Compute the Levenshtein distance between two strings, i.e. the number of single character
+	 * insertions, deletions and substitutions required to transform one into the other. Stops as
+	 * soon as the distance is known to exceed maxDistance.
+	 * 
+	 * @param a
+	 * @param b
+	 * @param maxDistance
+	 * @return the distance, or maxDistance + 1 if the distance is greater than maxDistance
+	 */
+	public static int editDistance(CharSequence a, CharSequence b, int maxDistance) {
+		if (Math.abs(a.length() - b.length()) > maxDistance) return maxDistance + 1;
+
+		int[] previous = new int[b.length() + 1];
+		int[] current = new int[b.length() + 1];
+		for (int j = 0; j <= b.length(); j++)
+			previous[j] = j;
+
+		for (int i = 1; i <= a.length(); i++) {
+			current[0] = i;
+			int rowMin = i;
+			for (int j = 1; j <= b.length(); j++) {
+				final int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+				current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1),
+						previous[j - 1] + cost);
+				rowMin = Math.min(rowMin, current[j]);
+			}
+			if (rowMin > maxDistance) return maxDistance + 1;
+			int[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+		return Math.min(previous[b.length()], maxDistance + 1);
+	}
+
 	public static String byteToHex(byte b) {
 		return String.format("x%02X", b);
 	}
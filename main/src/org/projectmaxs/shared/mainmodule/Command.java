@@ -18,6 +18,7 @@
 package org.projectmaxs.shared.mainmodule;
 
 import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.TraceContext;
 
 import android.os.Parcel;
 import android.os.Parcelable;
@@ -27,6 +28,7 @@ public class Command implements Parcelable {
 	private final String mSubCommand;
 	private final String mArgs;
 	private final int mId;
+	private TraceContext mTrace;
 
 	/**
 	 * Dummy constructor
@@ -68,6 +70,19 @@ public class Command implements Parcelable {
 		return mId;
 	}
 
+	/**
+	 * Get the trace of this command, which should be handed over to the reply.
+	 * 
+	 * @return the trace or null
+	 */
+	public TraceContext getTrace() {
+		return mTrace;
+	}
+
+	public void setTrace(TraceContext trace) {
+		mTrace = trace;
+	}
+
 	@Override
 	public int describeContents() {
 		return 0;
@@ -79,6 +94,7 @@ public class Command implements Parcelable {
 		dest.writeString(mSubCommand);
 		dest.writeString(mArgs);
 		dest.writeInt(mId);
+		dest.writeParcelable(mTrace, flags);
 	}
 
 	public static final Creator<Command> CREATOR = new Creator<Command>() {
@@ -89,7 +105,10 @@ public class Command implements Parcelable {
 			String subCommand = source.readString();
 			String args = source.readString();
 			int id = source.readInt();
-			return new Command(command, subCommand, args, id);
+			Command result = new Command(command, subCommand, args, id);
+			result.setTrace(source.<TraceContext> readParcelable(TraceContext.class
+					.getClassLoader()));
+			return result;
 		}
 
 		@Override
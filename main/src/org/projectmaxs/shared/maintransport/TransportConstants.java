@@ -39,6 +39,8 @@ public class TransportConstants {
 	public static final String ACTION_START_SERVICE = TRANSPORT_PACKAGE + ".START_SERVICE";
 	public static final String ACTION_STOP_SERVICE = TRANSPORT_PACKAGE + ".STOP_SERVICE";
 	public static final String ACTION_SET_STATUS = TRANSPORT_PACKAGE + ".SET_STATUS";
+	public static final String ACTION_BIND_TRANSPORT_CHANNEL = TRANSPORT_PACKAGE
+			+ ".BIND_TRANSPORT_CHANNEL";
 
 	public static final String EXTRA_COMMAND = TRANSPORT_PACKAGE + ".COMMAND";
 	public static final String EXTRA_COMMAND_ORIGIN = TRANSPORT_PACKAGE + ".COMMAND_ORIGIN";
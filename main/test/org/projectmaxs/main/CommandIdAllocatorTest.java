@@ -0,0 +1,116 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.projectmaxs.main.CommandIdAllocator.ReservationSource;
+
+/**
+ * Stresses {@link CommandIdAllocator} with many threads racing for IDs while blocks run out. The
+ * reservation source is a fake that takes some time to "persist" a block, like a commit() would.
+ */
+public class CommandIdAllocatorTest {
+
+	private static final int THREADS = 16;
+	private static final int IDS_PER_THREAD = 10000;
+
+	@Test
+	public void idsAreUniqueAndFromReservedBlocks() throws Exception {
+		final FakeReservationSource source = new FakeReservationSource(0);
+		final CommandIdAllocator allocator = new CommandIdAllocator(source);
+		final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		List<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+		for (int i = 0; i < THREADS; i++) {
+			futures.add(executor.submit(new Callable<int[]>() {
+				@Override
+				public int[] call() throws Exception {
+					barrier.await();
+					int[] ids = new int[IDS_PER_THREAD];
+					for (int j = 0; j < IDS_PER_THREAD; j++)
+						ids[j] = allocator.nextId();
+					return ids;
+				}
+			}));
+		}
+
+		BitSet seen = new BitSet();
+		for (Future<int[]> future : futures) {
+			for (int id : future.get()) {
+				assertTrue("ID " + id + " handed out twice", !seen.get(id));
+				assertTrue("ID " + id + " was never reserved", id < source.getReservedEnd());
+				seen.set(id);
+			}
+		}
+		executor.shutdown();
+
+		assertEquals(THREADS * IDS_PER_THREAD, seen.cardinality());
+		// Every block but the last one is used completely, no block is reserved twice
+		assertTrue(source.getReservedEnd() - seen.cardinality() < 128);
+	}
+
+	@Test
+	public void laterAllocatorDoesNotReuseIds() {
+		FakeReservationSource source = new FakeReservationSource(0);
+		CommandIdAllocator first = new CommandIdAllocator(source);
+		for (int i = 0; i < 10; i++)
+			first.nextId();
+
+		// Simulates a restart of MAXS, the rest of the first block is skipped
+		CommandIdAllocator second = new CommandIdAllocator(source);
+		assertEquals(128, second.nextId());
+	}
+
+	private static final class FakeReservationSource implements ReservationSource {
+		private int mNext;
+
+		FakeReservationSource(int next) {
+			mNext = next;
+		}
+
+		@Override
+		public synchronized int reserve(int count) {
+			final int start = mNext;
+			// Give other threads the chance to race for the exhausted block meanwhile
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+			mNext += count;
+			return start;
+		}
+
+		synchronized int getReservedEnd() {
+			return mNext;
+		}
+	}
+}
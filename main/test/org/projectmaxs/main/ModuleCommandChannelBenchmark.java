@@ -0,0 +1,180 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.projectmaxs.shared.global.GlobalConstants;
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.aidl.IMAXSMetricsReceiver;
+import org.projectmaxs.shared.mainmodule.Command;
+import org.projectmaxs.shared.mainmodule.IMAXSMainReplyChannel;
+import org.projectmaxs.shared.mainmodule.IMAXSModuleCommandChannel;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.Intent;
+import android.os.Binder;
+import android.os.IInterface;
+import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+
+/**
+ * Compares the round trip of a command and its reply send as intents with the round trip over the
+ * command and reply channels of {@link ModuleCommandChannels}. Intents and binder transactions are
+ * marshalled as they would be between processes, an intent twice, as it passes the system server.
+ * Resolving and starting the services on the intent path is not included, so the measured
+ * difference is a lower bound.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 23)
+public class ModuleCommandChannelBenchmark {
+
+	private static final String MODULE_PACKAGE = "org.projectmaxs.module.test";
+	private static final int WARMUP_ROUNDS = 2000;
+	private static final int ROUNDS = 20000;
+
+	@Test
+	public void roundTrip() throws RemoteException {
+		final ReplyChannel replyChannel = new ReplyChannel();
+		final IMAXSMainReplyChannel replyProxy = IMAXSMainReplyChannel.Stub
+				.asInterface(new RemoteBinder(replyChannel));
+		final IMAXSModuleCommandChannel commandProxy = IMAXSModuleCommandChannel.Stub
+				.asInterface(new RemoteBinder(new CommandChannel()));
+
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			viaIntents(i);
+			viaChannels(i, commandProxy, replyProxy, replyChannel);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++)
+			assertEquals(i, viaIntents(i));
+		final long intentNanos = (System.nanoTime() - start) / ROUNDS;
+
+		start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++)
+			assertEquals(i, viaChannels(i, commandProxy, replyProxy, replyChannel));
+		final long channelNanos = (System.nanoTime() - start) / ROUNDS;
+
+		System.out.println("Command round trip: intents " + intentNanos / 1000.0
+				+ "us, channels " + channelNanos / 1000.0 + "us");
+	}
+
+	private static int viaIntents(int id) {
+		Intent commandIntent = new Intent(GlobalConstants.ACTION_PERFORM_COMMAND);
+		commandIntent.putExtra(GlobalConstants.EXTRA_COMMAND, createCommand(id));
+		commandIntent.setClassName(MODULE_PACKAGE, MODULE_PACKAGE + ".ModuleService");
+		Command command = deliver(commandIntent).getParcelableExtra(GlobalConstants.EXTRA_COMMAND);
+
+		Intent replyIntent = new Intent(GlobalConstants.ACTION_SEND_MESSAGE);
+		replyIntent.putExtra(GlobalConstants.EXTRA_MESSAGE, createReply(command));
+		replyIntent.setClassName(GlobalConstants.MAIN_PACKAGE,
+				GlobalConstants.MAIN_PACKAGE + ".MAXSModuleIntentService");
+		Message reply = deliver(replyIntent).getParcelableExtra(GlobalConstants.EXTRA_MESSAGE);
+		return reply.getId();
+	}
+
+	private static int viaChannels(int id, IMAXSModuleCommandChannel commandProxy,
+			IMAXSMainReplyChannel replyProxy, ReplyChannel replyChannel) throws RemoteException {
+		// The calls are one-way, but a local Binder handles them synchronously
+		commandProxy.performCommand(createCommand(id), replyProxy);
+		return replyChannel.mLastReply.getId();
+	}
+
+	/**
+	 * Marshal the intent from the sending process to the system server, and from there to the
+	 * receiving process.
+	 * 
+	 * @param intent
+	 * @return the intent as seen by the receiving process
+	 */
+	private static Intent deliver(Intent intent) {
+		for (int hop = 0; hop < 2; hop++) {
+			Parcel parcel = Parcel.obtain();
+			try {
+				intent.writeToParcel(parcel, 0);
+				parcel.setDataPosition(0);
+				intent = Intent.CREATOR.createFromParcel(parcel);
+			} finally {
+				parcel.recycle();
+			}
+		}
+		intent.setExtrasClassLoader(ModuleCommandChannelBenchmark.class.getClassLoader());
+		return intent;
+	}
+
+	private static Command createCommand(int id) {
+		return new Command("sms", "send", "Alice  Hello, how are you?", id);
+	}
+
+	private static Message createReply(Command command) {
+		Message reply = new Message("SMS to Alice sent");
+		reply.setId(command.getId());
+		return reply;
+	}
+
+	/**
+	 * A Binder which hides its local interface, so that calls to it are marshalled like calls to
+	 * another process.
+	 */
+	private static final class RemoteBinder extends Binder {
+		private final Binder mTarget;
+
+		RemoteBinder(Binder target) {
+			mTarget = target;
+		}
+
+		@Override
+		public IInterface queryLocalInterface(String descriptor) {
+			return null;
+		}
+
+		@Override
+		protected boolean onTransact(int code, Parcel data, Parcel reply, int flags)
+				throws RemoteException {
+			return mTarget.transact(code, data, reply, flags);
+		}
+	}
+
+	private static final class CommandChannel extends IMAXSModuleCommandChannel.Stub {
+		@Override
+		public void performCommand(Command command, IMAXSMainReplyChannel replyChannel)
+				throws RemoteException {
+			replyChannel.send(createReply(command));
+		}
+
+		@Override
+		public void requestMetrics(IMAXSMetricsReceiver receiver) {}
+
+		@Override
+		public void exportJournal(long since, String filter, ParcelFileDescriptor out) {}
+	}
+
+	private static final class ReplyChannel extends IMAXSMainReplyChannel.Stub {
+		Message mLastReply;
+
+		@Override
+		public void send(Message message) {
+			mLastReply = message;
+		}
+	}
+}
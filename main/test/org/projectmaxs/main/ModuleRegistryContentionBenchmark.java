@@ -0,0 +1,118 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.projectmaxs.shared.mainmodule.ModuleInformation;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Measures the latency of routing commands while modules re-register, as they do when MAXS
+ * starts. Routing must not wait for the database writes of a registration.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 23)
+public class ModuleRegistryContentionBenchmark {
+
+	private static final int MODULES = 20;
+	private static final int ROUNDS = 25;
+	private static final int READERS = 4;
+	private static final int SAMPLES_PER_READER = 1 << 16;
+
+	@Test
+	public void routeWhileRegistering() throws InterruptedException {
+		final ModuleRegistry registry = ModuleRegistry.getInstance(RuntimeEnvironment.application);
+		for (int i = 0; i < MODULES; i++)
+			registry.registerModule(createModule(i));
+
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicInteger unrouted = new AtomicInteger();
+		final CountDownLatch started = new CountDownLatch(READERS);
+		final long[][] samples = new long[READERS][SAMPLES_PER_READER];
+		final int[] sampleCounts = new int[READERS];
+		Thread[] readers = new Thread[READERS];
+		for (int i = 0; i < READERS; i++) {
+			final int reader = i;
+			readers[i] = new Thread() {
+				@Override
+				public void run() {
+					started.countDown();
+					int count = 0;
+					while (!done.get()) {
+						final long start = System.nanoTime();
+						CommandRouter.Route route = registry.getCommandRouter().route(
+								"command" + (count % MODULES) + " sub1 some arguments");
+						samples[reader][count % SAMPLES_PER_READER] = System.nanoTime() - start;
+						if (route.getCommandInformation() == null) unrouted.incrementAndGet();
+						count++;
+					}
+					sampleCounts[reader] = Math.min(count, SAMPLES_PER_READER);
+				}
+			};
+			readers[i].start();
+		}
+		started.await();
+
+		final long registrationStart = System.nanoTime();
+		for (int round = 0; round < ROUNDS; round++) {
+			for (int i = 0; i < MODULES; i++)
+				registry.registerModule(createModule(i));
+		}
+		final long registrationNanos = (System.nanoTime() - registrationStart) / (ROUNDS * MODULES);
+		done.set(true);
+		for (Thread reader : readers)
+			reader.join();
+
+		int total = 0;
+		for (int count : sampleCounts)
+			total += count;
+		long[] all = new long[total];
+		int pos = 0;
+		for (int i = 0; i < READERS; i++) {
+			System.arraycopy(samples[i], 0, all, pos, sampleCounts[i]);
+			pos += sampleCounts[i];
+		}
+		Arrays.sort(all);
+		final long median = all[total / 2];
+		final long p99 = all[(int) (total * 0.99)];
+		System.out.println("ModuleRegistry contention: registration " + registrationNanos / 1000
+				+ "us, route median " + median / 1000.0 + "us, p99 " + p99 / 1000.0 + "us, max "
+				+ all[total - 1] / 1000.0 + "us over " + total + " routes");
+
+		// The latencies depend on the machine and are only reported, but every command must have
+		// been routed, even while its module re-registered
+		assertEquals(0, unrouted.get());
+	}
+
+	private static ModuleInformation createModule(int i) {
+		ModuleInformation module = new ModuleInformation("org.projectmaxs.module.test" + i);
+		module.add(new ModuleInformation.Command("command" + i, "c" + i, "sub1", null, "sub1",
+				"sub2", "sub3"));
+		return module;
+	}
+}
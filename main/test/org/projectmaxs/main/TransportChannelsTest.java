@@ -0,0 +1,97 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.projectmaxs.shared.global.GlobalConstants;
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.messagecontent.Text;
+import org.projectmaxs.shared.maintransport.TransportConstants;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowApplication;
+
+import android.content.Intent;
+import android.os.Parcel;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 23)
+public class TransportChannelsTest {
+
+	private static final String TRANSPORT_PACKAGE = "org.projectmaxs.transport.xmpp";
+	private static final String ACTION_SEND_AS_MESSAGE = TRANSPORT_PACKAGE + ".SEND_AS_MESSAGE";
+
+	/**
+	 * More than the size above which the elements of a message are piped, if allowed.
+	 */
+	private static final int LARGE_MESSAGE_LINES = 2000;
+
+	@Test
+	public void largeMessageIsSendInlineIfTransportIsNotBound() {
+		ShadowApplication shadowApplication = ShadowApplication.getInstance();
+		shadowApplication.declareActionUnbindable(TransportConstants.ACTION_BIND_TRANSPORT_CHANNEL);
+		MAXSService maxsService = Robolectric.buildService(MAXSService.class).get();
+		TransportChannels transportChannels = new TransportChannels(maxsService);
+
+		Message message = new Message();
+		for (int i = 0; i < LARGE_MESSAGE_LINES; i++)
+			message.add(new Text("Line " + i + " of a reply that exceeds the size of a binder"
+					+ " transaction when sent inline", true));
+		// As if the message was already send over the channel of another transport
+		message.setPipeAllowed(true);
+
+		Intent intent = new Intent(ACTION_SEND_AS_MESSAGE);
+		intent.setClassName(TRANSPORT_PACKAGE, TRANSPORT_PACKAGE
+				+ TransportConstants.TRANSPORT_SERVICE);
+		intent.putExtra(GlobalConstants.EXTRA_MESSAGE, message);
+		transportChannels.send(TRANSPORT_PACKAGE, intent);
+
+		Intent started = shadowApplication.getNextStartedService();
+		assertNotNull(started);
+		Message startedMessage = started.getParcelableExtra(GlobalConstants.EXTRA_MESSAGE);
+		assertSame(message, startedMessage);
+		assertFalse(startedMessage.isPipeAllowed());
+
+		// The intent must be marshallable, with the elements inline
+		Parcel parcel = Parcel.obtain();
+		try {
+			started.writeToParcel(parcel, 0);
+			parcel.setDataPosition(0);
+			Intent read = Intent.CREATOR.createFromParcel(parcel);
+			read.setExtrasClassLoader(Message.class.getClassLoader());
+			Message readMessage = read.getParcelableExtra(GlobalConstants.EXTRA_MESSAGE);
+			int elements = 0;
+			for (Iterator<?> it = readMessage.getElementsIt(); it.hasNext(); it.next())
+				elements++;
+			assertEquals(LARGE_MESSAGE_LINES, elements);
+		} finally {
+			parcel.recycle();
+		}
+
+		transportChannels.close();
+	}
+}
@@ -0,0 +1,144 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.main.database;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Timestamp;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.projectmaxs.main.database.CommandTable.FullEntry;
+import org.projectmaxs.main.util.Constants;
+import org.projectmaxs.shared.global.util.SQLiteUtil;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 23)
+public class MAXSDatabaseMigrationTest {
+
+	// @formatter:off
+	private static final String CREATE_TABLE_VERSION_2 =
+		"CREATE TABLE commands (" +
+		 "commandId INTEGER PRIMARY KEY," +
+		 "timestamp TIMESTAMP NOT NULL," +
+		 "command TEXT NOT NULL," +
+		 "subcommand TEXT," +
+		 "args TEXT," +
+		 "orignPackage TEXT NOT NULL," +
+		 "originIntentAction TEXT NOT NULL," +
+		 "originIssuerInfo TEXT NOT NULL," +
+		 "originId TEXT" +
+		")";
+	// @formatter:on
+
+	private static final long HOUR = 1000 * 60 * 60;
+
+	@Test
+	public void upgradeFromVersion2ConvertsTimestampsToMillis() {
+		final long now = System.currentTimeMillis();
+		// Version 2 stored Timestamp.toString(), in local time and with fractional seconds
+		final Timestamp recent = new Timestamp(now - HOUR);
+		final Timestamp old = new Timestamp(now - 4 * 24 * HOUR);
+
+		Context context = RuntimeEnvironment.application;
+		SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+				context.getDatabasePath(Constants.MAIN_PACKAGE + ".db"), null);
+		db.execSQL(CREATE_TABLE_VERSION_2);
+		db.execSQL("INSERT INTO commands VALUES (1, '" + old
+				+ "', 'sms', 'send', 'Alice Hi', 'org.projectmaxs.transport.xmpp',"
+				+ " 'org.projectmaxs.transport.xmpp.OUTGOING', 'alice@example.org', NULL)");
+		db.execSQL("INSERT INTO commands VALUES (2, '" + recent
+				+ "', 'ring', NULL, NULL, 'org.projectmaxs.transport.xmpp',"
+				+ " 'org.projectmaxs.transport.xmpp.OUTGOING', 'bob@example.org', 'thread-2')");
+		db.setVersion(2);
+		db.close();
+
+		CommandTable commandTable = CommandTable.getInstance(context);
+		assertEquals(2, commandTable.getEntryCount());
+
+		FullEntry entry = commandTable.getFullEntry(2);
+		assertNotNull(entry);
+		// The migration drops the fractional seconds
+		assertEquals(recent.getTime() / 1000 * 1000, entry.mTimestamp.getTime());
+		assertEquals("ring", entry.mCommand);
+		assertNull(entry.mSubCmd);
+		assertEquals("bob@example.org", entry.mOrigin.getOriginIssuerInfo());
+		assertEquals("thread-2", entry.mOrigin.getOriginId());
+
+		entry = commandTable.getFullEntry(1);
+		assertNotNull(entry);
+		assertEquals(old.getTime() / 1000 * 1000, entry.mTimestamp.getTime());
+		assertEquals("send", entry.mSubCmd);
+		assertEquals("Alice Hi", entry.mArgs);
+
+		db = SQLiteDatabase.openDatabase(
+				context.getDatabasePath(Constants.MAIN_PACKAGE + ".db").getPath(), null,
+				SQLiteDatabase.OPEN_READONLY);
+		try {
+			assertEquals(3, db.getVersion());
+			Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index'"
+					+ " AND tbl_name = 'commands' AND sql IS NOT NULL", null);
+			try {
+				assertTrue("Timestamp index missing", c.moveToFirst());
+				assertEquals("commands_timestamp_idx", c.getString(0));
+			} finally {
+				c.close();
+			}
+			c = db.rawQuery("SELECT typeof(timestamp) FROM commands", null);
+			try {
+				while (c.moveToNext()) {
+					assertEquals("integer", c.getString(0));
+				}
+			} finally {
+				c.close();
+			}
+			c = db.rawQuery("SELECT name FROM sqlite_master WHERE name = 'commands_old'", null);
+			try {
+				assertEquals(0, c.getCount());
+			} finally {
+				c.close();
+			}
+		} finally {
+			db.close();
+		}
+
+		// Only the command older than three days is purged
+		final int[][] purged = new int[1][];
+		assertEquals(1, commandTable.purgeOldEntries(new SQLiteUtil.PurgeListener() {
+			@Override
+			public void purged(int[] ids) {
+				purged[0] = ids;
+			}
+		}));
+		assertArrayEquals(new int[] { 1 }, purged[0]);
+		assertEquals(1, commandTable.getEntryCount());
+		assertNull(commandTable.getFullEntry(1));
+		assertNotNull(commandTable.getFullEntry(2));
+	}
+}
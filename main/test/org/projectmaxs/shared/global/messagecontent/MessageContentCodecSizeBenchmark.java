@@ -0,0 +1,235 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.global.messagecontent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.os.Parcel;
+
+/**
+ * Compares the Parcel size and the marshalling and unmarshalling time of message trees written by
+ * {@link MessageContentCodec} with the same trees written by Parcel.writeList(), which was used
+ * before. The trees read back by the codec must equal the written ones, including the formatting
+ * of the texts.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 23)
+public class MessageContentCodecSizeBenchmark {
+
+	private static final int[] NODES = { 10, 100, 1000 };
+
+	private static final int WARMUP_ROUNDS = 20;
+	private static final int ROUNDS = 50;
+
+	@Test
+	public void contactList() {
+		for (int nodes : NODES) {
+			List<AbstractElement> elements = new ArrayList<AbstractElement>();
+			for (int i = 0; i < nodes; i++) {
+				Element contact = new Element("contact", "Contact " + i, "Contact");
+				contact.addChildElement(new Element("number", "+49 123 45678" + i, "Number"));
+				elements.add(contact);
+			}
+			compare("contacts", nodes, elements);
+		}
+	}
+
+	@Test
+	public void formattedText() {
+		for (int nodes : NODES) {
+			List<AbstractElement> elements = new ArrayList<AbstractElement>();
+			for (int i = 0; i < nodes; i++) {
+				Text text = new Text();
+				text.addBold("Line " + i + ": ").addItalicNL("some formatted text");
+				text.add("plain ").add(new FormatedText("code", "monospace", true, true));
+				elements.add(text);
+			}
+			compare("text", nodes, elements);
+		}
+	}
+
+	@Test
+	public void nestedElements() {
+		for (int nodes : NODES) {
+			List<AbstractElement> elements = new ArrayList<AbstractElement>();
+			Element parent = null;
+			for (int i = 0; i < nodes; i++) {
+				// Chains of up to five nested elements, mixed with texts and non-human readable
+				// elements
+				Element element;
+				if (i % 3 == 0) {
+					element = Element.newNonHumandReadable("raw", Integer.toString(i));
+				} else {
+					element = new Element("level" + i % 5, "Level " + i, "Level");
+				}
+				if (i % 5 == 0) {
+					elements.add(element);
+				} else {
+					parent.addChildElement(element);
+				}
+				element.addChildElement(Text.createBoldNL("Node " + i));
+				parent = element;
+			}
+			compare("nested elements", nodes, elements);
+		}
+	}
+
+	private static void compare(String description, int nodes, List<AbstractElement> elements) {
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			viaWriteList(elements);
+			viaCodec(elements);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++)
+			marshallWithWriteList(elements).recycle();
+		final long listMarshallNanos = (System.nanoTime() - start) / ROUNDS;
+
+		start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++)
+			viaWriteList(elements);
+		final long listUnmarshallNanos = (System.nanoTime() - start) / ROUNDS - listMarshallNanos;
+
+		start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++)
+			marshallWithCodec(elements).recycle();
+		final long codecMarshallNanos = (System.nanoTime() - start) / ROUNDS;
+
+		start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++)
+			viaCodec(elements);
+		final long codecUnmarshallNanos = (System.nanoTime() - start) / ROUNDS
+				- codecMarshallNanos;
+
+		Parcel list = marshallWithWriteList(elements);
+		Parcel codec = marshallWithCodec(elements);
+		try {
+			System.out.println("Parcel of " + nodes + " " + description + ": writeList() "
+					+ list.dataSize() + " bytes, marshall " + listMarshallNanos / 1000.0
+					+ "us, unmarshall " + listUnmarshallNanos / 1000.0 + "us; codec "
+					+ codec.dataSize() + " bytes, marshall " + codecMarshallNanos / 1000.0
+					+ "us, unmarshall " + codecUnmarshallNanos / 1000.0 + "us");
+			assertTrue(codec.dataSize() < list.dataSize());
+		} finally {
+			list.recycle();
+			codec.recycle();
+		}
+
+		assertTreesEqual(elements, viaCodec(elements));
+	}
+
+	private static Parcel marshallWithWriteList(List<AbstractElement> elements) {
+		Parcel parcel = Parcel.obtain();
+		parcel.writeList(elements);
+		return parcel;
+	}
+
+	private static Parcel marshallWithCodec(List<AbstractElement> elements) {
+		Parcel parcel = Parcel.obtain();
+		MessageContentCodec.writeElements(parcel, elements, 0);
+		return parcel;
+	}
+
+	private static List<AbstractElement> viaWriteList(List<AbstractElement> elements) {
+		Parcel parcel = marshallWithWriteList(elements);
+		try {
+			parcel.setDataPosition(0);
+			List<AbstractElement> read = new ArrayList<AbstractElement>();
+			parcel.readList(read, AbstractElement.class.getClassLoader());
+			return read;
+		} finally {
+			parcel.recycle();
+		}
+	}
+
+	private static List<AbstractElement> viaCodec(List<AbstractElement> elements) {
+		Parcel parcel = marshallWithCodec(elements);
+		try {
+			parcel.setDataPosition(0);
+			List<AbstractElement> read = new ArrayList<AbstractElement>();
+			assertNull(MessageContentCodec.readElements(parcel, read));
+			return read;
+		} finally {
+			parcel.recycle();
+		}
+	}
+
+	private static void assertTreesEqual(List<AbstractElement> expected,
+			List<AbstractElement> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++)
+			assertElementEquals(expected.get(i), actual.get(i));
+	}
+
+	private static void assertElementEquals(AbstractElement expected, AbstractElement actual) {
+		if (expected == null) {
+			assertNull(actual);
+			return;
+		}
+		assertNotNull(actual);
+		assertSame(expected.getClass(), actual.getClass());
+		if (expected instanceof Text) {
+			assertTextEquals((Text) expected, (Text) actual);
+		} else if (expected instanceof Element) {
+			Element expectedElement = (Element) expected;
+			Element actualElement = (Element) actual;
+			assertEquals(expectedElement.getXMLName(), actualElement.getXMLName());
+			assertEquals(expectedElement.getText(), actualElement.getText());
+			assertEquals(expectedElement.isHumanReadable(), actualElement.isHumanReadable());
+			assertElementEquals(expectedElement.getHumanReadableName(),
+					actualElement.getHumanReadableName());
+			Iterator<AbstractElement> expectedChildren = expectedElement.getChildElementIterator();
+			Iterator<AbstractElement> actualChildren = actualElement.getChildElementIterator();
+			while (expectedChildren.hasNext()) {
+				assertTrue("Child element missing in " + expectedElement.getXMLName(),
+						actualChildren.hasNext());
+				assertElementEquals(expectedChildren.next(), actualChildren.next());
+			}
+			assertTrue("Additional child element in " + expectedElement.getXMLName(),
+					!actualChildren.hasNext());
+		}
+	}
+
+	private static void assertTextEquals(Text expected, Text actual) {
+		List<FormatedText> expectedTexts = expected.getTexts();
+		List<FormatedText> actualTexts = actual.getTexts();
+		assertEquals(expectedTexts.size(), actualTexts.size());
+		for (int i = 0; i < expectedTexts.size(); i++) {
+			FormatedText expectedText = expectedTexts.get(i);
+			FormatedText actualText = actualTexts.get(i);
+			assertEquals(FormatedText.isNewLine(expectedText), FormatedText.isNewLine(actualText));
+			assertEquals(expectedText.toString(), actualText.toString());
+			assertEquals(expectedText.getFont(), actualText.getFont());
+			assertEquals(expectedText.isBold(), actualText.isBold());
+			assertEquals(expectedText.isItalic(), actualText.isItalic());
+		}
+	}
+}
@@ -18,6 +18,7 @@
 package org.projectmaxs.module.clipboard;
 
 import org.projectmaxs.shared.global.util.Log.DebugLogSettings;
+import org.projectmaxs.shared.global.util.PreferenceCache;
 
 import android.content.Context;
 import android.content.SharedPreferences;
@@ -39,16 +40,22 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 
 	private SharedPreferences mSharedPreferences;
 
+	private final PreferenceCache mPreferenceCache;
+	private final PreferenceCache.Value<Boolean> mDebugLog;
+
 	private Settings(Context context) {
 		mSharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
 
 		DEBUG_LOG = context.getString(R.string.pref_app_debug_log_key);
 
+		mPreferenceCache = new PreferenceCache(mSharedPreferences);
+		mDebugLog = mPreferenceCache.addBoolean(DEBUG_LOG, false);
+
 		mSharedPreferences.registerOnSharedPreferenceChangeListener(this);
 	}
 
 	public boolean isDebugLogEnabled() {
-		return mSharedPreferences.getBoolean(DEBUG_LOG, false);
+		return mDebugLog.get();
 	}
 
 	public SharedPreferences getSharedPreferences() {
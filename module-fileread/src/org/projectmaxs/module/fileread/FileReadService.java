@@ -20,6 +20,7 @@ package org.projectmaxs.module.fileread;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -29,6 +30,7 @@ import org.projectmaxs.shared.global.util.Log;
 import android.app.Service;
 import android.content.Intent;
 import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 
 public class FileReadService extends Service {
@@ -83,6 +85,17 @@ public class FileReadService extends Service {
 		public boolean isFile(String file) throws RemoteException {
 			return new File(file).isFile();
 		}
+
+		@Override
+		public ParcelFileDescriptor openFileForReading(String file) throws RemoteException {
+			try {
+				return ParcelFileDescriptor.open(new File(file),
+						ParcelFileDescriptor.MODE_READ_ONLY);
+			} catch (FileNotFoundException e) {
+				LOG.e("openFileForReading", e);
+				return null;
+			}
+		}
 	};
 
 }
@@ -17,15 +17,22 @@
 
 package org.projectmaxs.module.filewrite;
 
+import java.io.File;
+import java.io.IOException;
+
 import org.projectmaxs.shared.global.aidl.IFileWriteModuleService;
+import org.projectmaxs.shared.global.util.Log;
 
 import android.app.Service;
 import android.content.Intent;
 import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 
 public class FileWriteService extends Service {
 
+	private static final Log LOG = Log.getLog();
+
 	@Override
 	public IBinder onBind(Intent intent) {
 		return mBinder;
@@ -38,6 +45,19 @@ public class FileWriteService extends Service {
 			return FileManager.saveToFile(file, bytes);
 		}
 
+		@Override
+		public ParcelFileDescriptor openFileForWriting(String file) throws RemoteException {
+			File writeTo = new File(file);
+			try {
+				FileManager.checkCreateDir(writeTo.getParentFile());
+				return ParcelFileDescriptor.open(writeTo, ParcelFileDescriptor.MODE_WRITE_ONLY
+						| ParcelFileDescriptor.MODE_CREATE | ParcelFileDescriptor.MODE_TRUNCATE);
+			} catch (IOException e) {
+				LOG.w("openFileForWriting", e);
+				return null;
+			}
+		}
+
 	};
 
 }
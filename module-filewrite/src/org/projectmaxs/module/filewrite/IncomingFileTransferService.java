@@ -18,8 +18,6 @@
 package org.projectmaxs.module.filewrite;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -48,6 +46,19 @@ public class IncomingFileTransferService extends Service {
 		@Override
 		public ParcelFileDescriptor incomingFileTransfer(String filename, long size,
 				String description) throws RemoteException {
+			return resumeIncomingFileTransfer(filename, size, description, null, 0);
+		}
+
+		@Override
+		public long getResumeOffset(String filename, long size, String hash)
+				throws RemoteException {
+			return new PartialFile(new File(GlobalConstants.MAXS_EXTERNAL_STORAGE, filename))
+					.getResumeOffset(size, hash);
+		}
+
+		@Override
+		public ParcelFileDescriptor resumeIncomingFileTransfer(String filename, long size,
+				String description, String hash, long offset) throws RemoteException {
 
 			if (!GlobalConstants.MAXS_EXTERNAL_STORAGE.isDirectory()
 					&& !GlobalConstants.MAXS_EXTERNAL_STORAGE.mkdirs()) {
@@ -59,8 +70,8 @@ public class IncomingFileTransferService extends Service {
 
 			OutputStream os;
 			try {
-				os = new FileOutputStream(inFile);
-			} catch (FileNotFoundException e) {
+				os = new PartialFile(inFile).openOutputStream(size, hash, offset);
+			} catch (IOException e) {
 				LOG.e("incomingFileTransfer", e);
 				return null;
 			}
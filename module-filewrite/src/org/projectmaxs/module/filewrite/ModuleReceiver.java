@@ -21,7 +21,6 @@ import org.projectmaxs.shared.global.util.Log;
 import org.projectmaxs.shared.module.MAXSModuleReceiver;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 
 public class ModuleReceiver extends MAXSModuleReceiver {
 	private final static Log LOG = Log.getLog();
@@ -34,9 +33,4 @@ public class ModuleReceiver extends MAXSModuleReceiver {
 	public void initLog(Context context) {
 		LOG.initialize(Settings.getInstance(context));
 	}
-
-	@Override
-	public SharedPreferences getSharedPreferences(Context context) {
-		return Settings.getInstance(context).getSharedPreferences();
-	}
 }
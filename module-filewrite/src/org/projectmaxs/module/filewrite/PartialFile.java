@@ -0,0 +1,259 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.module.filewrite;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.Properties;
+
+import org.projectmaxs.shared.global.util.Log;
+
+/**
+ * An incoming file that is written to "&lt;filename&gt;.part" until it is complete. The expected
+ * size and hash are stored next to it in "&lt;filename&gt;.part.meta", so that an interrupted
+ * transfer can be resumed, even after MAXS was restarted. Once all bytes have been received, the
+ * file is verified against the hash and renamed to its final name.
+ */
+public class PartialFile {
+
+	private static final Log LOG = Log.getLog();
+
+	private static final String PART_SUFFIX = ".part";
+	private static final String META_SUFFIX = ".part.meta";
+
+	private static final String KEY_SIZE = "size";
+	private static final String KEY_HASH = "hash";
+
+	/**
+	 * The hash algorithm used by XEP-0096: SI File Transfer.
+	 */
+	private static final String HASH_ALGORITHM = "MD5";
+
+	private final File mFile;
+	private final File mPartFile;
+	private final File mMetaFile;
+
+	public PartialFile(File file) {
+		mFile = file;
+		mPartFile = new File(file.getPath() + PART_SUFFIX);
+		mMetaFile = new File(file.getPath() + META_SUFFIX);
+	}
+
+	/**
+	 * Get the number of bytes already received of the file with the given size and hash. A partial
+	 * file of a different size or hash is discarded. Without a hash, a different file of the same
+	 * size could not be told apart from the partial one, hence such transfers are never resumed.
+	 *
+	 * @param size
+	 * @param hash
+	 *            the expected hash, may be null
+	 * @return the offset to resume the transfer at
+	 */
+	public synchronized long getResumeOffset(long size, String hash) {
+		if (!mPartFile.isFile() || !mMetaFile.isFile()) return 0;
+		if (hash == null) {
+			LOG.d("getResumeOffset: no hash offered, discarding partial file " + mPartFile);
+			discard();
+			return 0;
+		}
+
+		Properties meta = new Properties();
+		InputStream is = null;
+		try {
+			is = new FileInputStream(mMetaFile);
+			meta.load(is);
+		} catch (IOException e) {
+			LOG.w("getResumeOffset: could not read " + mMetaFile, e);
+			discard();
+			return 0;
+		} finally {
+			close(is);
+		}
+
+		final String storedSize = meta.getProperty(KEY_SIZE);
+		final String storedHash = meta.getProperty(KEY_HASH);
+		final long length = mPartFile.length();
+		if (!String.valueOf(size).equals(storedSize) || !equalsHash(hash, storedHash)
+				|| length >= size) {
+			LOG.d("getResumeOffset: discarding stale partial file " + mPartFile);
+			discard();
+			return 0;
+		}
+		return length;
+	}
+
+	/**
+	 * Open the partial file for writing, starting at the given offset.
+	 *
+	 * @param size
+	 * @param hash
+	 *            the expected hash, may be null
+	 * @param offset
+	 * @return an output stream that completes the file once it's closed
+	 * @throws IOException
+	 */
+	public synchronized OutputStream openOutputStream(long size, String hash, long offset)
+			throws IOException {
+		Properties meta = new Properties();
+		meta.setProperty(KEY_SIZE, String.valueOf(size));
+		if (hash != null) meta.setProperty(KEY_HASH, hash);
+		OutputStream metaOs = new FileOutputStream(mMetaFile);
+		try {
+			meta.store(metaOs, null);
+		} finally {
+			close(metaOs);
+		}
+
+		if (offset > 0) {
+			// Drop everything after the offset, in case the last write was only partially
+			// successful
+			RandomAccessFile raf = new RandomAccessFile(mPartFile, "rw");
+			try {
+				raf.setLength(offset);
+			} finally {
+				raf.close();
+			}
+		}
+		return new CompletingOutputStream(new FileOutputStream(mPartFile, offset > 0), size, hash);
+	}
+
+	private synchronized void complete(long size, String hash) {
+		final long length = mPartFile.length();
+		if (size < 0) {
+			// Unknown size, nothing to resume
+			size = length;
+		} else if (length < size) {
+			LOG.i("complete: " + mFile.getName() + " incomplete, " + length + " of " + size
+					+ " bytes received. Keeping partial file for resumption");
+			return;
+		}
+		if (length > size) {
+			LOG.e("complete: " + mFile.getName() + " has " + length + " bytes, expected " + size);
+			discard();
+			return;
+		}
+
+		final String actualHash;
+		try {
+			actualHash = hash(mPartFile);
+		} catch (IOException e) {
+			LOG.e("complete: could not hash " + mPartFile, e);
+			return;
+		}
+		if (hash != null && !equalsHash(hash, actualHash)) {
+			LOG.e("complete: hash mismatch for " + mFile.getName() + ", expected " + hash
+					+ " but got " + actualHash);
+			discard();
+			return;
+		}
+
+		if (mFile.exists() && !mFile.delete()) {
+			LOG.e("complete: could not delete existing " + mFile);
+			return;
+		}
+		if (!mPartFile.renameTo(mFile)) {
+			LOG.e("complete: could not rename " + mPartFile + " to " + mFile);
+			return;
+		}
+		mMetaFile.delete();
+		LOG.d("complete: received " + mFile.getName() + " (" + size + " bytes, " + HASH_ALGORITHM
+				+ ' ' + actualHash + (hash == null ? ", not verified" : ", verified") + ')');
+	}
+
+	private void discard() {
+		mPartFile.delete();
+		mMetaFile.delete();
+	}
+
+	private static String hash(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		InputStream is = new FileInputStream(file);
+		try {
+			byte[] buf = new byte[8 * 1024];
+			int len;
+			while ((len = is.read(buf)) > 0) {
+				digest.update(buf, 0, len);
+			}
+		} finally {
+			close(is);
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest()) {
+			sb.append(String.format(Locale.US, "%02x", b));
+		}
+		return sb.toString();
+	}
+
+	private static boolean equalsHash(String hash, String otherHash) {
+		if (hash == null) return otherHash == null;
+		return hash.equalsIgnoreCase(otherHash);
+	}
+
+	private static void close(Closeable closeable) {
+		if (closeable == null) return;
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			LOG.w("close", e);
+		}
+	}
+
+	private class CompletingOutputStream extends FilterOutputStream {
+		private final long mSize;
+		private final String mHash;
+		private boolean mClosed;
+
+		CompletingOutputStream(OutputStream out, long size, String hash) {
+			super(out);
+			mSize = size;
+			mHash = hash;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (mClosed) return;
+			mClosed = true;
+			try {
+				super.close();
+			} finally {
+				complete(mSize, mHash);
+			}
+		}
+	}
+}
@@ -0,0 +1,225 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.module.filewrite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Transfers a file over a loopback connection that is dropped at random points, and resumes the
+ * transfer with the offset {@link PartialFile} reports, like the XMPP transport does with a ranged
+ * stream initiation.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 23)
+public class PartialFileFaultInjectionTest {
+
+	private static final int FILE_SIZE = 1024 * 1024;
+	private static final int MAX_ATTEMPTS = 50;
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+
+	private final Random mRandom = new Random(42);
+
+	private ExecutorService mExecutor;
+	private byte[] mContent;
+	private String mHash;
+	private File mFile;
+
+	@Before
+	public void setUp() throws Exception {
+		mExecutor = Executors.newSingleThreadExecutor();
+		mContent = new byte[FILE_SIZE];
+		mRandom.nextBytes(mContent);
+		mHash = md5(mContent);
+		mFile = new File(mFolder.getRoot(), "file.bin");
+	}
+
+	@After
+	public void tearDown() {
+		mExecutor.shutdownNow();
+	}
+
+	@Test
+	public void resumesAfterDroppedConnections() throws Exception {
+		int attempts = 0;
+		int drops = 0;
+		while (!mFile.exists()) {
+			assertTrue("not complete after " + MAX_ATTEMPTS + " attempts",
+					attempts++ < MAX_ATTEMPTS);
+			PartialFile partialFile = new PartialFile(mFile);
+			final long offset = partialFile.getResumeOffset(FILE_SIZE, mHash);
+			// Drop the connection in two out of three attempts
+			final boolean drop = mRandom.nextInt(3) != 0;
+			final long dropAt = drop ? offset + mRandom.nextInt((int) (FILE_SIZE - offset)) : -1;
+			if (drop) drops++;
+			transfer(partialFile, mHash, offset, dropAt);
+		}
+
+		assertTrue(drops > 0);
+		assertArrayEquals(mContent, read(mFile));
+		assertFalse(new File(mFile.getPath() + ".part").exists());
+		assertFalse(new File(mFile.getPath() + ".part.meta").exists());
+	}
+
+	@Test
+	public void discardsCorruptedPartialFile() throws Exception {
+		PartialFile partialFile = new PartialFile(mFile);
+		transfer(partialFile, mHash, 0, FILE_SIZE / 2);
+		final long offset = partialFile.getResumeOffset(FILE_SIZE, mHash);
+		assertEquals(FILE_SIZE / 2, offset);
+
+		// Flip a bit of the part that was already received
+		RandomAccessFile raf = new RandomAccessFile(mFile.getPath() + ".part", "rw");
+		try {
+			raf.seek(FILE_SIZE / 4);
+			final int b = raf.read();
+			raf.seek(FILE_SIZE / 4);
+			raf.write(b ^ 1);
+		} finally {
+			raf.close();
+		}
+		transfer(partialFile, mHash, offset, -1);
+
+		assertFalse(mFile.exists());
+		assertFalse(new File(mFile.getPath() + ".part").exists());
+	}
+
+	@Test
+	public void doesNotResumeWithoutHash() throws Exception {
+		PartialFile partialFile = new PartialFile(mFile);
+		transfer(partialFile, null, 0, FILE_SIZE / 2);
+		assertEquals(0, partialFile.getResumeOffset(FILE_SIZE, null));
+		assertFalse(new File(mFile.getPath() + ".part").exists());
+
+		transfer(partialFile, null, 0, -1);
+		assertArrayEquals(mContent, read(mFile));
+	}
+
+	@Test
+	public void doesNotResumeDifferentFile() throws Exception {
+		PartialFile partialFile = new PartialFile(mFile);
+		transfer(partialFile, mHash, 0, FILE_SIZE / 2);
+		assertEquals(0, partialFile.getResumeOffset(FILE_SIZE, md5(new byte[0])));
+	}
+
+	/**
+	 * Send the content starting at offset over a loopback connection into the partial file.
+	 * 
+	 * @param partialFile
+	 * @param hash
+	 * @param offset
+	 * @param dropAt
+	 *            the position at which the sender drops the connection, or -1
+	 * @throws Exception
+	 */
+	private void transfer(PartialFile partialFile, String hash, final long offset,
+			final long dropAt) throws Exception {
+		final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		try {
+			Future<Void> sender = mExecutor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					Socket socket = serverSocket.accept();
+					try {
+						final int end = dropAt < 0 ? FILE_SIZE : (int) dropAt;
+						OutputStream out = socket.getOutputStream();
+						out.write(mContent, (int) offset, end - (int) offset);
+						out.flush();
+						// Reset the connection instead of closing it orderly
+						if (dropAt >= 0) socket.setSoLinger(true, 0);
+					} finally {
+						socket.close();
+					}
+					return null;
+				}
+			});
+
+			Socket socket = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+			OutputStream out = partialFile.openOutputStream(FILE_SIZE, hash, offset);
+			try {
+				InputStream in = socket.getInputStream();
+				byte[] buf = new byte[8 * 1024];
+				int len;
+				while ((len = in.read(buf)) != -1) {
+					out.write(buf, 0, len);
+				}
+			} catch (IOException e) {
+				// The connection was dropped
+			} finally {
+				out.close();
+				socket.close();
+			}
+			sender.get();
+		} finally {
+			serverSocket.close();
+		}
+	}
+
+	private static byte[] read(File file) throws IOException {
+		byte[] bytes = new byte[(int) file.length()];
+		InputStream in = new FileInputStream(file);
+		try {
+			int pos = 0;
+			int len;
+			while (pos < bytes.length && (len = in.read(bytes, pos, bytes.length - pos)) != -1) {
+				pos += len;
+			}
+		} finally {
+			in.close();
+		}
+		return bytes;
+	}
+
+	private static String md5(byte[] bytes) throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : MessageDigest.getInstance("MD5").digest(bytes)) {
+			sb.append(String.format(Locale.US, "%02x", b));
+		}
+		return sb.toString();
+	}
+}
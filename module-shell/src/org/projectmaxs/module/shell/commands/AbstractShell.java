@@ -31,6 +31,10 @@ public abstract class AbstractShell extends SubCommand {
 	public AbstractShell(SupraCommand supraCommand, String name, boolean isDefaultWithoutArguments,
 			boolean isDefaultWithArguments) {
 		super(supraCommand, name, isDefaultWithoutArguments, isDefaultWithArguments);
+		// Shell commands change the state of the device, e.g. files or settings, so a later
+		// command may depend on the effects of an earlier one. Execute them in the order they were
+		// issued.
+		setRequiresSerialExecution();
 	}
 
 	static final Message execute(Shell shell, String command) throws IOException, TimeoutException {
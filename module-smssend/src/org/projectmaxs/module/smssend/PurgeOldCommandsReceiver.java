@@ -35,9 +35,10 @@ public class PurgeOldCommandsReceiver extends MAXSPurgeOldCommandsReceiver {
 				+ " ID(s) that could get deleted from SMSTable. Current entry count: "
 				+ smsTable.getEntryCount());
 
-		smsTable.purgeEntries(commandIds);
+		int purged = smsTable.purgeEntries(commandIds);
+		purged += smsTable.purgeOldEntries();
 
-		LOG.d("purgeOldCommands: Purged " + commandIds.length + " entries. Current entry count: "
+		LOG.d("purgeOldCommands: Purged " + purged + " entries. Current entry count: "
 				+ smsTable.getEntryCount());
 	}
 
@@ -58,11 +58,15 @@ public abstract class AbstractSmsSendCommand extends SubCommand {
 
 	public AbstractSmsSendCommand(SupraCommand supraCommand, String name) {
 		super(supraCommand, name);
+		// SMS must be send in the order they were issued
+		setRequiresSerialExecution();
 	}
 
 	public AbstractSmsSendCommand(SupraCommand supraCommand, String name,
 			boolean isDefaultWithoutArguments, boolean isDefaultWithArguments) {
 		super(supraCommand, name, isDefaultWithoutArguments, isDefaultWithArguments);
+		// SMS must be send in the order they were issued
+		setRequiresSerialExecution();
 	}
 
 	private SyncServiceTask<IPhoneStateReadModuleService> mPhoneStateReadModuleServiceTask;
@@ -18,6 +18,7 @@
 package org.projectmaxs.module.smssend.database;
 
 import org.projectmaxs.module.smssend.ModuleService;
+import org.projectmaxs.shared.global.util.Log;
 
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
@@ -25,9 +26,11 @@ import android.database.sqlite.SQLiteOpenHelper;
 
 public class SMSSendDatabase extends SQLiteOpenHelper {
 
-	private static final int DATABASE_VERSION = 1;
+	private static final int DATABASE_VERSION = 2;
 	private static final String DATABASE_NAME = ModuleService.PACKAGE + ".db";
 
+	private static final Log LOG = Log.getLog();
+
 	public static final String TEXT_TYPE = " TEXT";
 	public static final String TIMESTAMP_TYPE = " TIMESTAMP";
 	public static final String INTEGER_TYPE = " INTEGER";
@@ -40,6 +43,7 @@ public class SMSSendDatabase extends SQLiteOpenHelper {
 	// @formatter:off
 	private static final String[] SQL_CREATE_ENTRIES = new String[] {
 				SMSTable.CREATE_TABLE,
+				SMSTable.CREATE_TIMESTAMP_INDEX,
 
 	};
 	private static final String[] SQL_DELETE_ENTRIES = new String[] {
@@ -65,13 +69,27 @@ public class SMSSendDatabase extends SQLiteOpenHelper {
 
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-		deleteTables(db);
-		createTables(db);
+		LOG.i("Upgrading SMSSend database from version " + oldVersion + " to " + newVersion);
+		if (oldVersion == 1) {
+			// Keep the entries of SMS whose sent and delivery notifications are still pending. No
+			// need for an explicit transaction, onUpgrade() is already invoked within one.
+			for (String s : SMSTable.MIGRATE_FROM_VERSION_1) {
+				db.execSQL(s + SEMICOLON_SEP);
+			}
+			return;
+		}
+		recreateDatabase(db);
 	}
 
 	@Override
 	public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-		onUpgrade(db, oldVersion, newVersion);
+		LOG.i("Downgrading SMSSend database from version " + oldVersion + " to " + newVersion);
+		recreateDatabase(db);
+	}
+
+	private static void recreateDatabase(SQLiteDatabase db) {
+		deleteTables(db);
+		createTables(db);
 	}
 
 	private static void createTables(SQLiteDatabase db) {
@@ -17,18 +17,20 @@
 
 package org.projectmaxs.module.smssend.database;
 
-import org.projectmaxs.shared.global.util.SharedStringUtil;
+import org.projectmaxs.shared.global.util.SQLiteUtil;
 
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
-import android.text.TextUtils;
 
 public class SMSTable {
+	private static final long OLD_ENTRIES_AGE = 1000 * 60 * 60 * 24 * 3;
+
 	private static final String TABLE_NAME = "sms";
 	private static final String COLUMN_NAME_CMD_ID = "cmdID";
+	private static final String COLUMN_NAME_TIMESTAMP = "timestamp";
 	private static final String COLUMN_NAME_RECEIVER = "receiver";
 	private static final String COLUMN_NAME_SHORT_TEXT = "shortText";
 	private static final String COLUMN_NAME_PART_COUNT = "partCount";
@@ -40,12 +42,38 @@ public class SMSTable {
 		"CREATE TABLE " +  TABLE_NAME +
 		" (" +
 		 COLUMN_NAME_CMD_ID + SMSSendDatabase.INTEGER_TYPE + " PRIMARY KEY" + SMSSendDatabase.COMMA_SEP +
+		 COLUMN_NAME_TIMESTAMP + SMSSendDatabase.INTEGER_TYPE + SMSSendDatabase.NOT_NULL + SMSSendDatabase.COMMA_SEP +
 		 COLUMN_NAME_RECEIVER + SMSSendDatabase.TEXT_TYPE + SMSSendDatabase.NOT_NULL + SMSSendDatabase.COMMA_SEP +
 		 COLUMN_NAME_SHORT_TEXT + SMSSendDatabase.TEXT_TYPE + SMSSendDatabase.NOT_NULL + SMSSendDatabase.COMMA_SEP +
  		 COLUMN_NAME_PART_COUNT + SMSSendDatabase.INTEGER_TYPE + SMSSendDatabase.NOT_NULL + SMSSendDatabase.COMMA_SEP +
 		 COLUMN_NAME_DELIVERED_INTENTS + SMSSendDatabase.TEXT_TYPE + SMSSendDatabase.COMMA_SEP +
 		 COLUMN_NAME_SENT_INTENTS + SMSSendDatabase.TEXT_TYPE +
 		" )";
+
+	public static final String CREATE_TIMESTAMP_INDEX =
+		"CREATE INDEX " + TABLE_NAME + "_" + COLUMN_NAME_TIMESTAMP + "_idx ON " + TABLE_NAME +
+		" (" + COLUMN_NAME_TIMESTAMP + ")";
+
+	/**
+	 * Migrates the version 1 table, which had no timestamp column. Existing entries get the time
+	 * of the migration as timestamp, so that they are kept for the delivery and sent notifications
+	 * that are still pending.
+	 */
+	public static final String[] MIGRATE_FROM_VERSION_1 = new String[] {
+		"ALTER TABLE " + TABLE_NAME + " RENAME TO " + TABLE_NAME + "_old",
+		CREATE_TABLE,
+		CREATE_TIMESTAMP_INDEX,
+		"INSERT INTO " + TABLE_NAME + " SELECT " +
+		 COLUMN_NAME_CMD_ID + ',' +
+		 "CAST(strftime('%s', 'now') AS INTEGER) * 1000" + ',' +
+		 COLUMN_NAME_RECEIVER + ',' +
+		 COLUMN_NAME_SHORT_TEXT + ',' +
+		 COLUMN_NAME_PART_COUNT + ',' +
+		 COLUMN_NAME_DELIVERED_INTENTS + ',' +
+		 COLUMN_NAME_SENT_INTENTS +
+		 " FROM " + TABLE_NAME + "_old",
+		SMSSendDatabase.DROP_TABLE + TABLE_NAME + "_old",
+	};
 	// @formatter:on
 
 	public static final String DELETE_TABLE = SMSSendDatabase.DROP_TABLE + TABLE_NAME;
@@ -67,6 +95,7 @@ public class SMSTable {
 			boolean createSentIntents, boolean createDeliveredIntents) {
 		ContentValues values = new ContentValues();
 		values.put(COLUMN_NAME_CMD_ID, cmdId);
+		values.put(COLUMN_NAME_TIMESTAMP, System.currentTimeMillis());
 		values.put(COLUMN_NAME_RECEIVER, receiver);
 		values.put(COLUMN_NAME_SHORT_TEXT, shortText);
 		values.put(COLUMN_NAME_PART_COUNT, partCount);
@@ -125,10 +154,20 @@ public class SMSTable {
 		mDatabase.delete(TABLE_NAME, null, null);
 	}
 
-	public void purgeEntries(int[] commandIds) {
-		String[] commandIdsStrings = SharedStringUtil.toStringArray(commandIds);
-		mDatabase.delete(TABLE_NAME, COLUMN_NAME_CMD_ID + " IN ( ? )",
-				new String[] { TextUtils.join(",", commandIdsStrings) });
+	public int purgeEntries(int[] commandIds) {
+		return SQLiteUtil.deleteByIds(mDatabase, TABLE_NAME, COLUMN_NAME_CMD_ID, commandIds);
+	}
+
+	/**
+	 * Delete all entries older than three days. Catches entries whose command IDs were never
+	 * announced as purged, e.g. because the module was not installed at that time.
+	 *
+	 * @return the number of deleted entries
+	 */
+	public int purgeOldEntries() {
+		final long oldTimestamp = System.currentTimeMillis() - OLD_ENTRIES_AGE;
+		return SQLiteUtil.deleteOlderThan(mDatabase, TABLE_NAME, COLUMN_NAME_CMD_ID,
+				COLUMN_NAME_TIMESTAMP, oldTimestamp, null);
 	}
 
 	public long getEntryCount() {
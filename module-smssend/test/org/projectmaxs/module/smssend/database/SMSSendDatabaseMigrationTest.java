@@ -0,0 +1,74 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.module.smssend.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.projectmaxs.module.smssend.ModuleService;
+import org.projectmaxs.module.smssend.database.SMSTable.IntentType;
+import org.projectmaxs.module.smssend.database.SMSTable.SMSInfo;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 23)
+public class SMSSendDatabaseMigrationTest {
+
+	// @formatter:off
+	private static final String CREATE_TABLE_VERSION_1 =
+		"CREATE TABLE sms (" +
+		 "cmdID INTEGER PRIMARY KEY," +
+		 "receiver TEXT NOT NULL," +
+		 "shortText TEXT NOT NULL," +
+		 "partCount INTEGER NOT NULL," +
+		 "deliveredIntents TEXT," +
+		 "sentIntents TEXT" +
+		")";
+	// @formatter:on
+
+	@Test
+	public void upgradeFromVersion1KeepsPendingSms() {
+		Context context = RuntimeEnvironment.application;
+		SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+				context.getDatabasePath(ModuleService.PACKAGE + ".db"), null);
+		db.execSQL(CREATE_TABLE_VERSION_1);
+		db.execSQL("INSERT INTO sms VALUES (42, 'Alice', 'Hello', 2, '__', 'X_')");
+		db.setVersion(1);
+		db.close();
+
+		SMSTable smsTable = SMSTable.getInstance(context);
+		assertEquals(1, smsTable.getEntryCount());
+		SMSInfo smsInfo = smsTable.getSMSInfo(42);
+		assertNotNull(smsInfo);
+		assertEquals("Alice", smsInfo.mReceiver);
+		assertEquals("Hello", smsInfo.mShortText);
+		assertEquals("X_", smsTable.getIntents(42, IntentType.SENT));
+		assertEquals("__", smsTable.getIntents(42, IntentType.DELIVERED));
+
+		// Migrated entries are stamped with the time of the migration, hence not yet old
+		assertEquals(0, smsTable.purgeOldEntries());
+		assertEquals(1, smsTable.purgeEntries(new int[] { 42 }));
+	}
+}
@@ -23,12 +23,30 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.projectmaxs.shared.global.GlobalConstants;
+import org.projectmaxs.shared.global.SettingsChannel;
+import org.projectmaxs.shared.global.TraceContext;
+import org.projectmaxs.shared.global.aidl.IMAXSMetricsReceiver;
 import org.projectmaxs.shared.global.jul.JULHandler;
 import org.projectmaxs.shared.global.messagecontent.Text;
+import org.projectmaxs.shared.global.util.LatencyHistogram;
 import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.shared.global.util.LogJournal;
+import org.projectmaxs.shared.global.util.Metrics;
 import org.projectmaxs.shared.mainmodule.Command;
+import org.projectmaxs.shared.mainmodule.IMAXSMainReplyChannel;
+import org.projectmaxs.shared.mainmodule.IMAXSModuleCommandChannel;
 
 import android.app.Service;
 import android.content.Context;
@@ -39,10 +57,16 @@ import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
 
 /**
  * MAXSModuleIntentService is meant for modules to handle their PERFORM_COMMAND
- * intents.
+ * intents. Main may also bind to the service, in which case the commands arrive
+ * over the {@link IMAXSModuleCommandChannel} and the replies are send back over
+ * the reply channel provided by main.
  * 
  * @author Florian Schmaus flo@geekplace.eu
  * 
@@ -54,9 +78,38 @@ public abstract class MAXSModuleIntentService extends Service {
 
 	private static final int WHAT = 42;
 
+	/**
+	 * The start ID of messages that were not caused by a start command, but by
+	 * a command received over the command channel.
+	 */
+	private static final int NO_START_ID = -1;
+
+	private static final int WORKER_THREADS = 4;
+	private static final long WORKER_KEEP_ALIVE_SECONDS = 30;
+	private static final int LOG_QUEUEING_LATENCY_INTERVAL = 50;
+
 	private final Log mLog;
 	private final String mName;
 	private final Map<String, SupraCommand> mCommands;
+	private final ConcurrentMap<Integer, CommandTask> mTasks =
+			new ConcurrentHashMap<Integer, CommandTask>();
+	private final LatencyHistogram mQueueingLatency = Metrics.histogram("module.queueing_latency");
+	private final LatencyHistogram mExecutionLatency = Metrics
+			.histogram("module.execution_latency");
+	private final Metrics.Counter mCommandsReceived = Metrics.counter("module.commands_received");
+	private final Metrics.Counter mCommandsFailed = Metrics.counter("module.commands_failed");
+	private final Metrics.Counter mCommandsCancelled = Metrics.counter("module.commands_cancelled");
+
+	/**
+	 * Runs the commands that may be executed concurrently.
+	 */
+	private ExecutorService mConcurrentExecutor;
+
+	/**
+	 * Runs the commands that require serial execution, in the order they
+	 * arrived.
+	 */
+	private ExecutorService mSerialExecutor;
 
 	private volatile Looper mServiceLooper;
 	private volatile ServiceHandler mServiceHandler;
@@ -72,7 +125,14 @@ public abstract class MAXSModuleIntentService extends Service {
 
 		@Override
 		public void handleMessage(Message msg) {
-			onHandleIntent((Intent) msg.obj);
+			if (msg.obj instanceof Command) {
+				performCommand((Command) msg.obj);
+			} else {
+				onHandleIntent((Intent) msg.obj);
+			}
+			// A bound service is not stopped by stopSelf() anyway, and there is no
+			// start ID for commands received over the command channel
+			if (msg.arg1 == NO_START_ID) return;
 			if (!hasMessages(WHAT) && mPendingActions.isEmpty()) {
 				mLog.d("handleMessage: stopSelf hasMessasges=" + hasMessages(WHAT)
 						+ " actionsEmpty=" + mPendingActions.isEmpty() + " startId=" + msg.arg1);
@@ -98,11 +158,24 @@ public abstract class MAXSModuleIntentService extends Service {
 	public void onCreate() {
 		super.onCreate();
 		initLog(this);
+		LogJournal.install(this);
 		HandlerThread thread = new HandlerThread("MAXSModuleIntentService[" + mName + "]");
 		thread.start();
 
 		mServiceLooper = thread.getLooper();
 		mServiceHandler = new ServiceHandler(mServiceLooper);
+
+		ThreadPoolExecutor concurrentExecutor = new ThreadPoolExecutor(WORKER_THREADS,
+				WORKER_THREADS, WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory("worker"));
+		concurrentExecutor.allowCoreThreadTimeOut(true);
+		mConcurrentExecutor = concurrentExecutor;
+		ThreadPoolExecutor serialExecutor = new ThreadPoolExecutor(1, 1,
+				WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new WorkerThreadFactory("serial"));
+		serialExecutor.allowCoreThreadTimeOut(true);
+		mSerialExecutor = serialExecutor;
+
 		int versionResource = -1;
 		try {
 			Class<?> r = Class.forName(getPackageName() + ".R$string");
@@ -123,23 +196,64 @@ public abstract class MAXSModuleIntentService extends Service {
 	@Override
 	public void onDestroy() {
 		mServiceLooper.quit();
+		mConcurrentExecutor.shutdownNow();
+		mSerialExecutor.shutdownNow();
 	}
 
 	@Override
 	public IBinder onBind(Intent intent) {
+		if (GlobalConstants.ACTION_BIND_COMMAND_CHANNEL.equals(intent.getAction())) {
+			return mCommandChannel;
+		} else if (GlobalConstants.ACTION_BIND_SETTINGS_CHANNEL.equals(intent.getAction())) {
+			return new SettingsChannel(PreferenceManager.getDefaultSharedPreferences(this),
+					doNotExport());
+		}
 		return null;
 	}
 
+	@Override
+	public boolean onUnbind(Intent intent) {
+		if (GlobalConstants.ACTION_BIND_COMMAND_CHANNEL.equals(intent.getAction())) {
+			MainUtil.setReplyChannel(null);
+		}
+		return false;
+	}
+
 	@Override
 	public int onStartCommand(Intent intent, int flags, int startId) {
 		Message msg = mServiceHandler.obtainMessage();
 		msg.arg1 = startId;
 		msg.obj = intent;
-		msg.what = 42;
+		msg.what = WHAT;
 		mServiceHandler.sendMessage(msg);
 		return START_NOT_STICKY;
 	}
 
+	private final IMAXSModuleCommandChannel.Stub mCommandChannel = new CommandChannel();
+
+	private final class CommandChannel extends IMAXSModuleCommandChannel.Stub {
+		@Override
+		public void performCommand(Command command, IMAXSMainReplyChannel replyChannel) {
+			MainUtil.setReplyChannel(replyChannel);
+			Message msg = mServiceHandler.obtainMessage(WHAT, NO_START_ID, 0, command);
+			mServiceHandler.sendMessage(msg);
+		}
+
+		@Override
+		public void requestMetrics(IMAXSMetricsReceiver receiver) {
+			try {
+				receiver.metrics(Metrics.snapshot(getPackageName()));
+			} catch (RemoteException e) {
+				mLog.w("requestMetrics: could not send metrics", e);
+			}
+		}
+
+		@Override
+		public void exportJournal(long since, String filter, ParcelFileDescriptor out) {
+			LogJournal.exportAsync(since, filter, out);
+		}
+	}
+
 	public final void addPendingAction(Object action) {
 		mPendingActions.add(action);
 	}
@@ -156,50 +270,192 @@ public abstract class MAXSModuleIntentService extends Service {
 
 	protected final void onHandleIntent(Intent intent) {
 		mLog.d("onHandleIntent: " + intent.getAction());
+		if (GlobalConstants.ACTION_CANCEL_COMMAND.equals(intent.getAction())) {
+			int commandId = intent.getIntExtra(GlobalConstants.EXTRA_COMMAND_ID, -1);
+			if (!cancelCommand(commandId)) {
+				mLog.d("onHandleIntent: no command with id " + commandId + " to cancel");
+			}
+			return;
+		}
 		Command command = intent.getParcelableExtra(GlobalConstants.EXTRA_COMMAND);
+		performCommand(command);
+	}
 
-		org.projectmaxs.shared.global.Message message = null;
+	/**
+	 * Cancel the command with the given ID, if it is queued or running. The
+	 * command's thread is interrupted and a cancellation notice is send
+	 * instead of the command's result.
+	 * 
+	 * @param commandId
+	 * @return true if the command was cancelled
+	 */
+	public final boolean cancelCommand(int commandId) {
+		CommandTask task = mTasks.get(commandId);
+		if (task == null) return false;
+		return task.cancel("Command " + task.mCommand + " cancelled");
+	}
 
+	private void performCommand(Command command) {
+		mCommandsReceived.inc();
+		mark(command, "module.received");
+		SubCommand subCommand;
 		try {
 			SupraCommand supraCommand = mCommands.get(command.getCommand());
-			if (supraCommand != null) {
-				SubCommand subCommand = supraCommand.getSubCommand(command.getSubCommand());
-				if (subCommand != null) {
-					if (subCommand.requiresArgument() && command.getArgs().isEmpty()) {
-						throw new IllegalArgumentException(
-								"This command requires an argument but none was given");
-					} else {
-						message = subCommand.execute(command.getArgs(), command, this);
-					}
-				} else {
-					throw new UnknownSubcommandException(command);
+			if (supraCommand == null) throw new UnknownCommandException(command);
+			subCommand = supraCommand.getSubCommand(command.getSubCommand());
+			if (subCommand == null) throw new UnknownSubcommandException(command);
+		} catch (Throwable e) {
+			mCommandsFailed.inc();
+			send(exceptionMessage(command, e), command);
+			return;
+		}
+
+		CommandTask task = new CommandTask(command, subCommand);
+		ExecutorService executor = subCommand.requiresSerialExecution() ? mSerialExecutor
+				: mConcurrentExecutor;
+		addPendingAction(task);
+		mTasks.put(command.getId(), task);
+		try {
+			task.mFuture = executor.submit(task);
+		} catch (RejectedExecutionException e) {
+			mLog.w("performCommand: service shutting down, dropping command " + command, e);
+			mTasks.remove(command.getId());
+			removePendingAction(task);
+		}
+	}
+
+	private org.projectmaxs.shared.global.Message exceptionMessage(Command command, Throwable e) {
+		mLog.e("performCommand", e);
+		Text text = new Text();
+		text.addBold("Exception").addNL(" handling command " + command + ": " + e.getMessage());
+		text.addItalic("Version: ").addNL(mVersion);
+		// Let's also include the stacktrace as String
+		text.addWithNewLines(android.util.Log.getStackTraceString(e));
+		text.addBoldNL("Further Info");
+		text.addItalic("OS Version: ").addNL(
+				System.getProperty("os.version") + " (" + Build.VERSION.INCREMENTAL + ")");
+		text.addItalic("OS API Level: ").addNL(Integer.toString(Build.VERSION.SDK_INT));
+		text.addItalic("Device: ").addNL(Build.DEVICE);
+		text.addItalic("Model (and Product): ").addNL(Build.MODEL + " (" + Build.PRODUCT + ")");
+		return new org.projectmaxs.shared.global.Message(text);
+	}
+
+	private final class CommandTask implements Runnable {
+		final Command mCommand;
+		final SubCommand mSubCommand;
+		final long mSubmittedAt = SystemClock.elapsedRealtime();
+		final AtomicBoolean mDone = new AtomicBoolean();
+		volatile Future<?> mFuture;
+
+		final Runnable mTimeout = new Runnable() {
+			@Override
+			public void run() {
+				cancel("Command " + mCommand + " timed out after "
+						+ mSubCommand.getTimeoutMillis() / 1000 + " seconds");
+			}
+		};
+
+		CommandTask(Command command, SubCommand subCommand) {
+			mCommand = command;
+			mSubCommand = subCommand;
+		}
+
+		@Override
+		public void run() {
+			mQueueingLatency.record(SystemClock.elapsedRealtime() - mSubmittedAt);
+			if (mQueueingLatency.getCount() % LOG_QUEUEING_LATENCY_INTERVAL == 0) {
+				mLog.d("Queueing latency of " + mName + ": " + mQueueingLatency);
+			}
+			if (mDone.get()) return;
+			mark(mCommand, "module.started");
+			// The timeout starts once the command is executed, not while it is queued
+			mServiceHandler.postDelayed(mTimeout, mSubCommand.getTimeoutMillis());
+
+			final long startedAt = SystemClock.elapsedRealtime();
+			org.projectmaxs.shared.global.Message message;
+			try {
+				if (mSubCommand.requiresArgument() && mCommand.getArgs().isEmpty()) {
+					throw new IllegalArgumentException(
+							"This command requires an argument but none was given");
 				}
-			} else {
-				throw new UnknownCommandException(command);
+				message = mSubCommand.execute(mCommand.getArgs(), mCommand,
+						MAXSModuleIntentService.this);
+			} catch (Throwable e) {
+				// The command was interrupted because it was cancelled, which
+				// was already reported
+				if (mDone.get()) return;
+				mCommandsFailed.inc();
+				message = exceptionMessage(mCommand, e);
 			}
-		} catch (Throwable e) {
-			mLog.e("onHandleIntent", e);
-			Text text = new Text();
-			text.addBold("Exception").addNL(" handling command " + command + ": " + e.getMessage());
-			text.addItalic("Version: ").addNL(mVersion);
-			// Let's also include the stacktrace as String
-			text.addWithNewLines(android.util.Log.getStackTraceString(e));
-			text.addBoldNL("Further Info");
-			text.addItalic("OS Version: ").addNL(
-					System.getProperty("os.version") + " (" + Build.VERSION.INCREMENTAL + ")");
-			text.addItalic("OS API Level: ").addNL(Integer.toString(Build.VERSION.SDK_INT));
-			text.addItalic("Device: ").addNL(Build.DEVICE);
-			text.addItalic("Model (and Product): ").addNL(Build.MODEL + " (" + Build.PRODUCT + ")");
-			message = new org.projectmaxs.shared.global.Message(text);
-		}
-		if (message == null) return;
+			if (!finish()) return;
+			mExecutionLatency.record(SystemClock.elapsedRealtime() - startedAt);
+			mark(mCommand, "module.finished");
+			if (message != null) send(message, mCommand);
+		}
 
+		boolean cancel(String reason) {
+			if (!finish()) return false;
+			final Future<?> future = mFuture;
+			if (future != null) future.cancel(true);
+			mCommandsCancelled.inc();
+			mLog.i(reason);
+			mark(mCommand, "module.cancelled");
+			send(new org.projectmaxs.shared.global.Message(reason), mCommand);
+			return true;
+		}
+
+		private boolean finish() {
+			if (!mDone.compareAndSet(false, true)) return false;
+			mTasks.remove(mCommand.getId(), this);
+			mServiceHandler.removeCallbacks(mTimeout);
+			removePendingAction(this);
+			return true;
+		}
+	}
+
+	/**
+	 * Send the reply to the given command, together with the command's trace.
+	 * 
+	 * @param message
+	 * @param command
+	 */
+	private void send(org.projectmaxs.shared.global.Message message, Command command) {
+		message.setTrace(command.getTrace());
 		// make sure the id is set
 		send(message, command.getId());
 	}
 
+	private static void mark(Command command, String stage) {
+		final TraceContext trace = command.getTrace();
+		if (trace != null) trace.mark(stage);
+	}
+
+	private final class WorkerThreadFactory implements ThreadFactory {
+		private final String mKind;
+		private final AtomicInteger mCount = new AtomicInteger();
+
+		WorkerThreadFactory(String kind) {
+			mKind = kind;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			return new Thread(runnable, "MAXSModuleIntentService[" + mName + "] " + mKind + " #"
+					+ mCount.incrementAndGet());
+		}
+	}
+
 	public abstract void initLog(Context context);
 
+	/**
+	 * The keys of the settings that are not exported over the settings channel.
+	 *
+	 * @return the keys or null
+	 */
+	public Set<String> doNotExport() {
+		return null;
+	}
+
 	public final void send(org.projectmaxs.shared.global.Message message, int cmdId) {
 		message.setId(cmdId);
 		send(message);
@@ -17,11 +17,6 @@
 
 package org.projectmaxs.shared.module;
 
-import java.io.IOException;
-import java.io.StringReader;
-import java.io.StringWriter;
-import java.util.Set;
-
 import org.projectmaxs.shared.global.GlobalConstants;
 import org.projectmaxs.shared.global.jul.JULHandler;
 import org.projectmaxs.shared.global.util.Log;
@@ -32,8 +27,6 @@ import org.projectmaxs.shared.mainmodule.ModuleInformation;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import eu.geekplace.iesp.ImportExportSharedPreferences;
 
 public abstract class MAXSModuleReceiver extends BroadcastReceiver {
 	static {
@@ -73,16 +66,6 @@ public abstract class MAXSModuleReceiver extends BroadcastReceiver {
 			replyIntent.putExtra(GlobalConstants.EXTRA_MODULE_INFORMATION, mModuleInformation);
 			replyToClassName = MainModuleConstants.MAIN_MODULE_SERVICE;
 			break;
-		case GlobalConstants.ACTION_EXPORT_SETTINGS:
-			String directory = intent.getStringExtra(GlobalConstants.EXTRA_FILE);
-			replyIntent = exportSettings(context, directory);
-			replyToClassName = GlobalConstants.MAIN_INTENT_SERVICE;
-			break;
-		case GlobalConstants.ACTION_IMPORT_SETTINGS:
-			String settings = intent.getStringExtra(GlobalConstants.EXTRA_CONTENT);
-			replyIntent = importSettings(context, settings);
-			replyToClassName = GlobalConstants.MAIN_INTENT_SERVICE;
-			break;
 		default:
 			throw new IllegalStateException("MAXSModuleReceiver: unknown action=" + action);
 		}
@@ -113,44 +96,4 @@ public abstract class MAXSModuleReceiver extends BroadcastReceiver {
 	}
 
 	public abstract void initLog(Context context);
-
-	public abstract SharedPreferences getSharedPreferences(Context context);
-
-	public Set<String> doNotExport() {
-		return null;
-	}
-
-	private Intent exportSettings(Context context, String directory) {
-		StringWriter writer = new StringWriter();
-		try {
-			ImportExportSharedPreferences.export(getSharedPreferences(context), writer,
-					doNotExport());
-		} catch (IOException e) {
-			mLog.e("exportSettings", e);
-			return importExportStatus(e.getMessage());
-		}
-		Intent intent = new Intent(GlobalConstants.ACTION_EXPORT_TO_FILE);
-		intent.putExtra(GlobalConstants.EXTRA_FILE,
-				directory + "/" + mModuleInformation.getModulePackage() + ".xml");
-		intent.putExtra(GlobalConstants.EXTRA_CONTENT, writer.toString());
-		return intent;
-	}
-
-	private Intent importSettings(Context context, String settings) {
-		try {
-			ImportExportSharedPreferences.importFromReader(getSharedPreferences(context),
-					new StringReader(settings));
-		} catch (Exception e) {
-			mLog.e("importSettings", e);
-			return importExportStatus(e.getMessage());
-		}
-		return importExportStatus("Imported");
-	}
-
-	private Intent importExportStatus(String status) {
-		Intent intent = new Intent(GlobalConstants.ACTION_IMPORT_EXPORT_STATUS);
-		intent.putExtra(GlobalConstants.EXTRA_CONTENT, mModuleInformation.getModulePackage() + ": "
-				+ status);
-		return intent;
-	}
 }
@@ -19,18 +19,53 @@ package org.projectmaxs.shared.module;
 
 import org.projectmaxs.shared.global.GlobalConstants;
 import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.shared.mainmodule.IMAXSMainReplyChannel;
 import org.projectmaxs.shared.mainmodule.MainModuleConstants;
 
 import android.content.Context;
 import android.content.Intent;
+import android.os.RemoteException;
 
 public class MainUtil {
 
+	private static final Log LOG = Log.getLog();
+
+	/**
+	 * The reply channel of main, available while main is bound to the module.
+	 */
+	private static volatile IMAXSMainReplyChannel sReplyChannel;
+
+	static void setReplyChannel(IMAXSMainReplyChannel replyChannel) {
+		sReplyChannel = replyChannel;
+	}
+
+	/**
+	 * Send the message to main. Uses the reply channel if main is bound to the
+	 * module, falls back to an intent otherwise.
+	 * 
+	 * @param message
+	 * @param context
+	 */
 	public static final void send(Message message, Context context) {
+		final IMAXSMainReplyChannel replyChannel = sReplyChannel;
+		if (replyChannel != null) {
+			try {
+				// Large messages are streamed through a pipe, which is only possible for binder
+				// transactions
+				replyChannel.send(message.setPipeAllowed(true));
+				return;
+			} catch (RemoteException e) {
+				LOG.w("send: reply channel unavailable, falling back to intent", e);
+				sReplyChannel = null;
+			}
+		}
+		message.setPipeAllowed(false);
 		Intent replyIntent = new Intent(GlobalConstants.ACTION_SEND_MESSAGE);
 		replyIntent.setClassName(GlobalConstants.MAIN_PACKAGE,
 				MainModuleConstants.MAIN_MODULE_SERVICE);
 		replyIntent.putExtra(GlobalConstants.EXTRA_MESSAGE, message);
+		replyIntent.putExtra(GlobalConstants.EXTRA_PACKAGE, context.getPackageName());
 		context.startService(replyIntent);
 	}
 
@@ -26,6 +26,8 @@ import android.content.Context;
 
 public abstract class SubCommand {
 
+	public static final long DEFAULT_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
 	final SupraCommand mSupraCommand;
 	final String mSubCommandName;
 
@@ -33,6 +35,8 @@ public abstract class SubCommand {
 	final boolean mIsDefaultWithoutArguments;
 
 	private boolean mRequiresArgument = false;
+	private boolean mRequiresSerialExecution = false;
+	private long mTimeoutMillis = DEFAULT_TIMEOUT_MILLIS;
 
 	private String mArgString;
 	private CommandHelp.ArgType mArgType;
@@ -121,6 +125,34 @@ public abstract class SubCommand {
 		mRequiresArgument = true;
 	}
 
+	public boolean requiresSerialExecution() {
+		return mRequiresSerialExecution;
+	}
+
+	/**
+	 * Sub commands are executed concurrently with other commands of the same
+	 * module, and possibly with themselves. Sub commands which are not thread
+	 * safe, or whose invocations must be executed in the order they were
+	 * issued, call this to be executed one after another instead.
+	 */
+	protected void setRequiresSerialExecution() {
+		mRequiresSerialExecution = true;
+	}
+
+	public long getTimeoutMillis() {
+		return mTimeoutMillis;
+	}
+
+	/**
+	 * Set the time after which the execution of this sub command is
+	 * interrupted. The default is {@link #DEFAULT_TIMEOUT_MILLIS}.
+	 * 
+	 * @param timeoutMillis
+	 */
+	protected void setTimeout(long timeoutMillis) {
+		mTimeoutMillis = timeoutMillis;
+	}
+
 	private static void throwIaeIfArgTypeIsOtherString(CommandHelp.ArgType type) {
 		if (type == ArgType.OTHER_STRING) {
 			throw new IllegalArgumentException(
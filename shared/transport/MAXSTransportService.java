@@ -18,10 +18,21 @@
 package org.projectmaxs.shared.transport;
 
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.List;
+import java.util.Set;
 
 import org.projectmaxs.shared.global.GlobalConstants;
+import org.projectmaxs.shared.global.SettingsChannel;
+import org.projectmaxs.shared.global.TraceContext;
+import org.projectmaxs.shared.global.aidl.IMAXSMetricsReceiver;
 import org.projectmaxs.shared.global.jul.JULHandler;
+import org.projectmaxs.shared.global.util.LatencyHistogram;
 import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.shared.global.util.LogJournal;
+import org.projectmaxs.shared.global.util.Metrics;
+import org.projectmaxs.shared.maintransport.CommandOrigin;
+import org.projectmaxs.shared.maintransport.IMAXSMainTransportChannel;
+import org.projectmaxs.shared.maintransport.IMAXSTransportChannel;
 import org.projectmaxs.shared.maintransport.TransportConstants;
 
 import android.app.Service;
@@ -34,6 +45,10 @@ import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
 
 public abstract class MAXSTransportService extends Service {
 	static {
@@ -54,6 +69,11 @@ public abstract class MAXSTransportService extends Service {
 	 */
 	private static SharedPreferences sSharedPreferences;
 
+	/**
+	 * The channel to main, available while main is bound to the transport.
+	 */
+	private static volatile IMAXSMainTransportChannel sMainChannel;
+
 	private volatile Looper mServiceLooper;
 	private volatile ServiceHandler mServiceHandler;
 	private final String mName;
@@ -64,6 +84,13 @@ public abstract class MAXSTransportService extends Service {
 	 */
 	private final Class<?> mServiceClass;
 
+	private final IMAXSTransportChannel.Stub mTransportChannel = new TransportChannel();
+	private final Metrics.Counter mIntentsReceived = Metrics.counter("transport.intents_received");
+	private final Metrics.Counter mBatchesReceived = Metrics.counter("transport.batches_received");
+	private final LatencyHistogram mBatchHandlingLatency = Metrics
+			.histogram("transport.batch_handling_latency");
+	private final Handler mMainThreadHandler = new Handler(Looper.getMainLooper());
+
 	private final class ServiceHandler extends Handler {
 		public ServiceHandler(Looper looper) {
 			super(looper);
@@ -84,6 +111,7 @@ public abstract class MAXSTransportService extends Service {
 	@Override
 	public void onCreate() {
 		super.onCreate();
+		LogJournal.install(this);
 		final String threadName = "MAXSTransportService[" + mName + "]";
 		HandlerThread thread = new HandlerThread(threadName);
 		thread.setUncaughtExceptionHandler(new UncaughtExceptionHandler() {
@@ -107,9 +135,23 @@ public abstract class MAXSTransportService extends Service {
 
 	@Override
 	public IBinder onBind(Intent intent) {
+		if (TransportConstants.ACTION_BIND_TRANSPORT_CHANNEL.equals(intent.getAction())) {
+			return mTransportChannel;
+		} else if (GlobalConstants.ACTION_BIND_SETTINGS_CHANNEL.equals(intent.getAction())) {
+			return new SettingsChannel(PreferenceManager.getDefaultSharedPreferences(this),
+					doNotExport());
+		}
 		return null;
 	}
 
+	@Override
+	public boolean onUnbind(Intent intent) {
+		if (TransportConstants.ACTION_BIND_TRANSPORT_CHANNEL.equals(intent.getAction())) {
+			sMainChannel = null;
+		}
+		return false;
+	}
+
 	public void performInServiceHandler(Intent intent) {
 		Message msg = mServiceHandler.obtainMessage();
 		msg.obj = intent;
@@ -162,11 +204,18 @@ public abstract class MAXSTransportService extends Service {
 					+ ") not start. Don't start sticky");
 			stickyStart = false;
 		}
-		performInServiceHandler(intent);
+		handleIntent(intent);
 		LOG.d("onStartCommand result: stickyStart=" + stickyStart + " action=" + action);
 		return stickyStart ? START_STICKY : START_NOT_STICKY;
 	}
 
+	private void handleIntent(Intent intent) {
+		mIntentsReceived.inc();
+		if (!onHandleIntentDirectly(intent)) {
+			performInServiceHandler(intent);
+		}
+	}
+
 	private static void setIsRunning(boolean isRunning) {
 		sSharedPreferences.edit().putBoolean(IS_RUNNING_KEY, isRunning).apply();
 		sIsRunning = isRunning;
@@ -182,6 +231,81 @@ public abstract class MAXSTransportService extends Service {
 
 	protected abstract void onHandleIntent(Intent intent);
 
+	/**
+	 * The keys of the settings that are not exported over the settings channel.
+	 *
+	 * @return the keys or null
+	 */
+	public Set<String> doNotExport() {
+		return null;
+	}
+
+	/**
+	 * Give the transport a chance to handle an intent right away, instead of putting it in the
+	 * service handler's queue, where it could wait behind a blocking operation, e.g. a connection
+	 * attempt. This is invoked from the main thread, so implementations must not block.
+	 * 
+	 * @param intent
+	 * @return true if the intent was handled and should not be put into the service handler
+	 */
+	protected boolean onHandleIntentDirectly(Intent intent) {
+		return false;
+	}
+
+	/**
+	 * Send the command to main. Uses the channel to main if main is bound to the transport, falls
+	 * back to an intent otherwise.
+	 * 
+	 * @param context
+	 * @param command
+	 * @param origin
+	 * @param trace
+	 *            the trace started when the command was received, may be null
+	 */
+	public static void performCommand(Context context, String command, CommandOrigin origin,
+			TraceContext trace) {
+		if (trace != null) trace.mark("transport.forwarded");
+		final IMAXSMainTransportChannel mainChannel = sMainChannel;
+		if (mainChannel != null) {
+			try {
+				mainChannel.performCommand(command, origin, trace);
+				return;
+			} catch (RemoteException e) {
+				LOG.w("performCommand: main channel unavailable, falling back to intent", e);
+				sMainChannel = null;
+			}
+		}
+
+		Intent intent = new Intent(GlobalConstants.ACTION_PERFORM_COMMAND);
+		intent.putExtra(TransportConstants.EXTRA_COMMAND, command);
+		intent.putExtra(TransportConstants.EXTRA_COMMAND_ORIGIN, origin);
+		intent.putExtra(GlobalConstants.EXTRA_TRACE, trace);
+		intent.setClassName(TransportConstants.MAIN_PACKAGE,
+				TransportConstants.MAIN_TRANSPORT_SERVICE);
+		ComponentName componentName = context.startService(intent);
+		if (componentName == null) {
+			LOG.e("performCommand: could not start main transport service");
+		}
+	}
+
+	/**
+	 * Report the time the reply to the given command was sent to main, which adds it as last stage
+	 * to the trace of the command. Does nothing if main is not bound to the transport.
+	 * 
+	 * @param commandId
+	 * @param sentAt
+	 *            in the {@link SystemClock#elapsedRealtime()} time base
+	 */
+	public static void replySent(int commandId, long sentAt) {
+		final IMAXSMainTransportChannel mainChannel = sMainChannel;
+		if (mainChannel == null) return;
+		try {
+			mainChannel.replySent(commandId, sentAt);
+		} catch (RemoteException e) {
+			LOG.w("replySent: could not report reply to command " + commandId, e);
+		}
+	}
+
 	public static void requestMaxsStatusUpdate(Context context, String transportPackage) {
 		Intent intent = new Intent(TransportConstants.ACTION_REQUEST_UPDATE_MAXS_STATUS);
 		intent.setClassName(TransportConstants.MAIN_PACKAGE,
@@ -192,4 +316,52 @@ public abstract class MAXSTransportService extends Service {
 			LOG.w("Could not find component for MAXS status update request");
 		}
 	}
+
+	private final class TransportChannel extends IMAXSTransportChannel.Stub {
+		@Override
+		public void setMainChannel(IMAXSMainTransportChannel mainChannel) {
+			sMainChannel = mainChannel;
+		}
+
+		@Override
+		public void handleBatch(final int batchId, final List<Intent> intents) {
+			final long receivedAt = SystemClock.elapsedRealtime();
+			final ClassLoader classLoader = getClassLoader();
+			// Handle the intents on the main thread, just like the ones delivered by
+			// onStartCommand()
+			mMainThreadHandler.post(new Runnable() {
+				@Override
+				public void run() {
+					for (Intent intent : intents) {
+						intent.setExtrasClassLoader(classLoader);
+						handleIntent(intent);
+					}
+					final long handledAt = SystemClock.elapsedRealtime();
+					mBatchesReceived.inc();
+					mBatchHandlingLatency.record(handledAt - receivedAt);
+					final IMAXSMainTransportChannel mainChannel = sMainChannel;
+					if (mainChannel == null) return;
+					try {
+						mainChannel.batchHandled(batchId, receivedAt, handledAt);
+					} catch (RemoteException e) {
+						LOG.w("handleBatch: could not acknowledge batch " + batchId, e);
+					}
+				}
+			});
+		}
+
+		@Override
+		public void requestMetrics(IMAXSMetricsReceiver receiver) {
+			try {
+				receiver.metrics(Metrics.snapshot(getPackageName()));
+			} catch (RemoteException e) {
+				LOG.w("requestMetrics: could not send metrics", e);
+			}
+		}
+
+		@Override
+		public void exportJournal(long since, String filter, ParcelFileDescriptor out) {
+			LogJournal.exportAsync(since, filter, out);
+		}
+	}
 }
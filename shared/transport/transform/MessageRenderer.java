@@ -0,0 +1,207 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.shared.transport.transform;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.messagecontent.AbstractElement;
+import org.projectmaxs.shared.global.messagecontent.CommandHelp;
+import org.projectmaxs.shared.global.messagecontent.Contact;
+import org.projectmaxs.shared.global.messagecontent.ContactNumber;
+import org.projectmaxs.shared.global.messagecontent.Element;
+import org.projectmaxs.shared.global.messagecontent.ElementVisitor;
+import org.projectmaxs.shared.global.messagecontent.FormatedText;
+import org.projectmaxs.shared.global.messagecontent.NewLine;
+import org.projectmaxs.shared.global.messagecontent.Sms;
+import org.projectmaxs.shared.global.messagecontent.Text;
+import org.projectmaxs.shared.global.util.DateTimeUtil;
+
+/**
+ * Renders the elements of a message to plain text and to formated text in a single traversal. The
+ * plain text is the concatenation of the formated text, with the last newline removed. Every
+ * thread reuses its own renderer, and the result is cached per message, so that a message is
+ * rendered only once, no matter how often and to how many recipients it is sent.
+ * <p>
+ * Elements must not be modified once the message has been rendered.
+ * </p>
+ */
+public final class MessageRenderer implements ElementVisitor {
+
+	/**
+	 * Buffers grown beyond this are not retained for the next message.
+	 */
+	private static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+
+	private static final ThreadLocal<MessageRenderer> sRenderers =
+			new ThreadLocal<MessageRenderer>() {
+				@Override
+				protected MessageRenderer initialValue() {
+					return new MessageRenderer();
+				}
+			};
+
+	/**
+	 * The rendered messages. Messages compare by identity, and the keys are weak, so that the cache
+	 * never keeps a message alive.
+	 */
+	private static final Map<Message, Rendered> sCache = Collections.synchronizedMap(
+			new WeakHashMap<Message, Rendered>());
+
+	private StringBuilder mString = new StringBuilder();
+	private ArrayList<FormatedText> mFormatedText = new ArrayList<FormatedText>();
+
+	private MessageRenderer() {}
+
+	public static Rendered render(Message message) {
+		final int modificationCount = message.getModificationCount();
+		Rendered rendered = sCache.get(message);
+		if (rendered != null && rendered.mModificationCount == modificationCount) return rendered;
+
+		rendered = sRenderers.get().renderElements(message.getElementsIt(), modificationCount);
+		sCache.put(message, rendered);
+		return rendered;
+	}
+
+	private Rendered renderElements(Iterator<AbstractElement> elements, int modificationCount) {
+		try {
+			while (elements.hasNext())
+				elements.next().accept(this);
+
+			int length = mString.length();
+			// Remove the last newline of the message
+			if (length > 0 && mString.charAt(length - 1) == '\n') length--;
+			return new Rendered(mString.substring(0, length), Collections.unmodifiableList(
+					new ArrayList<FormatedText>(mFormatedText)), modificationCount);
+		} finally {
+			if (mString.capacity() > MAX_RETAINED_CAPACITY) {
+				mString = new StringBuilder();
+				mFormatedText = new ArrayList<FormatedText>();
+			} else {
+				mString.setLength(0);
+				mFormatedText.clear();
+			}
+		}
+	}
+
+	private void add(FormatedText formatedText) {
+		mFormatedText.add(formatedText);
+		mString.append(formatedText.toString());
+	}
+
+	@Override
+	public void visit(Contact contact) {
+		add(FormatedText.bold(contact.getDisplayName()));
+		add(NewLine.getInstance());
+
+		for (ContactNumber number : contact.getNumbers())
+			visit(number);
+	}
+
+	@Override
+	public void visit(ContactNumber contactNumber) {
+		add(FormatedText.italic(TypeTransformator.fromNumberType(contactNumber.getType())));
+		if (contactNumber.getLabel() != null)
+			add(FormatedText.from(" (" + contactNumber.getLabel() + ")"));
+		add(FormatedText.from(": " + contactNumber.getNumber()));
+		add(NewLine.getInstance());
+	}
+
+	@Override
+	public void visit(Element element) {
+		if (!element.isHumanReadable()) return;
+
+		Text humanReadableName = element.getHumanReadableName();
+		if (humanReadableName != null) visit(humanReadableName);
+
+		Iterator<AbstractElement> it = element.getChildElementIterator();
+		while (it.hasNext())
+			it.next().accept(this);
+	}
+
+	@Override
+	public void visit(Sms sms) {
+		add(FormatedText.from(TypeTransformator.fromSMSType(sms.getType())));
+		add(FormatedText.SINGLE_SPACE);
+
+		add(FormatedText.bold(sms.getContact()));
+		add(FormatedText.SINGLE_SPACE);
+		add(FormatedText.italic(DateTimeUtil.toFullDate(sms.getDate())));
+		add(FormatedText.from(": "));
+		add(FormatedText.from(sms.getBody()));
+		add(NewLine.getInstance());
+	}
+
+	@Override
+	public void visit(Text text) {
+		// Don't add a newline here. Text has it's own ways of adding newline
+		for (FormatedText formatedText : text.getTexts())
+			add(formatedText);
+	}
+
+	@Override
+	public void visit(CommandHelp commandHelp) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(commandHelp.mCommand);
+		// Commands handled by main itself may have no sub command
+		if (commandHelp.mSubCommand.length() > 0) {
+			sb.append(' ');
+			sb.append(commandHelp.mSubCommand);
+		}
+		sb.append(TypeTransformator.toCommandArg(commandHelp));
+		add(FormatedText.bold(sb));
+
+		add(FormatedText.from(" - " + commandHelp.mHelp));
+		add(NewLine.getInstance());
+	}
+
+	public static final class Rendered {
+		private final String mString;
+		private final List<FormatedText> mFormatedText;
+		private final int mModificationCount;
+
+		private Rendered(String string, List<FormatedText> formatedText, int modificationCount) {
+			mString = string;
+			mFormatedText = formatedText;
+			mModificationCount = modificationCount;
+		}
+
+		/**
+		 * Get the message as plain text.
+		 *
+		 * @return the plain text
+		 */
+		public String getString() {
+			return mString;
+		}
+
+		/**
+		 * Get the message as formated text, for example to create an XHTML representation.
+		 *
+		 * @return an unmodifiable list of formated text
+		 */
+		public List<FormatedText> getFormatedText() {
+			return mFormatedText;
+		}
+	}
+}
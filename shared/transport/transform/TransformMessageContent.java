@@ -17,7 +17,6 @@
 
 package org.projectmaxs.shared.transport.transform;
 
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -28,23 +27,11 @@ import org.projectmaxs.shared.global.messagecontent.FormatedText;
 public class TransformMessageContent {
 
 	public static String toString(Message message) {
-		StringBuilder sb = new StringBuilder();
-		Iterator<AbstractElement> it = message.getElementsIt();
-		while (it.hasNext())
-			HumanReadableString.toSB(it.next(), sb);
-		// Remove the last newline of the message
-		if (sb.length() > 0 && sb.charAt(sb.length() - 1) == '\n') sb.setLength(sb.length() - 1);
-
-		return sb.toString();
+		return MessageRenderer.render(message).getString();
 	}
 
 	public static List<FormatedText> toFormatedText(Message message) {
-		List<FormatedText> res = new ArrayList<FormatedText>();
-		Iterator<AbstractElement> it = message.getElementsIt();
-		while (it.hasNext())
-			FormatedTextTransformator.toFormatedText(it.next(), res);
-
-		return res;
+		return MessageRenderer.render(message).getFormatedText();
 	}
 
 	public static String toXML(Message message) {
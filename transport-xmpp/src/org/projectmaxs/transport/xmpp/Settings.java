@@ -21,6 +21,7 @@ import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -41,6 +42,7 @@ import org.jxmpp.stringprep.XmppStringprepException;
 import org.projectmaxs.shared.global.GlobalConstants;
 import org.projectmaxs.shared.global.jul.JULHandler;
 import org.projectmaxs.shared.global.util.Log.DebugLogSettings;
+import org.projectmaxs.shared.global.util.PreferenceCache;
 import org.projectmaxs.shared.global.util.SharedStringUtil;
 import org.projectmaxs.transport.xmpp.xmppservice.XMPPSocketFactory;
 
@@ -56,7 +58,6 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 	private static final String JID = "JID";
 	private static final String PASSWORD = "PASSWORD";
 	private static final String LAST_RECIPIENT = "LAST_RECIPIENT";
-	private static final String CMD_ID = "CMD_ID";
 	private static final String EXCLUDED_RESOURCES = "EXCLUDED_RESOURCES";
 
 	/**
@@ -100,11 +101,19 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 		return sSettings;
 	}
 
+	private static final String[] EXCLUDED_RESOURCE_PREFIXES = new String[] { "android" };
+
 	private SharedPreferences mSharedPreferences;
 	private XMPPTCPConnectionConfiguration mConnectionConfiguration;
 
-	private EntityBareJid mJidCache;
-	private Set<EntityBareJid> mMasterJidCache;
+	private final PreferenceCache mPreferenceCache;
+	private final PreferenceCache.Value<EntityBareJid> mJid;
+	private final PreferenceCache.Value<Set<EntityBareJid>> mMasterJids;
+	private final PreferenceCache.Value<Set<String>> mExcludedResources;
+	private final PreferenceCache.Value<Boolean> mDebugLog;
+	private final PreferenceCache.Value<Boolean> mDebugNetwork;
+	private final PreferenceCache.Value<Boolean> mStreamManagement;
+	private final PreferenceCache.Value<String> mXmppIntentSharedToken;
 
 	private Settings(Context context) {
 		// this.mSharedPreferences =
@@ -141,26 +150,68 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 		XMPP_INTENT = context.getString(R.string.pref_app_xmpp_intent_key);
 		XMPP_INTENT_SHARED_TOKEN = context
 				.getString(R.string.pref_app_xmpp_intent_shared_token_key);
+
+		mPreferenceCache = new PreferenceCache(mSharedPreferences);
+		mJid = mPreferenceCache.add(new PreferenceCache.Value<EntityBareJid>(JID) {
+			@Override
+			protected EntityBareJid parse(SharedPreferences sharedPreferences) {
+				String jidString = sharedPreferences.getString(JID, "");
+				if (jidString.isEmpty()) {
+					return null;
+				}
+				try {
+					return JidCreate.entityBareFrom(jidString);
+				} catch (XmppStringprepException e) {
+					throw new AssertionError(e);
+				}
+			}
+		});
+		mMasterJids = mPreferenceCache.add(new PreferenceCache.Value<Set<EntityBareJid>>(
+				MASTER_JIDS) {
+			@Override
+			protected Set<EntityBareJid> parse(SharedPreferences sharedPreferences) {
+				String s = sharedPreferences.getString(MASTER_JIDS, "");
+				Set<String> resString = SharedStringUtil.stringToSet(s);
+				Set<EntityBareJid> res = new HashSet<>();
+				for (String jidString : resString) {
+					try {
+						EntityBareJid bareJid = JidCreate.entityBareFrom(jidString);
+						res.add(bareJid);
+					} catch (XmppStringprepException e) {
+						throw new AssertionError(e);
+					}
+				}
+				return Collections.unmodifiableSet(res);
+			}
+		});
+		mExcludedResources = mPreferenceCache.addStringSet(EXCLUDED_RESOURCES);
+		mDebugLog = mPreferenceCache.addBoolean(DEBUG_LOG, false);
+		mDebugNetwork = mPreferenceCache.addBoolean(DEBUG_NETWORK, false);
+		mStreamManagement = mPreferenceCache.addBoolean(XMPP_STREAM_MANAGEMENT, false);
+		mXmppIntentSharedToken = mPreferenceCache.add(new PreferenceCache.Value<String>(
+				XMPP_INTENT, XMPP_INTENT_SHARED_TOKEN) {
+			@Override
+			protected String parse(SharedPreferences sharedPreferences) {
+				// always ensure that we return null if the XMPP intent is disabled, so that we
+				// don't end up comparing the token while the XMPP intent is disabled
+				if (!sharedPreferences.getBoolean(XMPP_INTENT, false)) {
+					return null;
+				}
+				String res = sharedPreferences.getString(XMPP_INTENT_SHARED_TOKEN, "");
+				if (res.isEmpty()) {
+					return null;
+				}
+				return res;
+			}
+		});
+
 		mSharedPreferences.registerOnSharedPreferenceChangeListener(this);
 
 		setDnsDebug();
 	}
 
 	public EntityBareJid getJid() {
-		if (mJidCache != null) {
-			return mJidCache;
-		}
-		String jidString = mSharedPreferences.getString(JID, "");
-		if (jidString.isEmpty()) {
-			return null;
-		}
-		EntityBareJid bareJid;
-		try {
-			bareJid = JidCreate.entityBareFrom(jidString);
-		} catch (XmppStringprepException e) {
-			throw new AssertionError(e);
-		}
-		return bareJid;
+		return mJid.get();
 	}
 
 	public void setJidAndPassword(EntityBareJid jid, CharSequence password) {
@@ -169,7 +220,7 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 			.putString(JID, jid.toString())
 			.putString(PASSWORD, password.toString())
 			.apply();
-		mJidCache = jid;
+		mJid.invalidate();
 	}
 
 	public String getPassword() {
@@ -180,24 +231,10 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 	 * Returns a set of master JID Strings or an empty set if no master JID was
 	 * ever set.
 	 * 
-	 * @return A set containing the master JIDs.
+	 * @return An unmodifiable set containing the master JIDs.
 	 */
 	public Set<EntityBareJid> getMasterJids() {
-		if (mMasterJidCache != null) {
-			return mMasterJidCache;
-		}
-		String s = mSharedPreferences.getString(MASTER_JIDS, "");
-		Set<String> resString = SharedStringUtil.stringToSet(s);
-		Set<EntityBareJid> res = new HashSet<>();
-		for (String jidString : resString) {
-			try {
-				EntityBareJid bareJid = JidCreate.entityBareFrom(jidString);
-				res.add(bareJid);
-			} catch (XmppStringprepException e) {
-				throw new AssertionError(e);
-			}
-		}
-		return res;
+		return mMasterJids.get();
 	}
 
 	public int getMasterJidCount() {
@@ -208,13 +245,13 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 		if (jid == null) {
 			throw new IllegalArgumentException();
 		}
-		Set<EntityBareJid> masterJids = getMasterJids();
+		Set<EntityBareJid> masterJids = new HashSet<>(getMasterJids());
 		masterJids.add(jid);
 		saveMasterJids(masterJids);
 	}
 
 	public boolean removeMasterJid(EntityBareJid jid) {
-		Set<EntityBareJid> masterJids = getMasterJids();
+		Set<EntityBareJid> masterJids = new HashSet<>(getMasterJids());
 		if (masterJids.remove(jid)) {
 			saveMasterJids(masterJids);
 			return true;
@@ -236,10 +273,12 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 		return false;
 	}
 
+	/**
+	 * 
+	 * @return an unmodifiable set of the excluded resources
+	 */
 	public Set<String> getExcludedResources() {
-		String s = mSharedPreferences.getString(EXCLUDED_RESOURCES, "");
-		Set<String> res = SharedStringUtil.stringToSet(s);
-		return res;
+		return mExcludedResources.get();
 	}
 
 	/**
@@ -256,8 +295,7 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 	 */
 	public boolean isExcludedResource(Resourcepart resourcepart) {
 		final String resource = resourcepart.toString();
-		final String[] ifStartsWith = new String[] { "android" };
-		for (String s : ifStartsWith) {
+		for (String s : EXCLUDED_RESOURCE_PREFIXES) {
 			if (resource.startsWith(s)) return true;
 		}
 		Set<String> excludedResources = getExcludedResources();
@@ -266,13 +304,13 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 	}
 
 	public void addExcludedResource(String resource) {
-		Set<String> excludedResources = getExcludedResources();
+		Set<String> excludedResources = new HashSet<String>(getExcludedResources());
 		excludedResources.add(resource);
 		saveExcludedResources(excludedResources);
 	}
 
 	public boolean removeExcludedResource(String resource) {
-		Set<String> excludedResources = getExcludedResources();
+		Set<String> excludedResources = new HashSet<String>(getExcludedResources());
 		if (excludedResources.remove(resource)) {
 			saveExcludedResources(excludedResources);
 			return true;
@@ -288,14 +326,8 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 		return mSharedPreferences.getString(LAST_RECIPIENT, "");
 	}
 
-	public int getNextCommandId() {
-		int id = mSharedPreferences.getInt(CMD_ID, 0);
-		mSharedPreferences.edit().putInt(CMD_ID, id + 1).apply();
-		return id;
-	}
-
 	public boolean isDebugLogEnabled() {
-		return mSharedPreferences.getBoolean(DEBUG_LOG, false);
+		return mDebugLog.get();
 	}
 
 	public void setLastActiveNetwork(String network) {
@@ -307,7 +339,7 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 	}
 
 	public boolean isNetworkDebugLogEnabled() {
-		return mSharedPreferences.getBoolean(DEBUG_NETWORK, false);
+		return mDebugNetwork.get();
 	}
 
 	/**
@@ -338,7 +370,7 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 	}
 
 	public boolean isStreamManagementEnabled() {
-		return mSharedPreferences.getBoolean(XMPP_STREAM_MANAGEMENT, false);
+		return mStreamManagement.get();
 	}
 
 	/**
@@ -438,16 +470,7 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 	 * @return the XMPP intent shared token or null
 	 */
 	public String getXmppIntentSharedToken() {
-		// always ensure that we return null if the XMPP intent is disabled, so that we don't end up
-		// comparing the token while the XMPP intent is disabled
-		if (!isXmppIntentEnabled()) {
-			return null;
-		}
-		String res = mSharedPreferences.getString(XMPP_INTENT_SHARED_TOKEN, "");
-		if (res.isEmpty()) {
-			return null;
-		}
-		return res;
+		return mXmppIntentSharedToken.get();
 	}
 
 	@Override
@@ -475,7 +498,7 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 		String masterJids = SharedStringUtil.setToString(jidStrings);
 		e.putString(MASTER_JIDS, masterJids);
 		e.apply();
-		mMasterJidCache = newMasterJids;
+		mMasterJids.invalidate();
 	}
 
 	private void saveExcludedResources(Set<String> newExcludedResources) {
@@ -484,6 +507,7 @@ public class Settings implements OnSharedPreferenceChangeListener, DebugLogSetti
 		String excludedResources = SharedStringUtil.setToString(newExcludedResources);
 		e.putString(EXCLUDED_RESOURCES, excludedResources);
 		e.apply();
+		mExcludedResources.invalidate();
 	}
 
 	private boolean getManualServiceSettings() {
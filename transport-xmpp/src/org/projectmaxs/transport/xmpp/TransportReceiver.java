@@ -17,13 +17,10 @@
 
 package org.projectmaxs.transport.xmpp;
 
-import java.util.Set;
-
 import org.projectmaxs.shared.global.util.Log;
 import org.projectmaxs.shared.transport.MAXSTransportReceiver;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 
 public class TransportReceiver extends MAXSTransportReceiver {
 
@@ -37,14 +34,4 @@ public class TransportReceiver extends MAXSTransportReceiver {
 	public void initLog(Context context) {
 		LOG.initialize(Settings.getInstance(context));
 	}
-
-	@Override
-	public SharedPreferences getSharedPreferences(Context context) {
-		return Settings.getInstance(context).getSharedPreferences();
-	}
-
-	@Override
-	public Set<String> doNotExport() {
-		return Settings.DO_NOT_EXPORT;
-	}
 }
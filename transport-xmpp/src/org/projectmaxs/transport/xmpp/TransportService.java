@@ -17,6 +17,8 @@
 
 package org.projectmaxs.transport.xmpp;
 
+import java.util.Set;
+
 import org.jivesoftware.smack.util.Async;
 import org.jivesoftware.smackx.ping.android.ServerPingWithAlarmManager;
 import org.projectmaxs.shared.global.GlobalConstants;
@@ -35,7 +37,6 @@ import org.projectmaxs.transport.xmpp.xmppservice.XMPPEntityCapsCache;
 import org.projectmaxs.transport.xmpp.xmppservice.XMPPService;
 
 import android.content.Intent;
-import android.os.IBinder;
 
 public class TransportService extends MAXSTransportService {
 
@@ -61,12 +62,7 @@ public class TransportService extends MAXSTransportService {
 
 	private static final Log LOG = Log.getLog();
 
-	private XMPPService mXMPPService;
-
-	@Override
-	public IBinder onBind(Intent intent) {
-		return null;
-	}
+	private volatile XMPPService mXMPPService;
 
 	@Override
 	public void onCreate() {
@@ -77,6 +73,11 @@ public class TransportService extends MAXSTransportService {
 		ServerPingWithAlarmManager.onCreate(this);
 	}
 
+	@Override
+	public Set<String> doNotExport() {
+		return Settings.DO_NOT_EXPORT;
+	}
+
 	@Override
 	public void onDestroy() {
 		super.onDestroy();
@@ -106,6 +107,27 @@ public class TransportService extends MAXSTransportService {
 		ServerPingWithAlarmManager.onDestroy();
 	}
 
+	@Override
+	protected boolean onHandleIntentDirectly(Intent intent) {
+		final XMPPService xmppService = mXMPPService;
+		// The XMPPService is initialized in onHandleIntent(), until then use the service handler
+		if (xmppService == null) return false;
+
+		switch (intent.getAction()) {
+		case Constants.ACTION_SEND_AS_MESSAGE:
+		case Constants.ACTION_SEND_AS_IQ:
+			// Sending only enqueues the message, it's safe to do this without waiting for a
+			// possible running connection attempt in the service handler.
+			Message message = intent.getParcelableExtra(GlobalConstants.EXTRA_MESSAGE);
+			CommandOrigin origin = intent
+					.getParcelableExtra(TransportConstants.EXTRA_COMMAND_ORIGIN);
+			xmppService.send(message, origin);
+			return true;
+		default:
+			return false;
+		}
+	}
+
 	@Override
 	protected void onHandleIntent(Intent intent) {
 		// In order to avoid NetworkOnMainThread - some methods like
@@ -41,6 +41,7 @@ public class MessagesTable {
 	private static final String COLUMN_NAME_INTENT_ACTION = "intentAction";
 	private static final String COLUMN_NAME_ISSUER_INFO = "issuerInfo";
 	private static final String COLUMN_NAME_ISSUER_ID = "issuerId";
+	private static final String COLUMN_NAME_STANZA_ID = "stanzaId";
 
 	// @formatter:off
 	public static final String CREATE_TABLE =
@@ -49,8 +50,13 @@ public class MessagesTable {
 		 COLUMN_NAME_INTENT_ACTION + XMPPDatabase.TEXT_TYPE + XMPPDatabase.NOT_NULL + XMPPDatabase.COMMA_SEP +
 		 COLUMN_NAME_ISSUER_INFO + XMPPDatabase.TEXT_TYPE + XMPPDatabase.COMMA_SEP +
 		 COLUMN_NAME_ISSUER_ID + XMPPDatabase.TEXT_TYPE + XMPPDatabase.COMMA_SEP +
-		 COLUMN_NAME_MESSAGE + XMPPDatabase.BLOB_TYPE +
+		 COLUMN_NAME_MESSAGE + XMPPDatabase.BLOB_TYPE + XMPPDatabase.COMMA_SEP +
+		 COLUMN_NAME_STANZA_ID + XMPPDatabase.TEXT_TYPE +
 		" )";
+
+	public static final String ADD_STANZA_ID_COLUMN =
+		"ALTER TABLE " + TABLE_NAME +
+		" ADD COLUMN " + COLUMN_NAME_STANZA_ID + XMPPDatabase.TEXT_TYPE;
 	// @formatter:on
 
 	public static final String DELETE_TABLE = XMPPDatabase.DROP_TABLE + TABLE_NAME;
@@ -68,12 +74,25 @@ public class MessagesTable {
 		mDatabase = XMPPDatabase.getInstance(context).getWritableDatabase();
 	}
 
-	public void addMessage(Message message, String intentAction, String issuerId, String issuerInfo) {
+	/**
+	 * Persist a message that could not be send.
+	 *
+	 * @param message
+	 * @param intentAction
+	 * @param issuerInfo
+	 * @param issuerId
+	 * @param stanzaId
+	 *            the stanza ID the message was, or would have been, send with. Used to detect
+	 *            duplicates when the message is replayed.
+	 */
+	public void addMessage(Message message, String intentAction, String issuerInfo,
+			String issuerId, String stanzaId) {
 		ContentValues values = new ContentValues();
 		values.put(COLUMN_NAME_MESSAGE, ParcelableUtil.marshall(message));
 		values.put(COLUMN_NAME_INTENT_ACTION, intentAction);
 		values.put(COLUMN_NAME_ISSUER_INFO, issuerInfo);
 		values.put(COLUMN_NAME_ISSUER_ID, issuerId);
+		values.put(COLUMN_NAME_STANZA_ID, stanzaId);
 
 		long res = mDatabase.insert(TABLE_NAME, null, values);
 		if (res == -1) throw new IllegalStateException("Could not insert command in database");
@@ -93,8 +112,9 @@ public class MessagesTable {
 			String intentAction = c.getString(c.getColumnIndexOrThrow(COLUMN_NAME_INTENT_ACTION));
 			String issuerId = c.getString(c.getColumnIndexOrThrow(COLUMN_NAME_ISSUER_ID));
 			String issuerInfo = c.getString(c.getColumnIndexOrThrow(COLUMN_NAME_ISSUER_INFO));
+			String stanzaId = c.getString(c.getColumnIndexOrThrow(COLUMN_NAME_STANZA_ID));
 			entries.add(new Entry(message, new CommandOrigin(Constants.PACKAGE, intentAction,
-					issuerInfo, issuerId)));
+					issuerInfo, issuerId), stanzaId));
 		} while (c.moveToNext());
 
 		// Delete all rows with the given origin after we have read out the
@@ -109,9 +129,16 @@ public class MessagesTable {
 		public final Message mMessage;
 		public final CommandOrigin mOrigin;
 
-		private Entry(Message message, CommandOrigin origin) {
+		/**
+		 * The stanza ID of the message, may be null for messages persisted before the ID was
+		 * recorded.
+		 */
+		public final String mStanzaId;
+
+		private Entry(Message message, CommandOrigin origin, String stanzaId) {
 			mMessage = message;
 			mOrigin = origin;
+			mStanzaId = stanzaId;
 		}
 	}
 }
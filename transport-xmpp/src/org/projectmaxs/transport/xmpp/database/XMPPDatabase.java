@@ -25,7 +25,7 @@ import android.database.sqlite.SQLiteOpenHelper;
 
 public class XMPPDatabase extends SQLiteOpenHelper {
 
-	private static final int DATABASE_VERSION = 2;
+	private static final int DATABASE_VERSION = 5;
 	private static final String DATABASE_NAME = Constants.PACKAGE + ".db";
 
 	public static final String TEXT_TYPE = " TEXT";
@@ -68,8 +68,25 @@ public class XMPPDatabase extends SQLiteOpenHelper {
 
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-		deleteTables(db);
-		createTables(db);
+		if (oldVersion < 2) {
+			deleteTables(db);
+			createTables(db);
+			return;
+		}
+		if (oldVersion < 3) {
+			db.execSQL(MessagesTable.ADD_STANZA_ID_COLUMN + SEMICOLON_SEP);
+		}
+		if (oldVersion < 4) {
+			// The rows hold Messages parceled before MessageContentCodec was introduced, which can
+			// not be read anymore
+			db.execSQL(MessagesTable.DELETE_TABLE + SEMICOLON_SEP);
+			db.execSQL(MessagesTable.CREATE_TABLE + SEMICOLON_SEP);
+		}
+		if (oldVersion < 5) {
+			// The parceled form of Message now includes the trace of the command
+			db.execSQL(MessagesTable.DELETE_TABLE + SEMICOLON_SEP);
+			db.execSQL(MessagesTable.CREATE_TABLE + SEMICOLON_SEP);
+		}
 	}
 
 	private static void createTables(SQLiteDatabase db) {
@@ -0,0 +1,57 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.transport.xmpp.smack.stanza;
+
+import org.jivesoftware.smack.packet.ExtensionElement;
+
+/**
+ * The file element of a XEP-0096: SI File Transfer accept, requesting that the sender starts the
+ * transfer at the given offset. Smack does not support ranged transfers, so this element is added
+ * to the stream initiation result by a stanza interceptor.
+ */
+public class FileTransferRangeElement implements ExtensionElement {
+
+	public static final String ELEMENT = "file";
+	public static final String NAMESPACE = "http://jabber.org/protocol/si/profile/file-transfer";
+
+	private final long mOffset;
+
+	public FileTransferRangeElement(long offset) {
+		mOffset = offset;
+	}
+
+	public long getOffset() {
+		return mOffset;
+	}
+
+	@Override
+	public String getElementName() {
+		return ELEMENT;
+	}
+
+	@Override
+	public String getNamespace() {
+		return NAMESPACE;
+	}
+
+	@Override
+	public String toXML(String enclosingNamespace) {
+		return '<' + ELEMENT + " xmlns='" + NAMESPACE + "'><range offset='" + mOffset
+				+ "'/></" + ELEMENT + '>';
+	}
+}
@@ -23,6 +23,7 @@ import org.jivesoftware.smack.filter.MessageTypeFilter;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jxmpp.jid.Jid;
+import org.projectmaxs.shared.global.TraceContext;
 import org.projectmaxs.shared.global.util.Log;
 import org.projectmaxs.transport.xmpp.Settings;
 import org.projectmaxs.transport.xmpp.smack.stanza.MAXSElement;
@@ -42,6 +43,7 @@ public class HandleChatPacketListener extends StateChangeListener {
 
 			@Override
 			public void processStanza(Stanza packet) {
+				final TraceContext trace = TraceContext.start("transport.received");
 				Message message = (Message) packet;
 				Jid from = message.getFrom();
 
@@ -54,7 +56,7 @@ public class HandleChatPacketListener extends StateChangeListener {
 				}
 
 				if (mSettings.isMasterJID(from)) {
-					mXMPPService.newMessageFromMasterJID(message);
+					mXMPPService.newMessageFromMasterJID(message, trace);
 				} else {
 					LOG.w("Ignoring message from non-master JID: jid='" + from + "' message='"
 							+ message + '\'');
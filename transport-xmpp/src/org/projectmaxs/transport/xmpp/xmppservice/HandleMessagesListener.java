@@ -41,7 +41,7 @@ public class HandleMessagesListener extends StateChangeListener {
 	public void connected(XMPPConnection connection) {
 		List<Entry> entries = mMessagesTable.getAllAndDelete();
 		for (Entry e : entries)
-			mXMPPService.send(e.mMessage, e.mOrigin);
+			mXMPPService.resend(e.mMessage, e.mOrigin, e.mStanzaId);
 
 	}
 }
@@ -38,19 +38,28 @@ import android.content.Intent;
 
 import java.util.Date;
 
-public class HandleTransportStatus extends StateChangeListener {
+public class HandleTransportStatus extends StateChangeListener implements
+		XMPPLinkEstimator.QualityChangedListener {
 
 	private static final Log LOG = Log.getLog();
 
 	private final Context mContext;
 	private final Settings mSettings;
+	private final XMPPLinkEstimator mLinkEstimator;
 
 	private String mStatusString;
 
-	public HandleTransportStatus(Context context) {
+	/**
+	 * The connected status without the link estimate, or null if not connected.
+	 */
+	private String mConnectedStatusString;
+
+	public HandleTransportStatus(Context context, XMPPLinkEstimator linkEstimator) {
 		mContext = context;
 		mStatusString = "inactive";
 		mSettings = Settings.getInstance(context);
+		mLinkEstimator = linkEstimator;
+		linkEstimator.addQualityChangedListener(this);
 	}
 
 	@Override
@@ -142,9 +151,20 @@ public class HandleTransportStatus extends StateChangeListener {
 		if (authenticatedConnectionInitiallyEstablishedTimestampString != null) {
 			sb.append(separator).append("since: ").append(authenticatedConnectionInitiallyEstablishedTimestampString);
 		}
-		sb.append(')');
 
-		setAndSendStatus(sb.toString());
+		mConnectedStatusString = sb.toString();
+		setAndSendConnectedStatus();
+	}
+
+	@Override
+	public void qualityChanged(XMPPLinkEstimator estimator) {
+		if (mConnectedStatusString == null) return;
+		setAndSendConnectedStatus();
+	}
+
+	private void setAndSendConnectedStatus() {
+		mStatusString = mConnectedStatusString + ", " + mLinkEstimator + ')';
+		sendStatus();
 	}
 
 	@Override
@@ -180,6 +200,7 @@ public class HandleTransportStatus extends StateChangeListener {
 	}
 
 	protected void setAndSendStatus(String status) {
+		mConnectedStatusString = null;
 		mStatusString = status;
 		sendStatus();
 	}
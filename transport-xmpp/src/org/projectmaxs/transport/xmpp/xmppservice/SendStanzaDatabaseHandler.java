@@ -23,6 +23,7 @@ import org.jivesoftware.smack.SmackException.NotConnectedException;
 import org.jivesoftware.smack.StanzaListener;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.tcp.XMPPTCPConnection;
 import org.jivesoftware.smack.util.Async;
@@ -40,9 +41,11 @@ public class SendStanzaDatabaseHandler extends StateChangeListener {
 	private static Log LOG = Log.getLog();
 
 	private final SendUnackedStanzasTable mSendUnackedStanzasTable;
+	private final XMPPOutgoingDeduplicator mOutgoingDeduplicator;
 
 	public SendStanzaDatabaseHandler(XMPPService xmppService) {
 		mSendUnackedStanzasTable = SendUnackedStanzasTable.getInstance(xmppService.getContext());
+		mOutgoingDeduplicator = xmppService.getOutgoingDeduplicator();
 	}
 
 	@Override
@@ -100,6 +103,11 @@ public class SendStanzaDatabaseHandler extends StateChangeListener {
 			@Override
 			public void run() {
 				for (Stanza stanza : toResend) {
+					// Smack may have already re-sent the stanza when the stream was resumed
+					if (stanza instanceof Message
+							&& mOutgoingDeduplicator.isDuplicate((Message) stanza)) {
+						continue;
+					}
 					try {
 						connection.sendStanza(stanza);
 					} catch (NotConnectedException | InterruptedException e) {
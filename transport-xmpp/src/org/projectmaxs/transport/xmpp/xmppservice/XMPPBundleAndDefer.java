@@ -54,13 +54,13 @@ public class XMPPBundleAndDefer {
 	 * How long Smack defers outgoing stanzas if the current network is in high power (active)
 	 * state.
 	 */
-	private static final int ACTIVE_STATE_DEFER_MILLIS = 150;
+	static final int ACTIVE_STATE_DEFER_MILLIS = 150;
 
 	/**
 	 * How long Smack defers outgoing stanzas if the current network is not in high power (inactive)
 	 * state.
 	 */
-	private static final int INACTIVE_STATE_DEFER_MILLIS = 23 * 1000;
+	static final int INACTIVE_STATE_DEFER_MILLIS = 23 * 1000;
 
 	private static final Log LOG = Log.getLog();
 
@@ -77,6 +77,11 @@ public class XMPPBundleAndDefer {
 	 */
 	private static BundleAndDefer currentBundleAndDefer;
 
+	/**
+	 * The value last returned by the bundle and defer callback.
+	 */
+	private static volatile int sLastDeferMillis;
+
 	@TargetApi(21)
 	public static void initialize(final Context context) {
 		final ConnectivityManager connectivityManager = (ConnectivityManager) context
@@ -85,6 +90,7 @@ public class XMPPBundleAndDefer {
 			@Override
 			public int getBundleAndDeferMillis(BundleAndDefer bundleAndDefer) {
 				if (sDoNotBadInt.get() > 0) {
+					sLastDeferMillis = 0;
 					return 0;
 				}
 				XMPPBundleAndDefer.currentBundleAndDefer = bundleAndDefer;
@@ -105,6 +111,7 @@ public class XMPPBundleAndDefer {
 				} else {
 					deferMillis = INACTIVE_STATE_DEFER_MILLIS;
 				}
+				sLastDeferMillis = deferMillis;
 				if (LOG.isDebugLogEnabled()) {
 					LOG.d("Returning " + deferMillis
 							+ "ms in getBundleAndDeferMillis(). Network is "
@@ -134,6 +141,15 @@ public class XMPPBundleAndDefer {
 		localCurrentbundleAndDefer.stopCurrentBundleAndDefer();
 	}
 
+	/**
+	 * Get the defer value that was last returned to Smack.
+	 *
+	 * @return the last defer value in milliseconds
+	 */
+	public static int getLastDeferMillis() {
+		return sLastDeferMillis;
+	}
+
 	/**
 	 * Disables bundle and defer until {@link #enableBundleAndDefer()} is called.
 	 */
@@ -17,16 +17,26 @@
 
 package org.projectmaxs.transport.xmpp.xmppservice;
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.jivesoftware.smack.AbstractXMPPConnection;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.StanzaListener;
 import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.filter.StanzaFilter;
+import org.jivesoftware.smack.filter.StanzaTypeFilter;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smackx.bytestreams.socks5.Socks5BytestreamManager;
 import org.jivesoftware.smackx.bytestreams.socks5.Socks5Proxy;
 import org.jivesoftware.smackx.filetransfer.FileTransferListener;
@@ -34,6 +44,7 @@ import org.jivesoftware.smackx.filetransfer.FileTransferManager;
 import org.jivesoftware.smackx.filetransfer.FileTransferRequest;
 import org.jivesoftware.smackx.filetransfer.IncomingFileTransfer;
 import org.jivesoftware.smackx.filetransfer.OutgoingFileTransfer;
+import org.jivesoftware.smackx.si.packet.StreamInitiation;
 import org.jxmpp.jid.EntityFullJid;
 import org.jxmpp.jid.Jid;
 import org.jxmpp.jid.impl.JidCreate;
@@ -43,9 +54,11 @@ import org.projectmaxs.shared.global.aidl.IMAXSIncomingFileTransferService;
 import org.projectmaxs.shared.global.aidl.IMAXSOutgoingFileTransferService;
 import org.projectmaxs.shared.global.util.AsyncServiceTask;
 import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.shared.global.util.Metrics;
 import org.projectmaxs.shared.global.util.ParcelFileDescriptorUtil;
 import org.projectmaxs.shared.global.util.SharedStringUtil;
 import org.projectmaxs.transport.xmpp.Settings;
+import org.projectmaxs.transport.xmpp.smack.stanza.FileTransferRangeElement;
 
 import android.app.Service;
 import android.content.BroadcastReceiver;
@@ -57,8 +70,10 @@ import android.net.wifi.WifiManager;
 import android.os.IBinder;
 import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
+import android.os.SystemClock;
 
-public class XMPPFileTransfer extends StateChangeListener implements FileTransferListener {
+public class XMPPFileTransfer extends StateChangeListener implements FileTransferListener,
+		XMPPLinkEstimator.QualityChangedListener {
 
 	private static final Log LOG = Log.getLog();
 	private static final Intent INCOMING_FILETRANSFER_BIND_INTENT;
@@ -70,12 +85,64 @@ public class XMPPFileTransfer extends StateChangeListener implements FileTransfe
 				GlobalConstants.FILEWRITE_MODULE_IFT_SERVICE);
 	}
 
-	private static FileTransferManager sFileTransferManager;
+	/**
+	 * Smack's default SOCKS5 bytestream target response and proxy connection timeout.
+	 */
+	private static final int DEFAULT_S5B_TIMEOUT_MILLIS = 10 * 1000;
+
+	private static final int MAX_OFFERED_FILES = 16;
+
+	private static final StanzaFilter STREAM_INITIATION_FILTER = new StanzaTypeFilter(
+			StreamInitiation.class);
+
+	public enum Method {
+		Socks5Bytestream("s5b"), HttpFileUpload("http_upload");
+
+		/**
+		 * The outgoing transfers, their bytes, the time they took and the resulting throughput.
+		 * Reported by the 'stats' command, so that the methods can be compared on a real link.
+		 */
+		private final Metrics.Counter mTransfers;
+		private final Metrics.Counter mBytes;
+		private final Metrics.Counter mMillis;
+		private final Metrics.Gauge mThroughput;
+
+		Method(String metricName) {
+			final String prefix = "xmpp.outgoing_file_transfer_" + metricName;
+			mTransfers = Metrics.counter(prefix + "_count");
+			mBytes = Metrics.counter(prefix + "_bytes");
+			mMillis = Metrics.counter(prefix + "_millis");
+			mThroughput = Metrics.gauge(prefix + "_kib_per_second");
+		}
+	}
 
 	private final Settings mSettings;
 	private final Context mContext;
 	private final WifiManager mWifiManager;
 	private final Socks5Proxy mProxy;
+	private final XMPPLinkEstimator mLinkEstimator;
+
+	private Socks5BytestreamManager mSocks5BytestreamManager;
+	private volatile FileTransferManager mFileTransferManager;
+	private volatile XMPPHttpFileUpload mHttpFileUpload;
+
+	/**
+	 * File offers received, by stream ID. Bounded, as offers that are rejected are never looked
+	 * up.
+	 */
+	private final Map<String, OfferedFile> mOfferedFiles = new LinkedHashMap<String, OfferedFile>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, OfferedFile> eldest) {
+			return size() > MAX_OFFERED_FILES;
+		}
+	};
+
+	/**
+	 * The offsets to request in the stream initiation results, by stanza ID.
+	 */
+	private final Map<String, Long> mRangeOffsets = new ConcurrentHashMap<String, Long>();
 
 	private final BroadcastReceiver mWifiBroadcastReceiver = new BroadcastReceiver() {
 		@Override
@@ -87,8 +154,10 @@ public class XMPPFileTransfer extends StateChangeListener implements FileTransfe
 		}
 	};
 
-	protected XMPPFileTransfer(Context context) {
+	protected XMPPFileTransfer(Context context, XMPPLinkEstimator linkEstimator) {
 		mSettings = Settings.getInstance(context);
+		mLinkEstimator = linkEstimator;
+		linkEstimator.addQualityChangedListener(this);
 		mContext = context;
 		mWifiManager = (WifiManager) context.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
 		mProxy = Socks5Proxy.getSocks5Proxy();
@@ -110,15 +179,6 @@ public class XMPPFileTransfer extends StateChangeListener implements FileTransfe
 		final String filename = request.getFileName();
 		final String description = request.getDescription();
 		final long size = request.getFileSize();
-		InputStream isTmp;
-		try {
-			IncomingFileTransfer incomingFileTransfer = request.accept();
-			isTmp = incomingFileTransfer.receiveFile();
-		} catch (Exception e2) {
-			LOG.e("fileTransferRequest", e2);
-			return;
-		}
-		final InputStream is = isTmp;
 
 		AsyncServiceTask.builder(mContext ,INCOMING_FILETRANSFER_BIND_INTENT,
 				new AsyncServiceTask.IBinderAsInterface<IMAXSIncomingFileTransferService>() {
@@ -132,8 +192,36 @@ public class XMPPFileTransfer extends StateChangeListener implements FileTransfe
 					@Override
 					public void performTask(IMAXSIncomingFileTransferService iinterface)
 							throws RemoteException, IOException {
-						ParcelFileDescriptor pfd = iinterface.incomingFileTransfer(filename, size,
-								description);
+						// Looked up after binding the service, as the stream initiation listener
+						// may run after Smack notified us about the request
+						final OfferedFile offeredFile;
+						synchronized (mOfferedFiles) {
+							offeredFile = mOfferedFiles.remove(request.getStreamID());
+						}
+						final String hash = offeredFile != null ? offeredFile.mHash : null;
+						long offset = 0;
+						if (offeredFile != null && offeredFile.mRanged) {
+							offset = iinterface.getResumeOffset(filename, size, hash);
+						}
+						if (offset > 0) {
+							LOG.i("fileTransferRequest: resuming " + filename + " at " + offset
+									+ " of " + size + " bytes");
+							mRangeOffsets.put(offeredFile.mStanzaId, offset);
+						}
+
+						InputStream is;
+						try {
+							IncomingFileTransfer incomingFileTransfer = request.accept();
+							is = incomingFileTransfer.receiveFile();
+						} catch (Exception e) {
+							LOG.e("fileTransferRequest", e);
+							return;
+						} finally {
+							if (offset > 0) mRangeOffsets.remove(offeredFile.mStanzaId);
+						}
+
+						ParcelFileDescriptor pfd = iinterface.resumeIncomingFileTransfer(filename,
+								size, description, hash, offset);
 						if (pfd == null) {
 							LOG.e("fileTranferRequest: PFD from incomingFileTransfer is null");
 							is.close();
@@ -142,12 +230,17 @@ public class XMPPFileTransfer extends StateChangeListener implements FileTransfe
 						OutputStream os = new ParcelFileDescriptor.AutoCloseOutputStream(pfd);
 
 						int len;
+						long total = 0;
 						byte[] buf = new byte[1024];
+						final long start = SystemClock.elapsedRealtime();
 
 						try {
 							while ((len = is.read(buf)) > 0) {
 								os.write(buf, 0, len);
+								total += len;
 							}
+							mLinkEstimator.addThroughputSample(total,
+									SystemClock.elapsedRealtime() - start);
 						} finally {
 							try {
 								is.close();
@@ -172,8 +265,40 @@ public class XMPPFileTransfer extends StateChangeListener implements FileTransfe
 		// disable streamhost prioritization
 		Socks5BytestreamManager s5bsm = Socks5BytestreamManager.getBytestreamManager(connection);
 		s5bsm.setProxyPrioritizationEnabled(false);
-		sFileTransferManager = FileTransferManager.getInstanceFor(connection);
-		sFileTransferManager.addFileTransferListener(this);
+		mSocks5BytestreamManager = s5bsm;
+		qualityChanged(mLinkEstimator);
+		FileTransferManager fileTransferManager = FileTransferManager.getInstanceFor(connection);
+		fileTransferManager.addFileTransferListener(this);
+		mFileTransferManager = fileTransferManager;
+		mHttpFileUpload = new XMPPHttpFileUpload(connection, this, mLinkEstimator);
+
+		// Smack does not expose the stream initiation of a file transfer request, but we need the
+		// file hash and to know if the sender supports ranged transfers.
+		connection.addSyncStanzaListener(new StanzaListener() {
+			@Override
+			public void processStanza(Stanza stanza) {
+				StreamInitiation si = (StreamInitiation) stanza;
+				if (si.getType() != IQ.Type.set || si.getFile() == null) return;
+				OfferedFile offeredFile = new OfferedFile(si.getStanzaId(), si.getFile().getHash(),
+						si.getFile().isRanged());
+				synchronized (mOfferedFiles) {
+					mOfferedFiles.put(si.getSessionID(), offeredFile);
+				}
+			}
+		}, STREAM_INITIATION_FILTER);
+
+		if (connection instanceof AbstractXMPPConnection) {
+			((AbstractXMPPConnection) connection).addStanzaInterceptor(new StanzaListener() {
+				@Override
+				public void processStanza(Stanza stanza) {
+					StreamInitiation si = (StreamInitiation) stanza;
+					if (si.getType() != IQ.Type.result) return;
+					Long offset = mRangeOffsets.get(si.getStanzaId());
+					if (offset == null) return;
+					si.addExtension(new FileTransferRangeElement(offset));
+				}
+			}, STREAM_INITIATION_FILTER);
+		}
 	}
 
 	@Override
@@ -187,6 +312,116 @@ public class XMPPFileTransfer extends StateChangeListener implements FileTransfe
 		mContext.unregisterReceiver(mWifiBroadcastReceiver);
 	}
 
+	/**
+	 * Adapt the SOCKS5 bytestream timeouts to the link quality. On slow links, the timeouts are
+	 * raised.
+	 */
+	@Override
+	public void qualityChanged(XMPPLinkEstimator estimator) {
+		final Socks5BytestreamManager s5bsm = mSocks5BytestreamManager;
+		if (s5bsm == null) return;
+
+		final long rto = estimator.getRtoMillis();
+		final int timeout;
+		if (rto < 0) {
+			timeout = DEFAULT_S5B_TIMEOUT_MILLIS;
+		} else {
+			timeout = (int) Math.min(Math.max(DEFAULT_S5B_TIMEOUT_MILLIS, 8 * rto),
+					estimator.getReplyTimeout());
+		}
+		s5bsm.setTargetResponseTimeout(timeout);
+		s5bsm.setProxyConnectionTimeout(timeout);
+		LOG.d("qualityChanged: S5B timeout=" + timeout + "ms (" + estimator + ')');
+	}
+
+	/**
+	 * Send a file to the given JID.
+	 *
+	 * @param filename
+	 * @param size
+	 * @param description
+	 * @param to
+	 * @return the ParcelFileDescriptor to write the file to, or null if there is no connection
+	 */
+	ParcelFileDescriptor outgoingFileTransfer(String filename, long size, String description,
+			EntityFullJid to) {
+		final XMPPHttpFileUpload httpFileUpload = mHttpFileUpload;
+		if (httpFileUpload == null) {
+			LOG.e("outgoingFileTransfer: no connection");
+			return null;
+		}
+
+		// Prefer HTTP File Upload if the service supports it and accepts the file size, as it
+		// neither requires the recipient to be online, nor a working bytestream.
+		if (httpFileUpload.isSupported(size)) {
+			try {
+				LOG.d("outgoingFileTransfer: using HTTP File Upload for " + filename);
+				return httpFileUpload.upload(filename, size, description, to);
+			} catch (IOException e) {
+				LOG.w("outgoingFileTransfer: HTTP File Upload failed, using S5B", e);
+			}
+		}
+
+		PipedInputStream is = new PipedInputStream();
+		OutputStream os;
+		ParcelFileDescriptor pfd;
+		try {
+			os = new MeasuringOutputStream(new PipedOutputStream(is), size);
+			pfd = ParcelFileDescriptorUtil.pipeTo(os);
+		} catch (IOException e) {
+			LOG.e("outgoingFileTransfer: no connection");
+			return null;
+		}
+
+		sendStream(is, filename, size, description, to);
+		return pfd;
+	}
+
+	/**
+	 * Send the file read from the given stream via a SOCKS5 bytestream.
+	 *
+	 * @param is
+	 * @param filename
+	 * @param size
+	 * @param description
+	 * @param to
+	 */
+	void sendStream(InputStream is, String filename, long size, String description,
+			EntityFullJid to) {
+		OutgoingFileTransfer transfer = mFileTransferManager.createOutgoingFileTransfer(to);
+		transfer.sendStream(is, filename, size, description);
+	}
+
+	/**
+	 * Record a finished outgoing file transfer in the metrics of its method, so that the throughput
+	 * of the different methods can be compared.
+	 *
+	 * @param method
+	 * @param bytes
+	 * @param millis
+	 */
+	static void recordOutgoingTransfer(Method method, long bytes, long millis) {
+		StringBuilder sb = new StringBuilder("Outgoing file transfer throughput:");
+		synchronized (Method.class) {
+			method.mTransfers.inc();
+			method.mBytes.add(bytes);
+			method.mMillis.add(millis);
+			final long totalMillis = method.mMillis.get();
+			if (totalMillis > 0) {
+				method.mThroughput.set(method.mBytes.get() * 1000 / 1024 / totalMillis);
+			}
+			for (Method m : Method.values()) {
+				sb.append(' ').append(m).append('=');
+				if (m.mMillis.get() > 0) {
+					sb.append(m.mThroughput.get()).append("KiB/s");
+				} else {
+					sb.append("n/a");
+				}
+			}
+		}
+		LOG.i(sb.toString());
+	}
+
 	private void onWifiConnected() {
 		WifiInfo info = mWifiManager.getConnectionInfo();
 		List<String> addresses = new ArrayList<String>();
@@ -216,11 +451,6 @@ public class XMPPFileTransfer extends StateChangeListener implements FileTransfe
 			@Override
 			public ParcelFileDescriptor outgoingFileTransfer(String filename, long size,
 					String description, String toJIDString) throws RemoteException {
-				if (sFileTransferManager == null) {
-					LOG.e("outgoingFileTransfer: no connection");
-					return null;
-				}
-
 				final EntityFullJid toJID;
 				try {
 					toJID = JidCreate.entityFullFrom(toJIDString);
@@ -228,25 +458,58 @@ public class XMPPFileTransfer extends StateChangeListener implements FileTransfe
 					LOG.e("outgoingFileTransfer: Invalid JID", e);
 					return null;
 				}
-				PipedInputStream is = new PipedInputStream();
-				OutputStream os;
-				ParcelFileDescriptor pfd;
-				try {
-					os = new PipedOutputStream(is);
-					pfd = ParcelFileDescriptorUtil.pipeTo(os);
-				} catch (IOException e) {
-					LOG.e("outgoingFileTransfer: no connection");
-					return null;
-				}
-
-				OutgoingFileTransfer transfer = sFileTransferManager
-						.createOutgoingFileTransfer(toJID);
-				transfer.sendStream(is, filename, size, description);
 
-				return pfd;
+				return XMPPService.getInstance(MAXSOutgoingFileTransferService.this)
+						.getFileTransfer().outgoingFileTransfer(filename, size, description, toJID);
 			}
 
 		};
 
 	}
+
+	/**
+	 * The XEP-0096 file element details of an incoming stream initiation.
+	 */
+	private static class OfferedFile {
+		final String mStanzaId;
+		final String mHash;
+		final boolean mRanged;
+
+		OfferedFile(String stanzaId, String hash, boolean ranged) {
+			mStanzaId = stanzaId;
+			mHash = hash;
+			mRanged = ranged;
+		}
+	}
+
+	/**
+	 * Measures the time between the first write and closing the stream, which is roughly the time
+	 * the bytestream takes to transfer the file, since the piped stream only has a small buffer.
+	 */
+	private class MeasuringOutputStream extends FilterOutputStream {
+		private final long mSize;
+		private long mStart = -1;
+		private long mWritten;
+
+		MeasuringOutputStream(OutputStream out, long size) {
+			super(out);
+			mSize = size;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (mStart < 0) mStart = SystemClock.elapsedRealtime();
+			out.write(b, off, len);
+			mWritten += len;
+		}
+
+		@Override
+		public void close() throws IOException {
+			super.close();
+			if (mStart < 0 || mWritten != mSize) return;
+			final long millis = SystemClock.elapsedRealtime() - mStart;
+			mLinkEstimator.addThroughputSample(mWritten, millis);
+			recordOutgoingTransfer(Method.Socks5Bytestream, mWritten, millis);
+		}
+	}
 }
@@ -0,0 +1,287 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.transport.xmpp.xmppservice;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.XMPPException.XMPPErrorException;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smackx.httpfileupload.HttpFileUploadManager;
+import org.jivesoftware.smackx.httpfileupload.UploadService;
+import org.jivesoftware.smackx.httpfileupload.element.Slot;
+import org.jxmpp.jid.EntityFullJid;
+import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.transport.xmpp.smack.stanza.MAXSElement;
+
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+
+/**
+ * Outgoing file transfers by means of XEP-0363: HTTP File Upload. The file is streamed to an upload
+ * slot provided by the XMPP service, afterwards the download URL is send to the recipient. Unlike
+ * SOCKS5 bytestreams, this does not require the recipient to be online, nor a usable proxy or
+ * direct connection.
+ * <p>
+ * HTTP File Upload is part of Smack's disabled classes, so that no service discovery is performed
+ * at login time. Instead the upload service is discovered when it's required for the first time,
+ * the result is kept for the lifetime of the connection. A new instance is created for every
+ * connection.
+ * </p>
+ * <p>
+ * If the HTTP PUT fails before the file was read, the file is send via a SOCKS5 bytestream
+ * instead. Otherwise the recipient is informed that the upload failed.
+ * </p>
+ */
+public class XMPPHttpFileUpload {
+
+	private static final Log LOG = Log.getLog();
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+	private static final int HTTP_TIMEOUT_MILLIS = 60 * 1000;
+
+	private final XMPPConnection mConnection;
+	private final XMPPFileTransfer mFileTransfer;
+	private final XMPPLinkEstimator mLinkEstimator;
+
+	/**
+	 * True if the upload service discovery was performed on this connection.
+	 */
+	private boolean mDiscovered;
+
+	/**
+	 * The discovered upload service, null if the service provides none.
+	 */
+	private UploadService mUploadService;
+
+	XMPPHttpFileUpload(XMPPConnection connection, XMPPFileTransfer fileTransfer,
+			XMPPLinkEstimator linkEstimator) {
+		mConnection = connection;
+		mFileTransfer = fileTransfer;
+		mLinkEstimator = linkEstimator;
+	}
+
+	/**
+	 * Check if a file of the given size can be send via HTTP File Upload.
+	 *
+	 * @param size
+	 *            the size of the file in bytes
+	 * @return true if the service provides a HTTP upload service accepting the file
+	 */
+	public synchronized boolean isSupported(long size) {
+		if (!mConnection.isAuthenticated()) return false;
+
+		if (!mDiscovered) {
+			HttpFileUploadManager manager = HttpFileUploadManager.getInstanceFor(mConnection);
+			try {
+				manager.discoverUploadService();
+			} catch (XMPPErrorException e) {
+				// The service answered, there is no need to ask again
+				LOG.w("isSupported: upload service discovery returned error", e);
+				mDiscovered = true;
+				return false;
+			} catch (SmackException | InterruptedException e) {
+				LOG.w("isSupported: could not discover upload service", e);
+				return false;
+			}
+			mDiscovered = true;
+			mUploadService = manager.getDefaultUploadService();
+		}
+		if (mUploadService == null) return false;
+		return mUploadService.acceptsFileOfSize(size);
+	}
+
+	/**
+	 * Request an upload slot and return a ParcelFileDescriptor the file can be written to. Once the
+	 * file has been uploaded, the download URL is send to the recipient.
+	 *
+	 * @param filename
+	 * @param size
+	 * @param description
+	 * @param to
+	 * @return the ParcelFileDescriptor to write the file to
+	 * @throws IOException
+	 */
+	public ParcelFileDescriptor upload(final String filename, final long size,
+			final String description, final EntityFullJid to) throws IOException {
+		final Slot slot;
+		try {
+			slot = HttpFileUploadManager.getInstanceFor(mConnection).requestSlot(filename, size);
+		} catch (XMPPErrorException | SmackException | InterruptedException e) {
+			throw new IOException("Could not request upload slot", e);
+		}
+
+		ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
+		final CountingInputStream is = new CountingInputStream(
+				new ParcelFileDescriptor.AutoCloseInputStream(pipe[0]));
+
+		new Thread("MAXS XMPP HTTP File Upload") {
+			@Override
+			public void run() {
+				final long start = SystemClock.elapsedRealtime();
+				try {
+					put(slot.getPutUrl(), slot.getHeaders(), is, size);
+				} catch (IOException e) {
+					if (is.getCount() == 0) {
+						// Nothing was read from the pipe yet, the file can still be send by other
+						// means
+						LOG.w("upload: PUT to " + slot.getPutUrl() + " failed, using S5B", e);
+						mFileTransfer.sendStream(is, filename, size, description, to);
+						return;
+					}
+					LOG.e("upload: PUT to " + slot.getPutUrl() + " failed", e);
+					close(is);
+					sendMessage(to, "Could not upload " + filename + ": " + e.getMessage());
+					return;
+				}
+				close(is);
+
+				final long millis = SystemClock.elapsedRealtime() - start;
+				mLinkEstimator.addThroughputSample(size, millis);
+				XMPPFileTransfer.recordOutgoingTransfer(XMPPFileTransfer.Method.HttpFileUpload,
+						size, millis);
+
+				String url = slot.getGetUrl().toString();
+				if (description != null && !description.isEmpty()) {
+					sendMessage(to, description + ": " + url);
+				} else {
+					sendMessage(to, url);
+				}
+			}
+		}.start();
+
+		return pipe[1];
+	}
+
+	private void sendMessage(EntityFullJid to, String body) {
+		Message message = new Message(to, Message.Type.chat);
+		message.setBody(body);
+		MAXSElement.addTo(message);
+		try {
+			mConnection.sendStanza(message);
+		} catch (NotConnectedException | InterruptedException e) {
+			LOG.e("sendMessage: could not send message to " + to, e);
+		}
+	}
+
+	private static void close(InputStream is) {
+		try {
+			is.close();
+		} catch (IOException e) {
+			LOG.w("upload: could not close input stream", e);
+		}
+	}
+
+	/**
+	 * Stream exactly size bytes from the given input stream to the given URL using HTTP PUT.
+	 *
+	 * @param putUrl
+	 * @param headers
+	 *            additional HTTP headers, may be null
+	 * @param is
+	 * @param size
+	 * @throws IOException
+	 */
+	static void put(URL putUrl, Map<String, String> headers, InputStream is, long size)
+			throws IOException {
+		HttpURLConnection urlConnection = (HttpURLConnection) putUrl.openConnection();
+		try {
+			urlConnection.setRequestMethod("PUT");
+			urlConnection.setUseCaches(false);
+			urlConnection.setDoOutput(true);
+			urlConnection.setConnectTimeout(HTTP_TIMEOUT_MILLIS);
+			urlConnection.setReadTimeout(HTTP_TIMEOUT_MILLIS);
+			// Stream the file instead of buffering it in memory. Android's setFixedLengthStreamingMode(long)
+			// requires API 19, so use the int variant if possible.
+			if (size <= Integer.MAX_VALUE) {
+				urlConnection.setFixedLengthStreamingMode((int) size);
+			} else {
+				urlConnection.setChunkedStreamingMode(BUFFER_SIZE);
+			}
+			urlConnection.setRequestProperty("Content-Type", "application/octet-stream");
+			if (headers != null) {
+				for (Map.Entry<String, String> header : headers.entrySet()) {
+					urlConnection.setRequestProperty(header.getKey(), header.getValue());
+				}
+			}
+
+			OutputStream os = urlConnection.getOutputStream();
+			try {
+				byte[] buf = new byte[BUFFER_SIZE];
+				long remaining = size;
+				int len;
+				while (remaining > 0
+						&& (len = is.read(buf, 0, (int) Math.min(buf.length, remaining))) > 0) {
+					os.write(buf, 0, len);
+					remaining -= len;
+				}
+				if (remaining > 0) {
+					throw new IOException("Premature end of file, " + remaining + " bytes missing");
+				}
+			} finally {
+				os.close();
+			}
+
+			// Any 2xx status means success, XEP-0363 servers usually reply with 201 Created
+			int status = urlConnection.getResponseCode();
+			if (status < 200 || status >= 300) {
+				throw new IOException("HTTP PUT failed with status " + status + ' '
+						+ urlConnection.getResponseMessage());
+			}
+		} finally {
+			urlConnection.disconnect();
+		}
+	}
+
+	/**
+	 * Counts the bytes read, so that it is known if the stream can still be send by other means.
+	 */
+	private static final class CountingInputStream extends FilterInputStream {
+		private volatile long mCount;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int res = super.read();
+			if (res >= 0) mCount++;
+			return res;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int res = super.read(b, off, len);
+			if (res > 0) mCount += res;
+			return res;
+		}
+
+		long getCount() {
+			return mCount;
+		}
+	}
+}
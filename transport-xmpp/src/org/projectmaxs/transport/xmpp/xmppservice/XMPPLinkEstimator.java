@@ -0,0 +1,370 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.transport.xmpp.xmppservice;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.jivesoftware.smack.SmackConfiguration;
+import org.jivesoftware.smack.StanzaListener;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.filter.StanzaFilter;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.jivesoftware.smack.util.StringUtils;
+import org.projectmaxs.shared.global.util.Log;
+
+import android.os.SystemClock;
+
+/**
+ * Estimates the quality of the link to the XMPP service. Round-trip time samples are taken from
+ * ping replies and from XEP-198: Stream Management acknowledgements we explicitly requested,
+ * throughput samples from acknowledged messages with large bodies and from file transfers. The
+ * round-trip time is smoothed as described in RFC 6298.
+ * <p>
+ * Acknowledgements are only requested for a sample of the send messages, and for at most one
+ * message at a time, so that they do not double the number of stanzas on the wire.
+ * </p>
+ * <p>
+ * The estimate is used to derive the reply timeout of the connection, the number of failed pings
+ * that are tolerated before reconnecting and the file transfer strategy.
+ * </p>
+ */
+public class XMPPLinkEstimator extends StateChangeListener {
+
+	private static final Log LOG = Log.getLog();
+
+	public enum Quality {
+		Unknown, Good, Moderate, Poor,
+	}
+
+	/**
+	 * Messages with a body smaller than this are not used as throughput samples, as their
+	 * round-trip time is dominated by latency.
+	 */
+	private static final int MIN_THROUGHPUT_SAMPLE_BYTES = 4 * 1024;
+
+	/**
+	 * Request an acknowledgement after at most this many messages.
+	 */
+	private static final int ACK_REQUEST_MESSAGES = 10;
+
+	/**
+	 * Request an acknowledgement of the next message if the last request is at least this old,
+	 * regardless of the number of messages send since.
+	 */
+	private static final long ACK_REQUEST_INTERVAL_MILLIS = 60 * 1000;
+
+	private static final long GOOD_RTT_MILLIS = 500;
+	private static final long MODERATE_RTT_MILLIS = 2000;
+
+	private static final long MIN_RTO_MILLIS = 1000;
+	private static final long MIN_FAST_PING_TIMEOUT_MILLIS = 1500;
+	private static final long MAX_FAST_PING_TIMEOUT_MILLIS = 15 * 1000;
+
+	/**
+	 * The lower bound of the reply timeout. Outgoing stanzas may be deferred by bundle and defer,
+	 * so the reply timeout must always be greater then the highest defer value.
+	 */
+	private static final long MIN_REPLY_TIMEOUT_MILLIS = XMPPBundleAndDefer.INACTIVE_STATE_DEFER_MILLIS
+			+ 7 * 1000;
+
+	private final Set<QualityChangedListener> mQualityChangedListeners = new CopyOnWriteArraySet<QualityChangedListener>();
+
+	/**
+	 * Guards the state of the acknowledgement requests. Only used if stream management is enabled.
+	 */
+	private final Object mAckLock = new Object();
+
+	/**
+	 * The stanza ID of the message whose acknowledgement we requested and did not receive yet, or
+	 * null.
+	 */
+	private String mPendingAckId;
+	private long mPendingAckSentAt;
+	private long mPendingAckSize;
+	private long mLastAckRequestAt;
+	private int mMessagesSinceAckRequest;
+
+	private long mSmoothedRttMillis = -1;
+	private long mRttVarianceMillis;
+	private long mThroughputBytesPerSecond = -1;
+	private Quality mQuality = Quality.Unknown;
+
+	private XMPPConnection mConnection;
+
+	public void addQualityChangedListener(QualityChangedListener listener) {
+		mQualityChangedListeners.add(listener);
+	}
+
+	/**
+	 * Add a round-trip time sample, e.g. the time it took to receive a ping reply.
+	 *
+	 * @param rttMillis
+	 */
+	public void addRttSample(long rttMillis) {
+		synchronized (this) {
+			if (mSmoothedRttMillis < 0) {
+				mSmoothedRttMillis = rttMillis;
+				mRttVarianceMillis = rttMillis / 2;
+			} else {
+				// RFC 6298 2.3: alpha = 1/8, beta = 1/4
+				mRttVarianceMillis = (3 * mRttVarianceMillis
+						+ Math.abs(mSmoothedRttMillis - rttMillis)) / 4;
+				mSmoothedRttMillis = (7 * mSmoothedRttMillis + rttMillis) / 8;
+			}
+		}
+		estimateChanged();
+	}
+
+	/**
+	 * Add a throughput sample.
+	 *
+	 * @param bytes
+	 *            the number of bytes transferred
+	 * @param millis
+	 *            the time it took to transfer the bytes
+	 */
+	public void addThroughputSample(long bytes, long millis) {
+		if (millis <= 0) return;
+		final long sample = bytes * 1000 / millis;
+		synchronized (this) {
+			if (mThroughputBytesPerSecond < 0) {
+				mThroughputBytesPerSecond = sample;
+			} else {
+				mThroughputBytesPerSecond = (3 * mThroughputBytesPerSecond + sample) / 4;
+			}
+		}
+		estimateChanged();
+	}
+
+	public synchronized long getSmoothedRttMillis() {
+		return mSmoothedRttMillis;
+	}
+
+	/**
+	 * Get the estimated throughput.
+	 *
+	 * @return the throughput in bytes per second or -1 if unknown
+	 */
+	public synchronized long getThroughputBytesPerSecond() {
+		return mThroughputBytesPerSecond;
+	}
+
+	public synchronized Quality getQuality() {
+		return mQuality;
+	}
+
+	/**
+	 * Get the retransmission timeout as defined in RFC 6298.
+	 *
+	 * @return the retransmission timeout in milliseconds or -1 if there is no estimate
+	 */
+	public synchronized long getRtoMillis() {
+		if (mSmoothedRttMillis < 0) return -1;
+		return Math.max(mSmoothedRttMillis + 4 * mRttVarianceMillis, MIN_RTO_MILLIS);
+	}
+
+	/**
+	 * Get the timeout used for stanzas that expect a reply.
+	 *
+	 * @return the reply timeout in milliseconds
+	 */
+	public long getReplyTimeout() {
+		final long defaultReplyTimeout = SmackConfiguration.getDefaultReplyTimeout();
+		final long rto = getRtoMillis();
+		if (rto < 0) return defaultReplyTimeout;
+		return Math.min(MIN_REPLY_TIMEOUT_MILLIS + 4 * rto, defaultReplyTimeout);
+	}
+
+	/**
+	 * Get the timeout used to quickly check if the connection is still alive.
+	 *
+	 * @return the fast ping timeout in milliseconds
+	 */
+	public long getFastPingTimeout() {
+		final long rto = getRtoMillis();
+		if (rto < 0) return MIN_FAST_PING_TIMEOUT_MILLIS;
+		return Math.min(Math.max(2 * rto, MIN_FAST_PING_TIMEOUT_MILLIS),
+				MAX_FAST_PING_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * Get the number of consecutive failed pings after which the connection is considered dead.
+	 *
+	 * @return the ping failure threshold
+	 */
+	public int getPingFailureThreshold() {
+		switch (getQuality()) {
+		case Moderate:
+			return 2;
+		case Poor:
+			return 3;
+		default:
+			return 1;
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("link ").append(mQuality.name().toLowerCase(Locale.US));
+		if (mSmoothedRttMillis >= 0) sb.append(", rtt ").append(mSmoothedRttMillis).append("ms");
+		if (mThroughputBytesPerSecond >= 0)
+			sb.append(", ").append(mThroughputBytesPerSecond / 1024).append("KiB/s");
+		return sb.toString();
+	}
+
+	@Override
+	public void newConnection(final XMPPConnection newConnection) {
+		if (!(newConnection instanceof XMPPTCPConnection)) {
+			return;
+		}
+		final XMPPTCPConnection connection = (XMPPTCPConnection) newConnection;
+
+		// Servers may delay their acknowledgements, so only acknowledgements of messages which are
+		// immediately followed by an ack request are used as samples
+		connection.addRequestAckPredicate(new StanzaFilter() {
+			@Override
+			public boolean accept(Stanza stanza) {
+				if (!(stanza instanceof Message)) return false;
+				// Deferred stanzas would inflate the round-trip time
+				if (XMPPBundleAndDefer.getLastDeferMillis() > XMPPBundleAndDefer.ACTIVE_STATE_DEFER_MILLIS)
+					return false;
+				final String id = stanza.getStanzaId();
+				if (StringUtils.isNullOrEmpty(id)) return false;
+				final String body = ((Message) stanza).getBody();
+				final long size = body == null ? 0 : body.length();
+				// Outside of mAckLock, as both synchronize on the estimator
+				final boolean noEstimate = getSmoothedRttMillis() < 0;
+				final long replyTimeout = getReplyTimeout();
+				final long now = SystemClock.elapsedRealtime();
+				synchronized (mAckLock) {
+					mMessagesSinceAckRequest++;
+					// An acknowledgement that did not arrive within the reply timeout is not
+					// going to be used as sample
+					if (mPendingAckId != null && now - mPendingAckSentAt < replyTimeout)
+						return false;
+					if (!noEstimate && size < MIN_THROUGHPUT_SAMPLE_BYTES
+							&& mMessagesSinceAckRequest < ACK_REQUEST_MESSAGES
+							&& now - mLastAckRequestAt < ACK_REQUEST_INTERVAL_MILLIS)
+						return false;
+					mPendingAckId = id;
+					mPendingAckSentAt = now;
+					mPendingAckSize = size;
+					mLastAckRequestAt = now;
+					mMessagesSinceAckRequest = 0;
+				}
+				return true;
+			}
+		});
+
+		connection.addStanzaAcknowledgedListener(new StanzaListener() {
+			@Override
+			public void processStanza(Stanza stanza) {
+				final String id = stanza.getStanzaId();
+				if (StringUtils.isNullOrEmpty(id)) return;
+				final long rtt;
+				final long size;
+				synchronized (mAckLock) {
+					if (!id.equals(mPendingAckId)) return;
+					rtt = SystemClock.elapsedRealtime() - mPendingAckSentAt;
+					size = mPendingAckSize;
+					mPendingAckId = null;
+				}
+				if (size >= MIN_THROUGHPUT_SAMPLE_BYTES) {
+					addThroughputSample(size, rtt);
+				}
+				addRttSample(rtt);
+			}
+		});
+	}
+
+	@Override
+	public void connected(XMPPConnection connection) {
+		synchronized (this) {
+			mConnection = connection;
+		}
+		applyReplyTimeout();
+	}
+
+	@Override
+	public void disconnected(XMPPConnection connection) {
+		synchronized (this) {
+			mConnection = null;
+		}
+		synchronized (mAckLock) {
+			mPendingAckId = null;
+		}
+	}
+
+	@Override
+	public void waitingForNetwork() {
+		// The next network may have totally different characteristics
+		reset();
+	}
+
+	private void reset() {
+		synchronized (this) {
+			mSmoothedRttMillis = -1;
+			mRttVarianceMillis = 0;
+			mThroughputBytesPerSecond = -1;
+		}
+		estimateChanged();
+	}
+
+	private void estimateChanged() {
+		final Quality oldQuality;
+		final Quality newQuality;
+		synchronized (this) {
+			oldQuality = mQuality;
+			if (mSmoothedRttMillis < 0) {
+				newQuality = Quality.Unknown;
+			} else if (mSmoothedRttMillis <= GOOD_RTT_MILLIS) {
+				newQuality = Quality.Good;
+			} else if (mSmoothedRttMillis <= MODERATE_RTT_MILLIS) {
+				newQuality = Quality.Moderate;
+			} else {
+				newQuality = Quality.Poor;
+			}
+			mQuality = newQuality;
+		}
+		applyReplyTimeout();
+		if (oldQuality == newQuality) return;
+
+		LOG.d("estimateChanged: " + oldQuality + " -> " + newQuality + " (" + this + ')');
+		for (QualityChangedListener l : mQualityChangedListeners) {
+			l.qualityChanged(this);
+		}
+	}
+
+	private void applyReplyTimeout() {
+		final XMPPConnection connection;
+		synchronized (this) {
+			connection = mConnection;
+		}
+		if (connection == null) return;
+		connection.setReplyTimeout(getReplyTimeout());
+	}
+
+	public interface QualityChangedListener {
+		public void qualityChanged(XMPPLinkEstimator estimator);
+	}
+}
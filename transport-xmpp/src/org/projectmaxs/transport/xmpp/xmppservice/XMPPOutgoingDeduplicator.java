@@ -0,0 +1,167 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.transport.xmpp.xmppservice;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jivesoftware.smack.StanzaListener;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.filter.StanzaTypeFilter;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.jivesoftware.smack.util.StringUtils;
+import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.shared.global.util.Metrics;
+import org.projectmaxs.transport.xmpp.database.MessagesTable;
+import org.projectmaxs.transport.xmpp.database.SendUnackedStanzasTable;
+import org.projectmaxs.transport.xmpp.smack.stanza.MAXSElement;
+
+import android.os.SystemClock;
+
+/**
+ * Suppresses replayed outgoing messages that already reached the recipient. Messages are replayed
+ * from two places after a reconnect: the {@link SendUnackedStanzasTable} and the
+ * {@link MessagesTable}. Both are unaware of each other and of the stanzas Smack re-sends when the
+ * stream is resumed, so the same message could be received multiple times.
+ * <p>
+ * Every outgoing MAXS message is remembered by its stanza ID for a bounded time. The ID is
+ * assigned when the message is enqueued and persisted together with the message, so that a replay
+ * carries the same ID as the original. A replayed message is considered a duplicate if it was
+ * either acknowledged by the server or if it was already sent since the current connection attempt
+ * began. Messages with equal content but different IDs are never considered duplicates.
+ * </p>
+ */
+public class XMPPOutgoingDeduplicator extends StateChangeListener {
+
+	private static final Log LOG = Log.getLog();
+
+	private static final long WINDOW_MILLIS = 10 * 60 * 1000;
+	private static final int MAX_ENTRIES = 256;
+
+	private static final Metrics.Counter SUPPRESSED = Metrics
+			.counter("xmpp.duplicates_suppressed");
+	private static final Metrics.Gauge SUPPRESSED_LAST_CONNECTION = Metrics
+			.gauge("xmpp.duplicates_suppressed_last_connection");
+
+	private final Map<String, Sent> mSentById = new BoundedMap();
+
+	private final AtomicInteger mSuppressedThisConnection = new AtomicInteger();
+
+	private int mGeneration;
+
+	/**
+	 * Check if the given replayed message has already been delivered. If so, the message is
+	 * counted as suppressed.
+	 *
+	 * @param message
+	 * @return true if the message should not be send again
+	 */
+	public boolean isDuplicate(Message message) {
+		final long now = SystemClock.elapsedRealtime();
+		final String id = message.getStanzaId();
+		if (StringUtils.isNullOrEmpty(id)) return false;
+		boolean duplicate;
+		synchronized (this) {
+			duplicate = isDuplicate(mSentById.get(id), now);
+		}
+		if (duplicate) {
+			mSuppressedThisConnection.incrementAndGet();
+			SUPPRESSED.inc();
+			LOG.d("isDuplicate: suppressing replay of message with id " + id);
+		}
+		return duplicate;
+	}
+
+	@Override
+	public void newConnection(final XMPPConnection newConnection) {
+		newConnection.addPacketSendingListener(new StanzaListener() {
+			@Override
+			public void processStanza(Stanza stanza) {
+				if (!MAXSElement.foundIn(stanza)) return;
+				record((Message) stanza);
+			}
+		}, StanzaTypeFilter.MESSAGE);
+
+		if (!(newConnection instanceof XMPPTCPConnection)) {
+			return;
+		}
+		((XMPPTCPConnection) newConnection).addStanzaAcknowledgedListener(new StanzaListener() {
+			@Override
+			public void processStanza(Stanza stanza) {
+				final String id = stanza.getStanzaId();
+				if (StringUtils.isNullOrEmpty(id)) return;
+				synchronized (XMPPOutgoingDeduplicator.this) {
+					Sent sent = mSentById.get(id);
+					if (sent != null) sent.mAcked = true;
+				}
+			}
+		});
+	}
+
+	@Override
+	public void connecting() {
+		// Stanzas re-sent by Smack on stream resumption happen before connected() is invoked,
+		// hence start the new generation here.
+		synchronized (this) {
+			mGeneration++;
+		}
+		final int suppressed = mSuppressedThisConnection.getAndSet(0);
+		SUPPRESSED_LAST_CONNECTION.set(suppressed);
+		if (suppressed > 0) {
+			LOG.i("connecting: suppressed " + suppressed + " duplicate messages on last connection, "
+					+ SUPPRESSED.get() + " in total");
+		}
+	}
+
+	private void record(Message message) {
+		final String id = message.getStanzaId();
+		if (StringUtils.isNullOrEmpty(id)) return;
+		synchronized (this) {
+			mSentById.put(id, new Sent(SystemClock.elapsedRealtime(), mGeneration));
+		}
+	}
+
+	private boolean isDuplicate(Sent sent, long now) {
+		if (sent == null) return false;
+		if (now - sent.mTime > WINDOW_MILLIS) return false;
+		return sent.mAcked || sent.mGeneration == mGeneration;
+	}
+
+	private static class Sent {
+		final long mTime;
+		final int mGeneration;
+		boolean mAcked;
+
+		Sent(long time, int generation) {
+			mTime = time;
+			mGeneration = generation;
+		}
+	}
+
+	private static class BoundedMap extends LinkedHashMap<String, Sent> {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Sent> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+/*
+    This file is part of Project MAXS.
+
+    MAXS and its modules is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    MAXS is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with MAXS.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.projectmaxs.transport.xmpp.xmppservice;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.packet.id.StanzaIdUtil;
+import org.jivesoftware.smack.util.Async;
+import org.projectmaxs.shared.global.Message;
+import org.projectmaxs.shared.global.util.LatencyHistogram;
+import org.projectmaxs.shared.global.util.Log;
+import org.projectmaxs.shared.global.util.Metrics;
+import org.projectmaxs.shared.maintransport.CommandOrigin;
+import org.projectmaxs.transport.xmpp.database.MessagesTable;
+import org.projectmaxs.transport.xmpp.util.Constants;
+
+import android.os.SystemClock;
+
+/**
+ * A bounded in-memory queue for outgoing messages. Senders only ever enqueue, they never wait for
+ * the connection to become established. The queue is drained by a separate thread as soon as the
+ * XMPP stream is bound. Messages are only written to the {@link MessagesTable} if the queue
+ * overflows or if the transport is shut down. Those writes are also performed by a separate thread,
+ * in the order the messages were spilled.
+ */
+public class XMPPOutgoingQueue extends StateChangeListener {
+
+	private static final Log LOG = Log.getLog();
+
+	/**
+	 * The maximum number of messages held in memory. Further messages will be spilled to the
+	 * database.
+	 */
+	public static final int CAPACITY = 256;
+
+	private static final Metrics.Gauge DEPTH = Metrics.gauge("xmpp.outgoing_queue_depth");
+	private static final Metrics.Counter SENT = Metrics.counter("xmpp.outgoing_queue_sent");
+	private static final Metrics.Counter SPILLED = Metrics.counter("xmpp.outgoing_queue_spilled");
+	private static final LatencyHistogram LATENCY = Metrics
+			.histogram("xmpp.outgoing_queue_latency");
+
+	private final LinkedBlockingDeque<Entry> mQueue = new LinkedBlockingDeque<Entry>(CAPACITY);
+
+	/**
+	 * True if there is currently a drain thread running.
+	 */
+	private final AtomicBoolean mDraining = new AtomicBoolean();
+
+	/**
+	 * The messages waiting to be written to the database.
+	 */
+	private final Queue<Entry> mSpillQueue = new ConcurrentLinkedQueue<Entry>();
+
+	/**
+	 * True if there is currently a spill thread running.
+	 */
+	private final AtomicBoolean mSpilling = new AtomicBoolean();
+
+	private final XMPPService mXMPPService;
+	private final MessagesTable mMessagesTable;
+
+	private final Runnable mDrainRunnable = new Runnable() {
+		@Override
+		public void run() {
+			do {
+				try {
+					drain();
+				} finally {
+					mDraining.set(false);
+				}
+				// Re-check the queue, a message could have been enqueued after drain() returned
+				// but before mDraining was reset.
+			} while (!mQueue.isEmpty() && mXMPPService.isConnected()
+					&& mDraining.compareAndSet(false, true));
+		}
+	};
+
+	private final Runnable mSpillRunnable = new Runnable() {
+		@Override
+		public void run() {
+			do {
+				try {
+					Entry entry;
+					while ((entry = mSpillQueue.poll()) != null) {
+						writeToDatabase(entry);
+					}
+				} finally {
+					mSpilling.set(false);
+				}
+				// Re-check the queue, see mDrainRunnable
+			} while (!mSpillQueue.isEmpty() && mSpilling.compareAndSet(false, true));
+		}
+	};
+
+	protected XMPPOutgoingQueue(XMPPService xmppService) {
+		mXMPPService = xmppService;
+		mMessagesTable = MessagesTable.getInstance(xmppService.getContext());
+	}
+
+	/**
+	 * Enqueue a message for sending. This method never blocks on the connection.
+	 *
+	 * @param message
+	 * @param origin
+	 *            the origin of the message, may be null for broadcasts
+	 * @param stanzaId
+	 *            the stanza ID the message was send with before, or null if a new ID should be
+	 *            assigned
+	 * @param replay
+	 *            true if the message was restored from the database
+	 */
+	public void enqueue(Message message, CommandOrigin origin, String stanzaId, boolean replay) {
+		if (stanzaId == null) stanzaId = StanzaIdUtil.newStanzaId();
+		Entry entry = new Entry(message, origin, stanzaId, replay);
+		switch (mXMPPService.getCurrentState()) {
+		case Disconnected:
+		case Disconnecting:
+			// The transport is not going to connect any time soon, persist the message right away
+			spill(entry);
+			return;
+		default:
+			break;
+		}
+		if (!mQueue.offerLast(entry)) {
+			LOG.w("enqueue: queue full, spilling message to database");
+			spill(entry);
+			return;
+		}
+		DEPTH.set(mQueue.size());
+		scheduleDrain();
+	}
+
+	/**
+	 * Move all queued messages to the database. Invoked when the transport is shut down. Like all
+	 * spilled messages, they are written by a separate thread.
+	 */
+	public void spillAll() {
+		int count = 0;
+		Entry entry;
+		while ((entry = mQueue.pollFirst()) != null) {
+			spill(entry);
+			count++;
+		}
+		DEPTH.set(0);
+		if (count > 0) LOG.d("spillAll: spilled " + count + " messages to database");
+	}
+
+	@Override
+	public void connected(XMPPConnection connection) {
+		scheduleDrain();
+	}
+
+	private void scheduleDrain() {
+		if (mQueue.isEmpty() || !mXMPPService.isConnected()) return;
+		if (!mDraining.compareAndSet(false, true)) return;
+		Async.go(mDrainRunnable, "MAXS XMPP outgoing queue drain");
+	}
+
+	private void drain() {
+		Entry entry;
+		while ((entry = mQueue.pollFirst()) != null) {
+			if (!mXMPPService.shouldUseXmppConnection()) {
+				// Lost the connection, put the entry back and wait for the next connected() call
+				if (!mQueue.offerFirst(entry)) spill(entry);
+				return;
+			}
+			DEPTH.set(mQueue.size());
+			LATENCY.record(SystemClock.elapsedRealtime() - entry.mEnqueuedAt);
+			SENT.inc();
+			mXMPPService.sendNow(entry.mMessage, entry.mOrigin, entry.mStanzaId, entry.mReplay);
+		}
+		if (LOG.isDebugLogEnabled()) {
+			LOG.d("drain: queue empty. sent=" + SENT.get() + " spilled=" + SPILLED.get()
+					+ " latency: " + LATENCY);
+		}
+	}
+
+	/**
+	 * Hand the entry to the spill thread. The caller of enqueue() may be the main thread, which must
+	 * not perform the database I/O.
+	 *
+	 * @param entry
+	 */
+	private void spill(Entry entry) {
+		mSpillQueue.add(entry);
+		if (!mSpilling.compareAndSet(false, true)) return;
+		Async.go(mSpillRunnable, "MAXS XMPP outgoing queue spill");
+	}
+
+	private void writeToDatabase(Entry entry) {
+		String action = Constants.ACTION_SEND_AS_MESSAGE;
+		String originIssuerInfo = null;
+		String originId = null;
+		if (entry.mOrigin != null) {
+			action = entry.mOrigin.getIntentAction();
+			originIssuerInfo = entry.mOrigin.getOriginIssuerInfo();
+			originId = entry.mOrigin.getOriginId();
+		}
+		mMessagesTable.addMessage(entry.mMessage, action, originIssuerInfo, originId,
+				entry.mStanzaId);
+		SPILLED.inc();
+	}
+
+	private static class Entry {
+		final Message mMessage;
+		final CommandOrigin mOrigin;
+		final String mStanzaId;
+		final boolean mReplay;
+		final long mEnqueuedAt;
+
+		Entry(Message message, CommandOrigin origin, String stanzaId, boolean replay) {
+			mMessage = message;
+			mOrigin = origin;
+			mStanzaId = stanzaId;
+			mReplay = replay;
+			mEnqueuedAt = SystemClock.elapsedRealtime();
+		}
+	}
+}
@@ -17,11 +17,17 @@
 
 package org.projectmaxs.transport.xmpp.xmppservice;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jivesoftware.smack.SmackException.NotConnectedException;
 import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.util.Async;
 import org.jivesoftware.smackx.ping.PingFailedListener;
 import org.jivesoftware.smackx.ping.PingManager;
 import org.projectmaxs.shared.global.util.Log;
 
+import android.os.SystemClock;
+
 public class XMPPPingManager extends StateChangeListener implements PingFailedListener {
 
 	public static final int PING_INTERVAL_SECONDS = 60 * 30; // 30 minutes
@@ -34,12 +40,18 @@ public class XMPPPingManager extends StateChangeListener implements PingFailedLi
 
 	private final XMPPService mXMPPService;
 
+	/**
+	 * The number of consecutive failed pings.
+	 */
+	private final AtomicInteger mFailedPings = new AtomicInteger();
+
 	protected XMPPPingManager(XMPPService service) {
 		mXMPPService = service;
 	}
 
 	@Override
 	public void connected(XMPPConnection connection) {
+		mFailedPings.set(0);
 		PingManager.getInstanceFor(connection).registerPingFailedListener(this);
 	}
 
@@ -50,8 +62,40 @@ public class XMPPPingManager extends StateChangeListener implements PingFailedLi
 
 	@Override
 	public void pingFailed() {
-		LOG.w("ping failed: issuing reconnect");
-		mXMPPService.reconnect();
+		final XMPPLinkEstimator linkEstimator = mXMPPService.getLinkEstimator();
+		final int failedPings = mFailedPings.incrementAndGet();
+		final int threshold = linkEstimator.getPingFailureThreshold();
+		if (failedPings >= threshold) {
+			LOG.w("ping failed " + failedPings + " times: issuing reconnect");
+			mFailedPings.set(0);
+			mXMPPService.reconnect();
+			return;
+		}
+
+		// The link is known to be slow, give the connection another chance before reconnecting
+		LOG.i("ping failed " + failedPings + " of " + threshold + " times (" + linkEstimator
+				+ "), retrying");
+		final XMPPConnection connection = mXMPPService.getConnection();
+		if (connection == null) return;
+		Async.go(new Runnable() {
+			@Override
+			public void run() {
+				final PingManager pingManager = PingManager.getInstanceFor(connection);
+				final long start = SystemClock.elapsedRealtime();
+				boolean success;
+				try {
+					success = pingManager.pingMyServer(false, linkEstimator.getReplyTimeout());
+				} catch (InterruptedException | NotConnectedException e) {
+					success = false;
+				}
+				if (success) {
+					linkEstimator.addRttSample(SystemClock.elapsedRealtime() - start);
+					mFailedPings.set(0);
+				} else {
+					pingFailed();
+				}
+			}
+		}, "MAXS XMPP ping retry");
 	}
 
 }
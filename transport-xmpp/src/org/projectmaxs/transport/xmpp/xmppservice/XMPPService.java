@@ -66,13 +66,14 @@ import org.jxmpp.jid.Jid;
 import org.jxmpp.jid.impl.JidCreate;
 import org.jxmpp.stringprep.XmppStringprepException;
 import org.projectmaxs.shared.global.GlobalConstants;
+import org.projectmaxs.shared.global.TraceContext;
 import org.projectmaxs.shared.global.util.FileUtil;
 import org.projectmaxs.shared.global.util.Log;
 import org.projectmaxs.shared.maintransport.CommandOrigin;
 import org.projectmaxs.shared.maintransport.CurrentStatus;
-import org.projectmaxs.shared.maintransport.TransportConstants;
+import org.projectmaxs.shared.transport.MAXSTransportService;
 import org.projectmaxs.shared.transport.PrngFixes;
-import org.projectmaxs.shared.transport.transform.TransformMessageContent;
+import org.projectmaxs.shared.transport.transform.MessageRenderer;
 import org.projectmaxs.transport.xmpp.Settings;
 import org.projectmaxs.transport.xmpp.database.MessagesTable;
 import org.projectmaxs.transport.xmpp.smack.provider.MAXSElementProvider;
@@ -82,10 +83,9 @@ import org.projectmaxs.transport.xmpp.util.Constants;
 import org.projectmaxs.transport.xmpp.util.XHTMLIMUtil;
 
 import android.annotation.SuppressLint;
-import android.content.ComponentName;
 import android.content.Context;
-import android.content.Intent;
 import android.os.Handler;
+import android.os.SystemClock;
 
 public class XMPPService {
 	private static final Log LOG = Log.getLog();
@@ -99,6 +99,10 @@ public class XMPPService {
 	private final MessagesTable mMessagesTable;
 	private final Context mContext;
 	private final HandleTransportStatus mHandleTransportStatus;
+	private final XMPPOutgoingQueue mOutgoingQueue;
+	private final XMPPOutgoingDeduplicator mOutgoingDeduplicator;
+	private final XMPPLinkEstimator mLinkEstimator;
+	private final XMPPFileTransfer mFileTransfer;
 
 	private XMPPStatus mXMPPStatus;
 	private State mState = State.Disconnected;
@@ -195,16 +199,23 @@ public class XMPPService {
 		mSettings = Settings.getInstance(context);
 		mMessagesTable = MessagesTable.getInstance(context);
 
+		mOutgoingDeduplicator = new XMPPOutgoingDeduplicator();
 		// SendStanzaDatabaseHandler should be the first
 		addListener(new SendStanzaDatabaseHandler(this));
+		addListener(mOutgoingDeduplicator);
+		mLinkEstimator = new XMPPLinkEstimator();
+		addListener(mLinkEstimator);
 		addListener(new HandleChatPacketListener(this));
 		addListener(new HandleConnectionListener(this));
 		addListener(new HandleMessagesListener(this));
+		mOutgoingQueue = new XMPPOutgoingQueue(this);
+		addListener(mOutgoingQueue);
 		addListener(new XMPPPingManager(this));
-		addListener(new XMPPFileTransfer(context));
+		mFileTransfer = new XMPPFileTransfer(context, mLinkEstimator);
+		addListener(mFileTransfer);
 		addListener(new XMPPPrivacyList(mSettings));
 
-		mHandleTransportStatus = new HandleTransportStatus(context);
+		mHandleTransportStatus = new HandleTransportStatus(context, mLinkEstimator);
 		addListener(mHandleTransportStatus);
 		XMPPRoster xmppRoster = new XMPPRoster(mSettings);
 		addListener(xmppRoster);
@@ -228,6 +239,22 @@ public class XMPPService {
 		return mHandleTransportStatus;
 	}
 
+	public XMPPLinkEstimator getLinkEstimator() {
+		return mLinkEstimator;
+	}
+
+	public XMPPFileTransfer getFileTransfer() {
+		return mFileTransfer;
+	}
+
+	public XMPPOutgoingQueue getOutgoingQueue() {
+		return mOutgoingQueue;
+	}
+
+	public XMPPOutgoingDeduplicator getOutgoingDeduplicator() {
+		return mOutgoingDeduplicator;
+	}
+
 	public void addListener(StateChangeListener listener) {
 		mStateChangeListeners.add(listener);
 	}
@@ -244,6 +271,8 @@ public class XMPPService {
 
 	public void disconnect() {
 		changeState(XMPPService.State.Disconnected);
+		// The transport is going down, persist what is still queued
+		mOutgoingQueue.spillAll();
 	}
 
 	public void instantDisconnect() {
@@ -287,11 +316,38 @@ public class XMPPService {
 		}
 	}
 
+	/**
+	 * Send a message from MAXS. This method does not block, the message is added to the outgoing
+	 * queue, which gets drained once the connection is established.
+	 *
+	 * @param message
+	 * @param origin
+	 *            the origin of the message, may be null for broadcasts
+	 */
 	public void send(org.projectmaxs.shared.global.Message message, CommandOrigin origin) {
+		mOutgoingQueue.enqueue(message, origin, null, false);
+	}
+
+	/**
+	 * Send a message that was persisted because it could not be send before. The message is
+	 * dropped if it is found to be already delivered.
+	 *
+	 * @param message
+	 * @param origin
+	 * @param stanzaId
+	 *            the stanza ID the message was persisted with, may be null
+	 */
+	void resend(org.projectmaxs.shared.global.Message message, CommandOrigin origin,
+			String stanzaId) {
+		mOutgoingQueue.enqueue(message, origin, stanzaId, true);
+	}
+
+	void sendNow(org.projectmaxs.shared.global.Message message, CommandOrigin origin,
+			String stanzaId, boolean replay) {
 		// If the origin is null, then we are receiving a broadcast message from
 		// main. TODO document that origin can be null
 		if (origin == null) {
-			sendAsMessage(message, null, null);
+			sendAsMessage(message, null, null, stanzaId, replay);
 			return;
 		}
 
@@ -300,7 +356,7 @@ public class XMPPService {
 		String originIssuerInfo = origin.getOriginIssuerInfo();
 
 		if (Constants.ACTION_SEND_AS_MESSAGE.equals(action)) {
-			sendAsMessage(message, originIssuerInfo, originId);
+			sendAsMessage(message, originIssuerInfo, originId, stanzaId, replay);
 		} else if (Constants.ACTION_SEND_AS_IQ.equals(action)) {
 			sendAsIQ(message, originIssuerInfo, originId);
 		} else {
@@ -317,7 +373,10 @@ public class XMPPService {
 		PingManager pingManager = PingManager.getInstanceFor(mConnection);
 		XMPPBundleAndDefer.disableBundleAndDefer();
 		try {
-			return pingManager.pingMyServer(false, 1500);
+			final long start = SystemClock.elapsedRealtime();
+			boolean res = pingManager.pingMyServer(false, mLinkEstimator.getFastPingTimeout());
+			if (res) mLinkEstimator.addRttSample(SystemClock.elapsedRealtime() - start);
+			return res;
 		} catch (InterruptedException | NotConnectedException e) {
 			return false;
 		} finally {
@@ -350,19 +409,21 @@ public class XMPPService {
 	}
 
 	private void sendAsMessage(org.projectmaxs.shared.global.Message message,
-			String originIssuerInfo, String originId) {
+			String originIssuerInfo, String originId, String stanzaId, boolean replay) {
 		if (!shouldUseXmppConnection()) {
 			// TODO I think that this could for example happen when the service
 			// is not started but e.g. the SMS receiver get's a new message.
 			LOG.i("sendAsMessage: Not connected, adding message to DB. mConnection=" + mConnection);
 			mMessagesTable.addMessage(message, Constants.ACTION_SEND_AS_MESSAGE, originIssuerInfo,
-					originId);
+					originId, stanzaId);
 			return;
 		}
 
+		MessageRenderer.Rendered rendered = MessageRenderer.render(message);
 		Message packet = new Message();
+		packet.setStanzaId(stanzaId);
 		packet.setType(Message.Type.chat);
-		packet.setBody(TransformMessageContent.toString(message));
+		packet.setBody(rendered.getString());
 		packet.setThread(originId);
 
 		// Add a private carbon extension so that this message wont get carbon copied. MAXS does
@@ -433,6 +494,11 @@ public class XMPPService {
 			toList.add(to);
 		}
 
+		// The message may have already been re-sent from the unacked stanzas database
+		if (replay && mOutgoingDeduplicator.isDuplicate(packet)) {
+			return;
+		}
+
 		boolean atLeastOneSupportsXHTMLIM = false;
 		for (EntityJid jid : toList) {
 			if (!jid.hasResource()) {
@@ -447,18 +513,32 @@ public class XMPPService {
 			if (atLeastOneSupportsXHTMLIM) break;
 		}
 		if (atLeastOneSupportsXHTMLIM)
-			XHTMLIMUtil.addXHTMLIM(packet, TransformMessageContent.toFormatedText(message));
+			XHTMLIMUtil.addXHTMLIM(packet, rendered.getFormatedText());
 
+		boolean sent = false;
 		try {
 			MultipleRecipientManager.send(mConnection, packet, toList, null, null);
+			sent = true;
 		} catch (Exception e) {
 			LOG.e("sendAsMessage: Got Exception, adding message to DB", e);
 			mMessagesTable.addMessage(message, Constants.ACTION_SEND_AS_MESSAGE, originIssuerInfo,
-					originId);
+					originId, stanzaId);
 		}
 
 		// Stop the current bundleAndDefer *after* the message has been sent.
 		XMPPBundleAndDefer.stopCurrentBundleAndDefer();
+
+		final TraceContext trace = message.getTrace();
+		if (trace != null && sent && !replay) {
+			trace.mark("transport.sent");
+			LOG.d("sendAsMessage: trace of command " + message.getId() + " took "
+					+ trace.getTotalMillis() + "ms: " + trace);
+			if (message.getId() != org.projectmaxs.shared.global.Message.NO_ID) {
+				// Main keeps the trace, let it know about the last stage
+				MAXSTransportService.replySent(message.getId(),
+						trace.getTime(trace.getStageCount() - 1));
+			}
+		}
 	}
 
 	private void sendAsIQ(org.projectmaxs.shared.global.Message message, String originIssuerInfo,
@@ -466,7 +546,7 @@ public class XMPPService {
 		// in a not so far future
 	}
 
-	protected void newMessageFromMasterJID(Message message) {
+	protected void newMessageFromMasterJID(Message message, TraceContext trace) {
 		String command = message.getBody();
 		if (command == null) {
 			LOG.e("newMessageFromMasterJID: empty body");
@@ -482,17 +562,9 @@ public class XMPPService {
 		String issuerInfo = message.getFrom().toString();
 		LOG.d("newMessageFromMasterJID: command=" + command + " from=" + issuerInfo);
 
-		Intent intent = new Intent(GlobalConstants.ACTION_PERFORM_COMMAND);
 		CommandOrigin origin = new CommandOrigin(Constants.PACKAGE,
 				Constants.ACTION_SEND_AS_MESSAGE, issuerInfo, null);
-		intent.putExtra(TransportConstants.EXTRA_COMMAND, command);
-		intent.putExtra(TransportConstants.EXTRA_COMMAND_ORIGIN, origin);
-		intent.setClassName(GlobalConstants.MAIN_PACKAGE,
-				TransportConstants.MAIN_TRANSPORT_SERVICE);
-		ComponentName cn = mContext.startService(intent);
-		if (cn == null) {
-			LOG.e("newMessageFromMasterJID: could not start main transport service");
-		}
+		MAXSTransportService.performCommand(mContext, command, origin, trace);
 	}
 
 	private void scheduleReconnect(String optionalReason) {
@@ -724,6 +796,9 @@ public class XMPPService {
 		// possible anyways).
 		connection.setPreferredResumptionTime(5 * 60); // 5 minutes
 
+		// Use the reply timeout matching the latest link estimate, instead of the global default
+		connection.setReplyTimeout(mLinkEstimator.getReplyTimeout());
+
 		// Disable bundle and defer so that the connection and login sequence is fast. :)
 		XMPPBundleAndDefer.disableBundleAndDefer();
 
@@ -792,7 +867,7 @@ public class XMPPService {
 		}
 	}
 
-	private boolean shouldUseXmppConnection() {
+	boolean shouldUseXmppConnection() {
 		if (mConnection == null) {
 			return false;
 		}